@@ -27,11 +27,13 @@ import org.wlf.filedownloader.util.UrlUtil;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * a class to manage and record download files cache
@@ -45,14 +47,44 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
 
     private static final String TAG = DownloadCacher.class.getSimpleName();
 
+    /**
+     * the interval to reconcile the download file status with the file system, 5min
+     */
+    private static final long RECONCILE_INTERVAL = 5 * 60 * 1000;
+
     // db helper
     private DownloadFileDbHelper mDownloadFileDbHelper;
 
     // download files memory cache
     private Map<String, DownloadFileInfo> mDownloadFileInfoMap = new HashMap<String, DownloadFileInfo>();
 
+    // memory cache indexes, modified with mDownloadFileInfoMap in mModifyLock
+    private Map<String, DownloadFileInfo> mSavePathIndex = new HashMap<String, DownloadFileInfo>();// save path
+    private Map<String, DownloadFileInfo> mTempPathIndex = new HashMap<String, DownloadFileInfo>();// temp path
+    private Map<Integer, Set<String>> mStatusIndex = new HashMap<Integer, Set<String>>();// status -> urls
+    private Map<String, Set<String>> mFileDirIndex = new HashMap<String, Set<String>>();// file dir -> urls
+    private Map<String, IndexKeys> mIndexKeysMap = new HashMap<String, IndexKeys>();// url -> keys in indexes
+
     private Object mModifyLock = new Object();// modify lock
 
+    // the urls of the download files whose downloaded size or download segments has not been flushed to database
+    private Set<String> mDirtyDownloadFileUrls = new HashSet<String>();
+    // url -> the downloaded size synced to the storage device, the downloaded size persisted never exceeds it
+    private Map<String, Long> mSyncedDownloadedSizes = new HashMap<String, Long>();
+    // the interval to flush the download progress to database, 0 or less means flush immediately
+    private int mDownloadProgressFlushInterval = FileDownloadConfiguration.Builder
+            .DEFAULT_DOWNLOAD_PROGRESS_FLUSH_INTERVAL;
+    // engine use for flushing the download progress and reconciling the download file status
+    private ScheduledExecutorService mScheduleEngine;
+    // reconcile the download file status
+    private Runnable mReconcileRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reconcileDownloadFileStatusInternal();
+        }
+    };
+    private boolean mIsFlushScheduled;// whether a flush has been scheduled
+
     // download file change observer
     private DownloadFileChangeObserver mDownloadFileChangeObserver;
 
@@ -67,6 +99,8 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
         mDownloadFileDbHelper = new DownloadFileDbHelper(context);
         mDownloadFileChangeObserver = new DownloadFileChangeObserver();
         initDownloadFileInfoMapFromDb();
+        // check the download file status in background
+        reconcileDownloadFileStatus();
     }
 
     /**
@@ -97,24 +131,71 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
                 continue;
             }
             synchronized (mModifyLock) {// lock
-                mDownloadFileInfoMap.put(downloadFileInfo.getUrl(), downloadFileInfo);
+                putInMemoryCache(downloadFileInfo.getUrl(), downloadFileInfo);
+                // the process may be killed before flushing the download progress last time
+                reconcileDownloadedSizeWithTempFile(downloadFileInfo);
             }
         }
     }
 
     /**
-     * check the download file status
+     * reconcile the recorded downloaded size with the temp file, the downloaded size recorded in database may be
+     * behind the temp file(that is safe, the data will be downloaded again), but can not be ahead of the temp file
      */
-    private void checkDownloadFileStatus(DownloadFileInfo downloadFileInfo) {
+    private void reconcileDownloadedSizeWithTempFile(DownloadFileInfo downloadFileInfo) {
+
+        if (DownloadFileUtil.isCompleted(downloadFileInfo) || downloadFileInfo.getDownloadedSizeLong() <= 0) {
+            return;
+        }
+        // the remaining segments and the downloaded size are always flushed together, so they are consistent, and the
+        // temp file of the segment download may be preallocated, only the single connection one is checked by length
+        if (!TextUtils.isEmpty(downloadFileInfo.getDownloadSegments())) {
+            return;
+        }
+
+        String tempFilePath = downloadFileInfo.getTempFilePath();
+        if (!FileUtil.isFilePath(tempFilePath)) {
+            return;
+        }
+        File tempFile = new File(tempFilePath);
+        if (!tempFile.exists()) {
+            return;// the status will be checked by checkDownloadFileStatus
+        }
+
+        long oldDownloadedSize = downloadFileInfo.getDownloadedSizeLong();
+        if (oldDownloadedSize <= tempFile.length()) {
+            return;
+        }
 
-        // FIXME this codes below may case performance problem
+        Log.d(TAG, "reconcileDownloadedSizeWithTempFile，记录的已下载大小：" + oldDownloadedSize + "，超过了临时文件大小：" + 
+                tempFile.length() + "，需要修正，url:" + downloadFileInfo.getUrl());
+
+        downloadFileInfo.setDownloadedSize(tempFile.length());
+        boolean isSucceed = updateDownloadFileInternal(downloadFileInfo, false, Type.DOWNLOADED_SIZE);
+        if (!isSucceed) {
+            // rollback
+            downloadFileInfo.setDownloadedSize(oldDownloadedSize);
+        }
+    }
+
+    /**
+     * check the download file status
+     *
+     * @param downloadFileInfo the download file
+     * @param existFileNames   the names of the files exist in the dir of the download file
+     */
+    private void checkDownloadFileStatus(DownloadFileInfo downloadFileInfo, Set<String> existFileNames) {
 
         try {
             if (!DownloadFileUtil.isLegal(downloadFileInfo) || downloadFileInfo.getDownloadedSizeLong() <= 0) {
                 return;// not need to check
             }
+            // the downloading file is changing by the download task, not need to check
+            if (DownloadFileUtil.isDownloadingStatus(downloadFileInfo)) {
+                return;
+            }
 
-            // check whether file exist
+            // check whether file exist, by the names listed in the dir, only get the length of the exist file
             String saveFilePath = downloadFileInfo.getFilePath();
             String tempFilePath = downloadFileInfo.getTempFilePath();
 
@@ -128,11 +209,14 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
                 tempFile = new File(tempFilePath);
             }
 
+            boolean saveFileExist = saveFile != null && existFileNames.contains(downloadFileInfo.getFileName());
+            boolean tempFileExist = tempFile != null && existFileNames.contains(downloadFileInfo.getTempFileName());
+
             // if the status not exist, may be now available
             if (downloadFileInfo.getStatus() == Status.DOWNLOAD_STATUS_FILE_NOT_EXIST) {
                 boolean handled = false;
                 // try to recovery complete status
-                if (saveFile != null && saveFile.length() == downloadFileInfo.getDownloadedSizeLong() &&
+                if (saveFileExist && saveFile.length() == downloadFileInfo.getDownloadedSizeLong() &&
                         downloadFileInfo.getDownloadedSizeLong() == downloadFileInfo.getFileSizeLong()) {
                     // file completed
                     Log.d(TAG, "checkDownloadFileStatus，文件已下载完，但当前状态为文件不存在，需要更改状态为已下载完成，url:" + downloadFileInfo
@@ -143,8 +227,7 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
 
                 if (!handled) {
                     // try to recovery error status
-                    if ((tempFile != null && tempFile.exists() && tempFile.length() > 0) || (saveFile != null &&
-                            saveFile.exists() && saveFile.length() > 0)) {
+                    if ((tempFileExist && tempFile.length() > 0) || (saveFileExist && saveFile.length() > 0)) {
                         // file error
                         Log.d(TAG, "checkDownloadFileStatus，文件未下载完/下载文件出现问题，但当前状态为文件不存在，需要更改状态为下载出错，url:" + 
                                 downloadFileInfo.getUrl());
@@ -160,11 +243,10 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
                 if (DownloadFileUtil.isCompleted(downloadFileInfo)) {
                     if (saveFile != null) {
                         // save file not exists
-                        if (!saveFile.exists()) {
+                        if (!saveFileExist) {
                             // check whether tempFile size equals total file size
-                            if (tempFile != null && tempFile.exists() && tempFile.length() == downloadFileInfo
-                                    .getDownloadedSizeLong() && downloadFileInfo.getDownloadedSizeLong() == 
-                                    downloadFileInfo.getFileSizeLong()) {
+                            if (tempFileExist && tempFile.length() == downloadFileInfo.getDownloadedSizeLong() && 
+                                    downloadFileInfo.getDownloadedSizeLong() == downloadFileInfo.getFileSizeLong()) {
                                 // however the temp file is finished, so ignore
                                 // FIXME whether need to move tempFile to save file ?
                             } else {
@@ -178,7 +260,7 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
                 }
                 // other status
                 else {
-                    if (tempFile != null && tempFile.exists() && tempFile.length() > 0) {
+                    if (tempFileExist && tempFile.length() > 0) {
                         // temp file exist, so ignore
                     } else {
 
@@ -200,13 +282,88 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
         }
     }
 
+    /**
+     * reconcile the status of all download files with the file system, the dir of the files will be listed once
+     * instead of checking every file, the changes will be notified by DownloadFileChangeObserver
+     */
+    private void reconcileDownloadFileStatusInternal() {
+
+        // get dirs and the urls in the dirs
+        Map<String, List<String>> fileDirs = new HashMap<String, List<String>>();
+        synchronized (mModifyLock) {// lock
+            for (Map.Entry<String, Set<String>> entry : mFileDirIndex.entrySet()) {
+                fileDirs.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+        }
+
+        Log.d(TAG, "reconcileDownloadFileStatusInternal 开始检查文件状态，目录数：" + fileDirs.size());
+
+        for (Map.Entry<String, List<String>> entry : fileDirs.entrySet()) {
+
+            // list the dir once
+            Set<String> existFileNames = new HashSet<String>();
+            String[] fileNames = new File(entry.getKey()).list();
+            if (fileNames != null) {
+                for (String fileName : fileNames) {
+                    existFileNames.add(fileName);
+                }
+            }
+
+            for (String url : entry.getValue()) {
+                DownloadFileInfo downloadFileInfo = null;
+                synchronized (mModifyLock) {// lock
+                    downloadFileInfo = mDownloadFileInfoMap.get(url);
+                }
+                if (downloadFileInfo == null) {
+                    continue;
+                }
+                checkDownloadFileStatus(downloadFileInfo, existFileNames);
+            }
+        }
+    }
+
+    /**
+     * reconcile the status of all download files with the file system in background
+     */
+    public void reconcileDownloadFileStatus() {
+        synchronized (mModifyLock) {// lock
+            try {
+                getScheduleEngine().execute(mReconcileRunnable);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * get the engine use for flushing the download progress and reconciling the download file status, call in
+     * mModifyLock
+     */
+    private ScheduledExecutorService getScheduleEngine() {
+        if (mScheduleEngine == null) {
+            mScheduleEngine = Executors.newSingleThreadScheduledExecutor();
+            // reconcile the download file status by the interval
+            mScheduleEngine.scheduleWithFixedDelay(mReconcileRunnable, RECONCILE_INTERVAL, RECONCILE_INTERVAL, 
+                    TimeUnit.MILLISECONDS);
+        }
+        return mScheduleEngine;
+    }
+
     /**
      * release the cacher
      */
     public void release() {
+        // flush the download progress before release
+        flushDownloadProgress();
         synchronized (mModifyLock) {// lock
+            if (mScheduleEngine != null) {
+                mScheduleEngine.shutdown();
+                mScheduleEngine = null;
+            }
+            mIsFlushScheduled = false;
             // free memory cache
             mDownloadFileInfoMap.clear();
+            clearIndexes();
             mDownloadFileChangeObserver.release();
             // close the database
             if (mDownloadFileDbHelper != null) {
@@ -215,6 +372,246 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
         }
     }
 
+    /**
+     * set the interval to flush the download progress to database
+     *
+     * @param downloadProgressFlushInterval the interval, millisecond, 0 or less means flush immediately
+     */
+    void setDownloadProgressFlushInterval(int downloadProgressFlushInterval) {
+        mDownloadProgressFlushInterval = downloadProgressFlushInterval;
+        if (mDownloadProgressFlushInterval <= 0) {
+            flushDownloadProgress();
+        }
+    }
+
+    // --------------------------------------download progress journal--------------------------------------
+
+    /**
+     * whether the download progress need to be written to database immediately
+     */
+    private boolean isWriteThrough() {
+        return mDownloadProgressFlushInterval <= 0;
+    }
+
+    /**
+     * mark the download progress of a download file has been changed in memory only, it will be flushed later
+     */
+    private void markDownloadProgressDirty(String url) {
+        synchronized (mModifyLock) {// lock
+            mDirtyDownloadFileUrls.add(url);
+            if (mIsFlushScheduled) {
+                return;
+            }
+            try {
+                getScheduleEngine().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushDownloadProgress();
+                    }
+                }, mDownloadProgressFlushInterval, TimeUnit.MILLISECONDS);
+                mIsFlushScheduled = true;
+            } catch (Exception e) {
+                e.printStackTrace();
+                // can not schedule, flush now
+                flushDownloadProgress();
+            }
+        }
+    }
+
+    /**
+     * flush all the download progresses(downloaded size and download segments) changed in memory to database in
+     * one transaction
+     */
+    void flushDownloadProgress() {
+        synchronized (mModifyLock) {// lock
+
+            mIsFlushScheduled = false;
+
+            if (mDirtyDownloadFileUrls.isEmpty()) {
+                return;
+            }
+
+            ContentDbDao dao = mDownloadFileDbHelper.getContentDbDao(DownloadFileInfo.Table
+                    .TABLE_NAME_OF_DOWNLOAD_FILE);
+            if (dao == null) {
+                return;
+            }
+
+            List<ContentValues> valuesList = new ArrayList<ContentValues>();
+            List<String[]> selectionArgsList = new ArrayList<String[]>();
+
+            for (String url : mDirtyDownloadFileUrls) {
+                DownloadFileInfo downloadFileInfo = mDownloadFileInfoMap.get(url);
+                if (!DownloadFileUtil.isLegal(downloadFileInfo)) {
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                values.put(Table.COLUMN_NAME_OF_FIELD_DOWNLOADED_SIZE, downloadFileInfo.getDownloadedSizeLong());
+                values.put(Table.COLUMN_NAME_OF_FIELD_DOWNLOAD_SEGMENTS, downloadFileInfo.getDownloadSegments());
+                limitDownloadedSizeToSynced(url, values);
+                valuesList.add(values);
+                selectionArgsList.add(new String[]{downloadFileInfo.getId() + ""});
+            }
+
+            int result = dao.updateInTransaction(valuesList, Table.COLUMN_NAME_OF_FIELD_ID + "= ?", 
+                    selectionArgsList);
+            if (result != -1) {
+                // succeed
+                mDirtyDownloadFileUrls.clear();
+            } else {
+                Log.e(TAG, "flushDownloadProgress 保存下载进度失败，数量：" + valuesList.size());
+            }
+        }
+    }
+
+    /**
+     * the downloaded size persisted can not exceed the synced size, the data not synced may be lost
+     */
+    private void limitDownloadedSizeToSynced(String url, ContentValues values) {
+        synchronized (mModifyLock) {// lock
+            Long syncedSize = mSyncedDownloadedSizes.get(url);
+            Long downloadedSize = values.getAsLong(Table.COLUMN_NAME_OF_FIELD_DOWNLOADED_SIZE);
+            if (syncedSize != null && downloadedSize != null && downloadedSize > syncedSize) {
+                values.put(Table.COLUMN_NAME_OF_FIELD_DOWNLOADED_SIZE, syncedSize);
+            }
+        }
+    }
+
+    // --------------------------------------memory cache indexes--------------------------------------
+
+    /**
+     * the keys of a DownloadFile in the indexes, use for removing the old keys when the DownloadFile changed
+     */
+    private static class IndexKeys {
+        private String mSavePath;
+        private String mTempPath;
+        private int mStatus;
+        private String mFileDir;
+
+        private IndexKeys(DownloadFileInfo downloadFileInfo) {
+            mSavePath = downloadFileInfo.getFilePath();
+            mTempPath = downloadFileInfo.getTempFilePath();
+            mStatus = downloadFileInfo.getStatus();
+            mFileDir = downloadFileInfo.getFileDir();
+        }
+    }
+
+    /**
+     * put a DownloadFile to memory cache and indexes, call in mModifyLock
+     */
+    private void putInMemoryCache(String url, DownloadFileInfo downloadFileInfo) {
+        mDownloadFileInfoMap.put(url, downloadFileInfo);
+        updateIndexes(downloadFileInfo);
+    }
+
+    /**
+     * remove a DownloadFile from memory cache and indexes, call in mModifyLock
+     */
+    private void removeFromMemoryCache(String url) {
+        mDownloadFileInfoMap.remove(url);
+        mDirtyDownloadFileUrls.remove(url);
+        mSyncedDownloadedSizes.remove(url);
+        removeIndexes(url);
+    }
+
+    /**
+     * update the indexes of a DownloadFile in memory cache, call in mModifyLock after it changed
+     */
+    private void updateIndexes(DownloadFileInfo downloadFileInfo) {
+        if (!DownloadFileUtil.isLegal(downloadFileInfo)) {
+            return;
+        }
+        String url = downloadFileInfo.getUrl();
+        // remove old keys
+        removeIndexes(url);
+        // add new keys
+        IndexKeys indexKeys = new IndexKeys(downloadFileInfo);
+        if (!TextUtils.isEmpty(indexKeys.mSavePath)) {
+            mSavePathIndex.put(indexKeys.mSavePath, downloadFileInfo);
+        }
+        if (!TextUtils.isEmpty(indexKeys.mTempPath)) {
+            mTempPathIndex.put(indexKeys.mTempPath, downloadFileInfo);
+        }
+        addToIndex(mStatusIndex, indexKeys.mStatus, url);
+        if (!TextUtils.isEmpty(indexKeys.mFileDir)) {
+            addToIndex(mFileDirIndex, indexKeys.mFileDir, url);
+        }
+        mIndexKeysMap.put(url, indexKeys);
+    }
+
+    /**
+     * remove the indexes of a DownloadFile, call in mModifyLock
+     */
+    private void removeIndexes(String url) {
+        IndexKeys indexKeys = mIndexKeysMap.remove(url);
+        if (indexKeys == null) {
+            return;
+        }
+        // another DownloadFile may use the same path, only remove the one of this url
+        DownloadFileInfo downloadFileInfo = mSavePathIndex.get(indexKeys.mSavePath);
+        if (downloadFileInfo != null && url.equals(downloadFileInfo.getUrl())) {
+            mSavePathIndex.remove(indexKeys.mSavePath);
+        }
+        downloadFileInfo = mTempPathIndex.get(indexKeys.mTempPath);
+        if (downloadFileInfo != null && url.equals(downloadFileInfo.getUrl())) {
+            mTempPathIndex.remove(indexKeys.mTempPath);
+        }
+        removeFromIndex(mStatusIndex, indexKeys.mStatus, url);
+        removeFromIndex(mFileDirIndex, indexKeys.mFileDir, url);
+    }
+
+    /**
+     * clear all indexes, call in mModifyLock
+     */
+    private void clearIndexes() {
+        mSavePathIndex.clear();
+        mTempPathIndex.clear();
+        mStatusIndex.clear();
+        mFileDirIndex.clear();
+        mIndexKeysMap.clear();
+    }
+
+    private static <K> void addToIndex(Map<K, Set<String>> index, K key, String url) {
+        Set<String> urls = index.get(key);
+        if (urls == null) {
+            urls = new HashSet<String>();
+            index.put(key, urls);
+        }
+        urls.add(url);
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<String>> index, K key, String url) {
+        if (key == null) {
+            return;
+        }
+        Set<String> urls = index.get(key);
+        if (urls == null) {
+            return;
+        }
+        urls.remove(url);
+        if (urls.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * get the DownloadFiles of the urls in an index
+     */
+    private List<DownloadFileInfo> getDownloadFilesInIndex(Set<String> urls) {
+        List<DownloadFileInfo> downloadFileInfos = new ArrayList<DownloadFileInfo>();
+        if (CollectionUtil.isEmpty(urls)) {
+            return downloadFileInfos;
+        }
+        for (String url : urls) {
+            DownloadFileInfo downloadFileInfo = mDownloadFileInfoMap.get(url);
+            if (downloadFileInfo == null) {
+                continue;
+            }
+            downloadFileInfos.add(downloadFileInfo);
+        }
+        return downloadFileInfos;
+    }
+
     // --------------------------------------register & unregister listeners--------------------------------------
 
     /**
@@ -343,7 +740,7 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
             if (id != -1) {
                 // succeed, update memory cache
                 downloadFileInfo.setId(new Integer((int) id));
-                mDownloadFileInfoMap.put(url, downloadFileInfo);
+                putInMemoryCache(url, downloadFileInfo);
                 // notify caller
                 notifyDownloadFileCreated(downloadFileInfo);
                 return true;
@@ -374,17 +771,22 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
 
         String url = downloadFileInfo.getUrl();
 
+        limitDownloadedSizeToSynced(url, values);
+
         if (lockInternal) {// need internal lock
             synchronized (mModifyLock) {// lock
                 int result = dao.update(values, DownloadFileInfo.Table.COLUMN_NAME_OF_FIELD_ID + "= ?", new 
                         String[]{downloadFileInfo.getId() + ""});
                 if (result == 1) {
+                    // the whole row has been written, include the download progress
+                    mDirtyDownloadFileUrls.remove(url);
                     // succeed, update memory cache
                     if (mDownloadFileInfoMap.containsKey(url)) {
                         DownloadFileInfo downloadFileInfoInMap = mDownloadFileInfoMap.get(url);
                         downloadFileInfoInMap.update(downloadFileInfo);
+                        updateIndexes(downloadFileInfoInMap);
                     } else {
-                        mDownloadFileInfoMap.put(url, downloadFileInfo);
+                        putInMemoryCache(url, downloadFileInfo);
                     }
                     // notify caller
                     notifyDownloadFileUpdated(downloadFileInfo, notifyType);
@@ -395,12 +797,15 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
             int result = dao.update(values, DownloadFileInfo.Table.COLUMN_NAME_OF_FIELD_ID + "= ?", new 
                     String[]{downloadFileInfo.getId() + ""});
             if (result == 1) {
+                // the whole row has been written, include the download progress
+                mDirtyDownloadFileUrls.remove(url);
                 // succeed,update memory cache
                 if (mDownloadFileInfoMap.containsKey(url)) {
                     DownloadFileInfo downloadFileInfoInMap = mDownloadFileInfoMap.get(url);
                     downloadFileInfoInMap.update(downloadFileInfo);
+                    updateIndexes(downloadFileInfoInMap);
                 } else {
-                    mDownloadFileInfoMap.put(url, downloadFileInfo);
+                    putInMemoryCache(url, downloadFileInfo);
                 }
                 // notify caller
                 notifyDownloadFileUpdated(downloadFileInfo, notifyType);
@@ -449,7 +854,7 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
                     String[]{downloadFileInfo.getId() + ""});
             if (result == 1) {
                 // succeed,update memory cache
-                mDownloadFileInfoMap.remove(url);
+                removeFromMemoryCache(url);
                 // notify caller
                 notifyDownloadFileDeleted(downloadFileInfo);
                 return true;
@@ -458,7 +863,7 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
                 result = dao.delete(Table.COLUMN_NAME_OF_FIELD_URL + "= ?", new String[]{url + ""});
                 if (result == 1) {
                     // succeed, update memory cache
-                    mDownloadFileInfoMap.remove(url);
+                    removeFromMemoryCache(url);
                     // notify caller
                     notifyDownloadFileDeleted(downloadFileInfo);
                     return true;
@@ -478,37 +883,26 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
      *                            by savePath
      * @return DownloadFile
      */
+    @Override
     public DownloadFileInfo getDownloadFileBySavePath(String savePath, boolean includeTempFilePath) {
 
-        // FIXME this codes below may case performance problem
-
         if (!FileUtil.isFilePath(savePath)) {
             return null;
         }
 
         DownloadFileInfo downloadFileInfo = null;
 
-        // look up the memory cache
-        Set<Entry<String, DownloadFileInfo>> set = mDownloadFileInfoMap.entrySet();
-        Iterator<Entry<String, DownloadFileInfo>> iterator = set.iterator();
-        while (iterator.hasNext()) {
-            Entry<String, DownloadFileInfo> entry = iterator.next();
-            if (entry == null) {
-                continue;
-            }
-            DownloadFileInfo info = entry.getValue();
-            if (info == null) {
-                continue;
-            }
-            String filePath = info.getFilePath();
-            if (TextUtils.isEmpty(filePath)) {
-                continue;
+        // look up the memory cache indexes
+        synchronized (mModifyLock) {// lock
+            downloadFileInfo = mSavePathIndex.get(savePath);
+            if (downloadFileInfo == null && includeTempFilePath) {
+                downloadFileInfo = mTempPathIndex.get(savePath);
             }
+        }
 
-            if (filePath.equals(savePath)) {
-                downloadFileInfo = info;// find in memory cache
-                break;
-            }
+        // the memory cache has all DownloadFiles once it has been initialized from database
+        if (downloadFileInfo == null && !MapUtil.isEmpty(mDownloadFileInfoMap)) {
+            return null;
         }
 
         // find in memory cache
@@ -565,14 +959,12 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
             if (UrlUtil.isUrl(url)) {
                 synchronized (mModifyLock) {// lock
                     // cache in memory
-                    mDownloadFileInfoMap.put(url, downloadFileInfo);
+                    putInMemoryCache(url, downloadFileInfo);
                     downloadFileInfo = mDownloadFileInfoMap.get(url);
                 }
             }
         }
 
-        checkDownloadFileStatus(downloadFileInfo);
-
         return downloadFileInfo;
     }
 
@@ -645,14 +1037,12 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
             if (UrlUtil.isUrl(downloadUrl)) {
                 synchronized (mModifyLock) {// lock
                     // cache in memory
-                    mDownloadFileInfoMap.put(downloadUrl, downloadFileInfo);
+                    putInMemoryCache(downloadUrl, downloadFileInfo);
                     downloadFileInfo = mDownloadFileInfoMap.get(url);
                 }
             }
         }
 
-        checkDownloadFileStatus(downloadFileInfo);
-
         return downloadFileInfo;
     }
 
@@ -666,21 +1056,38 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
 
         // if this time the memory cache is not empty,return the cache
         if (!MapUtil.isEmpty(mDownloadFileInfoMap)) {
-            List<DownloadFileInfo> downloadFileInfos = new ArrayList<DownloadFileInfo>(mDownloadFileInfoMap.values());
-
-            // check status
-            if (!CollectionUtil.isEmpty(downloadFileInfos)) {
-                for (DownloadFileInfo downloadFileInfo : downloadFileInfos) {
-                    checkDownloadFileStatus(downloadFileInfo);
-                }
-            }
-            return downloadFileInfos;
+            // return the cached state only, the status is reconciled with the file system in background
+            return new ArrayList<DownloadFileInfo>(mDownloadFileInfoMap.values());
         }
 
         // otherwise return empty list
         return new ArrayList<DownloadFileInfo>();
     }
 
+    /**
+     * get DownloadFiles by status
+     *
+     * @param status download status, ref{@link Status}
+     * @return DownloadFiles with the status
+     */
+    public List<DownloadFileInfo> getDownloadFilesByStatus(int status) {
+        synchronized (mModifyLock) {// lock
+            return getDownloadFilesInIndex(mStatusIndex.get(status));
+        }
+    }
+
+    /**
+     * get DownloadFiles by file dir
+     *
+     * @param fileDir the dir of the files saved in
+     * @return DownloadFiles saved in the dir
+     */
+    public List<DownloadFileInfo> getDownloadFilesByFileDir(String fileDir) {
+        synchronized (mModifyLock) {// lock
+            return getDownloadFilesInIndex(mFileDirIndex.get(fileDir));
+        }
+    }
+
     @Override
     public DownloadFileInfo createDownloadFileInfo(DetectUrlFileInfo detectUrlFileInfo) {
         if (!DownloadFileUtil.isLegal(detectUrlFileInfo)) {
@@ -731,6 +1138,16 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
             if (changeCount > 1) {
                 type = Type.OTHER;
             }
+
+            // only the downloaded size changed, record in memory and flush to database later
+            if (!isStatusChange && !isWriteThrough()) {
+                markDownloadProgressDirty(url);
+                // notify caller
+                notifyDownloadFileUpdated(downloadFileInfo, type);
+                return;
+            }
+
+            // the status changed, write the whole row(include the downloaded size in memory) to database now
             boolean isSucceed = updateDownloadFileInternal(downloadFileInfo, false, type);
             if (!isSucceed) {
                 downloadFileInfo.setStatus(oldStatus);
@@ -751,11 +1168,15 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
         if (!deleteMode) {
             synchronized (mModifyLock) {// lock
                 long oldDownloadedSize = downloadFileInfo.getDownloadedSizeLong();
+                String oldDownloadSegments = downloadFileInfo.getDownloadSegments();
                 downloadFileInfo.setDownloadedSize(0);// reset download size
+                downloadFileInfo.setDownloadSegments(null);// reset download segments
+                mSyncedDownloadedSizes.remove(url);
                 boolean isSucceed = updateDownloadFileInternal(downloadFileInfo, false, Type.DOWNLOADED_SIZE);
                 if (!isSucceed) {
                     // rollback
                     downloadFileInfo.setDownloadedSize(oldDownloadedSize);
+                    downloadFileInfo.setDownloadSegments(oldDownloadSegments);
                     throw new Exception("reset failed !");
                 }
             }
@@ -779,6 +1200,11 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
         synchronized (mModifyLock) {// lock
             long oldDownloadedSize = downloadFileInfo.getDownloadedSizeLong();
             downloadFileInfo.setDownloadedSize(downloadSize);// reset download size with the new download size
+            // the data after the new download size will be downloaded again
+            Long syncedSize = mSyncedDownloadedSizes.get(url);
+            if (syncedSize != null && syncedSize > downloadSize) {
+                mSyncedDownloadedSizes.put(url, downloadSize);
+            }
             boolean isSucceed = updateDownloadFileInternal(downloadFileInfo, false, Type.DOWNLOADED_SIZE);
             if (!isSucceed) {
                 // rollback
@@ -788,6 +1214,42 @@ public class DownloadCacher implements DownloadRecorder, DownloadFileMover, Down
         }
     }
 
+    @Override
+    public void recordDownloadSegments(String url, String downloadSegments) throws Exception {
+        DownloadFileInfo downloadFileInfo = getDownloadFile(url);
+        if (!DownloadFileUtil.isLegal(downloadFileInfo)) {
+            return;
+        }
+
+        synchronized (mModifyLock) {// lock
+            String oldDownloadSegments = downloadFileInfo.getDownloadSegments();
+            if (TextUtils.equals(oldDownloadSegments, downloadSegments)) {
+                return;
+            }
+            downloadFileInfo.setDownloadSegments(downloadSegments);
+
+            // record in memory and flush to database with the downloaded size later
+            if (!isWriteThrough()) {
+                markDownloadProgressDirty(url);
+                return;
+            }
+
+            boolean isSucceed = updateDownloadFileInternal(downloadFileInfo, false, Type.OTHER);
+            if (!isSucceed) {
+                // rollback
+                downloadFileInfo.setDownloadSegments(oldDownloadSegments);
+                throw new Exception("record download segments failed !");
+            }
+        }
+    }
+
+    @Override
+    public void recordSyncedDownloadedSize(String url, long syncedSize) {
+        synchronized (mModifyLock) {// lock
+            mSyncedDownloadedSizes.put(url, syncedSize);
+        }
+    }
+
     @Override
     public void moveDownloadFile(String url, String newDirPath) throws Exception {
         DownloadFileInfo downloadFileInfo = getDownloadFile(url);
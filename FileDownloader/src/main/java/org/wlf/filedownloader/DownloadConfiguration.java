@@ -62,6 +62,30 @@ public class DownloadConfiguration {
             super.configRequestMethod(requestMethod);
             return this;
         }
+
+        @Override
+        public Builder configDownloadSegmentCount(int downloadSegmentCount) {
+            super.configDownloadSegmentCount(downloadSegmentCount);
+            return this;
+        }
+
+        @Override
+        public Builder configDownloadPriority(int downloadPriority) {
+            super.configDownloadPriority(downloadPriority);
+            return this;
+        }
+
+        @Override
+        public Builder configBandwidthWeight(int bandwidthWeight) {
+            super.configBandwidthWeight(bandwidthWeight);
+            return this;
+        }
+
+        @Override
+        public Builder configAcceptEncoding(boolean acceptEncoding) {
+            super.configAcceptEncoding(acceptEncoding);
+            return this;
+        }
     }
 
     /**
@@ -105,6 +129,30 @@ public class DownloadConfiguration {
             return this;
         }
 
+        @Override
+        public MultiBuilder configDownloadSegmentCount(int downloadSegmentCount) {
+            super.configDownloadSegmentCount(downloadSegmentCount);
+            return this;
+        }
+
+        @Override
+        public MultiBuilder configDownloadPriority(int downloadPriority) {
+            super.configDownloadPriority(downloadPriority);
+            return this;
+        }
+
+        @Override
+        public MultiBuilder configBandwidthWeight(int bandwidthWeight) {
+            super.configBandwidthWeight(bandwidthWeight);
+            return this;
+        }
+
+        @Override
+        public MultiBuilder configAcceptEncoding(boolean acceptEncoding) {
+            super.configAcceptEncoding(acceptEncoding);
+            return this;
+        }
+
         // ------------multi------------
 
         @Override
@@ -142,6 +190,30 @@ public class DownloadConfiguration {
             super.configRequestMethodWithUrl(url, requestMethod);
             return this;
         }
+
+        @Override
+        public MultiBuilder configDownloadSegmentCountWithUrl(String url, int downloadSegmentCount) {
+            super.configDownloadSegmentCountWithUrl(url, downloadSegmentCount);
+            return this;
+        }
+
+        @Override
+        public MultiBuilder configDownloadPriorityWithUrl(String url, int downloadPriority) {
+            super.configDownloadPriorityWithUrl(url, downloadPriority);
+            return this;
+        }
+
+        @Override
+        public MultiBuilder configBandwidthWeightWithUrl(String url, int bandwidthWeight) {
+            super.configBandwidthWeightWithUrl(url, bandwidthWeight);
+            return this;
+        }
+
+        @Override
+        public MultiBuilder configAcceptEncodingWithUrl(String url, boolean acceptEncoding) {
+            super.configAcceptEncodingWithUrl(url, acceptEncoding);
+            return this;
+        }
     }
 
     /**
@@ -169,6 +241,26 @@ public class DownloadConfiguration {
          */
         private Map<String, String> mRequestMethod = new HashMap<String, String>();
 
+        /**
+         * all download segment count of urls
+         */
+        private Map<String, Integer> mDownloadSegmentCount = new HashMap<String, Integer>();
+
+        /**
+         * all download priority of urls
+         */
+        private Map<String, Integer> mDownloadPriority = new HashMap<String, Integer>();
+
+        /**
+         * all bandwidth weight of urls
+         */
+        private Map<String, Integer> mBandwidthWeight = new HashMap<String, Integer>();
+
+        /**
+         * all accept encoding of urls
+         */
+        private Map<String, Boolean> mAcceptEncoding = new HashMap<String, Boolean>();
+
         /**
          * add the custom header for download
          *
@@ -364,6 +456,136 @@ public class DownloadConfiguration {
             return this;
         }
 
+        @Override
+        public InnerBuilder configDownloadSegmentCount(int downloadSegmentCount) {
+            String url = NULL_KEY_FOR_URL;
+            configDownloadSegmentCountWithUrl(url, downloadSegmentCount);
+            return this;
+        }
+
+        /**
+         * config download segment count
+         *
+         * @param url                  file url
+         * @param downloadSegmentCount please set 1 to {@link #MAX_DOWNLOAD_SEGMENT_COUNT}, if not set, default is
+         *                             {@link #DEFAULT_DOWNLOAD_SEGMENT_COUNT}, set 1 means not segment download
+         * @return the builder
+         */
+        protected InnerBuilder configDownloadSegmentCountWithUrl(String url, int downloadSegmentCount) {
+            if (UrlUtil.isUrl(url)) {
+                if (downloadSegmentCount >= 1 && downloadSegmentCount <= MAX_DOWNLOAD_SEGMENT_COUNT) {
+                    mDownloadSegmentCount.put(url, downloadSegmentCount);
+                } else if (downloadSegmentCount > MAX_DOWNLOAD_SEGMENT_COUNT) {
+                    mDownloadSegmentCount.put(url, MAX_DOWNLOAD_SEGMENT_COUNT);
+                } else if (downloadSegmentCount < 1) {
+                    mDownloadSegmentCount.put(url, 1);
+                } else {
+                    Log.i(TAG, "configDownloadSegmentCount 配置分段下载数量失败，downloadSegmentCount：" + 
+                            downloadSegmentCount);
+                }
+            } else {
+                Log.i(TAG, "configDownloadSegmentCount 配置分段下载数量失败，downloadSegmentCount：" + downloadSegmentCount);
+            }
+            return this;
+        }
+
+        @Override
+        public InnerBuilder configDownloadPriority(int downloadPriority) {
+            String url = NULL_KEY_FOR_URL;
+            configDownloadPriorityWithUrl(url, downloadPriority);
+            return this;
+        }
+
+        /**
+         * config download priority
+         *
+         * @param url              file url
+         * @param downloadPriority please set {@link #MIN_DOWNLOAD_PRIORITY} to {@link #MAX_DOWNLOAD_PRIORITY}, if
+         *                         not set, default is {@link #DEFAULT_DOWNLOAD_PRIORITY}
+         * @return the builder
+         */
+        protected InnerBuilder configDownloadPriorityWithUrl(String url, int downloadPriority) {
+            if (UrlUtil.isUrl(url)) {
+                if (downloadPriority >= MIN_DOWNLOAD_PRIORITY && downloadPriority <= MAX_DOWNLOAD_PRIORITY) {
+                    mDownloadPriority.put(url, downloadPriority);
+                } else if (downloadPriority > MAX_DOWNLOAD_PRIORITY) {
+                    mDownloadPriority.put(url, MAX_DOWNLOAD_PRIORITY);
+                } else if (downloadPriority < MIN_DOWNLOAD_PRIORITY) {
+                    mDownloadPriority.put(url, MIN_DOWNLOAD_PRIORITY);
+                } else {
+                    Log.i(TAG, "configDownloadPriority 配置下载优先级失败，downloadPriority：" + downloadPriority);
+                }
+            } else {
+                Log.i(TAG, "configDownloadPriority 配置下载优先级失败，downloadPriority：" + downloadPriority);
+            }
+            return this;
+        }
+
+        @Override
+        public InnerBuilder configBandwidthWeight(int bandwidthWeight) {
+            String url = NULL_KEY_FOR_URL;
+            configBandwidthWeightWithUrl(url, bandwidthWeight);
+            return this;
+        }
+
+        /**
+         * config bandwidth weight
+         *
+         * @param url             file url
+         * @param bandwidthWeight please set {@link #MIN_BANDWIDTH_WEIGHT} to {@link #MAX_BANDWIDTH_WEIGHT}, if not
+         *                        set, default is {@link #DEFAULT_BANDWIDTH_WEIGHT}
+         * @return the builder
+         */
+        protected InnerBuilder configBandwidthWeightWithUrl(String url, int bandwidthWeight) {
+            if (UrlUtil.isUrl(url)) {
+                if (bandwidthWeight >= MIN_BANDWIDTH_WEIGHT && bandwidthWeight <= MAX_BANDWIDTH_WEIGHT) {
+                    mBandwidthWeight.put(url, bandwidthWeight);
+                } else if (bandwidthWeight > MAX_BANDWIDTH_WEIGHT) {
+                    mBandwidthWeight.put(url, MAX_BANDWIDTH_WEIGHT);
+                } else if (bandwidthWeight < MIN_BANDWIDTH_WEIGHT) {
+                    mBandwidthWeight.put(url, MIN_BANDWIDTH_WEIGHT);
+                } else {
+                    Log.i(TAG, "configBandwidthWeight 配置带宽权重失败，bandwidthWeight：" + bandwidthWeight);
+                }
+            } else {
+                Log.i(TAG, "configBandwidthWeight 配置带宽权重失败，bandwidthWeight：" + bandwidthWeight);
+            }
+            return this;
+        }
+
+        /**
+         * config whether accept the gzip and deflate encoded response, the compressible files such as json and text
+         * are transferred in much less bytes, and they are decoded while saving
+         * <p/>
+         * only the download from the beginning asks for the encoded response, the offset in the encoded data can not
+         * be mapped to the saved data, so a paused or failed download resumes from the saved size by the range
+         * request of the identity data, and restarts from the beginning if the server does not support range
+         *
+         * @param acceptEncoding true means accept, if not set, default is false
+         * @return the builder
+         */
+        protected InnerBuilder configAcceptEncoding(boolean acceptEncoding) {
+            String url = NULL_KEY_FOR_URL;
+            configAcceptEncodingWithUrl(url, acceptEncoding);
+            return this;
+        }
+
+        /**
+         * config whether accept the gzip and deflate encoded response
+         *
+         * @param url            file url
+         * @param acceptEncoding true means accept, if not set, default is false
+         * @return the builder
+         */
+        protected InnerBuilder configAcceptEncodingWithUrl(String url, boolean acceptEncoding) {
+            if (!TextUtils.isEmpty(url)) {
+                mAcceptEncoding.put(url, acceptEncoding);
+            } else {
+                Log.i(TAG, "configAcceptEncodingWithUrl 配置压缩传输失败，url：" + url);
+            }
+            return this;
+        }
+
         /**
          * build DownloadConfiguration
          *
@@ -494,6 +716,98 @@ public class DownloadConfiguration {
             }
         }
 
+        // init download segment count
+        if (mBuilder.mDownloadSegmentCount != null) {
+            int existUrlDownloadSegmentCount = getDownloadSegmentCount(url);
+            int downloadSegmentCount = getDownloadSegmentCount(NULL_KEY_FOR_URL);
+            // replace
+            if (replaceExistWithNullValue) {
+                // exist, replace
+                if (existUrlDownloadSegmentCount != InnerBuilder.DEFAULT_DOWNLOAD_SEGMENT_COUNT) {
+                    mBuilder.mDownloadSegmentCount.remove(url);
+                    mBuilder.mDownloadSegmentCount.put(url, downloadSegmentCount);
+                }
+                // add only
+                else {
+                    if (!mBuilder.mDownloadSegmentCount.containsKey(url)) {
+                        mBuilder.mDownloadSegmentCount.put(url, downloadSegmentCount);
+                    }
+                }
+            } else {
+                // add only
+                if (!mBuilder.mDownloadSegmentCount.containsKey(url)) {
+                    mBuilder.mDownloadSegmentCount.put(url, downloadSegmentCount);
+                }
+            }
+        }
+
+        // init download priority
+        if (mBuilder.mDownloadPriority != null) {
+            int existUrlDownloadPriority = getDownloadPriority(url);
+            int downloadPriority = getDownloadPriority(NULL_KEY_FOR_URL);
+            // replace
+            if (replaceExistWithNullValue) {
+                // exist, replace
+                if (existUrlDownloadPriority != InnerBuilder.DEFAULT_DOWNLOAD_PRIORITY) {
+                    mBuilder.mDownloadPriority.remove(url);
+                    mBuilder.mDownloadPriority.put(url, downloadPriority);
+                }
+                // add only
+                else {
+                    if (!mBuilder.mDownloadPriority.containsKey(url)) {
+                        mBuilder.mDownloadPriority.put(url, downloadPriority);
+                    }
+                }
+            } else {
+                // add only
+                if (!mBuilder.mDownloadPriority.containsKey(url)) {
+                    mBuilder.mDownloadPriority.put(url, downloadPriority);
+                }
+            }
+        }
+
+        // init bandwidth weight
+        if (mBuilder.mBandwidthWeight != null) {
+            int existUrlBandwidthWeight = getBandwidthWeight(url);
+            int bandwidthWeight = getBandwidthWeight(NULL_KEY_FOR_URL);
+            // replace
+            if (replaceExistWithNullValue) {
+                // exist, replace
+                if (existUrlBandwidthWeight != InnerBuilder.DEFAULT_BANDWIDTH_WEIGHT) {
+                    mBuilder.mBandwidthWeight.remove(url);
+                    mBuilder.mBandwidthWeight.put(url, bandwidthWeight);
+                }
+                // add only
+                else {
+                    if (!mBuilder.mBandwidthWeight.containsKey(url)) {
+                        mBuilder.mBandwidthWeight.put(url, bandwidthWeight);
+                    }
+                }
+            } else {
+                // add only
+                if (!mBuilder.mBandwidthWeight.containsKey(url)) {
+                    mBuilder.mBandwidthWeight.put(url, bandwidthWeight);
+                }
+            }
+        }
+
+        // init accept encoding
+        if (mBuilder.mAcceptEncoding != null) {
+            Boolean acceptEncoding = mBuilder.mAcceptEncoding.get(NULL_KEY_FOR_URL);
+            if (acceptEncoding != null) {
+                // replace
+                if (replaceExistWithNullValue) {
+                    mBuilder.mAcceptEncoding.remove(url);
+                    mBuilder.mAcceptEncoding.put(url, acceptEncoding);
+                } else {
+                    // add only
+                    if (!mBuilder.mAcceptEncoding.containsKey(url)) {
+                        mBuilder.mAcceptEncoding.put(url, acceptEncoding);
+                    }
+                }
+            }
+        }
+
         // init request method
         if (mBuilder.mRequestMethod != null) {
             String existUrlRequestMethod = getRequestMethod(url);
@@ -591,6 +905,78 @@ public class DownloadConfiguration {
         return connectTimeout;
     }
 
+    /**
+     * get download segment count
+     *
+     * @param url file url
+     * @return download segment count
+     */
+    public int getDownloadSegmentCount(String url) {
+        if (!UrlUtil.isUrl(url) || mBuilder == null || mBuilder.mDownloadSegmentCount == null) {
+            return InnerBuilder.DEFAULT_DOWNLOAD_SEGMENT_COUNT;
+        }
+
+        Integer downloadSegmentCount = mBuilder.mDownloadSegmentCount.get(url);
+        if (downloadSegmentCount == null) {
+            return InnerBuilder.DEFAULT_DOWNLOAD_SEGMENT_COUNT;
+        }
+        return downloadSegmentCount;
+    }
+
+    /**
+     * get download priority
+     *
+     * @param url file url
+     * @return download priority
+     */
+    public int getDownloadPriority(String url) {
+        if (!UrlUtil.isUrl(url) || mBuilder == null || mBuilder.mDownloadPriority == null) {
+            return InnerBuilder.DEFAULT_DOWNLOAD_PRIORITY;
+        }
+
+        Integer downloadPriority = mBuilder.mDownloadPriority.get(url);
+        if (downloadPriority == null) {
+            return InnerBuilder.DEFAULT_DOWNLOAD_PRIORITY;
+        }
+        return downloadPriority;
+    }
+
+    /**
+     * get bandwidth weight
+     *
+     * @param url file url
+     * @return bandwidth weight
+     */
+    public int getBandwidthWeight(String url) {
+        if (!UrlUtil.isUrl(url) || mBuilder == null || mBuilder.mBandwidthWeight == null) {
+            return InnerBuilder.DEFAULT_BANDWIDTH_WEIGHT;
+        }
+
+        Integer bandwidthWeight = mBuilder.mBandwidthWeight.get(url);
+        if (bandwidthWeight == null) {
+            return InnerBuilder.DEFAULT_BANDWIDTH_WEIGHT;
+        }
+        return bandwidthWeight;
+    }
+
+    /**
+     * get whether accept the gzip and deflate encoded response
+     *
+     * @param url file url
+     * @return true means accept
+     */
+    public boolean isAcceptEncoding(String url) {
+        if (!UrlUtil.isUrl(url) || mBuilder == null || mBuilder.mAcceptEncoding == null) {
+            return false;// default is not accept
+        }
+
+        Boolean acceptEncoding = mBuilder.mAcceptEncoding.get(url);
+        if (acceptEncoding == null) {
+            return false;// default is not accept
+        }
+        return acceptEncoding;
+    }
+
     /**
      * get request method
      *
@@ -6,7 +6,12 @@ import org.wlf.filedownloader.util.CollectionUtil;
 import org.wlf.filedownloader.util.DownloadFileUtil;
 import org.wlf.filedownloader.util.UrlUtil;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
@@ -20,8 +25,17 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
 
     private static final String TAG = DownloadFileChangeObserver.class.getSimpleName();
 
-    private Set<DownloadFileChangeListenerInfo> mOnDownloadFileChangeListeners = new 
+    // listeners, listener -> listener info
+    private Map<OnDownloadFileChangeListener, DownloadFileChangeListenerInfo> mOnDownloadFileChangeListeners = new 
+            ConcurrentHashMap<OnDownloadFileChangeListener, DownloadFileChangeListenerInfo>();
+    // listeners listen all urls
+    private Set<DownloadFileChangeListenerInfo> mGlobalListenerInfos = new 
             CopyOnWriteArraySet<DownloadFileChangeListenerInfo>();
+    // listeners listen the given urls, url(trimmed) -> listener infos
+    private Map<String, Set<DownloadFileChangeListenerInfo>> mUrlListenerInfos = new ConcurrentHashMap<String, 
+            Set<DownloadFileChangeListenerInfo>>();
+
+    private final Object mModifyLock = new Object();// modify lock
 
     /**
      * add a OnDownloadFileChangeListener
@@ -34,21 +48,32 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
         if (onDownloadFileChangeListener == null) {
             return;
         }
-        // find whether is added 
-        for (DownloadFileChangeListenerInfo listenerInfo : mOnDownloadFileChangeListeners) {
-            if (listenerInfo == null) {
-                return;
-            }
 
-            if (listenerInfo.mListener == onDownloadFileChangeListener) {
+        synchronized (mModifyLock) {// lock
+            // find whether is added
+            if (mOnDownloadFileChangeListeners.containsKey(onDownloadFileChangeListener)) {
                 return;// has been added
             }
-        }
 
-        // need add
-        DownloadFileChangeListenerInfo listenerInfo = new DownloadFileChangeListenerInfo
-                (downloadFileChangeConfiguration, onDownloadFileChangeListener);
-        mOnDownloadFileChangeListeners.add(listenerInfo);
+            // need add
+            DownloadFileChangeListenerInfo listenerInfo = new DownloadFileChangeListenerInfo
+                    (downloadFileChangeConfiguration, onDownloadFileChangeListener);
+            mOnDownloadFileChangeListeners.put(onDownloadFileChangeListener, listenerInfo);
+
+            // index by listen urls, the listener listens nothing if all the listen urls are illegal
+            if (listenerInfo.mIsListenAll) {
+                mGlobalListenerInfos.add(listenerInfo);
+            } else {
+                for (String listenUrl : listenerInfo.mListenUrls) {
+                    Set<DownloadFileChangeListenerInfo> listenerInfos = mUrlListenerInfos.get(listenUrl);
+                    if (listenerInfos == null) {
+                        listenerInfos = new CopyOnWriteArraySet<DownloadFileChangeListenerInfo>();
+                        mUrlListenerInfos.put(listenUrl, listenerInfos);
+                    }
+                    listenerInfos.add(listenerInfo);
+                }
+            }
+        }
 
         String urls = (downloadFileChangeConfiguration != null && !CollectionUtil.isEmpty
                 (downloadFileChangeConfiguration.getListenUrls())) ? downloadFileChangeConfiguration.getListenUrls()
@@ -67,23 +92,45 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
             return;
         }
         // find and remove
-        for (DownloadFileChangeListenerInfo listenerInfo : mOnDownloadFileChangeListeners) {
+        DownloadFileChangeListenerInfo listenerInfo;
+        synchronized (mModifyLock) {// lock
+            listenerInfo = mOnDownloadFileChangeListeners.remove(onDownloadFileChangeListener);
             if (listenerInfo == null) {
-                continue;
+                return;
+            }
+            mGlobalListenerInfos.remove(listenerInfo);
+            for (String listenUrl : listenerInfo.mListenUrls) {
+                Set<DownloadFileChangeListenerInfo> listenerInfos = mUrlListenerInfos.get(listenUrl);
+                if (listenerInfos == null) {
+                    continue;
+                }
+                listenerInfos.remove(listenerInfo);
+                if (listenerInfos.isEmpty()) {
+                    mUrlListenerInfos.remove(listenUrl);
+                }
             }
-            if (listenerInfo.mListener == onDownloadFileChangeListener) {
-                // find, remove
-                mOnDownloadFileChangeListeners.remove(listenerInfo);
+        }
 
-                String urls = (listenerInfo.mDownloadFileChangeConfiguration != null && !CollectionUtil.isEmpty
-                        (listenerInfo.mDownloadFileChangeConfiguration.getListenUrls())) ? listenerInfo
-                        .mDownloadFileChangeConfiguration.getListenUrls().toString() : "all";
+        String urls = (listenerInfo.mDownloadFileChangeConfiguration != null && !CollectionUtil.isEmpty
+                (listenerInfo.mDownloadFileChangeConfiguration.getListenUrls())) ? listenerInfo
+                .mDownloadFileChangeConfiguration.getListenUrls().toString() : "all";
 
-                Log.i(TAG, "file-downloader-listener 移除【下载文件改变监听器】成功，该listener监听的urls：" + urls);
+        Log.i(TAG, "file-downloader-listener 移除【下载文件改变监听器】成功，该listener监听的urls：" + urls);
+    }
 
-                break;
+    /**
+     * get the listener infos listen the given url, include the listeners listen all urls
+     */
+    private List<DownloadFileChangeListenerInfo> getListenerInfos(String url) {
+        List<DownloadFileChangeListenerInfo> listenerInfos = new ArrayList<DownloadFileChangeListenerInfo>
+                (mGlobalListenerInfos);
+        if (url != null) {
+            Set<DownloadFileChangeListenerInfo> urlListenerInfos = mUrlListenerInfos.get(url.trim());
+            if (urlListenerInfos != null) {
+                listenerInfos.addAll(urlListenerInfos);
             }
         }
+        return listenerInfos;
     }
 
     // --------------------------------------notify caller--------------------------------------
@@ -174,35 +221,14 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadFileChangeListenerInfo listenerInfo : mOnDownloadFileChangeListeners) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadFileChangeListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadFileChangeConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadFileChangeConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadFileChangeConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify match caller
-                        notifyDownloadFileCreated(downloadFileInfo, listenerInfo.mListener, listenerInfo
-                                .mDownloadFileChangeConfiguration.isTreadCallback());
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                boolean isSyncCallback = false;
-                if (listenerInfo.mDownloadFileChangeConfiguration != null) {
-                    isSyncCallback = listenerInfo.mDownloadFileChangeConfiguration.isTreadCallback();
-                }
-                notifyDownloadFileCreated(downloadFileInfo, listenerInfo.mListener, isSyncCallback);
-            }
+            notifyDownloadFileCreated(downloadFileInfo, listenerInfo.mListener, listenerInfo.isSyncCallback());
         }
     }
 
@@ -215,35 +241,14 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadFileChangeListenerInfo listenerInfo : mOnDownloadFileChangeListeners) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadFileChangeListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadFileChangeConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadFileChangeConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadFileChangeConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyDownloadFileUpdated(downloadFileInfo, type, listenerInfo.mListener, listenerInfo
-                                .mDownloadFileChangeConfiguration.isTreadCallback());
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                boolean isSyncCallback = false;
-                if (listenerInfo.mDownloadFileChangeConfiguration != null) {
-                    isSyncCallback = listenerInfo.mDownloadFileChangeConfiguration.isTreadCallback();
-                }
-                notifyDownloadFileUpdated(downloadFileInfo, type, listenerInfo.mListener, isSyncCallback);
-            }
+            notifyDownloadFileUpdated(downloadFileInfo, type, listenerInfo.mListener, listenerInfo.isSyncCallback());
         }
     }
 
@@ -256,35 +261,14 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadFileChangeListenerInfo listenerInfo : mOnDownloadFileChangeListeners) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadFileChangeListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadFileChangeConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadFileChangeConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadFileChangeConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyDownloadFileDeleted(downloadFileInfo, listenerInfo.mListener, listenerInfo
-                                .mDownloadFileChangeConfiguration.isTreadCallback());
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                boolean isSyncCallback = false;
-                if (listenerInfo.mDownloadFileChangeConfiguration != null) {
-                    isSyncCallback = listenerInfo.mDownloadFileChangeConfiguration.isTreadCallback();
-                }
-                notifyDownloadFileDeleted(downloadFileInfo, listenerInfo.mListener, isSyncCallback);
-            }
+            notifyDownloadFileDeleted(downloadFileInfo, listenerInfo.mListener, listenerInfo.isSyncCallback());
         }
     }
 
@@ -292,7 +276,11 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
      * release
      */
     public void release() {
-        mOnDownloadFileChangeListeners.clear();
+        synchronized (mModifyLock) {// lock
+            mOnDownloadFileChangeListeners.clear();
+            mGlobalListenerInfos.clear();
+            mUrlListenerInfos.clear();
+        }
     }
 
     /**
@@ -302,11 +290,35 @@ class DownloadFileChangeObserver implements OnDownloadFileChangeListener {
 
         private DownloadFileChangeConfiguration mDownloadFileChangeConfiguration;
         private OnDownloadFileChangeListener mListener;
+        private Set<String> mListenUrls = new HashSet<String>();// the trimmed legal listen urls
+        private boolean mIsListenAll;// true means no listen urls configured
 
         public DownloadFileChangeListenerInfo(DownloadFileChangeConfiguration downloadFileChangeConfiguration, 
                                               OnDownloadFileChangeListener listener) {
             mDownloadFileChangeConfiguration = downloadFileChangeConfiguration;
             mListener = listener;
+
+            mIsListenAll = downloadFileChangeConfiguration == null || CollectionUtil.isEmpty
+                    (downloadFileChangeConfiguration.getListenUrls());
+            if (downloadFileChangeConfiguration != null && !CollectionUtil.isEmpty(downloadFileChangeConfiguration
+                    .getListenUrls())) {
+                for (String listenUrl : downloadFileChangeConfiguration.getListenUrls()) {
+                    if (!UrlUtil.isUrl(listenUrl)) {
+                        continue;
+                    }
+                    mListenUrls.add(listenUrl.trim());
+                }
+            }
+        }
+
+        /**
+         * whether notify the listener in the thread of the change
+         */
+        private boolean isSyncCallback() {
+            if (mDownloadFileChangeConfiguration != null) {
+                return mDownloadFileChangeConfiguration.isTreadCallback();
+            }
+            return false;
         }
     }
 }
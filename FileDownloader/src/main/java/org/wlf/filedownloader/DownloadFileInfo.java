@@ -82,6 +82,10 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
          * create download datetime
          */
         public static final String COLUMN_NAME_OF_FIELD_CREATE_DATETIME = "create_datetime";
+        /**
+         * download segments field name
+         */
+        public static final String COLUMN_NAME_OF_FIELD_DOWNLOAD_SEGMENTS = "download_segments";
 
         /**
          * the sql to create table
@@ -102,7 +106,8 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
                     + COLUMN_NAME_OF_FIELD_TEMP_FILE_NAME + " TEXT,"//
                     + COLUMN_NAME_OF_FIELD_FILE_NAME + " TEXT,"//
                     + COLUMN_NAME_OF_FIELD_STATUS + " INTEGER,"//
-                    + COLUMN_NAME_OF_FIELD_CREATE_DATETIME + " TEXT" + ")";//            
+                    + COLUMN_NAME_OF_FIELD_CREATE_DATETIME + " TEXT,"//
+                    + COLUMN_NAME_OF_FIELD_DOWNLOAD_SEGMENTS + " TEXT" + ")";//            
 
             return createTableSql;
         }
@@ -132,6 +137,19 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
 
             return updateSql;
         }
+
+        /**
+         * the sql to update table when db version is 3 to 4
+         */
+        public static final String getUpdateTableVersion3To4Sql() {
+
+            String updateSql = "ALTER TABLE " //
+                    + TABLE_NAME_OF_DOWNLOAD_FILE //
+                    + " ADD " //
+                    + COLUMN_NAME_OF_FIELD_DOWNLOAD_SEGMENTS + " TEXT"; //
+
+            return updateSql;
+        }
     }
 
     /**
@@ -155,6 +173,10 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
      * download status，ref{@link Status}
      */
     private int mStatus = Status.DOWNLOAD_STATUS_UNKNOWN;
+    /**
+     * the remaining ranges of segment download, null means not segment download
+     */
+    private String mDownloadSegments;
 
     @SuppressWarnings("unused")
     private DownloadFileInfo() {
@@ -197,6 +219,7 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
             String fileName = null;
             int status = Status.DOWNLOAD_STATUS_UNKNOWN;
             String createDatetime = null;
+            String downloadSegments = null;
 
             int columnIndex = -1;
             columnIndex = cursor.getColumnIndex(Table.COLUMN_NAME_OF_FIELD_ID);
@@ -247,6 +270,10 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
             if (columnIndex != -1) {
                 createDatetime = cursor.getString(columnIndex);
             }
+            columnIndex = cursor.getColumnIndex(Table.COLUMN_NAME_OF_FIELD_DOWNLOAD_SEGMENTS);
+            if (columnIndex != -1) {
+                downloadSegments = cursor.getString(columnIndex);
+            }
             if (id > 0 && !TextUtils.isEmpty(url)) {
                 // init fields
                 this.mId = id;
@@ -261,6 +288,7 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
                 this.mFileName = fileName;
                 this.mStatus = status;
                 this.mCreateDatetime = createDatetime;
+                this.mDownloadSegments = downloadSegments;
             } else {
                 throw new IllegalArgumentException("id or url from cursor illegal!");
             }
@@ -311,6 +339,9 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
         if (!TextUtils.isEmpty(downloadFileInfo.mCreateDatetime)) {
             this.mCreateDatetime = downloadFileInfo.mCreateDatetime;
         }
+        if (!TextUtils.isEmpty(downloadFileInfo.mDownloadSegments)) {
+            this.mDownloadSegments = downloadFileInfo.mDownloadSegments;
+        }
     }
 
     /**
@@ -329,6 +360,7 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
         values.put(Table.COLUMN_NAME_OF_FIELD_FILE_NAME, mFileName);
         values.put(Table.COLUMN_NAME_OF_FIELD_STATUS, mStatus);
         values.put(Table.COLUMN_NAME_OF_FIELD_CREATE_DATETIME, mCreateDatetime);
+        values.put(Table.COLUMN_NAME_OF_FIELD_DOWNLOAD_SEGMENTS, mDownloadSegments);
         return values;
     }
 
@@ -374,6 +406,13 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
         this.mStatus = status;
     }
 
+    /**
+     * set download segments, use for package access
+     */
+    void setDownloadSegments(String downloadSegments) {
+        this.mDownloadSegments = downloadSegments;
+    }
+
     /**
      * set save file dir, use for package access
      */
@@ -437,6 +476,15 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
         return mStatus;
     }
 
+    /**
+     * get the remaining ranges of segment download
+     *
+     * @return the remaining ranges, null means not segment download
+     */
+    public String getDownloadSegments() {
+        return mDownloadSegments;
+    }
+
     // other getters
 
     /**
@@ -455,6 +503,7 @@ public class DownloadFileInfo extends BaseUrlFileInfo {
                 ", mDownloadedSize=" + mDownloadedSize +
                 ", mTempFileName='" + mTempFileName + '\'' +
                 ", mStatus=" + mStatus +
+                ", mDownloadSegments='" + mDownloadSegments + '\'' +
                 "} " + super.toString();
     }
 }
@@ -5,10 +5,27 @@ import android.text.TextUtils;
 
 import org.wlf.filedownloader.base.BaseDownloadConfigBuilder;
 import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.file_download.HostCircuitBreaker;
+import org.wlf.filedownloader.file_download.DetectedConnectionCache;
+import org.wlf.filedownloader.file_download.KeepAlivePool;
+import org.wlf.filedownloader.file_download.transport.HttpUrlConnectionTransport;
+import org.wlf.filedownloader.file_download.transport.Transport;
+import org.wlf.filedownloader.file_download.SslContextProvider;
+import org.wlf.filedownloader.file_download.file_saver.BandwidthLimiter;
+import org.wlf.filedownloader.file_download.file_saver.BufferPool;
+import org.wlf.filedownloader.file_download.file_saver.FileSyncStrategy;
+import org.wlf.filedownloader.file_download.http_downloader.SelectorEngine;
+import org.wlf.filedownloader.listener.OnFileDownloadStatusListener.FileDownloadStatusFailReason;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
 
 /**
  * the Configuration of FileDownloader
@@ -33,11 +50,136 @@ public class FileDownloadConfiguration {
          * default download task at the same time, default is 2
          */
         public static final int DEFAULT_DOWNLOAD_TASK_SIZE = 2;
+        /**
+         * max interval to flush the download progress to database, max is 10s
+         */
+        public static final int MAX_DOWNLOAD_PROGRESS_FLUSH_INTERVAL = 10 * 1000;
+        /**
+         * default interval to flush the download progress to database, default is 2s
+         */
+        public static final int DEFAULT_DOWNLOAD_PROGRESS_FLUSH_INTERVAL = 2 * 1000;
+        /**
+         * max download connections to a host at the same time, max is 32
+         */
+        public static final int MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST = 32;
+        /**
+         * default download connections to a host at the same time, default is 6
+         */
+        public static final int DEFAULT_DOWNLOAD_CONNECTION_SIZE_PER_HOST = 6;
+        /**
+         * min read timeout, min is 5s
+         */
+        public static final int MIN_READ_TIMEOUT = 5 * 1000;// 5s
+        /**
+         * max read timeout, max is 5min
+         */
+        public static final int MAX_READ_TIMEOUT = 300 * 1000;// 300s
+        /**
+         * min window to detect stalled downloads, min is 5s
+         */
+        public static final int MIN_STALL_WINDOW = 5 * 1000;// 5s
+        /**
+         * max window to detect stalled downloads, max is 5min
+         */
+        public static final int MAX_STALL_WINDOW = 300 * 1000;// 300s
+        /**
+         * default window to detect stalled downloads, default is 30s
+         */
+        public static final int DEFAULT_STALL_WINDOW = 30 * 1000;// 30s
+        /**
+         * default consecutive failures of a host to open the circuit breaker, default is 5
+         */
+        public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+        /**
+         * default failure rate of a host to open the circuit breaker, default is 50%
+         */
+        public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+        /**
+         * min open time of the circuit breaker, min is 5s
+         */
+        public static final int MIN_CIRCUIT_BREAKER_OPEN_TIME = 5 * 1000;// 5s
+        /**
+         * max open time of the circuit breaker, max is 5min
+         */
+        public static final int MAX_CIRCUIT_BREAKER_OPEN_TIME = 300 * 1000;// 300s
+        /**
+         * default open time of the circuit breaker, default is 30s
+         */
+        public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 30 * 1000;// 30s
+        /**
+         * default max idle keep-alive connections of a host, default is 5
+         */
+        public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST = 5;
+        /**
+         * min idle timeout of keep-alive connections, min is 5s
+         */
+        public static final int MIN_KEEP_ALIVE_IDLE_TIMEOUT = 5 * 1000;// 5s
+        /**
+         * max idle timeout of keep-alive connections, max is 5min
+         */
+        public static final int MAX_KEEP_ALIVE_IDLE_TIMEOUT = 300 * 1000;// 300s
+        /**
+         * default idle timeout of keep-alive connections, default is 60s
+         */
+        public static final int DEFAULT_KEEP_ALIVE_IDLE_TIMEOUT = 60 * 1000;// 60s
+        /**
+         * max cache time of the redirected urls, max is 24h
+         */
+        public static final int MAX_REDIRECT_CACHE_TIME = 24 * 60 * 60 * 1000;// 24h
+        /**
+         * default cache time of the redirected urls, default is 10min
+         */
+        public static final int DEFAULT_REDIRECT_CACHE_TIME = 10 * 60 * 1000;// 10min
+        /**
+         * max selector threads of the selector engine, max is 4
+         */
+        public static final int MAX_SELECTOR_COUNT = 4;
+        /**
+         * max downloads driven by the selector engine at the same time, max is 1000
+         */
+        public static final int MAX_SELECTOR_TRANSFER_SIZE = 1000;
+        /**
+         * min memory of the buffer pool, min is 1MB
+         */
+        public static final int MIN_BUFFER_POOL_SIZE = 1024 * 1024;// 1MB
+        /**
+         * max memory of the buffer pool, max is 64MB
+         */
+        public static final int MAX_BUFFER_POOL_SIZE = 64 * 1024 * 1024;// 64MB
+        /**
+         * default memory of the buffer pool, default is 8MB
+         */
+        public static final int DEFAULT_BUFFER_POOL_SIZE = 8 * 1024 * 1024;// 8MB
 
         private Context mContext;
         private String mFileDownloadDir;
         private int mDownloadTaskSize;
         private boolean mIsDebugMode = false;
+        private FileSyncStrategy mFileSyncStrategy = FileSyncStrategy.SYNC_BY_TIME;
+        private long mFileSyncValue = FileSyncStrategy.SYNC_BY_TIME.getValue();
+        private int mDownloadProgressFlushInterval = DEFAULT_DOWNLOAD_PROGRESS_FLUSH_INTERVAL;
+        private boolean mIsDownloadTaskPreemptive = false;
+        private int mDownloadConnectionSizePerHost = DEFAULT_DOWNLOAD_CONNECTION_SIZE_PER_HOST;
+        private Map<String, Integer> mHostDownloadConnectionSizes = new HashMap<String, Integer>();
+        private long mGlobalBandwidthLimit = BandwidthLimiter.NO_LIMIT;
+        private int mReadTimeout = -1;// equals to connect timeout default
+        private long mMinDownloadSpeed = 0;// not detect stall default
+        private int mStallWindow = DEFAULT_STALL_WINDOW;
+        private long mDownloadTimeout = 0;// no limit default
+        private int mCircuitBreakerFailureThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+        private int mCircuitBreakerFailureRate = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE;
+        private int mCircuitBreakerOpenTime = DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+        private SSLContext mSslContext;// trust all default
+        private int mMaxIdleConnectionsPerHost = DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST;
+        private int mKeepAliveIdleTimeout = DEFAULT_KEEP_ALIVE_IDLE_TIMEOUT;
+        private HostnameVerifier mHostnameVerifier;// trust all default
+        private boolean mIsDetectAndStream = false;// disable default
+        private boolean mIsPreallocateTempFile = false;// disable default
+        private int mRedirectCacheTime = DEFAULT_REDIRECT_CACHE_TIME;
+        private Transport mTransport;// HttpURLConnection default
+        private int mSelectorCount = 0;// disabled default
+        private int mMaxSelectorTransferSize = 0;
+        private int mBufferPoolSize = DEFAULT_BUFFER_POOL_SIZE;
 
         public Builder(Context context) {
             super();
@@ -120,6 +262,390 @@ public class FileDownloadConfiguration {
             return this;
         }
 
+        /**
+         * config the strategy of syncing the downloaded data to the storage device, the download progress persisted
+         * never exceeds the data that has been synced, the progress callbacks are not delayed by the syncing
+         *
+         * @param fileSyncStrategy FileSyncStrategy, if not set, default is {@link FileSyncStrategy#SYNC_BY_TIME}
+         * @param fileSyncValue    bytes for {@link FileSyncStrategy#SYNC_BY_SIZE}, milliseconds for {@link
+         *                         FileSyncStrategy#SYNC_BY_TIME}, ignored by {@link
+         *                         FileSyncStrategy#SYNC_AT_CHECKPOINT}, set 0 or less means use the default value of
+         *                         the strategy
+         * @return the builder
+         */
+        public Builder configFileSyncStrategy(FileSyncStrategy fileSyncStrategy, long fileSyncValue) {
+            if (fileSyncStrategy != null) {
+                this.mFileSyncStrategy = fileSyncStrategy;
+                this.mFileSyncValue = fileSyncValue > 0 ? fileSyncValue : fileSyncStrategy.getValue();
+            } else {
+                Log.i(TAG, "configFileSyncStrategy 配置同步数据策略失败，fileSyncStrategy：" + fileSyncStrategy);
+            }
+            return this;
+        }
+
+        /**
+         * config the interval to flush the download progress to database, the download progress will be kept in
+         * memory and flushed in one transaction by the interval, status changes and release are flushed immediately
+         *
+         * @param downloadProgressFlushInterval please set 0 to {@link #MAX_DOWNLOAD_PROGRESS_FLUSH_INTERVAL}, if not
+         *                                      set, default is {@link #DEFAULT_DOWNLOAD_PROGRESS_FLUSH_INTERVAL},
+         *                                      set 0 means flush every progress immediately, millisecond
+         * @return the builder
+         */
+        public Builder configDownloadProgressFlushInterval(int downloadProgressFlushInterval) {
+            if (downloadProgressFlushInterval >= 0 && downloadProgressFlushInterval <= 
+                    MAX_DOWNLOAD_PROGRESS_FLUSH_INTERVAL) {
+                this.mDownloadProgressFlushInterval = downloadProgressFlushInterval;
+            } else if (downloadProgressFlushInterval > MAX_DOWNLOAD_PROGRESS_FLUSH_INTERVAL) {
+                this.mDownloadProgressFlushInterval = MAX_DOWNLOAD_PROGRESS_FLUSH_INTERVAL;
+            } else if (downloadProgressFlushInterval < 0) {
+                this.mDownloadProgressFlushInterval = 0;
+            } else {
+                Log.i(TAG, "configDownloadProgressFlushInterval 配置保存下载进度间隔失败，downloadProgressFlushInterval：" +
+                        downloadProgressFlushInterval);
+            }
+            return this;
+        }
+
+        /**
+         * config whether a higher priority download task can preempt a running one, if true, when all download
+         * threads are busy, the running task with the lowest priority will be paused for the new arrival with higher
+         * priority and continue downloading later
+         *
+         * @param isDownloadTaskPreemptive true means preemptive, if not set, default is false
+         * @return the builder
+         */
+        public Builder configDownloadTaskPreemptive(boolean isDownloadTaskPreemptive) {
+            this.mIsDownloadTaskPreemptive = isDownloadTaskPreemptive;
+            return this;
+        }
+
+        /**
+         * config the max download connections to a host at the same time, the host is the one after redirection, a
+         * download task takes as many connections as its download segment count, the waiting task whose host has
+         * no free connections will be skipped, but a task can always run if there is no running task of its host
+         *
+         * @param downloadConnectionSizePerHost please set 1 to {@link #MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST}, if
+         *                                      not set, default is {@link #DEFAULT_DOWNLOAD_CONNECTION_SIZE_PER_HOST}
+         * @return the builder
+         */
+        public Builder configDownloadConnectionSizePerHost(int downloadConnectionSizePerHost) {
+            if (downloadConnectionSizePerHost >= 1 && downloadConnectionSizePerHost <= 
+                    MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST) {
+                this.mDownloadConnectionSizePerHost = downloadConnectionSizePerHost;
+            } else if (downloadConnectionSizePerHost > MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST) {
+                this.mDownloadConnectionSizePerHost = MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST;
+            } else if (downloadConnectionSizePerHost < 1) {
+                this.mDownloadConnectionSizePerHost = 1;
+            } else {
+                Log.i(TAG, "configDownloadConnectionSizePerHost 配置每个host的连接数失败，downloadConnectionSizePerHost：" +
+                        downloadConnectionSizePerHost);
+            }
+            return this;
+        }
+
+        /**
+         * config the max download connections to the host at the same time, it overrides {@link
+         * #configDownloadConnectionSizePerHost(int)} for the host
+         *
+         * @param host                   the host, such as www.example.com
+         * @param downloadConnectionSize please set 1 to {@link #MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST}
+         * @return the builder
+         */
+        public Builder configDownloadConnectionSizeOfHost(String host, int downloadConnectionSize) {
+            if (TextUtils.isEmpty(host)) {
+                Log.i(TAG, "configDownloadConnectionSizeOfHost 配置host的连接数失败，host：" + host);
+                return this;
+            }
+            if (downloadConnectionSize > MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST) {
+                downloadConnectionSize = MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST;
+            } else if (downloadConnectionSize < 1) {
+                downloadConnectionSize = 1;
+            }
+            this.mHostDownloadConnectionSizes.put(host.trim().toLowerCase(), downloadConnectionSize);
+            return this;
+        }
+
+        /**
+         * config the global download bandwidth limit, the downloads share it by their bandwidth weights, it can be
+         * changed at runtime by {@link FileDownloadManager#setGlobalBandwidthLimit(long)}
+         *
+         * @param globalBandwidthLimit bytes per second, if not set, default is {@link BandwidthLimiter#NO_LIMIT},
+         *                             set 0 or less means no limit
+         * @return the builder
+         */
+        public Builder configGlobalBandwidthLimit(long globalBandwidthLimit) {
+            this.mGlobalBandwidthLimit = globalBandwidthLimit > 0 ? globalBandwidthLimit : BandwidthLimiter.NO_LIMIT;
+            return this;
+        }
+
+        /**
+         * config read timeout, the max time to wait for the data of a read, if not set, it equals to the connect
+         * timeout
+         *
+         * @param readTimeout please set {@link #MIN_READ_TIMEOUT} to {@link #MAX_READ_TIMEOUT}, millisecond
+         * @return the builder
+         */
+        public Builder configReadTimeout(int readTimeout) {
+            if (readTimeout >= MIN_READ_TIMEOUT && readTimeout <= MAX_READ_TIMEOUT) {
+                this.mReadTimeout = readTimeout;
+            } else if (readTimeout > MAX_READ_TIMEOUT) {
+                this.mReadTimeout = MAX_READ_TIMEOUT;
+            } else if (readTimeout < MIN_READ_TIMEOUT) {
+                this.mReadTimeout = MIN_READ_TIMEOUT;
+            } else {
+                Log.i(TAG, "configReadTimeout 配置读取超时时间失败，readTimeout：" + readTimeout);
+            }
+            return this;
+        }
+
+        /**
+         * config stall detection, if the download speed of a task stays below minDownloadSpeed for the whole
+         * stallWindow, the connection will be aborted and the task fails with {@link
+         * FileDownloadStatusFailReason#TYPE_DOWNLOAD_STALLED}, it will be retried from the downloaded size if retry
+         * is configured by {@link #configRetryDownloadTimes(int)}, the time throttled by the bandwidth limit is not
+         * counted
+         *
+         * @param minDownloadSpeed bytes per second, if not set, default is 0, set 0 or less means not detect
+         * @param stallWindow      please set {@link #MIN_STALL_WINDOW} to {@link #MAX_STALL_WINDOW}, if not set,
+         *                         default is {@link #DEFAULT_STALL_WINDOW}, millisecond
+         * @return the builder
+         */
+        public Builder configStallDetection(long minDownloadSpeed, int stallWindow) {
+            this.mMinDownloadSpeed = minDownloadSpeed > 0 ? minDownloadSpeed : 0;
+            if (stallWindow >= MIN_STALL_WINDOW && stallWindow <= MAX_STALL_WINDOW) {
+                this.mStallWindow = stallWindow;
+            } else if (stallWindow > MAX_STALL_WINDOW) {
+                this.mStallWindow = MAX_STALL_WINDOW;
+            } else if (stallWindow < MIN_STALL_WINDOW) {
+                this.mStallWindow = MIN_STALL_WINDOW;
+            } else {
+                Log.i(TAG, "configStallDetection 配置停滞检测窗口失败，stallWindow：" + stallWindow);
+            }
+            return this;
+        }
+
+        /**
+         * config download timeout, the total time of a download task since it starts running, including the
+         * retries, the task fails with {@link FileDownloadStatusFailReason#TYPE_DOWNLOAD_TIMEOUT} after it and will
+         * not be retried
+         *
+         * @param downloadTimeout if not set, default is 0, set 0 or less means no limit, millisecond
+         * @return the builder
+         */
+        public Builder configDownloadTimeout(long downloadTimeout) {
+            this.mDownloadTimeout = downloadTimeout > 0 ? downloadTimeout : 0;
+            return this;
+        }
+
+        /**
+         * config the circuit breaker of the hosts, when the connections of a host fail too much, the new tasks of
+         * the host will keep waiting until the open time is over, then only one task is let through as a probe, the
+         * waiting tasks run by priority after the probe succeeded
+         *
+         * @param failureThreshold the consecutive failures of a host to open the breaker, if not set, default is
+         *                         {@link #DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD}, set 0 means disabled
+         * @param failureRate      the failure rate of the recent connections of a host to open the breaker, 0 to 100,
+         *                         if not set, default is {@link #DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE}, set 0 means
+         *                         disabled
+         * @param openTime         please set {@link #MIN_CIRCUIT_BREAKER_OPEN_TIME} to {@link
+         *                         #MAX_CIRCUIT_BREAKER_OPEN_TIME}, if not set, default is {@link
+         *                         #DEFAULT_CIRCUIT_BREAKER_OPEN_TIME}, millisecond
+         * @return the builder
+         */
+        public Builder configHostCircuitBreaker(int failureThreshold, int failureRate, int openTime) {
+            this.mCircuitBreakerFailureThreshold = failureThreshold > 0 ? failureThreshold : 0;
+            if (failureRate >= 0 && failureRate <= 100) {
+                this.mCircuitBreakerFailureRate = failureRate;
+            } else if (failureRate > 100) {
+                this.mCircuitBreakerFailureRate = 100;
+            } else if (failureRate < 0) {
+                this.mCircuitBreakerFailureRate = 0;
+            }
+            if (openTime >= MIN_CIRCUIT_BREAKER_OPEN_TIME && openTime <= MAX_CIRCUIT_BREAKER_OPEN_TIME) {
+                this.mCircuitBreakerOpenTime = openTime;
+            } else if (openTime > MAX_CIRCUIT_BREAKER_OPEN_TIME) {
+                this.mCircuitBreakerOpenTime = MAX_CIRCUIT_BREAKER_OPEN_TIME;
+            } else if (openTime < MIN_CIRCUIT_BREAKER_OPEN_TIME) {
+                this.mCircuitBreakerOpenTime = MIN_CIRCUIT_BREAKER_OPEN_TIME;
+            } else {
+                Log.i(TAG, "configHostCircuitBreaker 配置熔断时间失败，openTime：" + openTime);
+            }
+            return this;
+        }
+
+        /**
+         * config the TLS context of https connections, it is created once at the first https connection and shared
+         * by all connections, so the TLS sessions can be resumed, the default of HttpsURLConnection is not changed
+         *
+         * @param sslContext       the SSLContext, if not set, default is a context that trusts all certificates
+         * @param hostnameVerifier the HostnameVerifier, if not set, default is a verifier that trusts all hosts
+         * @return the builder
+         */
+        public Builder configSslContext(SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+            this.mSslContext = sslContext;
+            this.mHostnameVerifier = hostnameVerifier;
+            return this;
+        }
+
+        /**
+         * config the keep-alive connections, the connections whose response is read to the end are kept alive and
+         * reused by the next request to the same host, such as detect, download and retry of the same file
+         * <p/>
+         * the sockets are pooled and evicted by HttpURLConnection itself, the two values here never close an idle
+         * socket, they only decide how a finished connection is released: drained and closed so the socket may go
+         * back to the pool of HttpURLConnection, or disconnect() so it never does, the releases within the idle
+         * timeout are counted as idle connections of the host, a connection is disconnected when the count reaches
+         * maxIdleConnectionsPerHost
+         *
+         * @param maxIdleConnectionsPerHost max releases to keep alive of a host within the idle timeout, please set 0
+         *                                  to {@link #MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST}, if not set, default is
+         *                                  {@link #DEFAULT_MAX_IDLE_CONNECTIONS_PER_HOST}, set 0 means keep-alive
+         *                                  disabled, every connection is disconnected
+         * @param idleTimeout               how long a release is counted as an idle connection, please set {@link
+         *                                  #MIN_KEEP_ALIVE_IDLE_TIMEOUT} to {@link #MAX_KEEP_ALIVE_IDLE_TIMEOUT}, if
+         *                                  not set, default is {@link #DEFAULT_KEEP_ALIVE_IDLE_TIMEOUT}, millisecond
+         * @return the builder
+         */
+        public Builder configKeepAlive(int maxIdleConnectionsPerHost, int idleTimeout) {
+            if (maxIdleConnectionsPerHost >= 0 && maxIdleConnectionsPerHost <= MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST) {
+                this.mMaxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+            } else if (maxIdleConnectionsPerHost > MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST) {
+                this.mMaxIdleConnectionsPerHost = MAX_DOWNLOAD_CONNECTION_SIZE_PER_HOST;
+            } else if (maxIdleConnectionsPerHost < 0) {
+                this.mMaxIdleConnectionsPerHost = 0;
+            }
+            if (idleTimeout >= MIN_KEEP_ALIVE_IDLE_TIMEOUT && idleTimeout <= MAX_KEEP_ALIVE_IDLE_TIMEOUT) {
+                this.mKeepAliveIdleTimeout = idleTimeout;
+            } else if (idleTimeout > MAX_KEEP_ALIVE_IDLE_TIMEOUT) {
+                this.mKeepAliveIdleTimeout = MAX_KEEP_ALIVE_IDLE_TIMEOUT;
+            } else if (idleTimeout < MIN_KEEP_ALIVE_IDLE_TIMEOUT) {
+                this.mKeepAliveIdleTimeout = MIN_KEEP_ALIVE_IDLE_TIMEOUT;
+            } else {
+                Log.i(TAG, "configKeepAlive 配置长连接空闲超时时间失败，idleTimeout：" + idleTimeout);
+            }
+            return this;
+        }
+
+        /**
+         * config whether detect and stream, if enabled, starting a url not detected uses the body of the detect
+         * response directly, the download task is created and starts writing from the beginning without a second
+         * request, if disabled, the detect only reads the headers and the download task requests again
+         *
+         * @param detectAndStream true means enable, if not set, default is false
+         * @return the builder
+         */
+        public Builder configDetectAndStream(boolean detectAndStream) {
+            this.mIsDetectAndStream = detectAndStream;
+            return this;
+        }
+
+        /**
+         * config whether preallocate the temp file, if enabled, the temp file is extended to the file total size when
+         * the download starts, the storage space is reserved where the platform supports(Android 5.0 and above), so
+         * the file is less fragmented and the download fails at once if the storage space is not enough
+         * <p/>
+         * it takes effect on the segment download only, see {@link #configDownloadSegmentCount(int)}, the temp file of
+         * the single connection download is not preallocated, because its length is used to check the downloaded
+         * size recorded when the process is killed before the progress flushed
+         *
+         * @param preallocateTempFile true means enable, if not set, default is false
+         * @return the builder
+         */
+        public Builder configPreallocateTempFile(boolean preallocateTempFile) {
+            this.mIsPreallocateTempFile = preallocateTempFile;
+            return this;
+        }
+
+        /**
+         * config the cache time of the redirected urls, the detect and download of a url connect the final url it
+         * redirected to directly before the cache expired, and redirect from the original url again if the final url
+         * responses 4XX, the cache time is shorter if the redirect responses limit it by Cache-Control or Expires
+         *
+         * @param redirectCacheTime please set 0 to {@link #MAX_REDIRECT_CACHE_TIME}, if not set, default is {@link
+         *                          #DEFAULT_REDIRECT_CACHE_TIME}, millisecond, set 0 means not cache
+         * @return the builder
+         */
+        public Builder configRedirectCacheTime(int redirectCacheTime) {
+            if (redirectCacheTime >= 0 && redirectCacheTime <= MAX_REDIRECT_CACHE_TIME) {
+                this.mRedirectCacheTime = redirectCacheTime;
+            } else if (redirectCacheTime > MAX_REDIRECT_CACHE_TIME) {
+                this.mRedirectCacheTime = MAX_REDIRECT_CACHE_TIME;
+            } else if (redirectCacheTime < 0) {
+                this.mRedirectCacheTime = 0;
+            } else {
+                Log.i(TAG, "configRedirectCacheTime 配置重定向缓存时间失败，redirectCacheTime：" + redirectCacheTime);
+            }
+            return this;
+        }
+
+        /**
+         * config the transport to send the http requests of the detect and download, such as a transport of other
+         * http clients
+         *
+         * @param transport the transport, if not set, default is {@link HttpUrlConnectionTransport}
+         * @return the builder
+         */
+        public Builder configTransport(Transport transport) {
+            if (transport != null) {
+                this.mTransport = transport;
+            } else {
+                Log.i(TAG, "configTransport 配置http传输实现失败，transport为空");
+            }
+            return this;
+        }
+
+        /**
+         * config the selector engine, a few selector threads drive the plain http downloads without using the
+         * download threads, it is suitable for a large batch of small files, the https, the custom transport and the
+         * limited bandwidth downloads still use the download threads
+         *
+         * @param selectorCount   the count of the selector threads, please set 0 to {@link #MAX_SELECTOR_COUNT}, if
+         *                        not set, default is 0, set 0 means disabled
+         * @param maxTransferSize max downloads driven at the same time, please set 1 to {@link
+         *                        #MAX_SELECTOR_TRANSFER_SIZE}, the others use the download threads
+         * @return the builder
+         */
+        public Builder configSelectorEngine(int selectorCount, int maxTransferSize) {
+            if (selectorCount >= 0 && selectorCount <= MAX_SELECTOR_COUNT) {
+                this.mSelectorCount = selectorCount;
+            } else if (selectorCount > MAX_SELECTOR_COUNT) {
+                this.mSelectorCount = MAX_SELECTOR_COUNT;
+            } else if (selectorCount < 0) {
+                this.mSelectorCount = 0;
+            }
+            if (maxTransferSize >= 1 && maxTransferSize <= MAX_SELECTOR_TRANSFER_SIZE) {
+                this.mMaxSelectorTransferSize = maxTransferSize;
+            } else if (maxTransferSize > MAX_SELECTOR_TRANSFER_SIZE) {
+                this.mMaxSelectorTransferSize = MAX_SELECTOR_TRANSFER_SIZE;
+            } else {
+                Log.i(TAG, "configSelectorEngine 配置selector引擎同时下载数失败，maxTransferSize：" + maxTransferSize);
+            }
+            return this;
+        }
+
+        /**
+         * config the memory of the buffer pool, the buffers used for saving are shared by all downloads and reused,
+         * the buffers in use and in the pool never exceed it, the downloads use smaller buffers or wait when it is
+         * not enough
+         *
+         * @param bufferPoolSize please set {@link #MIN_BUFFER_POOL_SIZE} to {@link #MAX_BUFFER_POOL_SIZE}, if not
+         *                       set, default is {@link #DEFAULT_BUFFER_POOL_SIZE}, bytes
+         * @return the builder
+         */
+        public Builder configBufferPoolSize(int bufferPoolSize) {
+            if (bufferPoolSize >= MIN_BUFFER_POOL_SIZE && bufferPoolSize <= MAX_BUFFER_POOL_SIZE) {
+                this.mBufferPoolSize = bufferPoolSize;
+            } else if (bufferPoolSize > MAX_BUFFER_POOL_SIZE) {
+                this.mBufferPoolSize = MAX_BUFFER_POOL_SIZE;
+            } else if (bufferPoolSize < MIN_BUFFER_POOL_SIZE) {
+                this.mBufferPoolSize = MIN_BUFFER_POOL_SIZE;
+            } else {
+                Log.i(TAG, "configBufferPoolSize 配置缓冲区池内存失败，bufferPoolSize：" + bufferPoolSize);
+            }
+            return this;
+        }
+
         @Override
         public Builder configRetryDownloadTimes(int retryDownloadTimes) {
             super.configRetryDownloadTimes(retryDownloadTimes);
@@ -132,6 +658,24 @@ public class FileDownloadConfiguration {
             return this;
         }
 
+        @Override
+        public Builder configDownloadSegmentCount(int downloadSegmentCount) {
+            super.configDownloadSegmentCount(downloadSegmentCount);
+            return this;
+        }
+
+        @Override
+        public Builder configDownloadPriority(int downloadPriority) {
+            super.configDownloadPriority(downloadPriority);
+            return this;
+        }
+
+        @Override
+        public Builder configBandwidthWeight(int bandwidthWeight) {
+            super.configBandwidthWeight(bandwidthWeight);
+            return this;
+        }
+
         // ---------------------------getters---------------------------
 
         private int getRetryDownloadTimes() {
@@ -142,6 +686,18 @@ public class FileDownloadConfiguration {
             return mConnectTimeout;
         }
 
+        private int getDownloadSegmentCount() {
+            return mDownloadSegmentCount;
+        }
+
+        private int getDownloadPriority() {
+            return mDownloadPriority;
+        }
+
+        private int getBandwidthWeight() {
+            return mBandwidthWeight;
+        }
+
         /**
          * build FileDownloadConfiguration
          *
@@ -163,6 +719,14 @@ public class FileDownloadConfiguration {
      * engine use for downloading file
      */
     private ExecutorService mFileDownloadEngine;
+    /**
+     * engine use for downloading the segments of files
+     */
+    private ExecutorService mFileDownloadSegmentEngine;
+    /**
+     * engine use for writing the downloaded data to the temp files behind the reading
+     */
+    private ExecutorService mFileWriteEngine;
     /**
      * engine use for detecting url file
      */
@@ -171,6 +735,42 @@ public class FileDownloadConfiguration {
      * engine use for operate downloaded file such as delete, move, rename and other async operations
      */
     private ExecutorService mFileOperationEngine;
+    /**
+     * engine use for timing the retries of download tasks, a single thread timer shared by all tasks
+     */
+    private ScheduledExecutorService mRetryTimerEngine;
+    /**
+     * limiter use for limiting download bandwidth
+     */
+    private BandwidthLimiter mBandwidthLimiter;
+    /**
+     * circuit breaker use for parking the tasks of the failing hosts
+     */
+    private HostCircuitBreaker mHostCircuitBreaker;
+    /**
+     * the TLS context of https connections
+     */
+    private SslContextProvider mSslContextProvider;
+    /**
+     * the pool of the keep-alive connections
+     */
+    private KeepAlivePool mKeepAlivePool;
+    /**
+     * the cache of the detected connections handed to the download tasks
+     */
+    private DetectedConnectionCache mDetectedConnectionCache;
+    /**
+     * the transport of the http requests
+     */
+    private Transport mTransport;
+    /**
+     * engine use for driving the plain http downloads by the selectors
+     */
+    private SelectorEngine mSelectorEngine;
+    /**
+     * the pool of the buffers used for saving
+     */
+    private BufferPool mBufferPool;
 
     /**
      * create default configuration,use {@link Builder#build()} to create recommended
@@ -193,8 +793,20 @@ public class FileDownloadConfiguration {
         }
         this.mBuilder = builder;
         this.mFileDownloadEngine = Executors.newFixedThreadPool(builder.mDownloadTaskSize);
+        this.mFileDownloadSegmentEngine = Executors.newCachedThreadPool(); // no limit
+        this.mFileWriteEngine = Executors.newCachedThreadPool(); // no limit
         this.mFileDetectEngine = Executors.newCachedThreadPool(); // no limit
         this.mFileOperationEngine = Executors.newCachedThreadPool(); // no limit
+        this.mRetryTimerEngine = Executors.newSingleThreadScheduledExecutor();
+        this.mBandwidthLimiter = new BandwidthLimiter(builder.mGlobalBandwidthLimit);
+        this.mHostCircuitBreaker = new HostCircuitBreaker(builder.mCircuitBreakerFailureThreshold, builder
+                .mCircuitBreakerFailureRate, builder.mCircuitBreakerOpenTime);
+        this.mSslContextProvider = new SslContextProvider(builder.mSslContext, builder.mHostnameVerifier);
+        this.mKeepAlivePool = new KeepAlivePool(builder.mMaxIdleConnectionsPerHost, builder.mKeepAliveIdleTimeout);
+        this.mDetectedConnectionCache = new DetectedConnectionCache(mFileOperationEngine);
+        this.mTransport = builder.mTransport != null ? builder.mTransport : HttpUrlConnectionTransport.getDefault();
+        this.mSelectorEngine = new SelectorEngine(builder.mSelectorCount, builder.mMaxSelectorTransferSize);
+        this.mBufferPool = new BufferPool(builder.mBufferPoolSize);
     }
 
     // getters
@@ -244,6 +856,157 @@ public class FileDownloadConfiguration {
         return mBuilder.getConnectTimeout();
     }
 
+    /**
+     * get download segment count
+     *
+     * @return download segment count
+     */
+    public int getDownloadSegmentCount() {
+        return mBuilder.getDownloadSegmentCount();
+    }
+
+    /**
+     * get download priority
+     *
+     * @return download priority
+     */
+    public int getDownloadPriority() {
+        return mBuilder.getDownloadPriority();
+    }
+
+    /**
+     * get bandwidth weight
+     *
+     * @return bandwidth weight
+     */
+    public int getBandwidthWeight() {
+        return mBuilder.getBandwidthWeight();
+    }
+
+    /**
+     * get DownloadTaskSize at the same time
+     *
+     * @return DownloadTaskSize at the same time
+     */
+    public int getDownloadTaskSize() {
+        return mBuilder.mDownloadTaskSize;
+    }
+
+    /**
+     * whether a higher priority download task can preempt a running one
+     *
+     * @return true means preemptive
+     */
+    public boolean isDownloadTaskPreemptive() {
+        return mBuilder.mIsDownloadTaskPreemptive;
+    }
+
+    /**
+     * whether a url not detected is started by detect and stream, the body of the detect response is used directly
+     *
+     * @return true means detect and stream
+     */
+    public boolean isDetectAndStream() {
+        return mBuilder.mIsDetectAndStream;
+    }
+
+    /**
+     * whether the temp file is preallocated to the file total size when the segment download starts
+     *
+     * @return true means preallocate
+     */
+    public boolean isPreallocateTempFile() {
+        return mBuilder.mIsPreallocateTempFile;
+    }
+
+    /**
+     * get the cache time of the redirected urls
+     *
+     * @return the cache time, millisecond, 0 means not cache
+     */
+    public int getRedirectCacheTime() {
+        return mBuilder.mRedirectCacheTime;
+    }
+
+    /**
+     * get the max download connections to the host at the same time
+     *
+     * @param host the host after redirection
+     * @return the max download connections to the host
+     */
+    public int getDownloadConnectionSizeOfHost(String host) {
+        if (!TextUtils.isEmpty(host)) {
+            Integer downloadConnectionSize = mBuilder.mHostDownloadConnectionSizes.get(host);
+            if (downloadConnectionSize != null) {
+                return downloadConnectionSize;
+            }
+        }
+        return mBuilder.mDownloadConnectionSizePerHost;
+    }
+
+    /**
+     * get read timeout
+     *
+     * @return read timeout, millisecond, 0 or less means equals to the connect timeout
+     */
+    public int getReadTimeout() {
+        return mBuilder.mReadTimeout;
+    }
+
+    /**
+     * get the min download speed to detect stalled downloads
+     *
+     * @return bytes per second, 0 means not detect
+     */
+    public long getMinDownloadSpeed() {
+        return mBuilder.mMinDownloadSpeed;
+    }
+
+    /**
+     * get the window to detect stalled downloads
+     *
+     * @return the window, millisecond
+     */
+    public int getStallWindow() {
+        return mBuilder.mStallWindow;
+    }
+
+    /**
+     * get download timeout
+     *
+     * @return download timeout, millisecond, 0 means no limit
+     */
+    public long getDownloadTimeout() {
+        return mBuilder.mDownloadTimeout;
+    }
+
+    /**
+     * get FileSyncStrategy
+     *
+     * @return FileSyncStrategy
+     */
+    public FileSyncStrategy getFileSyncStrategy() {
+        return mBuilder.mFileSyncStrategy;
+    }
+
+    /**
+     * get the value of FileSyncStrategy
+     *
+     * @return bytes for {@link FileSyncStrategy#SYNC_BY_SIZE}, milliseconds for {@link FileSyncStrategy#SYNC_BY_TIME}
+     */
+    public long getFileSyncValue() {
+        return mBuilder.mFileSyncValue;
+    }
+
+    /**
+     * get the interval to flush the download progress to database
+     *
+     * @return the interval, millisecond, 0 means flush immediately
+     */
+    public int getDownloadProgressFlushInterval() {
+        return mBuilder.mDownloadProgressFlushInterval;
+    }
+
     /**
      * get FileDownloadEngine
      */
@@ -251,6 +1014,20 @@ public class FileDownloadConfiguration {
         return mFileDownloadEngine;
     }
 
+    /**
+     * get FileDownloadSegmentEngine
+     */
+    public ExecutorService getFileDownloadSegmentEngine() {
+        return mFileDownloadSegmentEngine;
+    }
+
+    /**
+     * get FileWriteEngine
+     */
+    public ExecutorService getFileWriteEngine() {
+        return mFileWriteEngine;
+    }
+
     /**
      * get FileDetectEngine
      */
@@ -264,4 +1041,68 @@ public class FileDownloadConfiguration {
     public ExecutorService getFileOperationEngine() {
         return mFileOperationEngine;
     }
+
+    /**
+     * get RetryTimerEngine
+     */
+    public ScheduledExecutorService getRetryTimerEngine() {
+        return mRetryTimerEngine;
+    }
+
+    /**
+     * get BandwidthLimiter
+     */
+    public BandwidthLimiter getBandwidthLimiter() {
+        return mBandwidthLimiter;
+    }
+
+    /**
+     * get HostCircuitBreaker
+     */
+    public HostCircuitBreaker getHostCircuitBreaker() {
+        return mHostCircuitBreaker;
+    }
+
+    /**
+     * get SslContextProvider, the handshake statistics can be got from it
+     */
+    public SslContextProvider getSslContextProvider() {
+        return mSslContextProvider;
+    }
+
+    /**
+     * get KeepAlivePool, the release statistics and the estimated reuse count can be got from it, it only chooses
+     * between draining and disconnect() when releasing a connection, the sockets are pooled by HttpURLConnection
+     */
+    public KeepAlivePool getKeepAlivePool() {
+        return mKeepAlivePool;
+    }
+
+    /**
+     * get DetectedConnectionCache
+     */
+    public DetectedConnectionCache getDetectedConnectionCache() {
+        return mDetectedConnectionCache;
+    }
+
+    /**
+     * get Transport
+     */
+    public Transport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * get SelectorEngine, the count of the downloads driven now can be got from it
+     */
+    public SelectorEngine getSelectorEngine() {
+        return mSelectorEngine;
+    }
+
+    /**
+     * get BufferPool, the hit, miss and bytes in use statistics can be got from it
+     */
+    public BufferPool getBufferPool() {
+        return mBufferPool;
+    }
 }
@@ -7,6 +7,8 @@ import org.wlf.filedownloader.base.Control;
 import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.file_delete.DownloadDeleteManager;
 import org.wlf.filedownloader.file_download.DownloadTaskManager;
+import org.wlf.filedownloader.file_download.HostCircuitBreaker;
+import org.wlf.filedownloader.file_download.DownloadTaskManager.DownloadTaskState;
 import org.wlf.filedownloader.file_download.DownloadTaskManager.OnReleaseListener;
 import org.wlf.filedownloader.file_move.DownloadMoveManager;
 import org.wlf.filedownloader.file_rename.DownloadRenameManager;
@@ -141,6 +143,10 @@ public final class FileDownloadManager {
     public void init(FileDownloadConfiguration configuration) {
         synchronized (mInitLock) {
             this.mConfiguration = configuration;
+            if (mConfiguration != null) {
+                mDownloadFileCacher.setDownloadProgressFlushInterval(mConfiguration
+                        .getDownloadProgressFlushInterval());
+            }
         }
     }
 
@@ -177,7 +183,12 @@ public final class FileDownloadManager {
                     if (mConfiguration != null) {
                         mConfiguration.getFileDetectEngine().shutdown();
                         mConfiguration.getFileDownloadEngine().shutdown();
+                        mConfiguration.getFileDownloadSegmentEngine().shutdown();
+                        mConfiguration.getFileWriteEngine().shutdown();
                         mConfiguration.getFileOperationEngine().shutdown();
+                        mConfiguration.getRetryTimerEngine().shutdown();
+                        mConfiguration.getSelectorEngine().shutdown();
+                        mConfiguration.getBufferPool().clear();
                     }
                     mDownloadFileCacher.release();
                     sInstance = null;
@@ -308,6 +319,211 @@ public final class FileDownloadManager {
         return mDownloadFileCacher.getDownloadFiles();
     }
 
+    /**
+     * reconcile the status of all DownloadFiles with the file system in background
+     */
+    public void reconcileDownloadFileStatus() {
+        mDownloadFileCacher.reconcileDownloadFileStatus();
+    }
+
+    /**
+     * set the global download bandwidth limit, it takes effect on the running downloads immediately, the downloads
+     * share it by their bandwidth weights
+     *
+     * @param globalBandwidthLimit bytes per second, 0 or less means no limit
+     */
+    public void setGlobalBandwidthLimit(long globalBandwidthLimit) {
+        getDownloadTaskManager().setGlobalBandwidthLimit(globalBandwidthLimit);
+    }
+
+    /**
+     * set the download bandwidth limit of the url, it takes effect on the running download immediately
+     *
+     * @param url            file url
+     * @param bandwidthLimit bytes per second, 0 or less means no limit
+     */
+    public void setBandwidthLimit(String url, long bandwidthLimit) {
+        getDownloadTaskManager().setBandwidthLimit(url, bandwidthLimit);
+    }
+
+    /**
+     * change the priority of a waiting or running download task, the waiting task with higher priority will be run
+     * first
+     *
+     * @param url              file url
+     * @param downloadPriority the new priority
+     * @return true means changed, false means there is no waiting or running download task of the url
+     */
+    public boolean setDownloadPriority(String url, int downloadPriority) {
+        return getDownloadTaskManager().setDownloadPriority(url, downloadPriority);
+    }
+
+    /**
+     * get the priority of a waiting or running download task
+     *
+     * @param url file url
+     * @return the priority, -1 means there is no waiting or running download task of the url
+     */
+    public int getDownloadPriority(String url) {
+        return getDownloadTaskManager().getDownloadPriority(url);
+    }
+
+    /**
+     * get the count of the download tasks waiting for a download thread
+     *
+     * @return the count of the waiting download tasks
+     */
+    public int getWaitingDownloadTaskCount() {
+        return getDownloadTaskManager().getWaitingDownloadTaskCount();
+    }
+
+    /**
+     * get the count of the download tasks running in download threads
+     *
+     * @return the count of the running download tasks
+     */
+    public int getRunningDownloadTaskCount() {
+        return getDownloadTaskManager().getRunningDownloadTaskCount();
+    }
+
+    /**
+     * get the count of the download tasks finished since the manager created
+     *
+     * @return the count of the finished download tasks
+     */
+    public long getFinishedDownloadTaskCount() {
+        return getDownloadTaskManager().getFinishedDownloadTaskCount();
+    }
+
+    /**
+     * get the count of the threads actively running download tasks and download segments
+     *
+     * @return the count of the active download threads
+     */
+    public int getActiveDownloadThreadCount() {
+        return getDownloadTaskManager().getActiveDownloadThreadCount();
+    }
+
+    /**
+     * get the active download connections of the host
+     *
+     * @param host the host after redirection
+     * @return the active download connections of the host
+     */
+    public int getActiveDownloadConnectionCount(String host) {
+        return getDownloadTaskManager().getActiveDownloadConnectionCount(host);
+    }
+
+    /**
+     * get the circuit breaker state of the host, the download tasks of the host are parked if it is OPEN
+     *
+     * @param host the host after redirection
+     * @return the circuit breaker state of the host
+     */
+    public HostCircuitBreaker.State getHostCircuitBreakerState(String host) {
+        return getDownloadTaskManager().getHostCircuitBreakerState(host);
+    }
+
+    /**
+     * get the state of the download task of the url
+     *
+     * @param url file url
+     * @return the state of the download task, null means there is no download task of the url
+     */
+    public DownloadTaskState getDownloadTaskState(String url) {
+        return getDownloadTaskManager().getDownloadTaskState(url);
+    }
+
+    /**
+     * get the remaining time before the next attempt of the download task waiting for retry
+     *
+     * @param url file url
+     * @return the remaining time, millisecond, -1 means the task is not waiting for retry
+     */
+    public long getRetryRemainingTime(String url) {
+        return getDownloadTaskManager().getRetryRemainingTime(url);
+    }
+
+    /**
+     * get the retried times of the download task of the url
+     *
+     * @param url file url
+     * @return the retried times, -1 means there is no download task of the url
+     */
+    public int getRetriedTimes(String url) {
+        return getDownloadTaskManager().getRetriedTimes(url);
+    }
+
+    /**
+     * get the bytes transferred on the network of the last encoded download of the url, the progress of the
+     * callbacks is the decoded size, call it in {@link OnFileDownloadStatusListener#onFileDownloadStatusDownloading}
+     * to get the both
+     *
+     * @param url file url
+     * @return the bytes transferred, -1 means the url is not downloaded encoded
+     */
+    public long getWireDownloadedSize(String url) {
+        return getDownloadTaskManager().getWireDownloadedSize(url);
+    }
+
+    /**
+     * get the bytes decoded and saved of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the bytes decoded, -1 means the url is not downloaded encoded
+     */
+    public long getDecodedDownloadedSize(String url) {
+        return getDownloadTaskManager().getDecodedDownloadedSize(url);
+    }
+
+    /**
+     * get the Content-Encoding of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the Content-Encoding, such as gzip, null means the url is not downloaded encoded
+     */
+    public String getDownloadContentEncoding(String url) {
+        return getDownloadTaskManager().getDownloadContentEncoding(url);
+    }
+
+    /**
+     * get the bytes transferred on the network of all encoded downloads
+     *
+     * @return the bytes transferred
+     */
+    public long getTotalWireDownloadedSize() {
+        return getDownloadTaskManager().getTotalWireDownloadedSize();
+    }
+
+    /**
+     * get the bytes decoded and saved of all encoded downloads
+     *
+     * @return the bytes decoded
+     */
+    public long getTotalDecodedDownloadedSize() {
+        return getDownloadTaskManager().getTotalDecodedDownloadedSize();
+    }
+
+    /**
+     * get DownloadFiles by status
+     *
+     * @param status download status, ref{@link org.wlf.filedownloader.base.Status}
+     * @return DownloadFiles with the status
+     */
+    public List<DownloadFileInfo> getDownloadFilesByStatus(int status) {
+        return mDownloadFileCacher.getDownloadFilesByStatus(status);
+    }
+
+    /**
+     * get DownloadFiles by file dir
+     *
+     * @param fileDir the dir of the files saved in
+     * @return DownloadFiles saved in the dir
+     */
+    public List<DownloadFileInfo> getDownloadFilesByFileDir(String fileDir) {
+        return mDownloadFileCacher.getDownloadFilesByFileDir(fileDir);
+    }
+
     /**
      * get download file save dir
      *
@@ -121,6 +121,14 @@ public final class FileDownloader {
         return getFileDownloadManager().getDownloadFiles();
     }
 
+    /**
+     * reconcile the status of all DownloadFiles with the file system in background, such as the files deleted by
+     * other apps, the changes will be notified by {@link OnDownloadFileChangeListener}
+     */
+    public static void reconcileDownloadFileStatus() {
+        getFileDownloadManager().reconcileDownloadFileStatus();
+    }
+
     //    /**
     //     * get all DownloadUrls
     //     *
@@ -482,6 +490,42 @@ public final class FileDownloader {
         getFileDownloadManager().pauseAll();
     }
 
+    // --------------------------------------bandwidth--------------------------------------
+
+    /**
+     * set the global download bandwidth limit, it takes effect on the running downloads immediately, the downloads
+     * share it by their bandwidth weights
+     *
+     * @param globalBandwidthLimit bytes per second, 0 or less means no limit
+     */
+    public static void setGlobalBandwidthLimit(long globalBandwidthLimit) {
+        getFileDownloadManager().setGlobalBandwidthLimit(globalBandwidthLimit);
+    }
+
+    /**
+     * set the download bandwidth limit of the url, it takes effect on the running download immediately
+     *
+     * @param url            file url
+     * @param bandwidthLimit bytes per second, 0 or less means no limit
+     */
+    public static void setBandwidthLimit(String url, long bandwidthLimit) {
+        getFileDownloadManager().setBandwidthLimit(url, bandwidthLimit);
+    }
+
+    // --------------------------------------priority--------------------------------------
+
+    /**
+     * change the priority of a waiting or running download, the waiting download with higher priority will be run
+     * first, and it may preempt a running one if the download task is configured preemptive
+     *
+     * @param url              file url
+     * @param downloadPriority the new priority
+     * @return true means changed, false means there is no waiting or running download of the url
+     */
+    public static boolean setDownloadPriority(String url, int downloadPriority) {
+        return getFileDownloadManager().setDownloadPriority(url, downloadPriority);
+    }
+
     // --------------------------------------restart downloads--------------------------------------
 
     /**
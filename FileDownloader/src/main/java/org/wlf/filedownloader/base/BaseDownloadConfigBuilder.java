@@ -29,13 +29,51 @@ public class BaseDownloadConfigBuilder {
      * default connect timeout, default is 2min
      */
     public static final int MAX_CONNECT_TIMEOUT = 120 * 1000;// 120s
+    /**
+     * max download segment count of a file, max is 8
+     */
+    public static final int MAX_DOWNLOAD_SEGMENT_COUNT = 8;
+    /**
+     * default download segment count of a file, default is 1, means not segment download
+     */
+    public static final int DEFAULT_DOWNLOAD_SEGMENT_COUNT = 1;
+    /**
+     * min download priority, min is 0
+     */
+    public static final int MIN_DOWNLOAD_PRIORITY = 0;
+    /**
+     * max download priority, max is 10
+     */
+    public static final int MAX_DOWNLOAD_PRIORITY = 10;
+    /**
+     * default download priority, default is 5
+     */
+    public static final int DEFAULT_DOWNLOAD_PRIORITY = 5;
+    /**
+     * min bandwidth weight, min is 1
+     */
+    public static final int MIN_BANDWIDTH_WEIGHT = 1;
+    /**
+     * max bandwidth weight, max is 100
+     */
+    public static final int MAX_BANDWIDTH_WEIGHT = 100;
+    /**
+     * default bandwidth weight, default is 10
+     */
+    public static final int DEFAULT_BANDWIDTH_WEIGHT = 10;
 
     protected int mRetryDownloadTimes;
     protected int mConnectTimeout;
+    protected int mDownloadSegmentCount;
+    protected int mDownloadPriority;
+    protected int mBandwidthWeight;
 
     public BaseDownloadConfigBuilder() {
         mRetryDownloadTimes = DEFAULT_RETRY_DOWNLOAD_TIMES;
         mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        mDownloadSegmentCount = DEFAULT_DOWNLOAD_SEGMENT_COUNT;
+        mDownloadPriority = DEFAULT_DOWNLOAD_PRIORITY;
+        mBandwidthWeight = DEFAULT_BANDWIDTH_WEIGHT;
     }
 
     /**
@@ -81,4 +119,69 @@ public class BaseDownloadConfigBuilder {
 
         return this;
     }
+
+    /**
+     * config download segment count, the file will be downloaded by several connections at the same time if the
+     * server supports range, each connection download a segment of the file
+     *
+     * @param downloadSegmentCount please set 1 to {@link #MAX_DOWNLOAD_SEGMENT_COUNT}, if not set, default is {@link
+     *                             #DEFAULT_DOWNLOAD_SEGMENT_COUNT}, set 1 means not segment download
+     * @return the builder
+     */
+    public BaseDownloadConfigBuilder configDownloadSegmentCount(int downloadSegmentCount) {
+        if (downloadSegmentCount >= 1 && downloadSegmentCount <= MAX_DOWNLOAD_SEGMENT_COUNT) {
+            mDownloadSegmentCount = downloadSegmentCount;
+        } else if (downloadSegmentCount > MAX_DOWNLOAD_SEGMENT_COUNT) {
+            mDownloadSegmentCount = MAX_DOWNLOAD_SEGMENT_COUNT;
+        } else if (downloadSegmentCount < 1) {
+            mDownloadSegmentCount = 1;
+        } else {
+            Log.i(getClass().getSimpleName(), "configDownloadSegmentCount 配置分段下载数量失败，downloadSegmentCount：" + 
+                    downloadSegmentCount);
+        }
+        return this;
+    }
+
+    /**
+     * config download priority, the waiting download task with higher priority will be run first, the priority of
+     * a waiting task grows while it waits so that the lower ones will not starve
+     *
+     * @param downloadPriority please set {@link #MIN_DOWNLOAD_PRIORITY} to {@link #MAX_DOWNLOAD_PRIORITY}, if not
+     *                         set, default is {@link #DEFAULT_DOWNLOAD_PRIORITY}
+     * @return the builder
+     */
+    public BaseDownloadConfigBuilder configDownloadPriority(int downloadPriority) {
+        if (downloadPriority >= MIN_DOWNLOAD_PRIORITY && downloadPriority <= MAX_DOWNLOAD_PRIORITY) {
+            mDownloadPriority = downloadPriority;
+        } else if (downloadPriority > MAX_DOWNLOAD_PRIORITY) {
+            mDownloadPriority = MAX_DOWNLOAD_PRIORITY;
+        } else if (downloadPriority < MIN_DOWNLOAD_PRIORITY) {
+            mDownloadPriority = MIN_DOWNLOAD_PRIORITY;
+        } else {
+            Log.i(getClass().getSimpleName(), "configDownloadPriority 配置下载优先级失败，downloadPriority：" + 
+                    downloadPriority);
+        }
+        return this;
+    }
+
+    /**
+     * config bandwidth weight, the downloads share the global bandwidth limit by their weights, a download with
+     * weight 20 gets twice the bandwidth of a download with weight 10
+     *
+     * @param bandwidthWeight please set {@link #MIN_BANDWIDTH_WEIGHT} to {@link #MAX_BANDWIDTH_WEIGHT}, if not set,
+     *                        default is {@link #DEFAULT_BANDWIDTH_WEIGHT}
+     * @return the builder
+     */
+    public BaseDownloadConfigBuilder configBandwidthWeight(int bandwidthWeight) {
+        if (bandwidthWeight >= MIN_BANDWIDTH_WEIGHT && bandwidthWeight <= MAX_BANDWIDTH_WEIGHT) {
+            mBandwidthWeight = bandwidthWeight;
+        } else if (bandwidthWeight > MAX_BANDWIDTH_WEIGHT) {
+            mBandwidthWeight = MAX_BANDWIDTH_WEIGHT;
+        } else if (bandwidthWeight < MIN_BANDWIDTH_WEIGHT) {
+            mBandwidthWeight = MIN_BANDWIDTH_WEIGHT;
+        } else {
+            Log.i(getClass().getSimpleName(), "configBandwidthWeight 配置带宽权重失败，bandwidthWeight：" + bandwidthWeight);
+        }
+        return this;
+    }
 }
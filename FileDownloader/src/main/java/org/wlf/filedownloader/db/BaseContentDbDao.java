@@ -5,6 +5,8 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import java.util.List;
+
 /**
  * base dao impl
  * <br/>
@@ -82,6 +84,35 @@ public abstract class BaseContentDbDao implements ContentDbDao, DatabaseCallback
         return count;
     }
 
+    @Override
+    public int updateInTransaction(List<ContentValues> valuesList, String selection, List<String[]> 
+            selectionArgsList) {
+        if (valuesList == null || selectionArgsList == null || valuesList.size() != selectionArgsList.size()) {
+            return -1;
+        }
+        SQLiteDatabase database = null;
+        int count = -1;
+        try {
+            database = mDbHelper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                int updateCount = 0;
+                for (int i = 0; i < valuesList.size(); i++) {
+                    updateCount += database.update(mTableName, valuesList.get(i), selection, selectionArgsList.get
+                            (i));
+                }
+                database.setTransactionSuccessful();
+                count = updateCount;
+            } finally {
+                database.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            count = -1;
+        }
+        return count;
+    }
+
     @Override
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         SQLiteDatabase database = null;
@@ -3,6 +3,8 @@ package org.wlf.filedownloader.db;
 import android.content.ContentValues;
 import android.database.Cursor;
 
+import java.util.List;
+
 /**
  * the base dao that can use for ContentProvider and SQLiteOpenHelper
  * <br/>
@@ -46,6 +48,16 @@ public interface ContentDbDao extends DatabaseCallback {
      */
     int update(ContentValues values, String selection, String[] selectionArgs);
 
+    /**
+     * update several rows in one transaction, all succeed or all failed
+     *
+     * @param valuesList        the ContentValues of every row
+     * @param selection         the filter to match a row to update
+     * @param selectionArgsList the selectionArgs of every row, in order that they appear in the valuesList
+     * @return -1 means failed,the number of rows affected.
+     */
+    int updateInTransaction(List<ContentValues> valuesList, String selection, List<String[]> selectionArgsList);
+
     /**
      * query
      *
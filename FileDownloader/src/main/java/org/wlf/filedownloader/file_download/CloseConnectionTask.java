@@ -1,5 +1,7 @@
 package org.wlf.filedownloader.file_download;
 
+import org.wlf.filedownloader.file_download.transport.Transport.Response;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -16,14 +18,58 @@ public class CloseConnectionTask implements Runnable {
 
     private HttpURLConnection mURLConnection = null;
     private InputStream mInputStream = null;
+    private KeepAlivePool mKeepAlivePool = null;// null means always disconnect
+    private boolean mIsResponded = false;// whether the response is received
+    private Response mResponse = null;// the response of the transport
 
     public CloseConnectionTask(HttpURLConnection urlConnection, InputStream inputStream) {
         mURLConnection = urlConnection;
         mInputStream = inputStream;
     }
 
+    /**
+     * constructor of CloseConnectionTask, the connection will be released to the KeepAlivePool if possible
+     *
+     * @param urlConnection the connection
+     * @param inputStream   the stream of the response body, null means not opened
+     * @param keepAlivePool the KeepAlivePool, null means always disconnect
+     * @param isResponded   whether the response is received, the connection can not be reused if not
+     */
+    public CloseConnectionTask(HttpURLConnection urlConnection, InputStream inputStream, KeepAlivePool
+            keepAlivePool, boolean isResponded) {
+        mURLConnection = urlConnection;
+        mInputStream = inputStream;
+        mKeepAlivePool = keepAlivePool;
+        mIsResponded = isResponded;
+    }
+
+    /**
+     * constructor of CloseConnectionTask, the response will be closed by its transport
+     *
+     * @param response    the response of the transport
+     * @param inputStream the stream of the response body, null means not opened
+     * @param isResponded whether the response is received, the connection can not be reused if not
+     */
+    public CloseConnectionTask(Response response, InputStream inputStream, boolean isResponded) {
+        mResponse = response;
+        mInputStream = inputStream;
+        mIsResponded = isResponded;
+    }
+
     @Override
     public void run() {
+
+        if (mResponse != null) {
+            mResponse.close(mInputStream, mIsResponded);
+            return;
+        }
+
+        if (mKeepAlivePool != null) {
+            // drain and close or disconnect
+            mKeepAlivePool.release(mURLConnection, mInputStream, mIsResponded);
+            return;
+        }
+
         // close inputStream
         if (mInputStream != null) {
             try {
@@ -0,0 +1,161 @@
+package org.wlf.filedownloader.file_download;
+
+import android.text.TextUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the statistics of the encoded downloads
+ * <br/>
+ * 压缩传输统计，记录gzip/deflate压缩下载在网络上传输的字节数和解压后保存的字节数，下载进度仍按解压后的字节数回调
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class ContentEncodingStatistics {
+
+    /**
+     * max urls recorded, the least recently used will be removed
+     */
+    private static final int MAX_RECORD_SIZE = 64;
+
+    private static volatile ContentEncodingStatistics sInstance;
+
+    /**
+     * url -> the record of the last encoded download
+     */
+    private Map<String, Record> mRecords = new LinkedHashMap<String, Record>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Record> eldest) {
+            return size() > MAX_RECORD_SIZE;
+        }
+    };
+
+    private AtomicLong mTotalWireSize = new AtomicLong(0);
+    private AtomicLong mTotalDecodedSize = new AtomicLong(0);
+
+    private ContentEncodingStatistics() {
+    }
+
+    public static ContentEncodingStatistics getInstance() {
+        if (sInstance == null) {
+            synchronized (ContentEncodingStatistics.class) {
+                if (sInstance == null) {
+                    sInstance = new ContentEncodingStatistics();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * start recording an encoded download of the url, the old record of the url is replaced
+     *
+     * @param url             file url
+     * @param contentEncoding the Content-Encoding of the response
+     * @return the record to count the bytes
+     */
+    public Record startRecord(String url, String contentEncoding) {
+        Record record = new Record(contentEncoding);
+        if (!TextUtils.isEmpty(url)) {
+            synchronized (this) {
+                mRecords.put(url, record);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * get the bytes transferred of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the bytes transferred, -1 means the url is not downloaded encoded
+     */
+    public long getWireSize(String url) {
+        Record record = getRecord(url);
+        return record != null ? record.mWireSize : -1;
+    }
+
+    /**
+     * get the bytes decoded of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the bytes decoded, -1 means the url is not downloaded encoded
+     */
+    public long getDecodedSize(String url) {
+        Record record = getRecord(url);
+        return record != null ? record.mDecodedSize : -1;
+    }
+
+    /**
+     * get the Content-Encoding of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the Content-Encoding, null means the url is not downloaded encoded
+     */
+    public String getContentEncoding(String url) {
+        Record record = getRecord(url);
+        return record != null ? record.mContentEncoding : null;
+    }
+
+    /**
+     * get the bytes transferred of all encoded downloads
+     */
+    public long getTotalWireSize() {
+        return mTotalWireSize.get();
+    }
+
+    /**
+     * get the bytes decoded of all encoded downloads
+     */
+    public long getTotalDecodedSize() {
+        return mTotalDecodedSize.get();
+    }
+
+    private synchronized Record getRecord(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        return mRecords.get(url);
+    }
+
+    /**
+     * the record of an encoded download, it is counted by the download thread only
+     */
+    public class Record {
+
+        private String mContentEncoding;
+        private volatile long mWireSize;
+        private volatile long mDecodedSize;
+
+        private Record(String contentEncoding) {
+            mContentEncoding = contentEncoding;
+        }
+
+        /**
+         * the bytes are transferred
+         */
+        public void onWireRead(int size) {
+            mWireSize += size;
+            mTotalWireSize.addAndGet(size);
+        }
+
+        /**
+         * the bytes are decoded
+         */
+        public void onDecoded(int size) {
+            mDecodedSize += size;
+            mTotalDecodedSize.addAndGet(size);
+        }
+
+        public long getWireSize() {
+            return mWireSize;
+        }
+
+        public long getDecodedSize() {
+            return mDecodedSize;
+        }
+    }
+}
@@ -5,11 +5,16 @@ import android.text.TextUtils;
 import org.wlf.filedownloader.DownloadFileInfo;
 import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.file_download.base.DownloadRecorder;
+import org.wlf.filedownloader.file_download.http_downloader.ContentRangeInfo;
+import org.wlf.filedownloader.file_download.transport.HttpUrlConnectionTransport;
+import org.wlf.filedownloader.file_download.transport.Transport;
+import org.wlf.filedownloader.file_download.transport.Transport.Response;
 import org.wlf.filedownloader.listener.OnDetectBigUrlFileListener;
 import org.wlf.filedownloader.listener.OnDetectBigUrlFileListener.DetectBigUrlFileFailReason;
 import org.wlf.filedownloader.listener.OnDetectUrlFileListener.DetectUrlFileFailReason;
 import org.wlf.filedownloader.util.UrlUtil;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.Map;
@@ -47,6 +52,14 @@ class DetectUrlFileTask implements Runnable {
     private boolean mIsForceDetect = false;
 
     private ExecutorService mCloseConnectionEngine;// engine use for closing the http connection
+    private HostCircuitBreaker mHostCircuitBreaker;// record the connection outcomes of the hosts
+    private SslContextProvider mSslContextProvider;// the TLS context of https, null means the default
+    private KeepAlivePool mKeepAlivePool;// the pool to release the connection to, null means always disconnect
+    private DetectedConnectionCache mDetectedConnectionCache;// the cache to hand the detected connection to
+    private Transport mTransport;// the transport to send the requests, null means the default
+
+    // if it is true, that means the detected connection will be handed to the download task, otherwise only probe
+    private boolean mIsDetectAndStream = false;
 
     public DetectUrlFileTask(String url, String downloadSaveDir, DetectUrlFileCacher detectUrlFileCacher, 
                              DownloadRecorder downloadRecorder) {
@@ -75,6 +88,55 @@ class DetectUrlFileTask implements Runnable {
         mCloseConnectionEngine = closeConnectionEngine;
     }
 
+    /**
+     * set HostCircuitBreaker, the connection outcomes will be recorded to it
+     *
+     * @param hostCircuitBreaker HostCircuitBreaker, null means not record
+     */
+    public void setHostCircuitBreaker(HostCircuitBreaker hostCircuitBreaker) {
+        mHostCircuitBreaker = hostCircuitBreaker;
+    }
+
+    /**
+     * set SslContextProvider
+     *
+     * @param sslContextProvider SslContextProvider, null means the default
+     */
+    public void setSslContextProvider(SslContextProvider sslContextProvider) {
+        mSslContextProvider = sslContextProvider;
+    }
+
+    /**
+     * set KeepAlivePool
+     *
+     * @param keepAlivePool KeepAlivePool, null means always disconnect
+     */
+    public void setKeepAlivePool(KeepAlivePool keepAlivePool) {
+        mKeepAlivePool = keepAlivePool;
+    }
+
+    /**
+     * set DetectedConnectionCache
+     *
+     * @param detectedConnectionCache DetectedConnectionCache, null means can not detect and stream
+     */
+    public void setDetectedConnectionCache(DetectedConnectionCache detectedConnectionCache) {
+        mDetectedConnectionCache = detectedConnectionCache;
+    }
+
+    /**
+     * set Transport
+     *
+     * @param transport Transport, null means the default
+     */
+    public void setTransport(Transport transport) {
+        mTransport = transport;
+    }
+
+    private Transport getTransport() {
+        return mTransport != null ? mTransport : HttpUrlConnectionTransport.getDefault();
+    }
+
     /**
      * set connect timeout
      *
@@ -109,6 +171,14 @@ class DetectUrlFileTask implements Runnable {
         mIsForceDetect = true;
     }
 
+    /**
+     * enable detect and stream, the detected connection will be handed to the download task created next, the body
+     * is not read by the detect
+     */
+    public void enableDetectAndStream() {
+        mIsDetectAndStream = true;
+    }
+
     @Override
     public void run() {
 
@@ -120,17 +190,21 @@ class DetectUrlFileTask implements Runnable {
          * 3.check illegal response status such as response code is not 20X
          * 4.rename save file name in database
          * 5.create DetectUrlFileInfo
+         * 6.hand the connection to the download task if detect and stream, otherwise only probe the first byte
          *
          * note: DetectUrlFileFailReason extends from DetectBigUrlFileFailReason, so they are compatible
          */
 
-        HttpURLConnection conn = null;
+        Response conn = null;
         InputStream inputStream = null;
 
         DownloadFileInfo downloadFileInfo = null;
         DetectUrlFileInfo detectUrlFileInfo = null;
         DetectUrlFileFailReason failReason = null;
 
+        String connectHost = UrlUtil.getHost(mUrl);// the host connecting to
+        boolean isResponded = false;// whether the host responded
+
         try {
             // ------------start checking conditions------------
             {
@@ -155,20 +229,61 @@ class DetectUrlFileTask implements Runnable {
 
             String connectUrl = mUrl;
 
-            conn = HttpConnectionHelper.createDetectConnection(connectUrl, mConnectTimeout, mCharset, mRequestMethod,
-                    mHeaders);
+            // the body is handed to the download task, or only the first byte is needed
+            boolean isStream = mIsDetectAndStream && mDetectedConnectionCache != null;
+            boolean isProbe = !isStream && (TextUtils.isEmpty(mRequestMethod) || DEFAULT_REQUEST_METHOD
+                    .equalsIgnoreCase(mRequestMethod));
+
+            // connect the final url resolved before directly
+            String resolvedUrl = RedirectedHostCache.getInstance().getResolvedUrl(mUrl);
+            if (!TextUtils.isEmpty(resolvedUrl)) {
+                connectUrl = resolvedUrl;
+                connectHost = UrlUtil.getHost(connectUrl);
+            }
+
+            conn = getTransport().execute(createRequestParam(connectUrl, isProbe));
+
+            // the final url may be expired such as the signature of CDN, redirect from the original url again
+            if (!mUrl.equals(connectUrl) && conn.getResponseCode() / 100 == 4) {
+
+                Log.d(TAG, TAG + ".run 缓存的重定向url失效，重新从原始url重定向，响应码：" + conn.getResponseCode() + "，url：" +
+                        mUrl);
+
+                RedirectedHostCache.getInstance().removeResolvedUrl(mUrl);
+                closeConnection(conn);
+                conn = null;
+                connectUrl = mUrl;
+                connectHost = UrlUtil.getHost(connectUrl);
+                conn = getTransport().execute(createRequestParam(connectUrl, isProbe));
+            }
+
+            long freshTime = -1;// the min freshness of the redirect responses, -1 means not specified
 
             int redirectCount = 0;
             while (conn.getResponseCode() / 100 == 3 && redirectCount < MAX_REDIRECT_TIMES) {
-                connectUrl = conn.getHeaderField("Location");
-                conn = HttpConnectionHelper.createDetectConnection(connectUrl, mConnectTimeout, mCharset, mRequestMethod, mHeaders);
+                String location = HttpConnectionHelper.getRedirectLocation(conn.getUrl(), conn.getHeaderField
+                        ("Location"));
+                if (TextUtils.isEmpty(location)) {
+                    break;
+                }
+                long redirectFreshTime = HttpConnectionHelper.getFreshTimeFromResponseHeader(conn.getHeaderFields());
+                if (redirectFreshTime >= 0) {
+                    freshTime = freshTime >= 0 ? Math.min(freshTime, redirectFreshTime) : redirectFreshTime;
+                }
+                // close the intermediate connection, the body of a redirect is small and it can be reused
+                closeConnection(conn);
+                conn = null;
+
+                connectUrl = location;
+                connectHost = UrlUtil.getHost(connectUrl);
+                conn = getTransport().execute(createRequestParam(connectUrl, isProbe));
                 redirectCount++;
             }
 
             Log.d(TAG, TAG + ".run 探测文件，重定向：" + redirectCount + "次" + "，最大重定向次数：" + MAX_REDIRECT_TIMES +
                     "，url：" + mUrl);
 
-            if (redirectCount > MAX_REDIRECT_TIMES) {
+            if (redirectCount >= MAX_REDIRECT_TIMES && conn.getResponseCode() / 100 == 3) {
                 // error over max redirect
                 failReason = new DetectUrlFileFailReason(mUrl, "over max redirect:" + MAX_REDIRECT_TIMES + "!", 
                         DetectUrlFileFailReason.TYPE_URL_OVER_REDIRECT_COUNT);
@@ -176,11 +291,31 @@ class DetectUrlFileTask implements Runnable {
                 return;
             }
 
+            if (redirectCount > 0) {
+                // the download connects the final url directly
+                RedirectedHostCache.getInstance().recordResolvedUrl(mUrl, connectUrl, freshTime);
+            }
+
+            // record the host connected to, the download tasks are scheduled by it
+            RedirectedHostCache.getInstance().recordRedirectedUrl(mUrl, connectUrl);
+
+            isResponded = true;
+            if (mHostCircuitBreaker != null) {
+                mHostCircuitBreaker.recordResponse(connectHost, conn.getResponseCode());
+            }
+
             Log.i(TAG, TAG + ".run Response Headers:" + HttpConnectionHelper.getStringHeaders(conn.getHeaderFields()));
 
-            switch (conn.getResponseCode()) {
-                // http ok
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && !isProbe) {
+                // the range is not requested by the detect
+                responseCode = -1;
+            }
+
+            switch (responseCode) {
+                // http ok, or partial content of the probe
                 case HttpURLConnection.HTTP_OK:
+                case HttpURLConnection.HTTP_PARTIAL:
 
                     // get file name
                     String fileName = HttpConnectionHelper.getFileNameFromResponseHeader(conn.getHeaderFields());
@@ -205,9 +340,23 @@ class DetectUrlFileTask implements Runnable {
                             ());
 
                     // get file size
-                    long fileSize = conn.getContentLength();
-                    if (fileSize <= 0) {
-                        fileSize = HttpConnectionHelper.getFileSizeFromResponseHeader(conn.getHeaderFields());
+                    long fileSize = -1;
+                    if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                        // the probe, the total size is in Content-Range, such as bytes 0-0/1024
+                        ContentRangeInfo contentRangeInfo = ContentRangeInfo.getContentRangeInfo(conn
+                                .getHeaderField("Content-Range"));
+                        if (contentRangeInfo != null) {
+                            fileSize = contentRangeInfo.totalLength;
+                            // the range is supported even if Accept-Ranges is not responded
+                            if (TextUtils.isEmpty(acceptRangeType)) {
+                                acceptRangeType = contentRangeInfo.contentType;
+                            }
+                        }
+                    } else {
+                        fileSize = conn.getContentLength();
+                        if (fileSize <= 0) {
+                            fileSize = HttpConnectionHelper.getFileSizeFromResponseHeader(conn.getHeaderFields());
+                        }
                     }
 
                     if (fileSize > 0) {
@@ -215,6 +364,11 @@ class DetectUrlFileTask implements Runnable {
                                 acceptRangeType, mDownloadSaveDir, fileName);
                         // add or update to memory cache
                         mDetectUrlFileCacher.addOrUpdateDetectUrlFile(detectUrlFileInfo);
+                        if (isStream && responseCode == HttpURLConnection.HTTP_OK) {
+                            // hand the connection to the download task, the body is not read
+                            mDetectedConnectionCache.put(mUrl, conn);
+                            conn = null;
+                        }
                         // goto finally, the detectUrlFileInfo created
                         return;
                     }
@@ -234,11 +388,15 @@ class DetectUrlFileTask implements Runnable {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            // the host can not be connected
+            if (!isResponded && e instanceof IOException && mHostCircuitBreaker != null) {
+                mHostCircuitBreaker.recordFailure(connectHost);
+            }
             // cast Exception to DetectUrlFileFailReason
             failReason = new DetectUrlFileFailReason(mUrl, e);
         } finally {
             // close inputStream & url connection
-            CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, inputStream);
+            CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, inputStream, isResponded);
             if (mCloseConnectionEngine != null) {
                 mCloseConnectionEngine.execute(closeConnectionTask);
             } else {
@@ -268,6 +426,11 @@ class DetectUrlFileTask implements Runnable {
                     }
                 }
 
+                if (!isNotify && mDetectedConnectionCache != null) {
+                    // no download task will take the connection
+                    mDetectedConnectionCache.discard(mUrl);
+                }
+
                 if (!isNotify) {
                     if (failReason == null) {
                         failReason = new DetectUrlFileFailReason(mUrl, "the file need to download may not access !", 
@@ -286,6 +449,26 @@ class DetectUrlFileTask implements Runnable {
         }
     }
 
+    /**
+     * create the request of the detect
+     */
+    private HttpConnectionHelper.RequestParam createRequestParam(String url, boolean isProbe) {
+        return HttpConnectionHelper.createDetectRequestParam(url, mConnectTimeout, mCharset, mRequestMethod,
+                mHeaders, mSslContextProvider, mKeepAlivePool, isProbe);
+    }
+
+    /**
+     * close the connection not used any more, such as the intermediate connections of the redirection
+     */
+    private void closeConnection(Response conn) {
+        CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, null, true);
+        if (mCloseConnectionEngine != null) {
+            mCloseConnectionEngine.execute(closeConnectionTask);
+        } else {
+            closeConnectionTask.run();
+        }
+    }
+
     // --------------------------------------notify caller--------------------------------------
 
     /**
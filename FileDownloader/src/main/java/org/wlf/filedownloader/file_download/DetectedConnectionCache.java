@@ -0,0 +1,220 @@
+package org.wlf.filedownloader.file_download;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.file_download.transport.Transport.Response;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * the cache of the detected connections, the body of the detect response is handed to the download task directly
+ * <br/>
+ * 探测连接缓存，探测并下载模式下探测请求的响应体不再丢弃，而是交给随后创建的下载任务从0字节开始直接写入，省去第二次请求
+ * <p/>
+ * the connection is kept only a short time, it will be released if the download task does not take it in time, such
+ * as the task is waiting for a download thread
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class DetectedConnectionCache {
+
+    private static final String TAG = DetectedConnectionCache.class.getSimpleName();
+
+    /**
+     * max connections cached, the oldest will be released if more
+     */
+    private static final int MAX_CACHED_CONNECTIONS = 4;
+    /**
+     * the time a detected connection can be kept before taken, millisecond
+     */
+    private static final long HAND_OFF_TIMEOUT = 10 * 1000;// 10s
+
+    /**
+     * url -> the detected connection, the oldest first
+     */
+    private Map<String, DetectedConnection> mDetectedConnections = new LinkedHashMap<String, DetectedConnection>();
+
+    private ExecutorService mCloseConnectionEngine;// engine use for closing the http connection
+
+    /**
+     * constructor of DetectedConnectionCache
+     *
+     * @param closeConnectionEngine engine use for closing the connections not taken, null means close in the caller
+     *                              thread
+     */
+    public DetectedConnectionCache(ExecutorService closeConnectionEngine) {
+        mCloseConnectionEngine = closeConnectionEngine;
+    }
+
+    /**
+     * cache the connection of the url, the response code is read and the body is not read
+     *
+     * @param url  the url detected
+     * @param conn the response of the detect
+     */
+    void put(String url, Response conn) {
+
+        if (TextUtils.isEmpty(url) || conn == null) {
+            return;
+        }
+
+        List<Response> releaseConnections = new ArrayList<Response>();
+
+        synchronized (this) {
+            DetectedConnection old = mDetectedConnections.remove(url);
+            if (old != null) {
+                releaseConnections.add(old.mConnection);
+            }
+            evictLocked(releaseConnections);
+            // keep the cache size
+            Iterator<DetectedConnection> iterator = mDetectedConnections.values().iterator();
+            while (mDetectedConnections.size() >= MAX_CACHED_CONNECTIONS && iterator.hasNext()) {
+                releaseConnections.add(iterator.next().mConnection);
+                iterator.remove();
+            }
+            mDetectedConnections.put(url, new DetectedConnection(conn));
+        }
+
+        release(releaseConnections);
+
+        Log.d(TAG, "put 缓存探测连接，等待下载任务接管，url：" + url);
+    }
+
+    /**
+     * take the detected connection of the url, the caller reads the body and closes the connection
+     *
+     * @param url the url to download
+     * @return the detected connection, null means not cached or timeout
+     */
+    public Response take(String url) {
+
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+
+        List<Response> releaseConnections = new ArrayList<Response>();
+        DetectedConnection detectedConnection = null;
+
+        synchronized (this) {
+            evictLocked(releaseConnections);
+            detectedConnection = mDetectedConnections.remove(url);
+        }
+
+        release(releaseConnections);
+
+        if (detectedConnection == null) {
+            return null;
+        }
+
+        Log.d(TAG, "take 下载任务接管探测连接，等待：" + (SystemClock.elapsedRealtime() - detectedConnection.mCachedTime) +
+                "ms，url：" + url);
+
+        return detectedConnection.mConnection;
+    }
+
+    /**
+     * whether there is a detected connection of the url
+     *
+     * @param url the url
+     * @return true means there is one
+     */
+    synchronized boolean contains(String url) {
+        DetectedConnection detectedConnection = url != null ? mDetectedConnections.get(url) : null;
+        return detectedConnection != null && !detectedConnection.isTimeout();
+    }
+
+    /**
+     * release the detected connection of the url, use when the download task will not be created
+     *
+     * @param url the url
+     */
+    void discard(String url) {
+
+        if (TextUtils.isEmpty(url)) {
+            return;
+        }
+
+        DetectedConnection detectedConnection = null;
+        synchronized (this) {
+            detectedConnection = mDetectedConnections.remove(url);
+        }
+
+        if (detectedConnection != null) {
+            List<Response> releaseConnections = new ArrayList<Response>();
+            releaseConnections.add(detectedConnection.mConnection);
+            release(releaseConnections);
+        }
+    }
+
+    /**
+     * release all detected connections
+     */
+    void release() {
+
+        List<Response> releaseConnections = new ArrayList<Response>();
+        synchronized (this) {
+            for (DetectedConnection detectedConnection : mDetectedConnections.values()) {
+                releaseConnections.add(detectedConnection.mConnection);
+            }
+            mDetectedConnections.clear();
+        }
+
+        release(releaseConnections);
+    }
+
+    /**
+     * remove the timeout connections
+     */
+    private void evictLocked(List<Response> releaseConnections) {
+        Iterator<DetectedConnection> iterator = mDetectedConnections.values().iterator();
+        while (iterator.hasNext()) {
+            DetectedConnection detectedConnection = iterator.next();
+            if (!detectedConnection.isTimeout()) {
+                // the later ones are newer
+                break;
+            }
+            releaseConnections.add(detectedConnection.mConnection);
+            iterator.remove();
+        }
+    }
+
+    private void release(List<Response> releaseConnections) {
+        for (Response conn : releaseConnections) {
+
+            Log.d(TAG, "release 探测连接未被接管，释放连接，url：" + conn.getUrl());
+
+            CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, null, true);
+            if (mCloseConnectionEngine != null) {
+                mCloseConnectionEngine.execute(closeConnectionTask);
+            } else {
+                closeConnectionTask.run();
+            }
+        }
+    }
+
+    /**
+     * a detected connection
+     */
+    private static class DetectedConnection {
+
+        private Response mConnection;
+        private long mCachedTime;
+
+        private DetectedConnection(Response connection) {
+            mConnection = connection;
+            mCachedTime = SystemClock.elapsedRealtime();
+        }
+
+        private boolean isTimeout() {
+            return SystemClock.elapsedRealtime() - mCachedTime > HAND_OFF_TIMEOUT;
+        }
+    }
+}
@@ -9,7 +9,12 @@ import org.wlf.filedownloader.util.CollectionUtil;
 import org.wlf.filedownloader.util.DownloadFileUtil;
 import org.wlf.filedownloader.util.UrlUtil;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
@@ -23,9 +28,17 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
     private static final String TAG = DownloadStatusObserver.class.getSimpleName();
 
-    // listeners
-    private Set<DownloadStatusListenerInfo> mDownloadStatusListenerInfos = new 
+    // listeners, listener -> listener info
+    private Map<OnFileDownloadStatusListener, DownloadStatusListenerInfo> mDownloadStatusListenerInfos = new 
+            ConcurrentHashMap<OnFileDownloadStatusListener, DownloadStatusListenerInfo>();
+    // listeners listen all urls
+    private Set<DownloadStatusListenerInfo> mGlobalListenerInfos = new 
             CopyOnWriteArraySet<DownloadStatusListenerInfo>();
+    // listeners listen the given urls, url(trimmed) -> listener infos
+    private Map<String, Set<DownloadStatusListenerInfo>> mUrlListenerInfos = new ConcurrentHashMap<String, 
+            Set<DownloadStatusListenerInfo>>();
+
+    private final Object mModifyLock = new Object();// modify lock
 
     /**
      * add a OnFileDownloadStatusListener
@@ -38,21 +51,32 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
         if (onFileDownloadStatusListener == null) {
             return;
         }
-        // find whether is added 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
-            if (listenerInfo == null) {
-                return;
-            }
 
-            if (listenerInfo.mListener == onFileDownloadStatusListener) {
+        synchronized (mModifyLock) {// lock
+            // find whether is added
+            if (mDownloadStatusListenerInfos.containsKey(onFileDownloadStatusListener)) {
                 return;// has been added
             }
-        }
 
-        // need add
-        DownloadStatusListenerInfo listenerInfo = new DownloadStatusListenerInfo(downloadStatusConfiguration, 
-                onFileDownloadStatusListener);
-        mDownloadStatusListenerInfos.add(listenerInfo);
+            // need add
+            DownloadStatusListenerInfo listenerInfo = new DownloadStatusListenerInfo(downloadStatusConfiguration, 
+                    onFileDownloadStatusListener);
+            mDownloadStatusListenerInfos.put(onFileDownloadStatusListener, listenerInfo);
+
+            // index by listen urls, the listener listens nothing if all the listen urls are illegal
+            if (listenerInfo.mIsListenAll) {
+                mGlobalListenerInfos.add(listenerInfo);
+            } else {
+                for (String listenUrl : listenerInfo.mListenUrls) {
+                    Set<DownloadStatusListenerInfo> listenerInfos = mUrlListenerInfos.get(listenUrl);
+                    if (listenerInfos == null) {
+                        listenerInfos = new CopyOnWriteArraySet<DownloadStatusListenerInfo>();
+                        mUrlListenerInfos.put(listenUrl, listenerInfos);
+                    }
+                    listenerInfos.add(listenerInfo);
+                }
+            }
+        }
 
         String urls = (downloadStatusConfiguration != null && !CollectionUtil.isEmpty(downloadStatusConfiguration
                 .getListenUrls())) ? downloadStatusConfiguration.getListenUrls().toString() : "all";
@@ -70,23 +94,69 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
             return;
         }
         // find and remove
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
-            if (listenerInfo == null) {
-                // not need to remove, may has been removed
-                continue;
-            }
-            if (listenerInfo.mListener == onFileDownloadStatusListener) {
-                // find, remove
-                mDownloadStatusListenerInfos.remove(listenerInfo);
+        DownloadStatusListenerInfo listenerInfo = mDownloadStatusListenerInfos.get(onFileDownloadStatusListener);
+        if (listenerInfo == null) {
+            // not need to remove, may has been removed
+            return;
+        }
+
+        removeListenerInfo(listenerInfo);
 
-                String urls = (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty
-                        (listenerInfo.mDownloadStatusConfiguration.getListenUrls())) ? listenerInfo
-                        .mDownloadStatusConfiguration.getListenUrls().toString() : "all";
+        String urls = (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
+                .mDownloadStatusConfiguration.getListenUrls())) ? listenerInfo.mDownloadStatusConfiguration
+                .getListenUrls().toString() : "all";
 
-                Log.i(TAG, "file-downloader-listener 移除【文件下载状态监听器】成功，该listener监听的urls：" + urls);
-                break;
+        Log.i(TAG, "file-downloader-listener 移除【文件下载状态监听器】成功，该listener监听的urls：" + urls);
+    }
+
+    /**
+     * remove a listener info from all indexes
+     */
+    private void removeListenerInfo(DownloadStatusListenerInfo listenerInfo) {
+        synchronized (mModifyLock) {// lock
+            if (mDownloadStatusListenerInfos.get(listenerInfo.mListener) != listenerInfo) {
+                return;// has been removed
+            }
+            mDownloadStatusListenerInfos.remove(listenerInfo.mListener);
+            mGlobalListenerInfos.remove(listenerInfo);
+            for (String listenUrl : listenerInfo.mListenUrls) {
+                Set<DownloadStatusListenerInfo> listenerInfos = mUrlListenerInfos.get(listenUrl);
+                if (listenerInfos == null) {
+                    continue;
+                }
+                listenerInfos.remove(listenerInfo);
+                if (listenerInfos.isEmpty()) {
+                    mUrlListenerInfos.remove(listenUrl);
+                }
+            }
+        }
+    }
+
+    /**
+     * get the listener infos listen the given url, include the listeners listen all urls
+     */
+    private List<DownloadStatusListenerInfo> getListenerInfos(String url) {
+        List<DownloadStatusListenerInfo> listenerInfos = new ArrayList<DownloadStatusListenerInfo>
+                (mGlobalListenerInfos);
+        if (url != null) {
+            Set<DownloadStatusListenerInfo> urlListenerInfos = mUrlListenerInfos.get(url.trim());
+            if (urlListenerInfos != null) {
+                listenerInfos.addAll(urlListenerInfos);
             }
         }
+        return listenerInfos;
+    }
+
+    /**
+     * remove the listener if it need to be released when the listen url downloads finished
+     */
+    private void autoReleaseIfNecessary(DownloadStatusListenerInfo listenerInfo) {
+        if (listenerInfo.mIsListenAll || listenerInfo.mDownloadStatusConfiguration == null) {
+            return;// global register listener will not be released
+        }
+        if (listenerInfo.mDownloadStatusConfiguration.isAutoRelease()) {
+            removeListenerInfo(listenerInfo);
+        }
     }
 
     //    /**
@@ -275,30 +345,14 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusWaiting(downloadFileInfo, listenerInfo.mListener);
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusWaiting(downloadFileInfo, listenerInfo.mListener);
-            }
+            notifyStatusWaiting(downloadFileInfo, listenerInfo.mListener);
         }
     }
 
@@ -311,35 +365,18 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this || !
-                    (listenerInfo.mListener instanceof OnRetryableFileDownloadStatusListener)) {
+            if (listenerInfo.mListener == this || !(listenerInfo
+                    .mListener instanceof OnRetryableFileDownloadStatusListener)) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusRetrying(downloadFileInfo, retryTimes, listenerInfo.mListener);
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusRetrying(downloadFileInfo, retryTimes, listenerInfo.mListener);
-            }
+            notifyStatusRetrying(downloadFileInfo, retryTimes, listenerInfo.mListener);
         }
     }
 
-
     @Override
     public void onFileDownloadStatusPreparing(DownloadFileInfo downloadFileInfo) {
 
@@ -349,30 +386,14 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusPreparing(downloadFileInfo, listenerInfo.mListener);
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusPreparing(downloadFileInfo, listenerInfo.mListener);
-            }
+            notifyStatusPreparing(downloadFileInfo, listenerInfo.mListener);
         }
     }
 
@@ -385,30 +406,14 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusPrepared(downloadFileInfo, listenerInfo.mListener);
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusPrepared(downloadFileInfo, listenerInfo.mListener);
-            }
+            notifyStatusPrepared(downloadFileInfo, listenerInfo.mListener);
         }
     }
 
@@ -422,31 +427,14 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusDownloading(downloadFileInfo, downloadSpeed, remainingTime, listenerInfo.mListener);
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusDownloading(downloadFileInfo, downloadSpeed, remainingTime, listenerInfo.mListener);
-            }
+            notifyStatusDownloading(downloadFileInfo, downloadSpeed, remainingTime, listenerInfo.mListener);
         }
     }
 
@@ -459,34 +447,16 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusPaused(downloadFileInfo, listenerInfo.mListener);
-                        // remove the listener
-                        if (listenerInfo.mDownloadStatusConfiguration.isAutoRelease()) {
-                            mDownloadStatusListenerInfos.remove(listenerInfo);
-                        }
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusPaused(downloadFileInfo, listenerInfo.mListener);
-            }
+            notifyStatusPaused(downloadFileInfo, listenerInfo.mListener);
+            // remove the listener
+            autoReleaseIfNecessary(listenerInfo);
         }
     }
 
@@ -499,34 +469,16 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         String url = downloadFileInfo.getUrl();
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusCompleted(downloadFileInfo, listenerInfo.mListener);
-                        // remove the listener
-                        if (listenerInfo.mDownloadStatusConfiguration.isAutoRelease()) {
-                            mDownloadStatusListenerInfos.remove(listenerInfo);
-                        }
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusCompleted(downloadFileInfo, listenerInfo.mListener);
-            }
+            notifyStatusCompleted(downloadFileInfo, listenerInfo.mListener);
+            // remove the listener
+            autoReleaseIfNecessary(listenerInfo);
         }
     }
 
@@ -538,34 +490,16 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
             return;
         }
 
-        for (DownloadStatusListenerInfo listenerInfo : mDownloadStatusListenerInfos) {
+        // notify the listeners listen the url and the global register listeners
+        for (DownloadStatusListenerInfo listenerInfo : getListenerInfos(url)) {
 
-            if (listenerInfo == null || listenerInfo.mListener == null || listenerInfo.mListener == this) {
+            if (listenerInfo.mListener == this) {
                 continue;
             }
 
-            // notify match url listeners
-            if (listenerInfo.mDownloadStatusConfiguration != null && !CollectionUtil.isEmpty(listenerInfo
-                    .mDownloadStatusConfiguration.getListenUrls())) {
-                for (String listenUrl : listenerInfo.mDownloadStatusConfiguration.getListenUrls()) {
-                    if (!UrlUtil.isUrl(listenUrl)) {
-                        continue;
-                    }
-                    if (url.equals(listenUrl) || url.trim().equals(listenUrl.trim())) {
-                        // find match url, notify caller
-                        notifyStatusFailed(url, downloadFileInfo, failReason, listenerInfo.mListener);
-                        // remove the listener
-                        if (listenerInfo.mDownloadStatusConfiguration.isAutoRelease()) {
-                            mDownloadStatusListenerInfos.remove(listenerInfo);
-                        }
-                    }
-                }
-            }
-            // Configuration or ListenUrls is null or empty, notify all
-            else {
-                // global register listener, notify all callers
-                notifyStatusFailed(url, downloadFileInfo, failReason, listenerInfo.mListener);
-            }
+            notifyStatusFailed(url, downloadFileInfo, failReason, listenerInfo.mListener);
+            // remove the listener
+            autoReleaseIfNecessary(listenerInfo);
         }
     }
 
@@ -573,7 +507,11 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
      * release
      */
     public void release() {
-        mDownloadStatusListenerInfos.clear();
+        synchronized (mModifyLock) {// lock
+            mDownloadStatusListenerInfos.clear();
+            mGlobalListenerInfos.clear();
+            mUrlListenerInfos.clear();
+        }
     }
 
     /**
@@ -583,12 +521,26 @@ class DownloadStatusObserver implements OnRetryableFileDownloadStatusListener {
 
         private DownloadStatusConfiguration mDownloadStatusConfiguration;
         private OnFileDownloadStatusListener mListener;
+        private Set<String> mListenUrls = new HashSet<String>();// the trimmed legal listen urls
+        private boolean mIsListenAll;// true means no listen urls configured
 
         public DownloadStatusListenerInfo(DownloadStatusConfiguration downloadStatusConfiguration, 
                                           OnFileDownloadStatusListener listener) {
             mDownloadStatusConfiguration = downloadStatusConfiguration;
             mListener = listener;
+
+            mIsListenAll = downloadStatusConfiguration == null || CollectionUtil.isEmpty(downloadStatusConfiguration
+                    .getListenUrls());
+            if (downloadStatusConfiguration != null && !CollectionUtil.isEmpty(downloadStatusConfiguration
+                    .getListenUrls())) {
+                for (String listenUrl : downloadStatusConfiguration.getListenUrls()) {
+                    if (!UrlUtil.isUrl(listenUrl)) {
+                        continue;
+                    }
+                    mListenUrls.add(listenUrl.trim());
+                }
+            }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -3,23 +3,33 @@ package org.wlf.filedownloader.file_download;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
+import android.text.TextUtils;
 
 import org.wlf.filedownloader.DownloadFileInfo;
 import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.base.Status;
+import org.wlf.filedownloader.file_download.SegmentDownloader.OnSegmentDownloadListener;
 import org.wlf.filedownloader.file_download.base.DownloadRecorder;
 import org.wlf.filedownloader.file_download.base.DownloadTask;
+import org.wlf.filedownloader.file_download.base.OnParkTaskListener;
 import org.wlf.filedownloader.file_download.base.OnStopFileDownloadTaskListener;
 import org.wlf.filedownloader.file_download.base.OnStopFileDownloadTaskListener.StopDownloadFileTaskFailReason;
 import org.wlf.filedownloader.file_download.base.OnTaskRunFinishListener;
 import org.wlf.filedownloader.file_download.file_saver.FileSaver;
+import org.wlf.filedownloader.file_download.file_saver.BandwidthLimiter;
 import org.wlf.filedownloader.file_download.file_saver.FileSaver.FileSaveException;
 import org.wlf.filedownloader.file_download.file_saver.FileSaver.OnFileSaveListener;
 import org.wlf.filedownloader.file_download.http_downloader.ContentLengthInputStream;
 import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader;
 import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader.OnHttpDownloadListener;
 import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader.OnRangeChangeListener;
+import org.wlf.filedownloader.file_download.http_downloader.NioHttpDownloader;
+import org.wlf.filedownloader.file_download.http_downloader.NioHttpDownloader.NioHttpDownloadException;
+import org.wlf.filedownloader.file_download.http_downloader.NioHttpDownloader.OnNioHttpDownloadListener;
 import org.wlf.filedownloader.file_download.http_downloader.Range;
+import org.wlf.filedownloader.file_download.http_downloader.SelectorEngine;
+import org.wlf.filedownloader.file_download.transport.HttpUrlConnectionTransport;
+import org.wlf.filedownloader.file_download.transport.Transport;
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener;
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener.FileDownloadStatusFailReason;
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener.OnFileDownloadStatusFailReason;
@@ -28,7 +38,7 @@ import org.wlf.filedownloader.util.FileUtil;
 import org.wlf.filedownloader.util.UrlUtil;
 
 import java.io.File;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -39,7 +49,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author wlf(Andy)
  * @email 411086563@qq.com
  */
-class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSaveListener, OnRangeChangeListener {
+class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSaveListener, OnRangeChangeListener,
+        OnSegmentDownloadListener, OnNioHttpDownloadListener {
 
     private static final String TAG = DownloadTaskImpl.class.getSimpleName();
 
@@ -47,9 +58,11 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
      * Download Param Info
      */
     private FileDownloadTaskParam mTaskParamInfo;
+    private final DownloadTaskOptions mOptions;// the options of the task
 
     private HttpDownloader mDownloader;// HttpDownloader
     private FileSaver mSaver;// FileSaver
+    private volatile SegmentDownloader mSegmentDownloader;// SegmentDownloader, null means not segment download
     private DownloadRecorder mDownloadRecorder;// DownloadRecorder
 
     private OnFileDownloadStatusListener mOnFileDownloadStatusListener;
@@ -68,20 +81,27 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
 
     private Thread mCurrentTaskThread;
 
-    private ExecutorService mCloseConnectionEngine;// engine use for closing the download connection
+    private long mDeadlineTime = 0;// SystemClock.elapsedRealtime() based, 0 means no deadline
 
-    private int mConnectTimeout = 15 * 1000;// 15s default
+    // for the download driven by the selector engine
+    private OnParkTaskListener mOnParkTaskListener;
+    private volatile NioHttpDownloader mNioDownloader;// not null means driven by the selector engine
+    private volatile Exception mNioDownloadException;
+    private volatile long mNioSyncedPos;// the end pos of the data synced by the selector engine
+    private volatile boolean mIsParked;// whether the download thread is released until the download finished
 
     /**
      * constructor of DownloadTaskImpl
      *
      * @param taskParamInfo
+     * @param options
      * @param downloadRecorder
      */
-    public DownloadTaskImpl(FileDownloadTaskParam taskParamInfo, DownloadRecorder downloadRecorder,
-                            OnFileDownloadStatusListener onFileDownloadStatusListener) {
+    public DownloadTaskImpl(FileDownloadTaskParam taskParamInfo, DownloadTaskOptions options, DownloadRecorder
+            downloadRecorder, OnFileDownloadStatusListener onFileDownloadStatusListener) {
         super();
         this.mTaskParamInfo = taskParamInfo;
+        this.mOptions = options;
 
         init();
 
@@ -134,24 +154,43 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
         Log.d(TAG, TAG + ".init 1、初始化新下载任务，url：" + getUrl());
 
         // init Downloader
-        Range range = new Range(mTaskParamInfo.getStartPosInTotal(), mTaskParamInfo.getFileTotalSize());
-        mDownloader = new HttpDownloader(getUrl(), range, mTaskParamInfo.getAcceptRangeType(), mTaskParamInfo.getETag
-                (), mTaskParamInfo.getLastModified());
-        mDownloader.setOnHttpDownloadListener(this);
-        mDownloader.setCloseConnectionEngine(mCloseConnectionEngine);
-        mDownloader.setConnectTimeout(mConnectTimeout);
-        mDownloader.setOnRangeChangeListener(this);
-        mDownloader.setRequestMethod(mTaskParamInfo.getRequestMethod());
-        mDownloader.setHeaders(mTaskParamInfo.getHeaders());
+        initDownloader(new Range(mTaskParamInfo.getStartPosInTotal(), mTaskParamInfo.getFileTotalSize()));
 
         // init Saver
         mSaver = new FileSaver(getUrl(), mTaskParamInfo.getTempFilePath(), mTaskParamInfo.getFilePath(),
                 mTaskParamInfo.getFileTotalSize());
         mSaver.setOnFileSaveListener(this);
+        mSaver.setFileSyncStrategy(mOptions.getFileSyncStrategy(), mOptions.getFileSyncValue());
+        mSaver.setBandwidthLimiter(mOptions.getBandwidthLimiter());
+        mSaver.setBufferPool(mOptions.getBufferPool());
+        mSaver.setFileWriteEngine(mOptions.getFileWriteEngine());
+        mSaver.setStallDetection(mOptions.getMinDownloadSpeed(), mOptions.getStallWindow());
+        mSaver.setDeadlineTime(mDeadlineTime);
 
         // DownloadRecorder will init by the constructor
     }
 
+    /**
+     * init the HttpDownloader to download the range
+     */
+    private void initDownloader(Range range) {
+        mDownloader = new HttpDownloader(getUrl(), range, mTaskParamInfo.getAcceptRangeType(), mTaskParamInfo.getETag
+                (), mTaskParamInfo.getLastModified());
+        mDownloader.setOnHttpDownloadListener(this);
+        mDownloader.setCloseConnectionEngine(mOptions.getCloseConnectionEngine());
+        mDownloader.setConnectTimeout(mOptions.getConnectTimeout());
+        mDownloader.setReadTimeout(mOptions.getReadTimeout());
+        mDownloader.setOnRangeChangeListener(this);
+        mDownloader.setRequestMethod(mTaskParamInfo.getRequestMethod());
+        mDownloader.setHeaders(mTaskParamInfo.getHeaders());
+        mDownloader.setHostCircuitBreaker(mOptions.getHostCircuitBreaker());
+        mDownloader.setSslContextProvider(mOptions.getSslContextProvider());
+        mDownloader.setKeepAlivePool(mOptions.getKeepAlivePool());
+        mDownloader.setTransport(mOptions.getTransport());
+        mDownloader.setDetectedConnectionCache(mOptions.getDetectedConnectionCache());
+        mDownloader.setAcceptEncoding(mTaskParamInfo.isAcceptEncoding());
+    }
+
     /**
      * check whether the task can execute
      *
@@ -219,7 +258,15 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
                             OnFileDownloadStatusFailReason.TYPE_FILE_SAVE_PATH_ILLEGAL);
                 } else {
                     long freeSize = FileUtil.getAvailableSpace(checkPath);
-                    long needDownloadSize = mTaskParamInfo.getFileTotalSize() - mTaskParamInfo.getStartPosInTotal();
+                    // the space held by the temp file is not needed any more, the saved data is recorded, and the
+                    // preallocated length is counted only if reserved by fallocate, setLength makes a sparse file
+                    long reservedSize = mTaskParamInfo.getStartPosInTotal();
+                    File tempFile = new File(mTaskParamInfo.getTempFilePath());
+                    if (tempFile.exists() && FileSaver.isTempFileReserved(mTaskParamInfo.getTempFilePath())) {
+                        reservedSize = Math.max(reservedSize, Math.min(tempFile.length(), mTaskParamInfo
+                                .getFileTotalSize()));
+                    }
+                    long needDownloadSize = mTaskParamInfo.getFileTotalSize() - reservedSize;
                     if (freeSize == -1 || needDownloadSize > freeSize) {
                         // error storage space is full
                         failReason = new OnFileDownloadStatusFailReason(url, "storage space is full or" +
@@ -255,27 +302,24 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
     }
 
     /**
-     * set CloseConnectionEngine
+     * set the deadline of the download
      *
-     * @param closeConnectionEngine CloseConnectionEngine
+     * @param deadlineTime based on SystemClock.elapsedRealtime(), 0 or less means no deadline
      */
-    public void setCloseConnectionEngine(ExecutorService closeConnectionEngine) {
-        mCloseConnectionEngine = closeConnectionEngine;
-        if (mDownloader != null) {
-            mDownloader.setCloseConnectionEngine(mCloseConnectionEngine);
+    public void setDeadlineTime(long deadlineTime) {
+        mDeadlineTime = deadlineTime;
+        if (mSaver != null) {
+            mSaver.setDeadlineTime(mDeadlineTime);
         }
     }
 
     /**
-     * set connect timeout
+     * set OnParkTaskListener
      *
-     * @param connectTimeout connect timeout
+     * @param onParkTaskListener OnParkTaskListener
      */
-    public void setConnectTimeout(int connectTimeout) {
-        mConnectTimeout = connectTimeout;
-        if (mDownloader != null) {
-            mDownloader.setConnectTimeout(mConnectTimeout);
-        }
+    public void setOnParkTaskListener(OnParkTaskListener onParkTaskListener) {
+        mOnParkTaskListener = onParkTaskListener;
     }
 
     // --------------------------------------getters--------------------------------------
@@ -304,12 +348,195 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
         return mFinishState;
     }
 
+    /**
+     * whether the task is parked, the task is resumed by the continuation passed to {@link
+     * OnParkTaskListener#onResumeParkedTask(String, Runnable)} to finish after the download finished
+     *
+     * @return true means parked
+     */
+    public boolean isParked() {
+        return mIsParked;
+    }
+
+    /**
+     * get the ranges need to download by segments
+     *
+     * @return the ranges, null means not segment download
+     */
+    private List<Range> getDownloadSegmentRanges() {
+
+        if (mOptions.getDownloadSegmentEngine() == null || TextUtils.isEmpty(mTaskParamInfo.getAcceptRangeType()) ||
+                mTaskParamInfo.getFileTotalSize() <= 0) {
+            return null;
+        }
+
+        // the recorded segments first, the temp file can only be continued by them
+        DownloadFileInfo downloadFileInfo = getDownloadFile();
+        if (downloadFileInfo != null) {
+            List<Range> recordedRanges = SegmentDownloader.parseSegments(downloadFileInfo.getDownloadSegments());
+            if (recordedRanges != null) {
+                return recordedRanges;
+            }
+        }
+
+        if (mOptions.getDownloadSegmentCount() <= 1) {
+            return null;
+        }
+
+        // the body of the detect response is being waited, one connection from the beginning is faster
+        DetectedConnectionCache detectedConnectionCache = mOptions.getDetectedConnectionCache();
+        if (detectedConnectionCache != null && mTaskParamInfo.getStartPosInTotal() == 0 &&
+                detectedConnectionCache.contains(getUrl())) {
+            return null;
+        }
+
+        List<Range> ranges = SegmentDownloader.splitRange(new Range(mTaskParamInfo.getStartPosInTotal(),
+                mTaskParamInfo.getFileTotalSize()), mOptions.getDownloadSegmentCount());
+        if (ranges.size() <= 1) {
+            return null;
+        }
+        return ranges;
+    }
+
+    /**
+     * whether the download can be driven by the selector engine, only plain http GET without the custom transport,
+     * the bandwidth limits and the detected connection, the limits set later are checked by the NioHttpDownloader
+     */
+    private boolean isNioDownloadAvailable() {
+
+        SelectorEngine selectorEngine = mOptions.getSelectorEngine();
+        if (selectorEngine == null || !selectorEngine.isEnabled() || mOnParkTaskListener == null) {
+            return false;
+        }
+
+        String url = getUrl();
+        String connectUrl = RedirectedHostCache.getInstance().getResolvedUrl(url);
+        if (TextUtils.isEmpty(connectUrl)) {
+            connectUrl = url;
+        }
+        if (connectUrl == null || !connectUrl.toLowerCase().startsWith("http://")) {
+            return false;
+        }
+        Transport transport = mOptions.getTransport();
+        if (transport != null && !(transport instanceof HttpUrlConnectionTransport)) {
+            return false;
+        }
+        String requestMethod = mTaskParamInfo.getRequestMethod();
+        if (!TextUtils.isEmpty(requestMethod) && !"GET".equalsIgnoreCase(requestMethod)) {
+            return false;
+        }
+        BandwidthLimiter bandwidthLimiter = mOptions.getBandwidthLimiter();
+        if (bandwidthLimiter != null && (bandwidthLimiter.getGlobalLimit() != BandwidthLimiter.NO_LIMIT ||
+                bandwidthLimiter.getLimit(url) != BandwidthLimiter.NO_LIMIT)) {
+            return false;
+        }
+        // the body of the detect response is being waited
+        DetectedConnectionCache detectedConnectionCache = mOptions.getDetectedConnectionCache();
+        if (detectedConnectionCache != null && detectedConnectionCache.contains(url)) {
+            return false;
+        }
+        // the encoded response is decoded by the HttpDownloader
+        if (mTaskParamInfo.isAcceptEncoding() && mTaskParamInfo.getStartPosInTotal() == 0) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * start the download driven by the selector engine
+     *
+     * @return true means started, the download thread can be released
+     */
+    private boolean startNioDownload() throws Exception {
+
+        if (!isNioDownloadAvailable()) {
+            return false;
+        }
+
+        Range range = new Range(mTaskParamInfo.getStartPosInTotal(), mTaskParamInfo.getFileTotalSize());
+        NioHttpDownloader nioDownloader = new NioHttpDownloader(getUrl(), range, mTaskParamInfo.getAcceptRangeType(),
+                mTaskParamInfo.getETag(), mTaskParamInfo.getLastModified(), mTaskParamInfo.getTempFilePath());
+        nioDownloader.setOnNioHttpDownloadListener(this);
+        nioDownloader.setOnRangeChangeListener(this);
+        nioDownloader.setHeaders(mTaskParamInfo.getHeaders());
+        nioDownloader.setConnectTimeout(mOptions.getConnectTimeout());
+        nioDownloader.setReadTimeout(mOptions.getReadTimeout());
+        nioDownloader.setHostCircuitBreaker(mOptions.getHostCircuitBreaker());
+        nioDownloader.setFileSyncStrategy(mOptions.getFileSyncStrategy(), mOptions.getFileSyncValue());
+        nioDownloader.setStallDetection(mOptions.getMinDownloadSpeed(), mOptions.getStallWindow());
+        nioDownloader.setDeadlineTime(mDeadlineTime);
+        nioDownloader.setBandwidthLimiter(mOptions.getBandwidthLimiter());
+        mNioSyncedPos = range.startPos;
+        mNioDownloader = nioDownloader;
+        // the task may be stopped during init
+        if (mSaver.isStopped()) {
+            nioDownloader.stop();
+        }
+
+        try {
+            if (nioDownloader.download(mOptions.getSelectorEngine())) {
+                return true;
+            }
+        } catch (NioHttpDownloadException e) {
+            if (!NioHttpDownloadException.TYPE_NOT_SUPPORTED.equals(e.getType())) {
+                mNioDownloader = null;
+                throw e;
+            }
+        }
+
+        // the engine is full or the url is not supported
+        mNioDownloader = null;
+        return false;
+    }
+
+    /**
+     * finish the download driven by the selector engine, it is called when the parked task resumed
+     *
+     * @return true means the response is not supported by the selector engine, need download by the HttpDownloader
+     */
+    private boolean finishNioDownload() throws Exception {
+
+        Exception exception = mNioDownloadException;
+        mNioDownloadException = null;
+        mNioDownloader = null;
+
+        if (exception instanceof NioHttpDownloadException && NioHttpDownloadException.TYPE_NOT_SUPPORTED.equals((
+                (NioHttpDownloadException) exception).getType())) {
+            if (mIsTaskStop || mSaver.isStopped()) {
+                // stopped, goto finally, paused
+                return false;
+            }
+
+            // part of the data may be downloaded before a bandwidth limit set, continue from the synced pos
+            long syncedPos = mNioSyncedPos;
+            if (syncedPos > mTaskParamInfo.getStartPosInTotal()) {
+                initDownloader(new Range(syncedPos, mTaskParamInfo.getFileTotalSize()));
+            }
+
+            Log.d(TAG, TAG + ".run 2、selector引擎不支持该资源，使用下载线程下载，起始位置：" + syncedPos + "，url：" + getUrl());
+
+            return true;
+        }
+
+        if (exception != null) {
+            throw exception;
+        }
+
+        if (mFinishState != null && mFinishState.status == Status.DOWNLOAD_STATUS_COMPLETED) {
+            // all data saved, rename the temp file to the save file
+            mSaver.saveCompletedTempFile();
+        }
+        return false;
+    }
+
     // --------------------------------------run the task--------------------------------------
     @Override
     public void run() {
 
         String url = getUrl();
 
+        boolean isParked = false;
+
         try {
             mIsRunning = true;
             mCurrentTaskThread = Thread.currentThread();
@@ -358,93 +585,174 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
             // ------------end checking conditions------------
 
             mFinishState = null;// reset mFinishState
-            // start download
-            mDownloader.download();
+
+            List<Range> segmentRanges = getDownloadSegmentRanges();
+            if (segmentRanges != null) {
+                // preallocate the temp file, the data saved is kept, the single connection download never does it
+                // because the length of its temp file is used to check the recorded downloaded size
+                if (mOptions.isPreallocateTempFile()) {
+                    mSaver.preallocateTempFile();
+                }
+
+                // init SegmentDownloader
+                SegmentDownloader segmentDownloader = new SegmentDownloader(mTaskParamInfo, mOptions, segmentRanges,
+                        mSaver, mDownloadRecorder);
+                segmentDownloader.setDeadlineTime(mDeadlineTime);
+                segmentDownloader.setOnSegmentDownloadListener(this);
+                segmentDownloader.setOnFileSaveListener(this);
+                mSegmentDownloader = segmentDownloader;
+                // the task may be stopped during init
+                if (mSaver.isStopped()) {
+                    segmentDownloader.stop();
+                }
+
+                Log.d(TAG, TAG + ".run 2、使用分段下载，分段数：" + segmentRanges.size() + "，url：" + url);
+
+                // start download by segments
+                segmentDownloader.download();
+            } else if (startNioDownload()) {
+                // release the download thread, the task will be resumed by resumeParked() when the download finished
+                isParked = true;
+                mIsParked = true;
+                mOnParkTaskListener.onParkTask(url);
+
+                Log.d(TAG, TAG + ".run 2、交给selector引擎下载，释放下载线程，url：" + url);
+
+                // goto finally, not finish
+                return;
+            } else {
+                // start download
+                mDownloader.download();
+            }
             // download finished, in this case, mFinishState will not be null
         } catch (Exception e) {
-            e.printStackTrace();
+            onRunException(e);
+        } finally {
+            if (isParked) {
+                // the task is still running, it will be resumed to finish
+                Log.d(TAG, TAG + ".run 文件下载任务【已挂起】，等待selector引擎下载结束，url：" + url);
+            } else {
+                finishRun();
+            }
+        }
+    }
+
+    /**
+     * resume the task parked after the download driven by the selector engine finished, it runs in a download thread
+     */
+    private void resumeParked() {
 
-            int status = Status.DOWNLOAD_STATUS_ERROR;
+        String url = getUrl();
 
-            // special error, file not exist
-            if (e instanceof FileSaveException) {
-                FileSaveException fileSaveException = (FileSaveException) e;
-                if (FileSaveException.TYPE_TEMP_FILE_DOES_NOT_EXIST.equals(fileSaveException.getType())) {
-                    status = Status.DOWNLOAD_STATUS_FILE_NOT_EXIST;
-                }
+        try {
+            mCurrentTaskThread = Thread.currentThread();
+            mIsParked = false;
+
+            Log.d(TAG, TAG + ".resumeParked selector引擎下载结束，继续执行任务，url：" + url);
+
+            if (finishNioDownload()) {
+                // the response is not supported by the selector engine, download in this thread
+                mDownloader.download();
             }
-            mFinishState = new FinishState(status, new OnFileDownloadStatusFailReason(url, e));
+            // download finished, in this case, mFinishState will not be null
+        } catch (Exception e) {
+            onRunException(e);
         } finally {
-            // finally, notify caller by the FinishState
+            finishRun();
+        }
+    }
 
-            // ------------start checking mFinishState------------
-            {
-                DownloadFileInfo downloadFileInfo = getDownloadFile();
-                if (downloadFileInfo == null) {
-                    FileDownloadStatusFailReason failReason = new OnFileDownloadStatusFailReason(url, "the " +
-                            "DownloadFile " +
-                            "is" + " null, may be not deleted ?", OnFileDownloadStatusFailReason.TYPE_NULL_POINTER);
-                    mFinishState = new FinishState(Status.DOWNLOAD_STATUS_ERROR, failReason);
-                } else {
-                    // confirm the download file size
-                    long downloadedSize = downloadFileInfo.getDownloadedSizeLong();
-                    long fileSize = downloadFileInfo.getFileSizeLong();
-
-                    if (downloadedSize == fileSize) {
-                        // mFinishState.status should completed
-                        if (mFinishState != null) {
-                            if (mFinishState.status != Status.DOWNLOAD_STATUS_COMPLETED) {
-                                mFinishState = new FinishState(Status.DOWNLOAD_STATUS_COMPLETED);
-                            }
-                        } else {
+    private void onRunException(Exception e) {
+
+        e.printStackTrace();
+
+        int status = Status.DOWNLOAD_STATUS_ERROR;
+
+        // special error, file not exist
+        if (e instanceof FileSaveException) {
+            FileSaveException fileSaveException = (FileSaveException) e;
+            if (FileSaveException.TYPE_TEMP_FILE_DOES_NOT_EXIST.equals(fileSaveException.getType())) {
+                status = Status.DOWNLOAD_STATUS_FILE_NOT_EXIST;
+            }
+        }
+        mFinishState = new FinishState(status, new OnFileDownloadStatusFailReason(getUrl(), e));
+    }
+
+    /**
+     * finish the run, notify caller by the FinishState
+     */
+    private void finishRun() {
+
+        String url = getUrl();
+
+
+        // ------------start checking mFinishState------------
+        {
+            DownloadFileInfo downloadFileInfo = getDownloadFile();
+            if (downloadFileInfo == null) {
+                FileDownloadStatusFailReason failReason = new OnFileDownloadStatusFailReason(url, "the " +
+                        "DownloadFile " +
+                        "is" + " null, may be not deleted ?", OnFileDownloadStatusFailReason.TYPE_NULL_POINTER);
+                mFinishState = new FinishState(Status.DOWNLOAD_STATUS_ERROR, failReason);
+            } else {
+                // confirm the download file size
+                long downloadedSize = downloadFileInfo.getDownloadedSizeLong();
+                long fileSize = downloadFileInfo.getFileSizeLong();
+
+                if (downloadedSize == fileSize) {
+                    // mFinishState.status should completed
+                    if (mFinishState != null) {
+                        if (mFinishState.status != Status.DOWNLOAD_STATUS_COMPLETED) {
                             mFinishState = new FinishState(Status.DOWNLOAD_STATUS_COMPLETED);
                         }
-                    } else if (downloadedSize < fileSize) {
-                        // pause download, if mFinishState.failReason is null, mFinishState.status should paused
-                        if (mFinishState != null) {
-                            if (mFinishState.failReason == null) {
-                                if (!DownloadFileUtil.hasException(mFinishState.status)) {
-                                    mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
-                                }
+                    } else {
+                        mFinishState = new FinishState(Status.DOWNLOAD_STATUS_COMPLETED);
+                    }
+                } else if (downloadedSize < fileSize) {
+                    // pause download, if mFinishState.failReason is null, mFinishState.status should paused
+                    if (mFinishState != null) {
+                        if (mFinishState.failReason == null) {
+                            if (!DownloadFileUtil.hasException(mFinishState.status)) {
+                                mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
                             }
-                        } else {
-                            mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
                         }
                     } else {
-                        // error download
-                        FileDownloadStatusFailReason failReason = new OnFileDownloadStatusFailReason(url, "the " +
-                                "download " + "file size error !", OnFileDownloadStatusFailReason
-                                .TYPE_DOWNLOAD_FILE_ERROR);
-                        mFinishState = new FinishState(Status.DOWNLOAD_STATUS_ERROR, failReason);
+                        mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
                     }
+                } else {
+                    // error download
+                    FileDownloadStatusFailReason failReason = new OnFileDownloadStatusFailReason(url, "the " +
+                            "download " + "file size error !", OnFileDownloadStatusFailReason
+                            .TYPE_DOWNLOAD_FILE_ERROR);
+                    mFinishState = new FinishState(Status.DOWNLOAD_STATUS_ERROR, failReason);
                 }
             }
-            // ------------end checking mFinishState------------
+        }
+        // ------------end checking mFinishState------------
 
-            // stop internal impl
-            stopInternalImpl();
+        // stop internal impl
+        stopInternalImpl();
 
-            // identify cur task stopped
-            mIsTaskStop = true;
-            mIsRunning = false;
+        // identify cur task stopped
+        mIsTaskStop = true;
+        mIsRunning = false;
 
-            // ------------start notifying caller------------
-            {
-                // make sure to notify caller
-                notifyTaskFinish();
-                notifyStopTaskSucceedIfNecessary();
-            }
-            // ------------end notifying caller------------
+        // ------------start notifying caller------------
+        {
+            // make sure to notify caller
+            notifyTaskFinish();
+            notifyStopTaskSucceedIfNecessary();
+        }
+        // ------------end notifying caller------------
 
-            if (mOnTaskRunFinishListener != null) {
-                mOnTaskRunFinishListener.onTaskRunFinish();
-            }
+        if (mOnTaskRunFinishListener != null) {
+            mOnTaskRunFinishListener.onTaskRunFinish();
+        }
 
-            boolean hasException = (mFinishState != null && mFinishState.failReason != null && DownloadFileUtil
-                    .hasException(mFinishState.status)) ? true : false;
+        boolean hasException = (mFinishState != null && mFinishState.failReason != null && DownloadFileUtil
+                .hasException(mFinishState.status)) ? true : false;
 
-            Log.d(TAG, TAG + ".run 7、文件下载任务【已结束】，是否有异常：" + hasException + "，url：" + url);
-        }
+        Log.d(TAG, TAG + ".run 7、文件下载任务【已结束】，是否有异常：" + hasException + "，url：" + url);
     }
 
     // ----------------------all callback methods below are sync in cur task run method----------------------
@@ -498,8 +806,9 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
             return;
         }
 
-        // save data
+        // save data, the data before the start pos has been synced
         try {
+            mDownloadRecorder.recordSyncedDownloadedSize(getUrl(), startPosInTotal);
             mSaver.saveData(inputStream, startPosInTotal);
         } catch (FileSaveException e) {
             e.printStackTrace();
@@ -509,6 +818,28 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
         }
     }
 
+    // 3.segment download connected
+    @Override
+    public boolean onSegmentDownloadConnected() {
+
+        if (mIsTaskStop) {
+            // stop internal impl
+            stopInternalImpl();
+            // wait for the task run method finished,notifyTaskFinish()
+            return false;
+        }
+
+        Log.d(TAG, TAG + ".run 3、已经连接到资源（分段），url：" + getUrl());
+
+        if (!notifyStatusPrepared()) {
+            // stop internal impl
+            stopInternalImpl();
+            // wait for the task run method finished,notifyTaskFinish()
+            return false;
+        }
+        return true;
+    }
+
     // 4.start save data
     @Override
     public void onSaveDataStart() {
@@ -551,6 +882,13 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
         }
     }
 
+    // 5.saved data synced
+    @Override
+    public void onSyncedData(long syncedPosInTotal) {
+        // the downloaded size persisted follows the synced data, the SegmentDownloader records it by the segments
+        mDownloadRecorder.recordSyncedDownloadedSize(getUrl(), syncedPosInTotal);
+    }
+
     // 6.save end
     @Override
     public void onSaveDataEnd(int increaseSize, boolean complete) {
@@ -568,6 +906,69 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
         // save finished, wait for the task run method finished, notifyTaskFinish()
     }
 
+    // ----------------------the callbacks below are in the callback thread of the selector engine----------------------
+
+    // 3.download connected by the selector engine
+    @Override
+    public boolean onNioDownloadConnected(long startPosInTotal, long contentLength) {
+
+        if (mIsTaskStop) {
+            // stop internal impl
+            stopInternalImpl();
+            // wait for the download finished, the task run again, notifyTaskFinish()
+            return false;
+        }
+
+        Log.d(TAG, TAG + ".run 3、已经连接到资源（selector引擎），url：" + getUrl());
+
+        if (!notifyStatusPrepared()) {
+            // stop internal impl
+            stopInternalImpl();
+            // wait for the download finished, the task run again, notifyTaskFinish()
+            return false;
+        }
+
+        // 4.start save data, the data before the start pos has been synced
+        mDownloadRecorder.recordSyncedDownloadedSize(getUrl(), startPosInTotal);
+        onSaveDataStart();
+
+        return !mIsTaskStop && !mSaver.isStopped();
+    }
+
+    // 5.saving data by the selector engine
+    @Override
+    public void onNioDownloading(int increaseSize, long totalSize) {
+        onSavingData(increaseSize, totalSize);
+    }
+
+    // 5.saved data synced by the selector engine
+    @Override
+    public void onNioDataSynced(long syncedPosInTotal) {
+        mNioSyncedPos = syncedPosInTotal;
+        onSyncedData(syncedPosInTotal);
+    }
+
+    // 6.download by the selector engine finished
+    @Override
+    public void onNioDownloadFinished(boolean complete, Exception exception) {
+
+        if (exception != null) {
+            mNioDownloadException = exception;
+        } else {
+            onSaveDataEnd(0, complete);
+        }
+
+        // resume the task to finish
+        if (mOnParkTaskListener != null) {
+            mOnParkTaskListener.onResumeParkedTask(getUrl(), new Runnable() {
+                @Override
+                public void run() {
+                    resumeParked();
+                }
+            });
+        }
+    }
+
     // --------------------------------------notify caller--------------------------------------
 
     /**
@@ -885,6 +1286,12 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
                     if (!mSaver.isStopped()) {
                         mSaver.stop();// will cause the task run method end
                     }
+                    if (mSegmentDownloader != null && !mSegmentDownloader.isStopped()) {
+                        mSegmentDownloader.stop();// will cause the task run method end
+                    }
+                    if (mNioDownloader != null && !mNioDownloader.isStopped()) {
+                        mNioDownloader.stop();// will cause the task run again
+                    }
                     if (!mIsRunning) {
                         // notify stopped
                         notifyTaskFinish();
@@ -896,6 +1303,12 @@ class DownloadTaskImpl implements DownloadTask, OnHttpDownloadListener, OnFileSa
             if (!mSaver.isStopped()) {
                 mSaver.stop();// will cause the task run method end
             }
+            if (mSegmentDownloader != null && !mSegmentDownloader.isStopped()) {
+                mSegmentDownloader.stop();// will cause the task run method end
+            }
+            if (mNioDownloader != null && !mNioDownloader.isStopped()) {
+                mNioDownloader.stop();// will cause the task run again
+            }
             if (!mIsRunning) {
                 // notify stopped
                 notifyTaskFinish();
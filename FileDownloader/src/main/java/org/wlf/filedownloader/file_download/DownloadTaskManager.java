@@ -1,5 +1,6 @@
 package org.wlf.filedownloader.file_download;
 
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import org.wlf.filedownloader.DownloadConfiguration;
@@ -11,6 +12,8 @@ import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.base.Status;
 import org.wlf.filedownloader.file_download.base.DownloadRecorder;
 import org.wlf.filedownloader.file_download.base.DownloadTask;
+import org.wlf.filedownloader.file_download.base.OnParkTaskListener;
+import org.wlf.filedownloader.file_download.base.OnScheduleRetryListener;
 import org.wlf.filedownloader.file_download.base.OnStopFileDownloadTaskListener;
 import org.wlf.filedownloader.file_download.base.OnStopFileDownloadTaskListener.StopDownloadFileTaskFailReason;
 import org.wlf.filedownloader.file_download.base.OnTaskRunFinishListener;
@@ -22,7 +25,6 @@ import org.wlf.filedownloader.listener.OnDetectUrlFileListener.DetectUrlFileFail
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener;
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener.FileDownloadStatusFailReason;
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener.OnFileDownloadStatusFailReason;
-import org.wlf.filedownloader.util.CollectionUtil;
 import org.wlf.filedownloader.util.DownloadFileUtil;
 import org.wlf.filedownloader.util.FileUtil;
 import org.wlf.filedownloader.util.NetworkUtil;
@@ -33,6 +35,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * DownloadTaskManager,to manage download tasks
@@ -68,6 +74,28 @@ public class DownloadTaskManager implements Pauseable {
      * all download tasks those are running
      */
     private Map<String, DownloadTask> mRunningDownloadTaskMap = new ConcurrentHashMap<String, DownloadTask>();
+    /**
+     * the urls of the download tasks those are executing in the download engine
+     */
+    private Map<String, Boolean> mExecutingDownloadTaskUrls = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * the count of the download tasks waiting for a download thread
+     */
+    private AtomicInteger mWaitingDownloadTaskCount = new AtomicInteger(0);
+    /**
+     * the count of the download tasks executing in the download engine
+     */
+    private AtomicInteger mRunningDownloadTaskCount = new AtomicInteger(0);
+    /**
+     * the count of the download tasks finished since the manager created
+     */
+    private AtomicLong mFinishedDownloadTaskCount = new AtomicLong(0);
+
+    /**
+     * DownloadTaskScheduler, which to run download tasks by priority
+     */
+    private DownloadTaskScheduler mDownloadTaskScheduler;
 
     private Object mDownloadTaskLock = new Object();
 
@@ -88,6 +116,29 @@ public class DownloadTaskManager implements Pauseable {
         mDetectUrlFileCacher = new DetectUrlFileCacher();
         // init DownloadFileStatusObserver
         mDownloadStatusObserver = new DownloadStatusObserver();
+        // init the cache time of the redirected urls
+        RedirectedHostCache.getInstance().setResolvedUrlCacheTime(mConfiguration.getRedirectCacheTime());
+        // init DownloadTaskScheduler
+        mDownloadTaskScheduler = new DownloadTaskScheduler(mConfiguration);
+        mDownloadTaskScheduler.setPreemptive(mConfiguration.isDownloadTaskPreemptive(), new
+                DownloadTaskScheduler.OnPreemptDownloadTaskListener() {
+                    @Override
+                    public void onPreemptDownloadTask(String url) {
+                        // pause the preempted task, it will be scheduled again after it finished
+                        pauseInternal(url, null);
+                    }
+
+                    @Override
+                    public void onPreemptedDownloadTaskFinished(String url, int priority, DownloadConfiguration
+                            downloadConfiguration) {
+                        DownloadFileInfo downloadFileInfo = getDownloadFile(url);
+                        // paused by the preemption, continue downloading later
+                        if (downloadFileInfo != null && downloadFileInfo.getStatus() == Status
+                                .DOWNLOAD_STATUS_PAUSED) {
+                            addAndRunDownloadTask(url, downloadFileInfo, downloadConfiguration, priority);
+                        }
+                    }
+                });
     }
 
     /**
@@ -231,8 +282,9 @@ public class DownloadTaskManager implements Pauseable {
     /**
      * start a detect url file task
      */
-    private void addAndRunDetectUrlFileTask(String url, boolean forceDetect, OnDetectBigUrlFileListener
-            onDetectBigUrlFileListener, DownloadConfiguration downloadConfiguration) {
+    private void addAndRunDetectUrlFileTask(String url, boolean forceDetect, boolean detectAndStream,
+                                            OnDetectBigUrlFileListener onDetectBigUrlFileListener,
+                                            DownloadConfiguration downloadConfiguration) {
 
         // ------------start checking conditions & notifying caller if necessary------------
         {
@@ -267,6 +319,11 @@ public class DownloadTaskManager implements Pauseable {
         // set the CloseConnectionEngine
         detectUrlFileTask.setCloseConnectionEngine(mConfiguration.getFileOperationEngine());
         detectUrlFileTask.setConnectTimeout(mConfiguration.getConnectTimeout());
+        detectUrlFileTask.setHostCircuitBreaker(mConfiguration.getHostCircuitBreaker());
+        detectUrlFileTask.setSslContextProvider(mConfiguration.getSslContextProvider());
+        detectUrlFileTask.setKeepAlivePool(mConfiguration.getKeepAlivePool());
+        detectUrlFileTask.setTransport(mConfiguration.getTransport());
+        detectUrlFileTask.setDetectedConnectionCache(mConfiguration.getDetectedConnectionCache());
         if (downloadConfiguration != null) {
             detectUrlFileTask.setRequestMethod(downloadConfiguration.getRequestMethod(url));
             // set headers
@@ -276,6 +333,10 @@ public class DownloadTaskManager implements Pauseable {
             // enableForceDetectMode
             detectUrlFileTask.enableForceDetect();
         }
+        if (detectAndStream) {
+            // enableDetectAndStream
+            detectUrlFileTask.enableDetectAndStream();
+        }
 
         // exec the DetectUrlFileTask
         mConfiguration.getFileDetectEngine().execute(detectUrlFileTask);
@@ -286,6 +347,16 @@ public class DownloadTaskManager implements Pauseable {
      */
     private void addAndRunDownloadTask(final String callerUrl, DownloadFileInfo downloadFileInfo,
                                        DownloadConfiguration downloadConfiguration) {
+        addAndRunDownloadTask(callerUrl, downloadFileInfo, downloadConfiguration, -1);
+    }
+
+    /**
+     * start a download task
+     *
+     * @param downloadPriority the priority of the task, -1 means use the priority in the configurations
+     */
+    private void addAndRunDownloadTask(final String callerUrl, DownloadFileInfo downloadFileInfo, final
+    DownloadConfiguration downloadConfiguration, int downloadPriority) {
 
         FileDownloadStatusFailReason failReason = null;// null means there are not errors
 
@@ -334,9 +405,7 @@ public class DownloadTaskManager implements Pauseable {
             DownloadTask taskInMap = mRunningDownloadTaskMap.get(callerUrl);
             if (taskInMap != null) {
                 // running, ignore
-                Map<Thread, StackTraceElement[]> threads = Thread.getAllStackTraces();
-                Log.d(TAG, "mRunningDownloadTaskMap，忽略1：" + callerUrl + "，old task：" + taskInMap.hashCode() +
-                        "，线程数：" + threads.size());
+                Log.d(TAG, "mRunningDownloadTaskMap，忽略1：" + callerUrl + "，old task：" + taskInMap.hashCode());
                 return;
             }
         }
@@ -344,8 +413,12 @@ public class DownloadTaskManager implements Pauseable {
         // use global configuration first
         int retryDownloadTimes = mConfiguration.getRetryDownloadTimes();
         int connectTimeout = mConfiguration.getConnectTimeout();
+        int downloadSegmentCount = mConfiguration.getDownloadSegmentCount();
+        int priority = mConfiguration.getDownloadPriority();
+        int bandwidthWeight = mConfiguration.getBandwidthWeight();
         String requestMethod = DownloadConfiguration.DEFAULT_REQUEST_METHOD;
         Map<String, String> headers = null;
+        boolean acceptEncoding = false;
 
         if (downloadConfiguration != null) {
             int localRetryDownloadTimes = downloadConfiguration.getRetryDownloadTimes(callerUrl);
@@ -356,6 +429,18 @@ public class DownloadTaskManager implements Pauseable {
             if (localConnectTimeout != Builder.DEFAULT_CONNECT_TIMEOUT) {
                 connectTimeout = localConnectTimeout;
             }
+            int localDownloadSegmentCount = downloadConfiguration.getDownloadSegmentCount(callerUrl);
+            if (localDownloadSegmentCount != Builder.DEFAULT_DOWNLOAD_SEGMENT_COUNT) {
+                downloadSegmentCount = localDownloadSegmentCount;
+            }
+            int localBandwidthWeight = downloadConfiguration.getBandwidthWeight(callerUrl);
+            if (localBandwidthWeight != Builder.DEFAULT_BANDWIDTH_WEIGHT) {
+                bandwidthWeight = localBandwidthWeight;
+            }
+            int localDownloadPriority = downloadConfiguration.getDownloadPriority(callerUrl);
+            if (localDownloadPriority != Builder.DEFAULT_DOWNLOAD_PRIORITY) {
+                priority = localDownloadPriority;
+            }
             String localRequestMethod = downloadConfiguration.getRequestMethod(callerUrl);
             if (TextUtils.isEmpty(localRequestMethod)) {
                 localRequestMethod = DownloadConfiguration.DEFAULT_REQUEST_METHOD;
@@ -364,27 +449,83 @@ public class DownloadTaskManager implements Pauseable {
                 requestMethod = localRequestMethod;
             }
             headers = downloadConfiguration.getHeaders(callerUrl);
+            acceptEncoding = downloadConfiguration.isAcceptEncoding(callerUrl);
+        }
+
+        if (downloadPriority >= 0) {
+            priority = downloadPriority;
+        }
+
+        FileDownloadTaskParam taskParamInfo = FileDownloadTaskParam.createByDownloadFile(downloadFileInfo,
+                requestMethod, headers);
+        if (taskParamInfo != null) {
+            taskParamInfo.setAcceptEncoding(acceptEncoding);
         }
 
+        // the options of the task, shared by all the layers of the task
+        DownloadTaskOptions options = new DownloadTaskOptions(mConfiguration, connectTimeout, downloadSegmentCount);
+
         // create retryable download task
-        final RetryableDownloadTaskImpl downloadTask = new RetryableDownloadTaskImpl(FileDownloadTaskParam
-                .createByDownloadFile(downloadFileInfo, requestMethod, headers), mDownloadRecorder,
-                mDownloadStatusObserver);
-        downloadTask.setCloseConnectionEngine(mConfiguration.getFileOperationEngine());
+        final RetryableDownloadTaskImpl downloadTask = new RetryableDownloadTaskImpl(taskParamInfo, options,
+                mDownloadRecorder, mDownloadStatusObserver);
         // set RetryDownloadTimes
         downloadTask.setRetryDownloadTimes(retryDownloadTimes);
-        downloadTask.setConnectTimeout(connectTimeout);
+
+        final Runnable runTask = new Runnable() {
+            @Override
+            public void run() {
+                // the task leaves the waiting queue and gets a download thread
+                mExecutingDownloadTaskUrls.put(downloadTask.getUrl(), Boolean.TRUE);
+                mWaitingDownloadTaskCount.decrementAndGet();
+                mRunningDownloadTaskCount.incrementAndGet();
+                // run the task, onTaskRunFinish() or onScheduleRetry() will be called at the end
+                downloadTask.run();
+            }
+        };
+
+        downloadTask.setOnScheduleRetryListener(new OnScheduleRetryListener() {
+            @Override
+            public void onScheduleRetry(String url, long delay) {
+
+                // the task gives back the download thread and waits for retry
+                mExecutingDownloadTaskUrls.remove(url);
+                mRunningDownloadTaskCount.decrementAndGet();
+                mWaitingDownloadTaskCount.incrementAndGet();
+
+                mDownloadTaskScheduler.scheduleRetry(url, delay, runTask);
+
+                Log.d(TAG, "mRunningDownloadTaskMap，--等待重试--：" + url + "，task：" + downloadTask.hashCode() +
+                        "，延迟：" + delay + "ms");
+            }
+        });
+        downloadTask.setOnParkTaskListener(new OnParkTaskListener() {
+            @Override
+            public void onParkTask(String url) {
+                // the download is driven by the selector engine, the download thread will be released
+                mDownloadTaskScheduler.park(url);
+            }
+
+            @Override
+            public void onResumeParkedTask(String url, Runnable resumeTask) {
+                // the task is still running, run its continuation without counting
+                mDownloadTaskScheduler.resume(url, resumeTask);
+            }
+        });
         downloadTask.setOnTaskRunFinishListener(new OnTaskRunFinishListener() {
             @Override
             public void onTaskRunFinish() {
 
                 synchronized (mDownloadTaskLock) {
+                    mConfiguration.getBandwidthLimiter().removeWeight(downloadTask.getUrl());
                     mRunningDownloadTaskMap.remove(downloadTask.getUrl());
-
-                    Map<Thread, StackTraceElement[]> threads = Thread.getAllStackTraces();
-                    Log.e(TAG, "mRunningDownloadTaskMap，--移除--：" + downloadTask.getUrl() + "，task：" + downloadTask
-                            .hashCode() + "，线程数：" + threads.size());
+                    mExecutingDownloadTaskUrls.remove(downloadTask.getUrl());
                 }
+
+                mRunningDownloadTaskCount.decrementAndGet();
+                mFinishedDownloadTaskCount.incrementAndGet();
+
+                Log.d(TAG, "mRunningDownloadTaskMap，--移除--：" + downloadTask.getUrl() + "，task：" + downloadTask
+                        .hashCode() + "，执行中任务数：" + mRunningDownloadTaskCount.get());
             }
         });
 
@@ -394,21 +535,25 @@ public class DownloadTaskManager implements Pauseable {
             DownloadTask taskInMap = mRunningDownloadTaskMap.get(downloadTask.getUrl());
             if (taskInMap != null) {
                 // running, ignore
-                Map<Thread, StackTraceElement[]> threads = Thread.getAllStackTraces();
                 Log.d(TAG, "mRunningDownloadTaskMap，忽略2：" + downloadTask.getUrl() + "，old task：" + taskInMap.hashCode
-                        () + "，线程数：" + threads.size());
+                        ());
                 return;
             }
 
             // record in the task map
             mRunningDownloadTaskMap.put(downloadTask.getUrl(), downloadTask);
-
-            Map<Thread, StackTraceElement[]> threads = Thread.getAllStackTraces();
-            Log.d(TAG, "mRunningDownloadTaskMap，--增加--：" + downloadTask.getUrl() + "，task：" + downloadTask.hashCode()
-                    + "，线程数：" + threads.size());
+            // the weight to share the global bandwidth
+            mConfiguration.getBandwidthLimiter().setWeight(downloadTask.getUrl(), bandwidthWeight);
         }
-        // exec the task
-        mConfiguration.getFileDownloadEngine().execute(downloadTask);
+
+        mWaitingDownloadTaskCount.incrementAndGet();
+
+        Log.d(TAG, "mRunningDownloadTaskMap，--增加--：" + downloadTask.getUrl() + "，task：" + downloadTask.hashCode() +
+                "，等待中任务数：" + mWaitingDownloadTaskCount.get());
+
+        // schedule the task by priority
+        mDownloadTaskScheduler.schedule(downloadTask.getUrl(), priority, downloadSegmentCount, downloadConfiguration,
+                runTask);
     }
 
     // --------------------------------------notify caller--------------------------------------
@@ -507,6 +652,8 @@ public class DownloadTaskManager implements Pauseable {
     private void notifyReleased(OnReleaseListener onReleaseListener) {
         // clear detect cache
         mDetectUrlFileCacher.release();
+        // release the detected connections not taken
+        mConfiguration.getDetectedConnectionCache().release();
         // observer release
         mDownloadStatusObserver.release();
 
@@ -523,8 +670,17 @@ public class DownloadTaskManager implements Pauseable {
      */
     private void detectInternal(String url, boolean forceDetect, OnDetectBigUrlFileListener
             onDetectBigUrlFileListener, DownloadConfiguration downloadConfiguration) {
+        detectInternal(url, forceDetect, false, onDetectBigUrlFileListener, downloadConfiguration);
+    }
+
+    /**
+     * detect a big url file, the detected connection is handed to the download task if detect and stream
+     */
+    private void detectInternal(String url, boolean forceDetect, boolean detectAndStream, OnDetectBigUrlFileListener
+            onDetectBigUrlFileListener, DownloadConfiguration downloadConfiguration) {
         // start detect task
-        addAndRunDetectUrlFileTask(url, forceDetect, onDetectBigUrlFileListener, downloadConfiguration);
+        addAndRunDetectUrlFileTask(url, forceDetect, detectAndStream, onDetectBigUrlFileListener,
+                downloadConfiguration);
     }
 
     /**
@@ -625,26 +781,11 @@ public class DownloadTaskManager implements Pauseable {
     private int checkFileNameInternal(String fileNamePath, int index) {
         String checkFileNamePath = fileNamePath + (index > 0 ? index : "");
         if (!TextUtils.isEmpty(checkFileNamePath)) {
-            List<DownloadFileInfo> downloadFileInfos = mDownloadRecorder.getDownloadFiles();
-            if (!CollectionUtil.isEmpty(downloadFileInfos)) {
-                boolean isFindSame = false;
-                for (DownloadFileInfo info : downloadFileInfos) {
-                    if (info == null) {
-                        continue;
-                    }
-                    if (checkFileNamePath.equals(info.getFilePath())) {
-                        // there is a same one
-                        isFindSame = true;
-                        break;
-                    }
-                }
-
-                if (isFindSame) {
-                    // recursion
-                    return checkFileNameInternal(fileNamePath, ++index);
-                } else {
-                    return index;
-                }
+            // look up by the save path index
+            DownloadFileInfo info = mDownloadRecorder.getDownloadFileBySavePath(checkFileNamePath, false);
+            if (info != null) {
+                // there is a same one, recursion
+                return checkFileNameInternal(fileNamePath, ++index);
             }
         }
         return index;
@@ -674,6 +815,8 @@ public class DownloadTaskManager implements Pauseable {
 
         // error occur
         if (failReason != null) {
+            // the detected connection will not be taken
+            mConfiguration.getDetectedConnectionCache().discard(callerUrl);
             // notify caller
             notifyDownloadStatusFailed(callerUrl, failReason, getDownloadFile(callerUrl) != null);
             return;
@@ -729,8 +872,11 @@ public class DownloadTaskManager implements Pauseable {
             // not detect
             else {
                 final String finalUrl = url;
-                // detect first
-                detect(finalUrl, new OnDetectBigUrlFileListener() {
+                // detect first, the body of the detect response can be used by the download task directly
+                // the body of the detect response is not encoded, connect again to get the smaller encoded one
+                boolean isDetectAndStream = mConfiguration.isDetectAndStream() && (downloadConfiguration == null ||
+                        !downloadConfiguration.isAcceptEncoding(finalUrl));
+                detectInternal(finalUrl, false, isDetectAndStream, new OnDetectBigUrlFileListener() {
                     @Override
                     public void onDetectUrlFileFailed(String url, DetectBigUrlFileFailReason failReason) {
                         // notify download status caller
@@ -809,6 +955,11 @@ public class DownloadTaskManager implements Pauseable {
             });
             // stop the download task
             downloadTask.stop();
+            // the task is still waiting, run it now to finish, it will not take a download thread
+            Runnable waitingTask = mDownloadTaskScheduler.cancel(finalUrl);
+            if (waitingTask != null) {
+                mConfiguration.getFileOperationEngine().execute(waitingTask);
+            }
         } else {
             StopDownloadFileTaskFailReason failReason = new StopDownloadFileTaskFailReason(finalUrl, "the download "
                     + "task has been paused !", StopDownloadFileTaskFailReason.TYPE_TASK_HAS_BEEN_STOPPED);
@@ -837,6 +988,227 @@ public class DownloadTaskManager implements Pauseable {
         return getRunningDownloadTask(url) != null;
     }
 
+    // --------------------------------------introspection--------------------------------------
+
+    /**
+     * get the count of the download tasks waiting for a download thread
+     *
+     * @return the count of the waiting download tasks
+     */
+    public int getWaitingDownloadTaskCount() {
+        return mWaitingDownloadTaskCount.get();
+    }
+
+    /**
+     * get the count of the download tasks executing in the download engine
+     *
+     * @return the count of the running download tasks
+     */
+    public int getRunningDownloadTaskCount() {
+        return mRunningDownloadTaskCount.get();
+    }
+
+    /**
+     * get the count of the download tasks finished since the manager created
+     *
+     * @return the count of the finished download tasks
+     */
+    public long getFinishedDownloadTaskCount() {
+        return mFinishedDownloadTaskCount.get();
+    }
+
+    /**
+     * get the count of the threads actively running download tasks and download segments
+     *
+     * @return the count of the active download threads
+     */
+    public int getActiveDownloadThreadCount() {
+        return getActiveThreadCount(mConfiguration.getFileDownloadEngine()) + getActiveThreadCount(mConfiguration
+                .getFileDownloadSegmentEngine());
+    }
+
+    /**
+     * get the active download connections of the host
+     *
+     * @param host the host after redirection
+     * @return the active download connections of the host
+     */
+    public int getActiveDownloadConnectionCount(String host) {
+        if (host == null) {
+            return 0;
+        }
+        return mDownloadTaskScheduler.getActiveConnectionCount(host.trim().toLowerCase());
+    }
+
+    /**
+     * get the circuit breaker state of the host, the download tasks of the host are parked if it is OPEN
+     *
+     * @param host the host after redirection
+     * @return the circuit breaker state of the host
+     */
+    public HostCircuitBreaker.State getHostCircuitBreakerState(String host) {
+        if (host == null) {
+            return HostCircuitBreaker.State.CLOSED;
+        }
+        return mConfiguration.getHostCircuitBreaker().getState(host.trim().toLowerCase());
+    }
+
+    /**
+     * get the state of the download task of the url
+     *
+     * @param url file url
+     * @return the state of the download task, null means there is no download task of the url
+     */
+    public DownloadTaskState getDownloadTaskState(String url) {
+        DownloadTask task = mRunningDownloadTaskMap.get(url);
+        if (task == null) {
+            return null;
+        }
+        if (task instanceof RetryableDownloadTaskImpl && ((RetryableDownloadTaskImpl) task).isRetryPending()) {
+            return DownloadTaskState.RETRY_PENDING;
+        }
+        if (!mExecutingDownloadTaskUrls.containsKey(url)) {
+            return DownloadTaskState.WAITING;
+        }
+        return task.isStopped() ? DownloadTaskState.STOPPING : DownloadTaskState.RUNNING;
+    }
+
+    /**
+     * get the remaining time before the next attempt of the download task waiting for retry
+     *
+     * @param url file url
+     * @return the remaining time, millisecond, -1 means the task is not waiting for retry
+     */
+    public long getRetryRemainingTime(String url) {
+        long retryTime = mDownloadTaskScheduler.getRetryTime(url);
+        if (retryTime < 0) {
+            return -1;
+        }
+        return Math.max(0, retryTime - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * get the retried times of the download task of the url
+     *
+     * @param url file url
+     * @return the retried times, -1 means there is no download task of the url
+     */
+    public int getRetriedTimes(String url) {
+        DownloadTask task = mRunningDownloadTaskMap.get(url);
+        if (!(task instanceof RetryableDownloadTaskImpl)) {
+            return -1;
+        }
+        return ((RetryableDownloadTaskImpl) task).getRetriedTimes();
+    }
+
+    /**
+     * get the bytes transferred on the network of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the bytes transferred, -1 means the url is not downloaded encoded
+     */
+    public long getWireDownloadedSize(String url) {
+        return ContentEncodingStatistics.getInstance().getWireSize(url);
+    }
+
+    /**
+     * get the bytes decoded and saved of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the bytes decoded, -1 means the url is not downloaded encoded
+     */
+    public long getDecodedDownloadedSize(String url) {
+        return ContentEncodingStatistics.getInstance().getDecodedSize(url);
+    }
+
+    /**
+     * get the Content-Encoding of the last encoded download of the url
+     *
+     * @param url file url
+     * @return the Content-Encoding, null means the url is not downloaded encoded
+     */
+    public String getDownloadContentEncoding(String url) {
+        return ContentEncodingStatistics.getInstance().getContentEncoding(url);
+    }
+
+    /**
+     * get the bytes transferred on the network of all encoded downloads
+     *
+     * @return the bytes transferred
+     */
+    public long getTotalWireDownloadedSize() {
+        return ContentEncodingStatistics.getInstance().getTotalWireSize();
+    }
+
+    /**
+     * get the bytes decoded and saved of all encoded downloads
+     *
+     * @return the bytes decoded
+     */
+    public long getTotalDecodedDownloadedSize() {
+        return ContentEncodingStatistics.getInstance().getTotalDecodedSize();
+    }
+
+    /**
+     * get the active thread count of the engine
+     */
+    private int getActiveThreadCount(ExecutorService engine) {
+        if (engine instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) engine).getActiveCount();
+        }
+        return 0;
+    }
+
+    /**
+     * set the global download bandwidth limit, it takes effect on the running downloads immediately
+     *
+     * @param globalBandwidthLimit bytes per second, 0 or less means no limit
+     */
+    public void setGlobalBandwidthLimit(long globalBandwidthLimit) {
+        mConfiguration.getBandwidthLimiter().setGlobalLimit(globalBandwidthLimit);
+    }
+
+    /**
+     * set the download bandwidth limit of the url, it takes effect on the running download immediately
+     *
+     * @param url            file url
+     * @param bandwidthLimit bytes per second, 0 or less means no limit
+     */
+    public void setBandwidthLimit(String url, long bandwidthLimit) {
+        mConfiguration.getBandwidthLimiter().setLimit(url, bandwidthLimit);
+    }
+
+    /**
+     * change the priority of a waiting or running download task
+     *
+     * @param url              file url
+     * @param downloadPriority please set {@link Builder#MIN_DOWNLOAD_PRIORITY} to {@link
+     *                         Builder#MAX_DOWNLOAD_PRIORITY}
+     * @return true means changed, false means there is no waiting or running download task of the url
+     */
+    public boolean setDownloadPriority(String url, int downloadPriority) {
+        if (downloadPriority > Builder.MAX_DOWNLOAD_PRIORITY) {
+            downloadPriority = Builder.MAX_DOWNLOAD_PRIORITY;
+        } else if (downloadPriority < Builder.MIN_DOWNLOAD_PRIORITY) {
+            downloadPriority = Builder.MIN_DOWNLOAD_PRIORITY;
+        }
+        boolean isChanged = mDownloadTaskScheduler.setPriority(url, downloadPriority);
+
+        Log.d(TAG, "setDownloadPriority 修改下载优先级，url：" + url + "，优先级：" + downloadPriority + "，是否成功：" + isChanged);
+
+        return isChanged;
+    }
+
+    /**
+     * get the priority of a waiting or running download task
+     *
+     * @param url file url
+     * @return the priority, -1 means there is no waiting or running download task of the url
+     */
+    public int getDownloadPriority(String url) {
+        return mDownloadTaskScheduler.getPriority(url);
+    }
+
     @Override
     public void pause(String url, OnStopFileDownloadTaskListener onStopFileDownloadTaskListener) {
         pauseInternal(url, onStopFileDownloadTaskListener);
@@ -1014,4 +1386,26 @@ public class DownloadTaskManager implements Pauseable {
     public interface OnReleaseListener {
         void onReleased();
     }
+
+    /**
+     * the state of a download task
+     */
+    public static enum DownloadTaskState {
+        /**
+         * the task is waiting for a download thread
+         */
+        WAITING,
+        /**
+         * the task is running in a download thread
+         */
+        RUNNING,
+        /**
+         * the task is stopped but not finished yet
+         */
+        STOPPING,
+        /**
+         * the task failed and is waiting for retry, it does not take a download thread
+         */
+        RETRY_PENDING
+    }
 }
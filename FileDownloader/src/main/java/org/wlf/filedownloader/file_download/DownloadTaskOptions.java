@@ -0,0 +1,176 @@
+package org.wlf.filedownloader.file_download;
+
+import org.wlf.filedownloader.FileDownloadConfiguration;
+import org.wlf.filedownloader.file_download.file_saver.BandwidthLimiter;
+import org.wlf.filedownloader.file_download.file_saver.BufferPool;
+import org.wlf.filedownloader.file_download.file_saver.FileSyncStrategy;
+import org.wlf.filedownloader.file_download.http_downloader.SelectorEngine;
+import org.wlf.filedownloader.file_download.transport.Transport;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * the options of a download task, built from the {@link FileDownloadConfiguration} when the task is created, it is
+ * immutable and shared by all the layers of the task
+ * <br/>
+ * 下载任务的选项，创建任务时由全局配置生成，不可变，任务的各层共用
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+final class DownloadTaskOptions {
+
+    private final ExecutorService mCloseConnectionEngine;// engine use for closing the download connection
+    private final int mConnectTimeout;// millisecond
+    private final int mReadTimeout;// millisecond
+
+    // for stall detection
+    private final long mMinDownloadSpeed;// bytes per second, 0 means not detect
+    private final long mStallWindow;// millisecond
+    private final long mDownloadTimeout;// the total time of the task including retries, 0 means no limit
+
+    private final int mDownloadSegmentCount;// 1 means not segment download
+    private final ExecutorService mDownloadSegmentEngine;// engine use for downloading segments
+    private final ExecutorService mFileWriteEngine;// engine use for writing the temp file, null means write by reading
+    private final boolean mIsPreallocateTempFile;
+
+    private final FileSyncStrategy mFileSyncStrategy;
+    private final long mFileSyncValue;
+
+    private final BandwidthLimiter mBandwidthLimiter;// null means no limit
+    private final BufferPool mBufferPool;// null means allocate the buffers every saving
+    private final HostCircuitBreaker mHostCircuitBreaker;// null means not record the connection outcomes
+    private final SslContextProvider mSslContextProvider;// null means the default
+    private final KeepAlivePool mKeepAlivePool;// null means always disconnect
+    private final Transport mTransport;// null means the default
+    private final DetectedConnectionCache mDetectedConnectionCache;// null means always connect
+    private final SelectorEngine mSelectorEngine;// null means always use the download thread
+
+    /**
+     * constructor of DownloadTaskOptions
+     *
+     * @param configuration        the global configuration
+     * @param connectTimeout       the connect timeout of the task, it may be configured for the url
+     * @param downloadSegmentCount the download segment count of the task, it may be configured for the url
+     */
+    DownloadTaskOptions(FileDownloadConfiguration configuration, int connectTimeout, int downloadSegmentCount) {
+
+        mCloseConnectionEngine = configuration.getFileOperationEngine();
+        mConnectTimeout = connectTimeout;
+        // read timeout equals to connect timeout if not configured
+        int readTimeout = configuration.getReadTimeout();
+        mReadTimeout = readTimeout > 0 ? readTimeout : connectTimeout;
+
+        long minDownloadSpeed = configuration.getMinDownloadSpeed();
+        long stallWindow = configuration.getStallWindow();
+        if (minDownloadSpeed <= 0 || stallWindow <= 0) {
+            mMinDownloadSpeed = 0;
+            mStallWindow = 0;
+        } else {
+            mMinDownloadSpeed = minDownloadSpeed;
+            mStallWindow = stallWindow;
+        }
+        mDownloadTimeout = configuration.getDownloadTimeout() > 0 ? configuration.getDownloadTimeout() : 0;
+
+        mDownloadSegmentCount = downloadSegmentCount > 1 ? downloadSegmentCount : 1;
+        mDownloadSegmentEngine = configuration.getFileDownloadSegmentEngine();
+        mFileWriteEngine = configuration.getFileWriteEngine();
+        mIsPreallocateTempFile = configuration.isPreallocateTempFile();
+
+        FileSyncStrategy fileSyncStrategy = configuration.getFileSyncStrategy();
+        mFileSyncStrategy = fileSyncStrategy != null ? fileSyncStrategy : FileSyncStrategy.SYNC_BY_TIME;
+        mFileSyncValue = configuration.getFileSyncValue() > 0 ? configuration.getFileSyncValue() : mFileSyncStrategy
+                .getValue();
+
+        mBandwidthLimiter = configuration.getBandwidthLimiter();
+        mBufferPool = configuration.getBufferPool();
+        mHostCircuitBreaker = configuration.getHostCircuitBreaker();
+        mSslContextProvider = configuration.getSslContextProvider();
+        mKeepAlivePool = configuration.getKeepAlivePool();
+        mTransport = configuration.getTransport();
+        mDetectedConnectionCache = configuration.getDetectedConnectionCache();
+        mSelectorEngine = configuration.getSelectorEngine();
+    }
+
+    // --------------------------------------getters--------------------------------------
+
+    ExecutorService getCloseConnectionEngine() {
+        return mCloseConnectionEngine;
+    }
+
+    int getConnectTimeout() {
+        return mConnectTimeout;
+    }
+
+    int getReadTimeout() {
+        return mReadTimeout;
+    }
+
+    long getMinDownloadSpeed() {
+        return mMinDownloadSpeed;
+    }
+
+    long getStallWindow() {
+        return mStallWindow;
+    }
+
+    long getDownloadTimeout() {
+        return mDownloadTimeout;
+    }
+
+    int getDownloadSegmentCount() {
+        return mDownloadSegmentCount;
+    }
+
+    ExecutorService getDownloadSegmentEngine() {
+        return mDownloadSegmentEngine;
+    }
+
+    ExecutorService getFileWriteEngine() {
+        return mFileWriteEngine;
+    }
+
+    boolean isPreallocateTempFile() {
+        return mIsPreallocateTempFile;
+    }
+
+    FileSyncStrategy getFileSyncStrategy() {
+        return mFileSyncStrategy;
+    }
+
+    long getFileSyncValue() {
+        return mFileSyncValue;
+    }
+
+    BandwidthLimiter getBandwidthLimiter() {
+        return mBandwidthLimiter;
+    }
+
+    BufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    HostCircuitBreaker getHostCircuitBreaker() {
+        return mHostCircuitBreaker;
+    }
+
+    SslContextProvider getSslContextProvider() {
+        return mSslContextProvider;
+    }
+
+    KeepAlivePool getKeepAlivePool() {
+        return mKeepAlivePool;
+    }
+
+    Transport getTransport() {
+        return mTransport;
+    }
+
+    DetectedConnectionCache getDetectedConnectionCache() {
+        return mDetectedConnectionCache;
+    }
+
+    SelectorEngine getSelectorEngine() {
+        return mSelectorEngine;
+    }
+}
@@ -0,0 +1,666 @@
+package org.wlf.filedownloader.file_download;
+
+import android.os.SystemClock;
+
+import org.wlf.filedownloader.DownloadConfiguration;
+import org.wlf.filedownloader.FileDownloadConfiguration;
+import org.wlf.filedownloader.base.Log;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the scheduler to run download tasks by priority
+ * <br/>
+ * 按优先级调度下载任务，等待中的任务优先级随等待时间增长，支持高优先级任务抢占正在运行的低优先级任务，
+ * 同时限制每个host的连接数，host已满的任务会被跳过，需要重试的任务由共享的定时器在延迟后重新排队，
+ * host熔断期间该host的任务暂停等待，host恢复后按优先级继续运行，
+ * 交给selector引擎下载的任务挂起期间释放下载线程，但仍占用host的连接数
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+class DownloadTaskScheduler {
+
+    private static final String TAG = DownloadTaskScheduler.class.getSimpleName();
+
+    /**
+     * the waiting time to raise one priority level, 30s
+     */
+    private static final long AGING_INTERVAL = 30 * 1000;// 30s
+
+    /**
+     * FileDownload Configuration, which stored global configurations
+     */
+    private FileDownloadConfiguration mConfiguration;
+    /**
+     * the engine to run download tasks
+     */
+    private ExecutorService mDownloadEngine;
+    /**
+     * the timer to schedule the retries
+     */
+    private ScheduledExecutorService mRetryTimerEngine;
+    /**
+     * max download tasks running at the same time
+     */
+    private int mMaxRunningTaskSize;
+    /**
+     * whether a higher priority task can preempt a running one
+     */
+    private boolean mIsPreemptive;
+    private OnPreemptDownloadTaskListener mOnPreemptDownloadTaskListener;
+    /**
+     * the circuit breakers of the hosts, the tasks of the open hosts are parked
+     */
+    private HostCircuitBreaker mHostCircuitBreaker;
+    /**
+     * the time to run the parked tasks again, -1 means not scheduled
+     */
+    private long mWakeUpTime = -1;
+
+    /**
+     * all scheduled tasks, include waiting and running ones
+     */
+    private Map<String, ScheduledTask> mScheduledTasks = new HashMap<String, ScheduledTask>();
+    /**
+     * waiting tasks, the highest effective priority first
+     */
+    private PriorityQueue<ScheduledTask> mWaitingTasks = new PriorityQueue<ScheduledTask>(11, new
+            Comparator<ScheduledTask>() {
+                @Override
+                public int compare(ScheduledTask lhs, ScheduledTask rhs) {
+                    // the effective priority is priority + waitedTime / AGING_INTERVAL, all waiting tasks grow at
+                    // the same speed, so the order can be compared by a fixed key
+                    long lhsKey = lhs.mPriority * AGING_INTERVAL - lhs.mScheduleTime;
+                    long rhsKey = rhs.mPriority * AGING_INTERVAL - rhs.mScheduleTime;
+                    if (lhsKey != rhsKey) {
+                        return lhsKey > rhsKey ? -1 : 1;
+                    }
+                    return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+                }
+            });
+    /**
+     * running tasks
+     */
+    private List<ScheduledTask> mRunningTasks = new ArrayList<ScheduledTask>();
+    /**
+     * active connections of hosts, host -> connection count
+     */
+    private Map<String, Integer> mHostConnectionCounts = new HashMap<String, Integer>();
+
+    private long mSequence = 0;
+
+    private Object mLock = new Object();
+
+    DownloadTaskScheduler(FileDownloadConfiguration configuration) {
+        mConfiguration = configuration;
+        mDownloadEngine = configuration.getFileDownloadEngine();
+        mRetryTimerEngine = configuration.getRetryTimerEngine();
+        mHostCircuitBreaker = configuration.getHostCircuitBreaker();
+        mHostCircuitBreaker.setOnHostRecoverListener(new HostCircuitBreaker.OnHostRecoverListener() {
+            @Override
+            public void onHostRecover(String host) {
+                // release the parked tasks by priority
+                synchronized (mLock) {
+                    runNextLocked();
+                }
+            }
+        });
+        int maxRunningTaskSize = configuration.getDownloadTaskSize();
+        mMaxRunningTaskSize = maxRunningTaskSize < 1 ? 1 : maxRunningTaskSize;
+    }
+
+    /**
+     * set whether a higher priority task can preempt a running one
+     */
+    void setPreemptive(boolean isPreemptive, OnPreemptDownloadTaskListener onPreemptDownloadTaskListener) {
+        mIsPreemptive = isPreemptive;
+        mOnPreemptDownloadTaskListener = onPreemptDownloadTaskListener;
+    }
+
+    /**
+     * schedule a download task
+     *
+     * @param url                   file url
+     * @param priority              the priority of the task
+     * @param connectionCount       the connections the task will take
+     * @param downloadConfiguration the DownloadConfiguration of the task, may null
+     * @param task                  the download task
+     */
+    void schedule(String url, int priority, int connectionCount, DownloadConfiguration downloadConfiguration,
+                  Runnable task) {
+
+        ScheduledTask preemptedTask = null;
+
+        // the host after redirection
+        String host = RedirectedHostCache.getInstance().getRedirectedHost(url);
+
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = new ScheduledTask(url, priority, downloadConfiguration, task);
+            scheduledTask.mHost = host != null ? host : "";
+            scheduledTask.mConnectionCount = connectionCount < 1 ? 1 : connectionCount;
+            scheduledTask.mScheduleTime = SystemClock.elapsedRealtime();
+            scheduledTask.mSequence = mSequence++;
+
+            mScheduledTasks.put(url, scheduledTask);
+            mWaitingTasks.offer(scheduledTask);
+
+            runNextLocked();
+
+            if (!scheduledTask.mIsRunning) {
+                preemptedTask = findPreemptedTaskLocked(scheduledTask);
+            }
+        }
+
+        notifyPreempt(preemptedTask);
+    }
+
+    /**
+     * schedule a retry of the running task, the task will wait in the queue again after the delay, it does not take
+     * a download thread during the delay, the running one releases its connections of the host at once, it must not
+     * touch the task any more after calling this
+     *
+     * @param url   file url
+     * @param delay the delay before the task waits in the queue again, millisecond
+     * @param task  the download task
+     */
+    void scheduleRetry(String url, long delay, Runnable task) {
+
+        synchronized (mLock) {
+            ScheduledTask runningTask = mScheduledTasks.get(url);
+
+            int priority = runningTask != null ? runningTask.mPriority : FileDownloadConfiguration.Builder
+                    .DEFAULT_DOWNLOAD_PRIORITY;
+            DownloadConfiguration downloadConfiguration = runningTask != null ? runningTask.mDownloadConfiguration :
+                    null;
+
+            final ScheduledTask scheduledTask = new ScheduledTask(url, priority, downloadConfiguration, task);
+            scheduledTask.mConnectionCount = runningTask != null ? runningTask.mConnectionCount : 1;
+            scheduledTask.mIsRetryPending = true;
+            scheduledTask.mRetryTime = SystemClock.elapsedRealtime() + delay;
+
+            // replace the running one, it will not be removed when finished
+            mScheduledTasks.put(url, scheduledTask);
+
+            // the run of the running one is going to return, the retry should not wait for it
+            if (runningTask != null && runningTask.mIsRunning && !runningTask.mIsParked) {
+                releaseLocked(runningTask);
+                runNextLocked();
+            }
+
+            scheduledTask.mRetryFuture = mRetryTimerEngine.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onRetryTime(scheduledTask);
+                }
+            }, delay < 0 ? 0 : delay, TimeUnit.MILLISECONDS);
+        }
+
+        Log.d(TAG, "file-downloader-schedule 任务将在" + delay + "ms后重试，url：" + url);
+    }
+
+    /**
+     * the retry delay is over, the task waits in the queue again
+     */
+    private void onRetryTime(ScheduledTask scheduledTask) {
+
+        ScheduledTask preemptedTask = null;
+
+        // the host may be changed by the redirection
+        String host = RedirectedHostCache.getInstance().getRedirectedHost(scheduledTask.mUrl);
+
+        synchronized (mLock) {
+            if (!scheduledTask.mIsRetryPending || mScheduledTasks.get(scheduledTask.mUrl) != scheduledTask) {
+                // cancelled
+                return;
+            }
+            scheduledTask.mIsRetryPending = false;
+            scheduledTask.mRetryFuture = null;
+            scheduledTask.mHost = host != null ? host : "";
+            scheduledTask.mScheduleTime = SystemClock.elapsedRealtime();
+            scheduledTask.mSequence = mSequence++;
+
+            mWaitingTasks.offer(scheduledTask);
+
+            runNextLocked();
+
+            if (!scheduledTask.mIsRunning) {
+                preemptedTask = findPreemptedTaskLocked(scheduledTask);
+            }
+        }
+
+        notifyPreempt(preemptedTask);
+    }
+
+    /**
+     * park the running task, its download thread will be released when the current run returns, and it still takes
+     * the connections of its host until it finished
+     *
+     * @param url file url
+     */
+    void park(String url) {
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = mScheduledTasks.get(url);
+            if (scheduledTask == null || !scheduledTask.mIsRunning) {
+                return;
+            }
+            scheduledTask.mIsParked = true;
+        }
+
+        Log.d(TAG, "file-downloader-schedule 任务挂起，释放下载线程，url：" + url);
+    }
+
+    /**
+     * run the continuation of the parked task to finish, it runs after the current run returned
+     *
+     * @param url  file url
+     * @param task the continuation of the parked task
+     */
+    void resume(String url, Runnable task) {
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = mScheduledTasks.get(url);
+            if (scheduledTask == null || !scheduledTask.mIsRunning) {
+                return;
+            }
+            if (scheduledTask.mIsThreadReleased) {
+                scheduledTask.mIsParked = false;
+                scheduledTask.mIsThreadReleased = false;
+                // takes a download thread again to finish
+                mRunningTasks.add(scheduledTask);
+                executeLocked(scheduledTask, task);
+            } else {
+                // the current run has not returned, resume when it returns
+                scheduledTask.mResumeTask = task;
+            }
+        }
+
+        Log.d(TAG, "file-downloader-schedule 挂起的任务恢复运行，url：" + url);
+    }
+
+    /**
+     * cancel a waiting task or a task waiting for retry
+     *
+     * @param url file url
+     * @return the task cancelled, null means the task is not waiting
+     */
+    Runnable cancel(String url) {
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = mScheduledTasks.get(url);
+            if (scheduledTask == null || scheduledTask.mIsRunning) {
+                return null;
+            }
+            mScheduledTasks.remove(url);
+            if (scheduledTask.mIsRetryPending) {
+                scheduledTask.mIsRetryPending = false;
+                if (scheduledTask.mRetryFuture != null) {
+                    scheduledTask.mRetryFuture.cancel(false);
+                    scheduledTask.mRetryFuture = null;
+                }
+            } else {
+                mWaitingTasks.remove(scheduledTask);
+            }
+            return scheduledTask.mTask;
+        }
+    }
+
+    /**
+     * change the priority of a waiting or running task
+     *
+     * @param url      file url
+     * @param priority the new priority
+     * @return true means changed, false means the task is not scheduled
+     */
+    boolean setPriority(String url, int priority) {
+
+        ScheduledTask preemptedTask = null;
+
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = mScheduledTasks.get(url);
+            if (scheduledTask == null) {
+                return false;
+            }
+            if (scheduledTask.mIsRetryPending) {
+                // takes effect when it waits in the queue again
+                scheduledTask.mPriority = priority;
+            } else if (scheduledTask.mIsRunning) {
+                scheduledTask.mPriority = priority;
+                // the running task may be preempted by the waiting ones now
+                ScheduledTask waitingTask = mWaitingTasks.peek();
+                if (waitingTask != null) {
+                    preemptedTask = findPreemptedTaskLocked(waitingTask);
+                }
+            } else {
+                // re-sort, keep the schedule time so that the waited time still counts
+                mWaitingTasks.remove(scheduledTask);
+                scheduledTask.mPriority = priority;
+                mWaitingTasks.offer(scheduledTask);
+                preemptedTask = findPreemptedTaskLocked(scheduledTask);
+            }
+        }
+
+        notifyPreempt(preemptedTask);
+
+        return true;
+    }
+
+    /**
+     * get the priority of a scheduled task
+     *
+     * @param url file url
+     * @return the priority, -1 means the task is not scheduled
+     */
+    int getPriority(String url) {
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = mScheduledTasks.get(url);
+            if (scheduledTask == null) {
+                return -1;
+            }
+            return scheduledTask.mPriority;
+        }
+    }
+
+    /**
+     * get the time of the next attempt of a task waiting for retry
+     *
+     * @param url file url
+     * @return based on SystemClock.elapsedRealtime(), -1 means the task is not waiting for retry
+     */
+    long getRetryTime(String url) {
+        synchronized (mLock) {
+            ScheduledTask scheduledTask = mScheduledTasks.get(url);
+            if (scheduledTask == null || !scheduledTask.mIsRetryPending) {
+                return -1;
+            }
+            return scheduledTask.mRetryTime;
+        }
+    }
+
+    /**
+     * get the active connections of the host
+     *
+     * @param host the host after redirection
+     * @return the active connections
+     */
+    int getActiveConnectionCount(String host) {
+        synchronized (mLock) {
+            Integer connectionCount = mHostConnectionCounts.get(host);
+            return connectionCount != null ? connectionCount : 0;
+        }
+    }
+
+    /**
+     * run the waiting tasks if there are free download threads, the tasks whose host has no free connections or is
+     * open by the circuit breaker will be skipped and keep waiting
+     */
+    private void runNextLocked() {
+
+        List<ScheduledTask> skippedTasks = null;
+        long minOpenRemainingTime = -1;
+
+        while (mRunningTasks.size() < mMaxRunningTaskSize && !mWaitingTasks.isEmpty()) {
+            final ScheduledTask scheduledTask = mWaitingTasks.poll();
+            if (!hasFreeConnectionsLocked(scheduledTask)) {
+                if (skippedTasks == null) {
+                    skippedTasks = new ArrayList<ScheduledTask>();
+                }
+                skippedTasks.add(scheduledTask);
+                continue;
+            }
+            HostCircuitBreaker.State state = mHostCircuitBreaker.tryAcquire(scheduledTask.mHost);
+            if (state == HostCircuitBreaker.State.OPEN) {
+                // parked until the host recovered
+                if (skippedTasks == null) {
+                    skippedTasks = new ArrayList<ScheduledTask>();
+                }
+                skippedTasks.add(scheduledTask);
+                long openRemainingTime = mHostCircuitBreaker.getOpenRemainingTime(scheduledTask.mHost);
+                if (openRemainingTime > 0 && (minOpenRemainingTime < 0 || openRemainingTime <
+                        minOpenRemainingTime)) {
+                    minOpenRemainingTime = openRemainingTime;
+                }
+                continue;
+            }
+            // the only task can run during HALF_OPEN
+            scheduledTask.mIsProbe = state == HostCircuitBreaker.State.HALF_OPEN;
+            scheduledTask.mIsRunning = true;
+            mRunningTasks.add(scheduledTask);
+            changeHostConnectionCountLocked(scheduledTask.mHost, scheduledTask.mConnectionCount);
+            executeLocked(scheduledTask, scheduledTask.mTask);
+        }
+
+        if (skippedTasks != null) {
+            // keep waiting
+            for (ScheduledTask skippedTask : skippedTasks) {
+                mWaitingTasks.offer(skippedTask);
+            }
+        }
+
+        if (minOpenRemainingTime > 0) {
+            scheduleWakeUpLocked(minOpenRemainingTime);
+        }
+    }
+
+    private void executeLocked(final ScheduledTask scheduledTask, final Runnable task) {
+        mDownloadEngine.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    onTaskFinished(scheduledTask);
+                }
+            }
+        });
+    }
+
+    /**
+     * run the parked tasks again after the delay, the open time of their hosts will be over then
+     */
+    private void scheduleWakeUpLocked(long delay) {
+
+        long wakeUpTime = SystemClock.elapsedRealtime() + delay;
+        if (mWakeUpTime > 0 && mWakeUpTime <= wakeUpTime) {
+            // an earlier one is scheduled
+            return;
+        }
+        mWakeUpTime = wakeUpTime;
+
+        Log.d(TAG, "file-downloader-schedule host熔断中，任务暂停等待，" + delay + "ms后尝试探测");
+
+        mRetryTimerEngine.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    mWakeUpTime = -1;
+                    runNextLocked();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * whether the host of the task has free connections for it
+     */
+    private boolean hasFreeConnectionsLocked(ScheduledTask scheduledTask) {
+        Integer connectionCount = mHostConnectionCounts.get(scheduledTask.mHost);
+        if (connectionCount == null || connectionCount <= 0) {
+            // a task can always run if there is no running task of its host
+            return true;
+        }
+        int maxConnectionCount = mConfiguration.getDownloadConnectionSizeOfHost(scheduledTask.mHost);
+        return connectionCount + scheduledTask.mConnectionCount <= maxConnectionCount;
+    }
+
+    private void changeHostConnectionCountLocked(String host, int delta) {
+        Integer connectionCount = mHostConnectionCounts.get(host);
+        int newConnectionCount = (connectionCount != null ? connectionCount : 0) + delta;
+        if (newConnectionCount > 0) {
+            mHostConnectionCounts.put(host, newConnectionCount);
+        } else {
+            mHostConnectionCounts.remove(host);
+        }
+    }
+
+    private void onTaskFinished(ScheduledTask scheduledTask) {
+
+        synchronized (mLock) {
+            if (scheduledTask.mIsParked) {
+                if (scheduledTask.mResumeTask != null) {
+                    // resumed during the run, run the continuation at once
+                    Runnable resumeTask = scheduledTask.mResumeTask;
+                    scheduledTask.mResumeTask = null;
+                    scheduledTask.mIsParked = false;
+                    executeLocked(scheduledTask, resumeTask);
+                    return;
+                }
+                // the download thread is free, the task keeps the connections of its host
+                scheduledTask.mIsThreadReleased = true;
+                mRunningTasks.remove(scheduledTask);
+                runNextLocked();
+                return;
+            }
+            releaseLocked(scheduledTask);
+            if (mScheduledTasks.get(scheduledTask.mUrl) == scheduledTask) {
+                mScheduledTasks.remove(scheduledTask.mUrl);
+            }
+            runNextLocked();
+        }
+
+        if (scheduledTask.mIsPreempted && mOnPreemptDownloadTaskListener != null) {
+            // the preempted task stopped, schedule it again
+            mOnPreemptDownloadTaskListener.onPreemptedDownloadTaskFinished(scheduledTask.mUrl, scheduledTask
+                    .mPriority, scheduledTask.mDownloadConfiguration);
+        }
+    }
+
+    /**
+     * release the download thread and the connections of the host taken by the task, only once
+     */
+    private void releaseLocked(ScheduledTask scheduledTask) {
+        if (scheduledTask.mIsReleased) {
+            return;
+        }
+        scheduledTask.mIsReleased = true;
+        mRunningTasks.remove(scheduledTask);
+        changeHostConnectionCountLocked(scheduledTask.mHost, -scheduledTask.mConnectionCount);
+        if (scheduledTask.mIsProbe) {
+            // let another task probe if the probe did not connect
+            mHostCircuitBreaker.releaseProbe(scheduledTask.mHost);
+        }
+    }
+
+    /**
+     * find the running task with the lowest priority that lower than the waiting task, if the host of the waiting
+     * task has no free connections, only the running task of the same host can be preempted
+     */
+    private ScheduledTask findPreemptedTaskLocked(ScheduledTask waitingTask) {
+
+        if (!mIsPreemptive || mOnPreemptDownloadTaskListener == null || mRunningTasks.size() < mMaxRunningTaskSize) {
+            return null;
+        }
+
+        if (!mHostCircuitBreaker.isAvailable(waitingTask.mHost)) {
+            // the waiting task can not run even if a running task preempted
+            return null;
+        }
+
+        boolean isHostFree = hasFreeConnectionsLocked(waitingTask);
+
+        ScheduledTask lowestTask = null;
+        for (ScheduledTask runningTask : mRunningTasks) {
+            if (runningTask.mIsPreempted) {
+                // the task is stopping and its thread will be free soon
+                return null;
+            }
+            if (!isHostFree && !runningTask.mHost.equals(waitingTask.mHost)) {
+                // preempt it can not make the waiting task run
+                continue;
+            }
+            if (lowestTask == null || runningTask.mPriority < lowestTask.mPriority) {
+                lowestTask = runningTask;
+            }
+        }
+
+        if (lowestTask == null || lowestTask.mPriority >= waitingTask.mPriority) {
+            return null;
+        }
+
+        lowestTask.mIsPreempted = true;
+
+        return lowestTask;
+    }
+
+    private void notifyPreempt(ScheduledTask preemptedTask) {
+        if (preemptedTask == null || mOnPreemptDownloadTaskListener == null) {
+            return;
+        }
+
+        Log.d(TAG, "file-downloader-schedule 抢占正在下载的任务，url：" + preemptedTask.mUrl + "，优先级：" +
+                preemptedTask.mPriority);
+
+        mOnPreemptDownloadTaskListener.onPreemptDownloadTask(preemptedTask.mUrl);
+    }
+
+    /**
+     * the scheduled task
+     */
+    private static class ScheduledTask {
+
+        private final String mUrl;
+        private final DownloadConfiguration mDownloadConfiguration;
+        private final Runnable mTask;
+        private String mHost;
+        private int mConnectionCount;
+        private int mPriority;
+        private long mScheduleTime;
+        private long mSequence;
+        private boolean mIsRunning;
+        private boolean mIsPreempted;
+        private boolean mIsRetryPending;
+        private boolean mIsProbe;
+        private boolean mIsParked;// the task is driven by the selector engine
+        private boolean mIsThreadReleased;// the download thread of the parked task is released
+        private Runnable mResumeTask;// the task to run when the download thread released
+        private boolean mIsReleased;// the download thread and the connections of the host are released
+        private long mRetryTime;
+        private ScheduledFuture<?> mRetryFuture;
+
+        private ScheduledTask(String url, int priority, DownloadConfiguration downloadConfiguration, Runnable task) {
+            mUrl = url;
+            mPriority = priority;
+            mDownloadConfiguration = downloadConfiguration;
+            mTask = task;
+        }
+    }
+
+    /**
+     * OnPreemptDownloadTaskListener
+     */
+    interface OnPreemptDownloadTaskListener {
+
+        /**
+         * the running task should be paused for a higher priority one
+         *
+         * @param url file url
+         */
+        void onPreemptDownloadTask(String url);
+
+        /**
+         * the preempted task finished, it should be scheduled again if it is paused
+         *
+         * @param url                   file url
+         * @param priority              the priority of the preempted task
+         * @param downloadConfiguration the DownloadConfiguration of the preempted task, may null
+         */
+        void onPreemptedDownloadTaskFinished(String url, int priority, DownloadConfiguration downloadConfiguration);
+    }
+}
@@ -50,6 +50,8 @@ class FileDownloadTaskParam {
 
     private Map<String, String> mHeaders;// custom  headers
 
+    private boolean mIsAcceptEncoding;// whether accept the gzip and deflate encoded response
+
     public FileDownloadTaskParam(String url, long startPosInTotal, long fileTotalSize, String ETag, String 
             lastModified, String acceptRangeType, String tempFilePath, String filePath) {
         mUrl = url;
@@ -89,6 +91,10 @@ class FileDownloadTaskParam {
         mHeaders = headers;
     }
 
+    public void setAcceptEncoding(boolean acceptEncoding) {
+        mIsAcceptEncoding = acceptEncoding;
+    }
+
     // --------------------------------------getters--------------------------------------
 
     public String getUrl() {
@@ -130,4 +136,8 @@ class FileDownloadTaskParam {
     public Map<String, String> getHeaders() {
         return mHeaders;
     }
+
+    public boolean isAcceptEncoding() {
+        return mIsAcceptEncoding;
+    }
 }
@@ -0,0 +1,355 @@
+package org.wlf.filedownloader.file_download;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.wlf.filedownloader.base.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the circuit breakers of the hosts, it tracks the health of every host by the connection outcomes
+ * <br/>
+ * 按host统计连接结果的熔断器，host连续失败或失败率过高时熔断，熔断期间该host的新任务暂停等待，冷却后只放行一个探测任务
+ * <p/>
+ * a host is CLOSED normally, it becomes OPEN when the consecutive failures or the failure rate of the recent
+ * connections reach the threshold, the tasks of an OPEN host are parked, after the open time the host becomes
+ * HALF_OPEN and only one probe task is let through, the host will be CLOSED if the probe succeeded, or OPEN again
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class HostCircuitBreaker {
+
+    private static final String TAG = HostCircuitBreaker.class.getSimpleName();
+
+    /**
+     * the count of the recent connections to calculate the failure rate
+     */
+    private static final int WINDOW_SIZE = 20;
+    /**
+     * the min count of the recent connections to calculate the failure rate
+     */
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    /**
+     * the consecutive failures to open the breaker, 0 means disabled
+     */
+    private int mFailureThreshold;
+    /**
+     * the failure rate to open the breaker, percent, 0 means disabled
+     */
+    private int mFailureRatePercent;
+    /**
+     * the time of the breaker keeping open before a probe, millisecond
+     */
+    private long mOpenTime;
+
+    private Map<String, HostHealth> mHostHealths = new HashMap<String, HostHealth>();
+
+    private OnHostRecoverListener mOnHostRecoverListener;
+
+    /**
+     * constructor of HostCircuitBreaker
+     *
+     * @param failureThreshold   the consecutive failures to open the breaker, 0 means disabled
+     * @param failureRatePercent the failure rate of the recent connections to open the breaker, percent, 0 means
+     *                           disabled
+     * @param openTime           the time of the breaker keeping open before a probe, millisecond
+     */
+    public HostCircuitBreaker(int failureThreshold, int failureRatePercent, long openTime) {
+        mFailureThreshold = failureThreshold > 0 ? failureThreshold : 0;
+        mFailureRatePercent = failureRatePercent > 0 ? Math.min(failureRatePercent, 100) : 0;
+        mOpenTime = openTime > 0 ? openTime : 0;
+    }
+
+    /**
+     * whether the breaker is enabled
+     *
+     * @return true means enabled
+     */
+    public boolean isEnabled() {
+        return mFailureThreshold > 0 || mFailureRatePercent > 0;
+    }
+
+    /**
+     * set OnHostRecoverListener
+     *
+     * @param onHostRecoverListener OnHostRecoverListener
+     */
+    void setOnHostRecoverListener(OnHostRecoverListener onHostRecoverListener) {
+        mOnHostRecoverListener = onHostRecoverListener;
+    }
+
+    /**
+     * record the response of the host, 5XX, 408 and 429 are failures, others mean the host is healthy
+     *
+     * @param host         the host connected to
+     * @param responseCode the http response code
+     */
+    public void recordResponse(String host, int responseCode) {
+        if (responseCode >= 500 || responseCode == 408 || responseCode == 429) {
+            recordFailure(host);
+        } else {
+            recordSuccess(host);
+        }
+    }
+
+    /**
+     * record a successful connection of the host
+     *
+     * @param host the host connected to
+     */
+    public void recordSuccess(String host) {
+
+        if (!isEnabled() || TextUtils.isEmpty(host)) {
+            return;
+        }
+
+        boolean isRecovered = false;
+
+        synchronized (this) {
+            HostHealth hostHealth = mHostHealths.get(host);
+            if (hostHealth == null) {
+                // healthy hosts are not recorded until they fail
+                return;
+            }
+            if (hostHealth.mState != State.CLOSED) {
+                isRecovered = true;
+                mHostHealths.remove(host);
+            } else {
+                hostHealth.mConsecutiveFailures = 0;
+                hostHealth.addOutcome(false);
+                if (hostHealth.mFailures == 0) {
+                    mHostHealths.remove(host);
+                }
+            }
+        }
+
+        if (isRecovered) {
+
+            Log.i(TAG, "recordSuccess host恢复，关闭熔断，host：" + host);
+
+            // release the parked tasks
+            OnHostRecoverListener onHostRecoverListener = mOnHostRecoverListener;
+            if (onHostRecoverListener != null) {
+                onHostRecoverListener.onHostRecover(host);
+            }
+        }
+    }
+
+    /**
+     * record a failed connection of the host
+     *
+     * @param host the host connected to
+     */
+    public void recordFailure(String host) {
+
+        if (!isEnabled() || TextUtils.isEmpty(host)) {
+            return;
+        }
+
+        synchronized (this) {
+            HostHealth hostHealth = mHostHealths.get(host);
+            if (hostHealth == null) {
+                hostHealth = new HostHealth();
+                mHostHealths.put(host, hostHealth);
+            }
+
+            switch (hostHealth.mState) {
+                case HALF_OPEN:
+                    // the probe failed
+                    open(host, hostHealth);
+                    break;
+                case OPEN:
+                    // the running tasks before open, ignore
+                    break;
+                case CLOSED:
+                default:
+                    hostHealth.mConsecutiveFailures++;
+                    hostHealth.addOutcome(true);
+                    if (mFailureThreshold > 0 && hostHealth.mConsecutiveFailures >= mFailureThreshold) {
+                        open(host, hostHealth);
+                    } else if (mFailureRatePercent > 0 && hostHealth.mSamples >= MIN_WINDOW_SAMPLES && hostHealth
+                            .mFailures * 100 >= mFailureRatePercent * hostHealth.mSamples) {
+                        open(host, hostHealth);
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void open(String host, HostHealth hostHealth) {
+        hostHealth.mState = State.OPEN;
+        hostHealth.mOpenUntil = SystemClock.elapsedRealtime() + mOpenTime;
+        hostHealth.mIsProbing = false;
+
+        Log.i(TAG, "open host不可用，开启熔断，连续失败：" + hostHealth.mConsecutiveFailures + "，失败数：" + hostHealth
+                .mFailures + "/" + hostHealth.mSamples + "，host：" + host);
+    }
+
+    /**
+     * try to get the permission to connect the host, the host will be HALF_OPEN and the caller will be the probe if
+     * the open time is over
+     *
+     * @param host the host to connect
+     * @return {@link State#CLOSED} means permitted, {@link State#HALF_OPEN} means permitted as the probe, {@link
+     * State#OPEN} means not permitted
+     */
+    synchronized State tryAcquire(String host) {
+
+        HostHealth hostHealth = host != null ? mHostHealths.get(host) : null;
+        if (hostHealth == null) {
+            return State.CLOSED;
+        }
+
+        switch (hostHealth.mState) {
+            case OPEN:
+                if (SystemClock.elapsedRealtime() < hostHealth.mOpenUntil) {
+                    return State.OPEN;
+                }
+                hostHealth.mState = State.HALF_OPEN;
+                hostHealth.mIsProbing = true;
+
+                Log.i(TAG, "tryAcquire 熔断冷却结束，放行一个探测任务，host：" + host);
+
+                return State.HALF_OPEN;
+            case HALF_OPEN:
+                if (hostHealth.mIsProbing) {
+                    return State.OPEN;
+                }
+                hostHealth.mIsProbing = true;
+                return State.HALF_OPEN;
+            case CLOSED:
+            default:
+                return State.CLOSED;
+        }
+    }
+
+    /**
+     * whether the host can be connected now, the permission is not acquired
+     *
+     * @param host the host to connect
+     * @return true means can be connected
+     */
+    synchronized boolean isAvailable(String host) {
+
+        HostHealth hostHealth = host != null ? mHostHealths.get(host) : null;
+        if (hostHealth == null) {
+            return true;
+        }
+
+        switch (hostHealth.mState) {
+            case OPEN:
+                return SystemClock.elapsedRealtime() >= hostHealth.mOpenUntil;
+            case HALF_OPEN:
+                return !hostHealth.mIsProbing;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * release the probe permission if the probe finished without any connection outcome, another task can be the
+     * probe then
+     *
+     * @param host the host of the probe
+     */
+    synchronized void releaseProbe(String host) {
+        HostHealth hostHealth = host != null ? mHostHealths.get(host) : null;
+        if (hostHealth != null && hostHealth.mState == State.HALF_OPEN) {
+            hostHealth.mIsProbing = false;
+        }
+    }
+
+    /**
+     * get the remaining time of the open host before a probe
+     *
+     * @param host the host
+     * @return millisecond, 0 means the host is not open or can be probed now
+     */
+    synchronized long getOpenRemainingTime(String host) {
+        HostHealth hostHealth = host != null ? mHostHealths.get(host) : null;
+        if (hostHealth == null || hostHealth.mState != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, hostHealth.mOpenUntil - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * get the state of the host
+     *
+     * @param host the host
+     * @return the state of the host
+     */
+    public synchronized State getState(String host) {
+        HostHealth hostHealth = host != null ? mHostHealths.get(host) : null;
+        return hostHealth != null ? hostHealth.mState : State.CLOSED;
+    }
+
+    /**
+     * the state of a host
+     */
+    public static enum State {
+        /**
+         * the host is healthy, the tasks run normally
+         */
+        CLOSED,
+        /**
+         * the host is failing, the tasks are parked
+         */
+        OPEN,
+        /**
+         * the open time is over, only one probe task can run
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * OnHostRecoverListener
+     */
+    interface OnHostRecoverListener {
+
+        /**
+         * the host is CLOSED again, the parked tasks can run
+         *
+         * @param host the host
+         */
+        void onHostRecover(String host);
+    }
+
+    /**
+     * the health of a host
+     */
+    private static class HostHealth {
+
+        private State mState = State.CLOSED;
+        private long mOpenUntil;
+        private boolean mIsProbing;
+        private int mConsecutiveFailures;
+
+        // the outcomes of the recent connections, true means failure
+        private boolean[] mOutcomes = new boolean[WINDOW_SIZE];
+        private int mNextIndex;
+        private int mSamples;
+        private int mFailures;
+
+        private void addOutcome(boolean isFailure) {
+            if (mSamples == WINDOW_SIZE) {
+                // drop the oldest one
+                if (mOutcomes[mNextIndex]) {
+                    mFailures--;
+                }
+            } else {
+                mSamples++;
+            }
+            mOutcomes[mNextIndex] = isFailure;
+            if (isFailure) {
+                mFailures++;
+            }
+            mNextIndex = (mNextIndex + 1) % WINDOW_SIZE;
+        }
+    }
+}
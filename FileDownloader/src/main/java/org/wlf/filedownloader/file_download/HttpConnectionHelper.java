@@ -4,28 +4,27 @@ import android.text.TextUtils;
 
 import org.json.JSONObject;
 import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.file_download.transport.HttpUrlConnectionTransport;
 import org.wlf.filedownloader.util.CollectionUtil;
 import org.wlf.filedownloader.util.MapUtil;
 import org.wlf.filedownloader.util.UrlUtil;
 
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeMap;
 
-import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 
 /**
  * HttpConnectionHelper
@@ -45,67 +44,40 @@ public class HttpConnectionHelper {
     //    };
 
     /**
-     * create Detect http file Connection
+     * create the request of detecting http file
+     *
+     * @param isProbe true means only request the first byte by Range: bytes=0-0, the file size is got from the
+     *                Content-Range of 206, the server may ignore it and response 200 with the whole body
      */
-    public static HttpURLConnection createDetectConnection(String url, int connectTimeout, String charset, String 
-            requestMethod, Map<String, String> headers) throws Exception {
-
-        RequestParam requestParam = new RequestParam(url, connectTimeout, charset);
+    public static RequestParam createDetectRequestParam(String url, int connectTimeout, String charset, String
+            requestMethod, Map<String, String> headers, SslContextProvider sslContextProvider, KeepAlivePool
+            keepAlivePool, boolean isProbe) {
+
+        RequestParam requestParam = null;
+        if (isProbe) {
+            // the mRangeEndPos is exclusive
+            requestParam = new RequestParam(url, connectTimeout, charset, 0, 1, null, null);
+            requestParam.setRangeRequired(true);
+        } else {
+            requestParam = new RequestParam(url, connectTimeout, charset);
+        }
         requestParam.setRequestMethod(requestMethod);
         requestParam.setHeaders(headers);
+        requestParam.setSslContextProvider(sslContextProvider);
+        requestParam.setKeepAlivePool(keepAlivePool);
 
-        return createHttpUrlConnection(requestParam);
-    }
-
-    /**
-     * create download http file Connection
-     */
-    public static HttpURLConnection createDownloadFileConnection(RequestParam requestParam) throws Exception {
-        return createHttpUrlConnection(requestParam);
-    }
-
-    /**
-     * initTrustSSL
-     */
-    private static void initTrustSSL(HttpsURLConnection conn) {
-        try {
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, new TrustManager[]{new X509TrustManager() {
-                // do nothing, let the check pass
-                @Override
-                public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                }
-
-                @Override
-                public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-                }
-
-                @Override
-                public X509Certificate[] getAcceptedIssuers() {
-                    return null;
-                }
-            }}, new SecureRandom());
-            // config https
-            conn.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
-            conn.setDefaultHostnameVerifier(new HostnameVerifier() {
-                public boolean verify(String hostname, SSLSession session) {
-                    // always true, let the check pass
-                    return true;
-                }
-            });
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        return requestParam;
     }
 
     /**
-     * create http file Connection,use [rangeStartPos,rangeEndPos] for request range
+     * create http file Connection,use [rangeStartPos,rangeEndPos] for request range, use by {@link
+     * HttpUrlConnectionTransport}
      *
      * @param requestParam
      * @return HttpURLConnection
      * @throws Exception any exception during connect
      */
-    private static HttpURLConnection createHttpUrlConnection(RequestParam requestParam) throws Exception {
+    public static HttpURLConnection createHttpUrlConnection(RequestParam requestParam) throws Exception {
 
         // up 4.0 can use if necessary
         // StrictMode.setThreadPolicy(new
@@ -129,14 +101,18 @@ public class HttpConnectionHelper {
         if (encodedUrl.toLowerCase().startsWith("https")) {
             // https
             HttpsURLConnection httpsConn = (HttpsURLConnection) url.openConnection();
-            initTrustSSL(httpsConn);
+            // the shared TLS context, only for this connection
+            SslContextProvider sslContextProvider = requestParam.mSslContextProvider != null ? requestParam
+                    .mSslContextProvider : SslContextProvider.getDefault();
+            sslContextProvider.apply(httpsConn);
             conn = httpsConn;
         } else {
             conn = (HttpURLConnection) url.openConnection();
         }
 
         conn.setConnectTimeout(requestParam.mConnectTimeout);
-        conn.setReadTimeout(requestParam.mConnectTimeout);// FIXME read timeout equals to connect timeout
+        // read timeout equals to connect timeout if not set
+        conn.setReadTimeout(requestParam.mReadTimeout > 0 ? requestParam.mReadTimeout : requestParam.mConnectTimeout);
         conn.setRequestMethod(requestParam.mRequestMethod);
         conn.setInstanceFollowRedirects(false);
 
@@ -159,7 +135,9 @@ public class HttpConnectionHelper {
             }
         }
 
-        conn.setRequestProperty("Accept-Encoding", "identity");// FIXME now identity only
+        // identity default, the encoded response is decoded by the caller
+        conn.setRequestProperty("Accept-Encoding", !TextUtils.isEmpty(requestParam.mAcceptEncoding) ? requestParam
+                .mAcceptEncoding : "identity");
         // System.setProperty("http.keepAlive", "false");
 
         if (!TextUtils.isEmpty(requestParam.mCharset)) {
@@ -167,28 +145,59 @@ public class HttpConnectionHelper {
         }
 
         // set range, Support HTTP 1.1 and above
-        if (requestParam.mRangeStartPos > 0) {
-            if (requestParam.mRangeEndPos > 0 && requestParam.mRangeEndPos > requestParam.mRangeStartPos) {
-                conn.setRequestProperty("Range", "bytes=" + requestParam.mRangeStartPos + "-" + requestParam
-                        .mRangeEndPos);
-            } else {
-                conn.setRequestProperty("Range", "bytes=" + requestParam.mRangeStartPos + "-");
-            }
-            // eTag first
-            if (!TextUtils.isEmpty(requestParam.mETag)) {
-                conn.setRequestProperty("If-Range", requestParam.mETag);
-            } else {
-                if (!TextUtils.isEmpty(requestParam.mLastModified)) {
-                    conn.setRequestProperty("If-Range", requestParam.mLastModified);
-                }
+        String range = getRangeHeader(requestParam);
+        if (!TextUtils.isEmpty(range)) {
+            conn.setRequestProperty("Range", range);
+            String ifRange = getIfRangeHeader(requestParam);
+            if (!TextUtils.isEmpty(ifRange)) {
+                conn.setRequestProperty("If-Range", ifRange);
             }
         }
 
+        if (requestParam.mKeepAlivePool != null) {
+            requestParam.mKeepAlivePool.onConnectionOpened(encodedUrl);
+        }
+
         conn.connect();
 
         return conn;
     }
 
+    /**
+     * get the value of the Range header, use by the transports
+     *
+     * @param requestParam the request
+     * @return the value of the Range header, null means not send
+     */
+    public static String getRangeHeader(RequestParam requestParam) {
+        if (requestParam.mRangeStartPos > 0 || (requestParam.mIsRangeRequired && requestParam.mRangeStartPos == 0)) {
+            if (requestParam.mRangeEndPos > 0 && requestParam.mRangeEndPos > requestParam.mRangeStartPos) {
+                // the mRangeEndPos is exclusive, however the last-byte-pos of http Range is inclusive
+                return "bytes=" + requestParam.mRangeStartPos + "-" + (requestParam.mRangeEndPos - 1);
+            } else {
+                return "bytes=" + requestParam.mRangeStartPos + "-";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * get the value of the If-Range header, only send with the Range header
+     *
+     * @param requestParam the request
+     * @return the value of the If-Range header, null means not send
+     */
+    public static String getIfRangeHeader(RequestParam requestParam) {
+        // eTag first
+        if (!TextUtils.isEmpty(requestParam.mETag)) {
+            return requestParam.mETag;
+        }
+        if (!TextUtils.isEmpty(requestParam.mLastModified)) {
+            return requestParam.mLastModified;
+        }
+        return null;
+    }
+
     //    private static void enableHttpResponseCache(String cacheDirPath) {
     //        try {
     //            long httpCacheSize = 10 * 1024 * 1024;// 10M
@@ -205,6 +214,7 @@ public class HttpConnectionHelper {
 
         private String mUrl;
         private int mConnectTimeout = 15000; // 15s
+        private int mReadTimeout = -1;// equals to connect timeout default
         private String mCharset;
         private long mRangeStartPos = -1;
         private long mRangeEndPos = -1;
@@ -212,6 +222,10 @@ public class HttpConnectionHelper {
         private String mLastModified;
         private String mRequestMethod = "GET";// get default
         private Map<String, String> mHeaders;
+        private boolean mIsRangeRequired;// whether send the Range header even if the range start from 0
+        private SslContextProvider mSslContextProvider;// null means the default
+        private KeepAlivePool mKeepAlivePool;// null means not pooled
+        private String mAcceptEncoding;// the value of Accept-Encoding, null means identity
 
         public RequestParam(String url, int connectTimeout, String charset) {
             mUrl = url;
@@ -272,11 +286,105 @@ public class HttpConnectionHelper {
             mHeaders = headers;
         }
 
+        public void setRangeRequired(boolean rangeRequired) {
+            mIsRangeRequired = rangeRequired;
+        }
+
+        public void setReadTimeout(int readTimeout) {
+            mReadTimeout = readTimeout;
+        }
+
+        public void setSslContextProvider(SslContextProvider sslContextProvider) {
+            mSslContextProvider = sslContextProvider;
+        }
+
+        public void setKeepAlivePool(KeepAlivePool keepAlivePool) {
+            mKeepAlivePool = keepAlivePool;
+        }
+
+        public void setAcceptEncoding(String acceptEncoding) {
+            mAcceptEncoding = acceptEncoding;
+        }
+
+        // getters, use by the transports
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public int getConnectTimeout() {
+            return mConnectTimeout;
+        }
+
+        /**
+         * get the read timeout
+         *
+         * @return read timeout, millisecond, 0 or less means equals to the connect timeout
+         */
+        public int getReadTimeout() {
+            return mReadTimeout;
+        }
+
+        public String getCharset() {
+            return mCharset;
+        }
+
+        public long getRangeStartPos() {
+            return mRangeStartPos;
+        }
+
+        /**
+         * get the end position of the range
+         *
+         * @return the end position, exclusive, the last-byte-pos of http Range is it minus 1
+         */
+        public long getRangeEndPos() {
+            return mRangeEndPos;
+        }
+
+        public String getETag() {
+            return mETag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public String getRequestMethod() {
+            return mRequestMethod;
+        }
+
+        public Map<String, String> getHeaders() {
+            return mHeaders;
+        }
+
+        public boolean isRangeRequired() {
+            return mIsRangeRequired;
+        }
+
+        public SslContextProvider getSslContextProvider() {
+            return mSslContextProvider;
+        }
+
+        public KeepAlivePool getKeepAlivePool() {
+            return mKeepAlivePool;
+        }
+
+        /**
+         * get the value of Accept-Encoding
+         *
+         * @return the value of Accept-Encoding, null means identity, the caller decodes the encoded response
+         */
+        public String getAcceptEncoding() {
+            return mAcceptEncoding;
+        }
+
         @Override
         public String toString() {
             return "RequestParam{" +
                     "mUrl='" + mUrl + '\'' +
                     ", mConnectTimeout=" + mConnectTimeout +
+                    ", mReadTimeout=" + mReadTimeout +
                     ", mCharset='" + mCharset + '\'' +
                     ", mRangeStartPos=" + mRangeStartPos +
                     ", mRangeEndPos=" + mRangeEndPos +
@@ -284,6 +392,8 @@ public class HttpConnectionHelper {
                     ", mLastModified='" + mLastModified + '\'' +
                     ", mRequestMethod='" + mRequestMethod + '\'' +
                     ", mHeaders=" + mHeaders +
+                    ", mIsRangeRequired=" + mIsRangeRequired +
+                    ", mAcceptEncoding='" + mAcceptEncoding + '\'' +
                     '}';
         }
     }
@@ -453,6 +563,108 @@ public class HttpConnectionHelper {
         return lastModified;
     }
 
+    /**
+     * get the absolute url of the Location of the redirect response
+     *
+     * @param url      the url of the redirect response
+     * @param location the Location of the redirect response
+     * @return the absolute url, null means no Location
+     */
+    public static String getRedirectLocation(String url, String location) {
+
+        if (TextUtils.isEmpty(location)) {
+            return null;
+        }
+
+        try {
+            // the Location may be relative
+            return new URL(new URL(url), location).toString();
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+
+        return location;
+    }
+
+    /**
+     * get the freshness of the response from Cache-Control or Expires, use for caching the redirect response
+     *
+     * @param responseHeaderMap response header map
+     * @return millisecond, -1 means not specified, 0 means can not be cached
+     */
+    public static long getFreshTimeFromResponseHeader(Map<String, List<String>> responseHeaderMap) {
+
+        if (MapUtil.isEmpty(responseHeaderMap)) {
+            return -1;
+        }
+
+        // Cache-Control first
+        List<String> cacheControls = responseHeaderMap.get("Cache-Control");
+        if (!CollectionUtil.isEmpty(cacheControls)) {
+            for (String cacheControl : cacheControls) {
+                if (TextUtils.isEmpty(cacheControl)) {
+                    continue;
+                }
+                String[] directives = cacheControl.split(",");
+                for (String directive : directives) {
+                    directive = directive.trim().toLowerCase(Locale.US);
+                    if ("no-store".equals(directive) || "no-cache".equals(directive)) {
+                        return 0;
+                    }
+                    if (directive.startsWith("max-age=")) {
+                        try {
+                            long maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+                            return maxAge > 0 ? maxAge * 1000 : 0;
+                        } catch (NumberFormatException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> expires = responseHeaderMap.get("Expires");
+        if (!CollectionUtil.isEmpty(expires)) {
+            long expiresTime = parseHttpDate(expires.get(0));
+            if (expiresTime <= 0) {
+                // illegal Expires such as 0 means expired
+                return 0;
+            }
+            // relative to the clock of the server
+            List<String> dates = responseHeaderMap.get("Date");
+            long dateTime = CollectionUtil.isEmpty(dates) ? -1 : parseHttpDate(dates.get(0));
+            if (dateTime <= 0) {
+                dateTime = System.currentTimeMillis();
+            }
+            return Math.max(0, expiresTime - dateTime);
+        }
+
+        return -1;
+    }
+
+    /**
+     * parse the http date such as Sun, 06 Nov 1994 08:49:37 GMT
+     *
+     * @return millisecond, -1 means illegal
+     */
+    private static long parseHttpDate(String httpDate) {
+
+        if (TextUtils.isEmpty(httpDate)) {
+            return -1;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = dateFormat.parse(httpDate.trim());
+            return date.getTime();
+        } catch (ParseException e) {
+            e.printStackTrace();
+        }
+
+        return -1;
+    }
+
     public static String getStringHeaders(Map<String, List<String>> headers) {
 
         try {
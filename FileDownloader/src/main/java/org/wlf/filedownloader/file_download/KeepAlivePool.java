@@ -0,0 +1,276 @@
+package org.wlf.filedownloader.file_download;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.file_download.http_downloader.ContentLengthInputStream;
+import org.wlf.filedownloader.util.UrlUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the keep-alive pool of the http connections
+ * <br/>
+ * http长连接池，连接用完后读完剩余的少量数据再关闭输入流，使底层连接回到keep-alive池中被同一host的下一个请求复用，
+ * 每个host空闲连接数有上限，超过上限的连接直接断开；这里只记录释放的次数，真正的socket由HttpURLConnection复用和淘汰
+ * <p/>
+ * the sockets are pooled by HttpURLConnection itself, a socket goes back to it only if the body of the response is
+ * read to the end and the stream is closed without disconnect(), so this pool decides how to release every
+ * connection: drain and close, or disconnect if the unread body is too large, the host has enough idle connections,
+ * or the connection failed
+ * <p/>
+ * the idle connections here are the bookkeeping of the releases only, used for limiting the idle connections of a
+ * host, the real sockets are reused and evicted by HttpURLConnection, so the reuse statistics are estimated
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class KeepAlivePool {
+
+    private static final String TAG = KeepAlivePool.class.getSimpleName();
+
+    /**
+     * max unread bytes to drain, the connection will be disconnected if more
+     */
+    private static final int MAX_DRAIN_SIZE = 64 * 1024;// 64KB
+    private static final int DRAIN_BUFFER_SIZE = 4 * 1024;// 4KB
+
+    /**
+     * max idle connections of a host, 0 means keep-alive disabled
+     */
+    private int mMaxIdleConnectionsPerHost;
+    /**
+     * the time an idle connection can be kept, millisecond
+     */
+    private long mIdleTimeout;
+
+    /**
+     * host -> the release time of the idle connections, the oldest first, evicting one removes the record only
+     */
+    private Map<String, LinkedList<Long>> mIdleConnections = new HashMap<String, LinkedList<Long>>();
+
+    // statistics
+    private AtomicLong mEstimatedReusedCount = new AtomicLong(0);
+    private AtomicLong mReleasedCount = new AtomicLong(0);
+    private AtomicLong mDisconnectedCount = new AtomicLong(0);
+
+    /**
+     * constructor of KeepAlivePool
+     *
+     * @param maxIdleConnectionsPerHost max idle connection records of a host, 0 means keep-alive disabled
+     * @param idleTimeout               the time a release is recorded as an idle connection, millisecond
+     */
+    public KeepAlivePool(int maxIdleConnectionsPerHost, long idleTimeout) {
+        mMaxIdleConnectionsPerHost = maxIdleConnectionsPerHost > 0 ? maxIdleConnectionsPerHost : 0;
+        mIdleTimeout = idleTimeout > 0 ? idleTimeout : 0;
+    }
+
+    /**
+     * whether keep-alive is enabled
+     *
+     * @return true means enabled
+     */
+    public boolean isEnabled() {
+        return mMaxIdleConnectionsPerHost > 0 && mIdleTimeout > 0;
+    }
+
+    /**
+     * record a new connection of the url, it takes an idle connection record of the host if there is one, the
+     * connection is presumed to reuse the socket, HttpURLConnection may open a new one anyway
+     *
+     * @param url the url connecting to
+     */
+    void onConnectionOpened(String url) {
+
+        if (!isEnabled()) {
+            return;
+        }
+
+        String host = UrlUtil.getHost(url);
+        if (TextUtils.isEmpty(host)) {
+            return;
+        }
+
+        synchronized (this) {
+            LinkedList<Long> idleConnections = getIdleConnectionsLocked(host);
+            if (idleConnections == null || idleConnections.isEmpty()) {
+                return;
+            }
+            // the newest one is the most likely to be alive
+            idleConnections.removeLast();
+            if (idleConnections.isEmpty()) {
+                mIdleConnections.remove(host);
+            }
+        }
+
+        mEstimatedReusedCount.incrementAndGet();
+    }
+
+    /**
+     * release the connection, it goes back to the pool if possible, otherwise it will be disconnected
+     *
+     * @param conn        the connection
+     * @param inputStream the stream of the response body, null means not opened
+     * @param isResponded whether the response is received, the connection can not be reused if not
+     */
+    public void release(HttpURLConnection conn, InputStream inputStream, boolean isResponded) {
+
+        if (conn == null) {
+            closeQuietly(inputStream);
+            return;
+        }
+
+        boolean isReleased = false;
+
+        if (isEnabled() && isResponded) {
+            String host = conn.getURL() != null ? UrlUtil.getHost(conn.getURL().toString()) : null;
+            if (!TextUtils.isEmpty(host) && hasFreeIdleSlot(host)) {
+                isReleased = drainAndClose(conn, inputStream);
+                if (isReleased) {
+                    addIdleConnection(host);
+                }
+            }
+        }
+
+        if (isReleased) {
+            mReleasedCount.incrementAndGet();
+
+            Log.d(TAG, "release 连接放回连接池，url：" + conn.getURL());
+        } else {
+            // can not be reused
+            closeQuietly(inputStream);
+            conn.disconnect();
+            mDisconnectedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * read the unread body to the end and close the stream
+     *
+     * @return true means drained, the connection is reusable
+     */
+    private boolean drainAndClose(HttpURLConnection conn, InputStream inputStream) {
+        try {
+            long remainingLength = -1;
+            if (inputStream instanceof ContentLengthInputStream) {
+                remainingLength = ((ContentLengthInputStream) inputStream).getRemainingLength();
+            } else if (inputStream == null) {
+                remainingLength = HttpConnectionHelper.getFileSizeFromResponseHeader(conn.getHeaderFields());
+                if (conn.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    inputStream = conn.getErrorStream();
+                } else if (remainingLength <= MAX_DRAIN_SIZE) {
+                    inputStream = conn.getInputStream();
+                }
+            }
+            if (remainingLength > MAX_DRAIN_SIZE) {
+                return false;
+            }
+            if (inputStream == null) {
+                // no body
+                return true;
+            }
+
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            long drainedLength = 0;
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                drainedLength += count;
+                if (drainedLength > MAX_DRAIN_SIZE) {
+                    return false;
+                }
+            }
+            inputStream.close();
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    private synchronized boolean hasFreeIdleSlot(String host) {
+        LinkedList<Long> idleConnections = getIdleConnectionsLocked(host);
+        return idleConnections == null || idleConnections.size() < mMaxIdleConnectionsPerHost;
+    }
+
+    private synchronized void addIdleConnection(String host) {
+        LinkedList<Long> idleConnections = getIdleConnectionsLocked(host);
+        if (idleConnections == null) {
+            idleConnections = new LinkedList<Long>();
+            mIdleConnections.put(host, idleConnections);
+        }
+        idleConnections.addLast(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * get the idle connections of the host, the timeout ones are evicted
+     */
+    private LinkedList<Long> getIdleConnectionsLocked(String host) {
+
+        LinkedList<Long> idleConnections = mIdleConnections.get(host);
+        if (idleConnections == null) {
+            return null;
+        }
+
+        long evictTime = SystemClock.elapsedRealtime() - mIdleTimeout;
+        Iterator<Long> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() > evictTime) {
+                break;
+            }
+            iterator.remove();
+        }
+        if (idleConnections.isEmpty()) {
+            mIdleConnections.remove(host);
+            return null;
+        }
+        return idleConnections;
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * get the estimated count of the reused connections, it is the count of the connections opened while the host
+     * had an idle connection released in the idle timeout, not the count of the sockets actually reused, the sockets
+     * are pooled by HttpURLConnection and can not be observed
+     *
+     * @return the estimated count of the reused connections
+     */
+    public long getEstimatedReusedCount() {
+        return mEstimatedReusedCount.get();
+    }
+
+    /**
+     * get the count of the connections released to the pool
+     *
+     * @return the count of the released connections
+     */
+    public long getReleasedCount() {
+        return mReleasedCount.get();
+    }
+
+    /**
+     * get the count of the connections disconnected
+     *
+     * @return the count of the disconnected connections
+     */
+    public long getDisconnectedCount() {
+        return mDisconnectedCount.get();
+    }
+}
@@ -0,0 +1,217 @@
+package org.wlf.filedownloader.file_download;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.wlf.filedownloader.util.UrlUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * the cache of the hosts and the final urls that the urls redirected to
+ * <br/>
+ * 记录url重定向后的host，用于按host调度下载任务；同时缓存重定向后的最终url，探测和下载直接连接最终url，省去重定向的往返
+ * <p/>
+ * the final url is cached for the min of the cache time and the freshness of the redirect responses by
+ * Cache-Control or Expires, the callers should redirect from the original url again if the final url fails
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class RedirectedHostCache {
+
+    /**
+     * max size of the cache
+     */
+    private static final int MAX_CACHE_SIZE = 256;
+    /**
+     * default time to cache the final url, millisecond
+     */
+    private static final long DEFAULT_RESOLVED_URL_CACHE_TIME = 10 * 60 * 1000;// 10min
+
+    private static volatile RedirectedHostCache sInstance;
+
+    /**
+     * url -> redirected host
+     */
+    private Map<String, String> mUrlRedirectedHosts = new LruMap<String, String>(MAX_CACHE_SIZE);
+    /**
+     * original host -> redirected host
+     */
+    private Map<String, String> mHostRedirectedHosts = new LruMap<String, String>(MAX_CACHE_SIZE);
+    /**
+     * url -> the final url after redirection
+     */
+    private Map<String, ResolvedUrl> mResolvedUrls = new LruMap<String, ResolvedUrl>(MAX_CACHE_SIZE);
+
+    /**
+     * max time to cache the final url, millisecond, 0 means not cache
+     */
+    private long mResolvedUrlCacheTime = DEFAULT_RESOLVED_URL_CACHE_TIME;
+
+    private RedirectedHostCache() {
+    }
+
+    public static RedirectedHostCache getInstance() {
+        if (sInstance == null) {
+            synchronized (RedirectedHostCache.class) {
+                if (sInstance == null) {
+                    sInstance = new RedirectedHostCache();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * record the final url of the url after redirection
+     *
+     * @param url           the original url
+     * @param redirectedUrl the final url after redirection
+     */
+    public void recordRedirectedUrl(String url, String redirectedUrl) {
+
+        String host = UrlUtil.getHost(url);
+        String redirectedHost = UrlUtil.getHost(redirectedUrl);
+        if (TextUtils.isEmpty(host) || TextUtils.isEmpty(redirectedHost)) {
+            return;
+        }
+
+        synchronized (this) {
+            // record the url even if not redirected, so it will not use the redirected host of other urls
+            mUrlRedirectedHosts.put(url, redirectedHost);
+            if (!host.equals(redirectedHost)) {
+                mHostRedirectedHosts.put(host, redirectedHost);
+            }
+        }
+    }
+
+    /**
+     * get the host that the url will connect to after redirection, if the url is never downloaded, the host that
+     * other urls of the same host redirected to will be used
+     *
+     * @param url the original url
+     * @return the host, null means the url is illegal
+     */
+    public String getRedirectedHost(String url) {
+
+        String host = UrlUtil.getHost(url);
+        if (TextUtils.isEmpty(host)) {
+            return null;
+        }
+
+        synchronized (this) {
+            String redirectedHost = mUrlRedirectedHosts.get(url);
+            if (!TextUtils.isEmpty(redirectedHost)) {
+                return redirectedHost;
+            }
+            redirectedHost = mHostRedirectedHosts.get(host);
+            if (!TextUtils.isEmpty(redirectedHost)) {
+                return redirectedHost;
+            }
+        }
+
+        return host;
+    }
+
+    /**
+     * set the max time to cache the final url
+     *
+     * @param resolvedUrlCacheTime millisecond, 0 means not cache
+     */
+    public synchronized void setResolvedUrlCacheTime(long resolvedUrlCacheTime) {
+        mResolvedUrlCacheTime = resolvedUrlCacheTime > 0 ? resolvedUrlCacheTime : 0;
+        if (mResolvedUrlCacheTime == 0) {
+            mResolvedUrls.clear();
+        }
+    }
+
+    /**
+     * record the final url of the url after redirection
+     *
+     * @param url         the original url
+     * @param resolvedUrl the final url after redirection
+     * @param freshTime   the min freshness of the redirect responses, millisecond, -1 means not specified, 0 means
+     *                    can not be cached
+     */
+    public void recordResolvedUrl(String url, String resolvedUrl, long freshTime) {
+
+        if (TextUtils.isEmpty(url) || TextUtils.isEmpty(resolvedUrl) || url.equals(resolvedUrl)) {
+            return;
+        }
+
+        synchronized (this) {
+            long cacheTime = freshTime < 0 ? mResolvedUrlCacheTime : Math.min(freshTime, mResolvedUrlCacheTime);
+            if (cacheTime <= 0) {
+                mResolvedUrls.remove(url);
+                return;
+            }
+            mResolvedUrls.put(url, new ResolvedUrl(resolvedUrl, SystemClock.elapsedRealtime() + cacheTime));
+        }
+    }
+
+    /**
+     * get the cached final url of the url after redirection
+     *
+     * @param url the original url
+     * @return the final url, null means not cached or expired
+     */
+    public synchronized String getResolvedUrl(String url) {
+
+        ResolvedUrl resolvedUrl = url != null ? mResolvedUrls.get(url) : null;
+        if (resolvedUrl == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() >= resolvedUrl.mExpireTime) {
+            mResolvedUrls.remove(url);
+            return null;
+        }
+        return resolvedUrl.mUrl;
+    }
+
+    /**
+     * remove the cached final url of the url, use when the final url is no longer valid
+     *
+     * @param url the original url
+     */
+    public synchronized void removeResolvedUrl(String url) {
+        if (url != null) {
+            mResolvedUrls.remove(url);
+        }
+    }
+
+    /**
+     * the final url after redirection
+     */
+    private static class ResolvedUrl {
+
+        private String mUrl;
+        private long mExpireTime;
+
+        private ResolvedUrl(String url, long expireTime) {
+            mUrl = url;
+            mExpireTime = expireTime;
+        }
+    }
+
+    /**
+     * the map that removes the eldest entry when it is full
+     */
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private int mMaxSize;
+
+        private LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > mMaxSize;
+        }
+    }
+}
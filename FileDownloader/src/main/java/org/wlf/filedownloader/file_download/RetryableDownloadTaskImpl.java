@@ -2,22 +2,29 @@ package org.wlf.filedownloader.file_download;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import org.wlf.filedownloader.DownloadFileInfo;
+import org.wlf.filedownloader.base.FailReason;
 import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.base.Status;
 import org.wlf.filedownloader.file_download.DownloadTaskImpl.FinishState;
 import org.wlf.filedownloader.file_download.base.DownloadRecorder;
+import org.wlf.filedownloader.file_download.base.HttpFailReason;
+import org.wlf.filedownloader.file_download.base.OnParkTaskListener;
+import org.wlf.filedownloader.file_download.base.OnScheduleRetryListener;
 import org.wlf.filedownloader.file_download.base.OnStopFileDownloadTaskListener;
 import org.wlf.filedownloader.file_download.base.OnStopFileDownloadTaskListener.StopDownloadFileTaskFailReason;
 import org.wlf.filedownloader.file_download.base.OnTaskRunFinishListener;
 import org.wlf.filedownloader.file_download.base.RetryableDownloadTask;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver.FileSaveException;
+import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader.HttpDownloadException;
 import org.wlf.filedownloader.file_download.http_downloader.Range;
 import org.wlf.filedownloader.listener.OnFileDownloadStatusListener;
 import org.wlf.filedownloader.listener.OnRetryableFileDownloadStatusListener;
 import org.wlf.filedownloader.util.DownloadFileUtil;
 
-import java.util.concurrent.ExecutorService;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -28,11 +35,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author wlf(Andy)
  * @email 411086563@qq.com
  */
-class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownloadStatusListener {
+class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownloadStatusListener, OnParkTaskListener {
 
     private static final String TAG = RetryableDownloadTaskImpl.class.getSimpleName();
 
+    private static final long RETRY_BASE_DELAY = 1000;// 1s
+    private static final long RETRY_MAX_DELAY = 60 * 1000;// 60s
+
+    private static final Random RANDOM = new Random();
+
     private final FileDownloadTaskParam mOriginalTaskParamInfo;// Download Param Info original
+    private final DownloadTaskOptions mOptions;// the options of the task
     private DownloadRecorder mDownloadRecorder;// DownloadRecorder
 
     private DownloadTaskImpl mFileDownloadTaskImpl;
@@ -40,7 +53,9 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
     // for retry download
     private int mRetryDownloadTimes = 0;// retry times
     private Range mRecordedRange;// recordedRange by the task
-    private int mHasRetriedTimes = 0;// has been retry times
+    private volatile int mHasRetriedTimes = 0;// has been retry times
+    private volatile boolean mIsRetryPending = false;// whether waiting for the next attempt
+    private volatile long mRetryTime = -1;// the time of the next attempt
 
     private boolean mIsTaskStop = false;
     private boolean mIsRunning = false;
@@ -50,26 +65,30 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
     private OnFileDownloadStatusListener mOnFileDownloadStatusListener;
     private OnStopFileDownloadTaskListener mOnStopFileDownloadTaskListener;
     private OnTaskRunFinishListener mOnTaskRunFinishListener;
+    private OnScheduleRetryListener mOnScheduleRetryListener;
 
     private FinishState mFinishState;
 
     private Thread mCurrentTaskThread;
 
-    private ExecutorService mCloseConnectionEngine;// engine use for closing the download connection
+    private long mDeadlineTime = 0;// SystemClock.elapsedRealtime() based, init when the task first runs
 
-    private int mConnectTimeout = 15 * 1000;// 15s default
+    private OnParkTaskListener mOnParkTaskListener;
 
     /**
      * FileDownloadTask
      *
      * @param taskParamInfo
+     * @param options
      * @param downloadRecorder
      */
-    public RetryableDownloadTaskImpl(FileDownloadTaskParam taskParamInfo, DownloadRecorder downloadRecorder,
-                                     OnFileDownloadStatusListener onFileDownloadStatusListener) {
+    public RetryableDownloadTaskImpl(FileDownloadTaskParam taskParamInfo, DownloadTaskOptions options,
+                                     DownloadRecorder downloadRecorder, OnFileDownloadStatusListener
+                                             onFileDownloadStatusListener) {
         super();
 
         this.mOriginalTaskParamInfo = taskParamInfo;
+        this.mOptions = options;
         this.mDownloadRecorder = downloadRecorder;
         // listener init here because it is need to use in constructor
         this.mOnFileDownloadStatusListener = onFileDownloadStatusListener;
@@ -109,10 +128,11 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
                 getAcceptRangeType(), mOriginalTaskParamInfo.getTempFilePath(), mOriginalTaskParamInfo.getFilePath());
         taskParamInfo.setRequestMethod(mOriginalTaskParamInfo.getRequestMethod());
         taskParamInfo.setHeaders(mOriginalTaskParamInfo.getHeaders());
+        taskParamInfo.setAcceptEncoding(mOriginalTaskParamInfo.isAcceptEncoding());
 
-        mFileDownloadTaskImpl = new DownloadTaskImpl(taskParamInfo, mDownloadRecorder, this);
-        mFileDownloadTaskImpl.setCloseConnectionEngine(mCloseConnectionEngine);
-        mFileDownloadTaskImpl.setConnectTimeout(mConnectTimeout);
+        mFileDownloadTaskImpl = new DownloadTaskImpl(taskParamInfo, mOptions, mDownloadRecorder, this);
+        mFileDownloadTaskImpl.setDeadlineTime(mDeadlineTime);
+        mFileDownloadTaskImpl.setOnParkTaskListener(mOnParkTaskListener != null ? this : null);
     }
 
     // --------------------------------------setters--------------------------------------
@@ -128,27 +148,24 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
     }
 
     /**
-     * set CloseConnectionEngine
+     * set OnParkTaskListener, the download will not be driven by the SelectorEngine if it is not set
      *
-     * @param closeConnectionEngine CloseConnectionEngine
+     * @param onParkTaskListener OnParkTaskListener
      */
-    public void setCloseConnectionEngine(ExecutorService closeConnectionEngine) {
-        mCloseConnectionEngine = closeConnectionEngine;
+    public void setOnParkTaskListener(OnParkTaskListener onParkTaskListener) {
+        mOnParkTaskListener = onParkTaskListener;
         if (mFileDownloadTaskImpl != null) {
-            mFileDownloadTaskImpl.setCloseConnectionEngine(mCloseConnectionEngine);
+            mFileDownloadTaskImpl.setOnParkTaskListener(mOnParkTaskListener != null ? this : null);
         }
     }
 
     /**
-     * set connect timeout
+     * set OnScheduleRetryListener, the task will not be retried if it is not set
      *
-     * @param connectTimeout connect timeout
+     * @param onScheduleRetryListener OnScheduleRetryListener
      */
-    public void setConnectTimeout(int connectTimeout) {
-        mConnectTimeout = connectTimeout;
-        if (mFileDownloadTaskImpl != null) {
-            mFileDownloadTaskImpl.setConnectTimeout(mConnectTimeout);
-        }
+    public void setOnScheduleRetryListener(OnScheduleRetryListener onScheduleRetryListener) {
+        mOnScheduleRetryListener = onScheduleRetryListener;
     }
 
     @Override
@@ -367,11 +384,21 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
     @Override
     public void run() {
 
+        boolean isRetryScheduled = false;
+        boolean isParked = false;
+
         try {
             mIsRunning = true;
             mCurrentTaskThread = Thread.currentThread();
 
+            boolean isRetry = mIsRetryPending;
+            mIsRetryPending = false;
+
             if (mIsTaskStop) {
+                if (isRetry) {
+                    // stopped during waiting for the retry, clear the error status
+                    mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
+                }
                 // stop internal impl
                 stopInternalImpl();
                 // goto finally, notifyTaskFinish()
@@ -390,107 +417,280 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
                 return;
             }
 
+            // the deadline starts from the first run, the waiting time is not counted
+            if (mOptions.getDownloadTimeout() > 0 && mDeadlineTime <= 0) {
+                mDeadlineTime = SystemClock.elapsedRealtime() + mOptions.getDownloadTimeout();
+                mFileDownloadTaskImpl.setDeadlineTime(mDeadlineTime);
+            }
+
             mFinishState = null;// reset mFinishState
-            // first internal impl run
+            // internal impl run
             mFileDownloadTaskImpl.run();
-            // first internal impl run finished, in this case, mFinishState will not be null
-
-            // check retry
-            final AtomicBoolean isInternalStop = new AtomicBoolean(false);
-            // condition：cur task not stop,retried times not over max retry times, mFinishState.status == Status
-            // .DOWNLOAD_STATUS_ERROR because only error can be retried
-            DownloadFileInfo downloadFileInfo = getDownloadFile();
-
-            while (DownloadFileUtil.isTempFileExist(downloadFileInfo) && !mIsTaskStop && mHasRetriedTimes <
-                    mRetryDownloadTimes && mRetryDownloadTimes > 0 && mFinishState.status == Status
-                    .DOWNLOAD_STATUS_ERROR) {
-                // get internal impl stop status
-                isInternalStop.set(mFileDownloadTaskImpl.isStopped());
-
-                if (!isInternalStop.get()) {
-                    // wait for internal impl stopped
-                    stopInternalImpl();
-                    try {
-                        Thread.sleep(2000);// FIXME sleep 2s
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    continue;
-                }
 
-                // re-init
-                init();
-
-                // make sure before the task run exec, the internal impl can not be stopped
-                if (mFileDownloadTaskImpl == null || mFileDownloadTaskImpl.isStopped()) {
-                    // stop internal impl
-                    stopInternalImpl();
-                    // goto finally, notifyTaskFinish()
-                    return;
-                }
+            if (mFileDownloadTaskImpl.isParked()) {
+                // the download thread is released, the task will be resumed by resumeParked() to finish
+                isParked = true;
+                // goto finally, not finish
+                return;
+            }
+            // internal impl run finished, in this case, mFinishState will not be null
 
-                isInternalStop.set(false);// false
-                mHasRetriedTimes++;// try once
+            isRetryScheduled = scheduleRetryIfNecessary();
+        } catch (Exception e) {
+            e.printStackTrace();
+            isRetryScheduled = false;
+            mIsRetryPending = false;
+            mFinishState = new FinishState(Status.DOWNLOAD_STATUS_ERROR, new OnFileDownloadStatusFailReason(getUrl(),
+                    e));
+        } finally {
+            if (!isParked) {
+                finishRun(isRetryScheduled);
+            }
+        }
+    }
 
-                // notifyStatusRetrying
-                if (!notifyStatusRetrying()) {
-                    // goto finally, notifyTaskFinish()
-                    return;
-                }
+    /**
+     * resume the task parked after the download driven by the selector engine finished, it runs in a download thread
+     *
+     * @param internalResumeTask the continuation of the internal impl
+     */
+    private void resumeParked(Runnable internalResumeTask) {
 
-                Log.d(TAG, TAG + ".run 正在重试，url：" + getUrl());
+        boolean isRetryScheduled = false;
 
-                try {
-                    Thread.sleep(2000);// FIXME sleep 2s
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
+        try {
+            mCurrentTaskThread = Thread.currentThread();
 
-                if (mIsTaskStop) {
-                    // stop internal impl
-                    stopInternalImpl();
-                    // clear the error status
-                    mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
-                    // goto finally, notifyTaskFinish()
-                    return;
-                } else {
-                    if (mFileDownloadTaskImpl == null || mFileDownloadTaskImpl.isStopped()) {
-                        init();
-                    }
-                }
+            Log.d(TAG, TAG + ".resumeParked selector引擎下载结束，继续执行任务，url：" + getUrl());
 
-                mFinishState = null;// reset mFinishState
+            // internal impl finish
+            internalResumeTask.run();
+            // internal impl run finished, in this case, mFinishState will not be null
 
-                // internal impl run again
-                mFileDownloadTaskImpl.run();
-                // internal impl run finished, in this case, mFinishState will not be null
-            }
-            // retry while case finished
+            isRetryScheduled = scheduleRetryIfNecessary();
         } catch (Exception e) {
             e.printStackTrace();
+            isRetryScheduled = false;
+            mIsRetryPending = false;
             mFinishState = new FinishState(Status.DOWNLOAD_STATUS_ERROR, new OnFileDownloadStatusFailReason(getUrl(),
                     e));
         } finally {
+            finishRun(isRetryScheduled);
+        }
+    }
+
+    /**
+     * check retry, the download thread will be released during waiting for the next attempt
+     *
+     * @return true means the next attempt has been scheduled
+     */
+    private boolean scheduleRetryIfNecessary() {
+
+        long retryDelay = getRetryDelay();
+        if (retryDelay < 0 || mOnScheduleRetryListener == null) {
+            // goto finally, notifyTaskFinish()
+            return false;
+        }
+
+        boolean isStalled = isFailedByType(FileDownloadStatusFailReason.TYPE_DOWNLOAD_STALLED);
+
+        // re-init for the next attempt, it will resume from the downloaded size
+        init();
+
+        // make sure before the task run exec, the internal impl can not be stopped
+        if (mFileDownloadTaskImpl == null || mFileDownloadTaskImpl.isStopped()) {
             // stop internal impl
             stopInternalImpl();
+            // goto finally, notifyTaskFinish()
+            return false;
+        }
 
-            // identify cur task stop
-            mIsTaskStop = true;
-            mIsRunning = false;
+        mHasRetriedTimes++;// try once
+
+        // notifyStatusRetrying
+        if (!notifyStatusRetrying()) {
+            // goto finally, notifyTaskFinish()
+            return false;
+        }
+
+        if (isStalled) {
+            Log.i(TAG, TAG + ".run 下载速度过低（连接停滞），从已下载位置重新连接，url：" + getUrl());
+        }
+
+        Log.d(TAG, TAG + ".run 准备重试，第" + mHasRetriedTimes + "次，" + retryDelay + "ms后执行，url：" + getUrl());
+
+        // if stopped during waiting for the retry, the task will be paused
+        mFinishState = new FinishState(Status.DOWNLOAD_STATUS_PAUSED);
+        mRetryTime = SystemClock.elapsedRealtime() + retryDelay;
+        mIsRetryPending = true;
+
+        // the task may be run again at once after scheduled, the current run must be over before that
+        mIsRunning = false;
+
+        mOnScheduleRetryListener.onScheduleRetry(getUrl(), retryDelay);
+
+        return true;
+    }
+
+    /**
+     * finish the run, the task will be run again if the next attempt has been scheduled
+     */
+    private void finishRun(boolean isRetryScheduled) {
 
-            // make sure to notify caller
-            notifyTaskFinish();
-            notifyStopTaskSucceedIfNecessary();
+        if (isRetryScheduled) {
+            // the task will be run again, not finish, mIsRunning has been cleared before scheduling
+            return;
+        }
+
+        // stop internal impl
+        stopInternalImpl();
+
+        // identify cur task stop
+        mIsTaskStop = true;
+        mIsRunning = false;
+
+        // make sure to notify caller
+        notifyTaskFinish();
+        notifyStopTaskSucceedIfNecessary();
+
+        if (mOnTaskRunFinishListener != null) {
+            mOnTaskRunFinishListener.onTaskRunFinish();
+        }
+
+        boolean hasException = (mFinishState != null && mFinishState.failReason != null && DownloadFileUtil
+                .hasException(mFinishState.status)) ? true : false;
+
+        Log.d(TAG, TAG + ".run 文件下载任务【已结束】，是否有异常：" + hasException + "，url：" + getUrl());
+    }
+
+    /**
+     * get the delay before the next attempt by the fail reason, the delay grows exponentially with the retried
+     * times and is jittered, the errors that can not be fixed by retrying fail fast
+     *
+     * @return the delay, millisecond, -1 means not retry
+     */
+    private long getRetryDelay() {
+
+        // only error can be retried
+        if (mFinishState == null || mFinishState.status != Status.DOWNLOAD_STATUS_ERROR) {
+            return -1;
+        }
+        // cur task not stop, retried times not over max retry times
+        if (mIsTaskStop || mRetryDownloadTimes <= 0 || mHasRetriedTimes >= mRetryDownloadTimes) {
+            return -1;
+        }
+        if (!DownloadFileUtil.isTempFileExist(getDownloadFile())) {
+            return -1;
+        }
+
+        FileDownloadStatusFailReason failReason = mFinishState.failReason;
+        int responseCode = getResponseCode(failReason);
+
+        // fail fast, the file changed or over the deadline, the type may not be cast, check the original types too
+        if (hasFailType(failReason, FileDownloadStatusFailReason.TYPE_URL_FILE_CHANGED, HttpDownloadException
+                .TYPE_ETAG_CHANGED, FileDownloadStatusFailReason.TYPE_DOWNLOAD_TIMEOUT, FileSaveException
+                .TYPE_DOWNLOAD_TIMEOUT)) {
+            return -1;
+        }
+        // fail fast, client errors except request timeout and too many requests
+        if (responseCode >= 400 && responseCode < 500 && responseCode != 408 && responseCode != 429) {
+            return -1;
+        }
+
+        long baseDelay = RETRY_BASE_DELAY;
+        if (hasFailType(failReason, FileDownloadStatusFailReason.TYPE_DOWNLOAD_STALLED, FileSaveException
+                .TYPE_DOWNLOAD_STALLED)) {
+            // the server is reachable, reconnect soon
+            baseDelay = RETRY_BASE_DELAY / 2;
+        } else if (responseCode >= 500 || responseCode == 408 || responseCode == 429 || hasFailType(failReason,
+                FileDownloadStatusFailReason.TYPE_NETWORK_TIMEOUT)) {
+            // the server is busy, back off more
+            baseDelay = RETRY_BASE_DELAY * 2;
+        }
+
+        long delay = Math.min(baseDelay << Math.min(mHasRetriedTimes, 16), RETRY_MAX_DELAY);
 
-            if (mOnTaskRunFinishListener != null) {
-                mOnTaskRunFinishListener.onTaskRunFinish();
+        // equal jitter, keep a half and randomize the other half
+        return delay / 2 + (long) (RANDOM.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * get the http response code in the fail reason
+     *
+     * @return the http response code, 0 means unknown
+     */
+    private int getResponseCode(Throwable throwable) {
+        while (throwable != null) {
+            if (throwable instanceof HttpFailReason) {
+                int responseCode = ((HttpFailReason) throwable).getResponseCode();
+                if (responseCode > 0) {
+                    return responseCode;
+                }
+            }
+            if (throwable == throwable.getCause()) {
+                break;
             }
+            throwable = throwable.getCause();
+        }
+        return 0;
+    }
 
-            boolean hasException = (mFinishState != null && mFinishState.failReason != null && DownloadFileUtil
-                    .hasException(mFinishState.status)) ? true : false;
+    /**
+     * whether the fail reason or any fail reason in its causes is one of the types
+     */
+    private boolean hasFailType(Throwable throwable, String... types) {
+        while (throwable != null) {
+            if (throwable instanceof FailReason) {
+                String type = ((FailReason) throwable).getType();
+                for (String t : types) {
+                    if (t.equals(type)) {
+                        return true;
+                    }
+                }
+            }
+            if (throwable == throwable.getCause()) {
+                break;
+            }
+            throwable = throwable.getCause();
+        }
+        return false;
+    }
 
-            Log.d(TAG, TAG + ".run 文件下载任务【已结束】，是否有异常：" + hasException + "，url：" + getUrl());
+    /**
+     * whether the task finished with the type of fail reason
+     */
+    private boolean isFailedByType(String type) {
+        if (mFinishState == null || mFinishState.failReason == null || type == null) {
+            return false;
         }
+        return type.equals(mFinishState.failReason.getType());
+    }
+
+    /**
+     * whether the task is waiting for the next attempt
+     *
+     * @return true means waiting for retry
+     */
+    public boolean isRetryPending() {
+        return mIsRetryPending;
+    }
+
+    /**
+     * get the time of the next attempt
+     *
+     * @return based on SystemClock.elapsedRealtime(), -1 means not waiting for retry
+     */
+    public long getRetryTime() {
+        return mIsRetryPending ? mRetryTime : -1;
+    }
+
+    /**
+     * get the retried times
+     *
+     * @return the retried times
+     */
+    public int getRetriedTimes() {
+        return mHasRetriedTimes;
     }
 
     /**
@@ -572,6 +772,28 @@ class RetryableDownloadTaskImpl implements RetryableDownloadTask, OnFileDownload
         }
     }
 
+    // ----------------------the callbacks below are about parking the internal impl----------------------
+
+    @Override
+    public void onParkTask(String url) {
+        if (mOnParkTaskListener != null) {
+            mOnParkTaskListener.onParkTask(url);
+        }
+    }
+
+    @Override
+    public void onResumeParkedTask(String url, final Runnable resumeTask) {
+        if (mOnParkTaskListener != null) {
+            // resume the internal impl, then finish or retry cur task
+            mOnParkTaskListener.onResumeParkedTask(url, new Runnable() {
+                @Override
+                public void run() {
+                    resumeParked(resumeTask);
+                }
+            });
+        }
+    }
+
     // ----------------------all callback methods below are sync in cur task run method----------------------
 
     @Override
@@ -0,0 +1,555 @@
+package org.wlf.filedownloader.file_download;
+
+import android.text.TextUtils;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.base.Stoppable;
+import org.wlf.filedownloader.file_download.base.DownloadRecorder;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver.FileSaveException;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver.OnFileSaveListener;
+import org.wlf.filedownloader.file_download.http_downloader.ContentLengthInputStream;
+import org.wlf.filedownloader.file_download.http_downloader.Download;
+import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader;
+import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader.OnHttpDownloadListener;
+import org.wlf.filedownloader.file_download.http_downloader.Range;
+import org.wlf.filedownloader.util.CollectionUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * segment downloader, download the remaining ranges of a file by several connections at the same time, every
+ * connection saves data at its own position of the same temp file
+ * <br/>
+ * 分段下载器（多连接同时下载同一个文件的不同区域）
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+class SegmentDownloader implements Download, Stoppable {
+
+    private static final String TAG = SegmentDownloader.class.getSimpleName();
+
+    /**
+     * min length of a segment, 1MB
+     */
+    private static final long MIN_SEGMENT_LENGTH = 1024 * 1024;
+
+    private static final String SEGMENTS_SEPARATOR = ",";
+    private static final String RANGE_SEPARATOR = "-";
+
+    private FileDownloadTaskParam mTaskParamInfo;// Download Param Info
+    private DownloadRecorder mDownloadRecorder;// DownloadRecorder
+    private FileSaver mFileSaver;// the FileSaver of the whole file, use for saving the completed temp file
+    private List<SegmentTask> mSegmentTasks = new ArrayList<SegmentTask>();
+
+    private final DownloadTaskOptions mOptions;// the options of the task, every segment uses them
+    private long mDeadlineTime = 0;// SystemClock.elapsedRealtime() based, 0 means no deadline
+
+    private OnSegmentDownloadListener mOnSegmentDownloadListener;
+    private OnFileSaveListener mOnFileSaveListener;
+
+    private final Object mNotifyLock = new Object();// notify lock, all segments notify caller one by one
+
+    private volatile boolean mIsStopped;// whether stopped
+    private AtomicBoolean mIsNotifyConnected = new AtomicBoolean(false);// whether notify connected
+    private AtomicBoolean mIsNotifySaveStart = new AtomicBoolean(false);// whether notify save start
+    private Exception mFailException;// the first exception occurred in segments
+
+    /**
+     * constructor of SegmentDownloader
+     *
+     * @param taskParamInfo    Download Param Info
+     * @param options          the options of the task, the min download speed is shared by the segments equally
+     * @param ranges           the remaining ranges need to download
+     * @param fileSaver        the FileSaver of the whole file
+     * @param downloadRecorder DownloadRecorder
+     */
+    SegmentDownloader(FileDownloadTaskParam taskParamInfo, DownloadTaskOptions options, List<Range> ranges,
+                      FileSaver fileSaver, DownloadRecorder downloadRecorder) {
+        mTaskParamInfo = taskParamInfo;
+        mOptions = options;
+        mFileSaver = fileSaver;
+        mDownloadRecorder = downloadRecorder;
+
+        if (!CollectionUtil.isEmpty(ranges)) {
+            for (Range range : ranges) {
+                if (!Range.isLegal(range)) {
+                    continue;
+                }
+                mSegmentTasks.add(new SegmentTask(range));
+            }
+        }
+    }
+
+    // --------------------------------------setters--------------------------------------
+
+    /**
+     * set the deadline of the download
+     *
+     * @param deadlineTime based on SystemClock.elapsedRealtime(), 0 or less means no deadline
+     */
+    void setDeadlineTime(long deadlineTime) {
+        mDeadlineTime = deadlineTime;
+    }
+
+    /**
+     * set OnSegmentDownloadListener
+     *
+     * @param onSegmentDownloadListener OnSegmentDownloadListener
+     */
+    void setOnSegmentDownloadListener(OnSegmentDownloadListener onSegmentDownloadListener) {
+        mOnSegmentDownloadListener = onSegmentDownloadListener;
+    }
+
+    /**
+     * set OnFileSaveListener, the saving of all segments will be notified as one file
+     *
+     * @param onFileSaveListener OnFileSaveListener
+     */
+    void setOnFileSaveListener(OnFileSaveListener onFileSaveListener) {
+        mOnFileSaveListener = onFileSaveListener;
+    }
+
+    private String getUrl() {
+        return mTaskParamInfo.getUrl();
+    }
+
+    // --------------------------------------download--------------------------------------
+
+    @Override
+    public void download() throws Exception {
+
+        String url = getUrl();
+
+        if (mIsStopped) {
+            return;
+        }
+
+        if (CollectionUtil.isEmpty(mSegmentTasks)) {
+            throw new FileSaveException("there are not segments to download!", FileSaveException.TYPE_UNKNOWN);
+        }
+
+        // the recorded segments and downloaded size must be the same before downloading
+        recordSegments();
+
+        Log.d(TAG, TAG + ".download 1、准备分段下载，分段数：" + mSegmentTasks.size() + "，分段：" + getRemainingSegments() +
+                "，url：" + url);
+
+        CountDownLatch countDownLatch = new CountDownLatch(mSegmentTasks.size());
+
+        // the first segment runs in current thread, others run in the segment engine
+        for (int i = 1; i < mSegmentTasks.size(); i++) {
+            SegmentTask segmentTask = mSegmentTasks.get(i);
+            segmentTask.mCountDownLatch = countDownLatch;
+            mOptions.getDownloadSegmentEngine().execute(segmentTask);
+        }
+        SegmentTask firstSegmentTask = mSegmentTasks.get(0);
+        firstSegmentTask.mCountDownLatch = countDownLatch;
+        firstSegmentTask.run();
+
+        // wait for all segments finished
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            stop();
+        }
+
+        boolean isCompleted = true;
+        for (SegmentTask segmentTask : mSegmentTasks) {
+            if (!segmentTask.isCompleted()) {
+                isCompleted = false;
+                break;
+            }
+        }
+
+        try {
+            if (isCompleted) {
+                // all segments completed, save the temp file to save file
+                mFileSaver.saveCompletedTempFile();
+            }
+        } finally {
+            // record the remaining segments, so that the task can continue every segment later
+            recordSegments();
+            notifySaveDataEnd(isCompleted);
+
+            Log.d(TAG, TAG + ".download 2、分段下载【已结束】，是否完成：" + isCompleted + "，剩余分段：" + getRemainingSegments() +
+                    "，url：" + url);
+        }
+
+        if (!isCompleted && !mIsStopped && mFailException != null) {
+            throw mFailException;
+        }
+    }
+
+    /**
+     * get remaining segments, use for recording
+     */
+    private String getRemainingSegments() {
+        List<Range> ranges = new ArrayList<Range>();
+        for (SegmentTask segmentTask : mSegmentTasks) {
+            Range range = segmentTask.getRemainingRange();
+            if (Range.isLegal(range)) {
+                ranges.add(range);
+            }
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        return formatSegments(ranges);
+    }
+
+    /**
+     * get remaining size of all segments
+     */
+    private long getRemainingSize() {
+        long remainingSize = 0;
+        for (SegmentTask segmentTask : mSegmentTasks) {
+            Range range = segmentTask.getRemainingRange();
+            if (Range.isLegal(range)) {
+                remainingSize += range.getLength();
+            }
+        }
+        return remainingSize;
+    }
+
+    /**
+     * record the remaining segments and the downloaded size
+     */
+    private void recordSegments() throws Exception {
+        synchronized (mNotifyLock) {
+            long downloadedSize = mTaskParamInfo.getFileTotalSize() - getRemainingSize();
+            mDownloadRecorder.recordDownloadSegments(getUrl(), getRemainingSegments());
+            mDownloadRecorder.resetDownloadSize(getUrl(), downloadedSize);
+            mDownloadRecorder.recordSyncedDownloadedSize(getUrl(), downloadedSize);
+        }
+    }
+
+    // --------------------------------------notify caller--------------------------------------
+
+    private boolean notifyConnected() {
+        if (mIsNotifyConnected.compareAndSet(false, true)) {
+            if (mOnSegmentDownloadListener != null) {
+                return mOnSegmentDownloadListener.onSegmentDownloadConnected();
+            }
+        }
+        return true;
+    }
+
+    private void notifySaveDataStart() {
+        if (mIsNotifySaveStart.compareAndSet(false, true)) {
+            if (mOnFileSaveListener != null) {
+                mOnFileSaveListener.onSaveDataStart();
+            }
+        }
+    }
+
+    private void notifySavingData(int increaseSize) {
+        // caller in mNotifyLock
+        if (mOnFileSaveListener != null) {
+            mOnFileSaveListener.onSavingData(increaseSize, mTaskParamInfo.getFileTotalSize() - mTaskParamInfo
+                    .getStartPosInTotal());
+        }
+    }
+
+    private void notifySyncedData() {
+        // caller in mNotifyLock, the remaining segments and the downloaded size persisted follow the synced data
+        try {
+            mDownloadRecorder.recordDownloadSegments(getUrl(), getRemainingSegments());
+            mDownloadRecorder.recordSyncedDownloadedSize(getUrl(), mTaskParamInfo.getFileTotalSize() -
+                    getRemainingSize());
+        } catch (Exception e) {
+            e.printStackTrace();
+            // the segments will be recorded again when the download finished
+        }
+    }
+
+    private void notifySaveDataEnd(boolean complete) {
+        // the downloaded size has been recorded by recordSegments()
+        if (mOnFileSaveListener != null) {
+            mOnFileSaveListener.onSaveDataEnd(0, complete);
+        }
+    }
+
+    /**
+     * stop all segments
+     */
+    @Override
+    public void stop() {
+        mIsStopped = true;
+        for (SegmentTask segmentTask : mSegmentTasks) {
+            segmentTask.stop();
+        }
+    }
+
+    @Override
+    public boolean isStopped() {
+        return mIsStopped;
+    }
+
+    /**
+     * one segment failed, the other segments need to be stopped
+     */
+    private void onSegmentFailed(Exception e) {
+        synchronized (mNotifyLock) {
+            if (mFailException == null) {
+                mFailException = e;
+            }
+        }
+        for (SegmentTask segmentTask : mSegmentTasks) {
+            segmentTask.stop();
+        }
+    }
+
+    // --------------------------------------segments--------------------------------------
+
+    /**
+     * split a range to segments, every segment is not less than {@link #MIN_SEGMENT_LENGTH}
+     *
+     * @param range        the range to split
+     * @param segmentCount max segment count
+     * @return the segments
+     */
+    static List<Range> splitRange(Range range, int segmentCount) {
+
+        List<Range> ranges = new ArrayList<Range>();
+
+        if (!Range.isLegal(range)) {
+            return ranges;
+        }
+
+        long maxSegmentCount = range.getLength() / MIN_SEGMENT_LENGTH;
+        if (segmentCount > maxSegmentCount) {
+            segmentCount = (int) maxSegmentCount;
+        }
+        if (segmentCount <= 1) {
+            ranges.add(range);
+            return ranges;
+        }
+
+        long segmentLength = range.getLength() / segmentCount;
+        long startPos = range.startPos;
+        for (int i = 0; i < segmentCount; i++) {
+            // the last segment contains the rest
+            long endPos = (i == segmentCount - 1) ? range.endPos : startPos + segmentLength;
+            ranges.add(new Range(startPos, endPos));
+            startPos = endPos;
+        }
+        return ranges;
+    }
+
+    /**
+     * parse the recorded segments
+     *
+     * @param downloadSegments the recorded segments, such as 0-1024,2048-4096
+     * @return the segments, null means not segment download or the record is illegal
+     */
+    static List<Range> parseSegments(String downloadSegments) {
+
+        if (TextUtils.isEmpty(downloadSegments)) {
+            return null;
+        }
+
+        List<Range> ranges = new ArrayList<Range>();
+        try {
+            String[] segments = downloadSegments.split(SEGMENTS_SEPARATOR);
+            for (String segment : segments) {
+                if (TextUtils.isEmpty(segment)) {
+                    continue;
+                }
+                String[] positions = segment.split(RANGE_SEPARATOR);
+                if (positions == null || positions.length != 2) {
+                    return null;
+                }
+                Range range = new Range(Long.parseLong(positions[0].trim()), Long.parseLong(positions[1].trim()));
+                if (!Range.isLegal(range)) {
+                    return null;
+                }
+                ranges.add(range);
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        return ranges;
+    }
+
+    /**
+     * format the segments for recording
+     *
+     * @param ranges the segments
+     * @return the formatted segments, such as 0-1024,2048-4096
+     */
+    static String formatSegments(List<Range> ranges) {
+        StringBuilder sb = new StringBuilder();
+        for (Range range : ranges) {
+            if (sb.length() > 0) {
+                sb.append(SEGMENTS_SEPARATOR);
+            }
+            sb.append(range.startPos).append(RANGE_SEPARATOR).append(range.endPos);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * segment task, download a segment by one connection
+     */
+    private class SegmentTask implements Runnable, Stoppable, OnHttpDownloadListener, OnFileSaveListener {
+
+        private final long mEndPos;
+        private long mStartPos;// current start pos, move forward while saving data
+        private long mSyncedPos;// the end pos of the data synced, the remaining range recorded starts from it
+        private boolean mIsCompleted;
+
+        private FileSaver mSaver;
+        private CountDownLatch mCountDownLatch;
+
+        SegmentTask(Range range) {
+            mStartPos = range.startPos;
+            mSyncedPos = mStartPos;
+            mEndPos = range.endPos;
+
+            mSaver = new FileSaver(getUrl(), mTaskParamInfo.getTempFilePath(), mTaskParamInfo.getFilePath(),
+                    mTaskParamInfo.getFileTotalSize());
+            mSaver.setSegmentMode(true);
+            mSaver.setOnFileSaveListener(this);
+        }
+
+        Range getRemainingRange() {
+            return new Range(mSyncedPos, mEndPos);
+        }
+
+        boolean isCompleted() {
+            return mIsCompleted || mStartPos == mEndPos;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (mIsStopped || isCompleted()) {
+                    return;
+                }
+
+                HttpDownloader downloader = new HttpDownloader(getUrl(), new Range(mStartPos, mEndPos),
+                        mTaskParamInfo.getAcceptRangeType(), mTaskParamInfo.getETag(), mTaskParamInfo
+                        .getLastModified());
+                downloader.setOnHttpDownloadListener(this);
+                downloader.setCloseConnectionEngine(mOptions.getCloseConnectionEngine());
+                downloader.setConnectTimeout(mOptions.getConnectTimeout());
+                downloader.setReadTimeout(mOptions.getReadTimeout());
+                downloader.setHostCircuitBreaker(mOptions.getHostCircuitBreaker());
+                downloader.setSslContextProvider(mOptions.getSslContextProvider());
+                downloader.setKeepAlivePool(mOptions.getKeepAlivePool());
+                downloader.setTransport(mOptions.getTransport());
+                downloader.setRequestMethod(mTaskParamInfo.getRequestMethod());
+                downloader.setHeaders(mTaskParamInfo.getHeaders());
+                // a segment can not be changed to other range
+                downloader.setPartialOnly(true);
+
+                downloader.download();
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (!mIsStopped) {
+                    onSegmentFailed(e);
+                }
+            } finally {
+                if (mCountDownLatch != null) {
+                    mCountDownLatch.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void onDownloadConnected(ContentLengthInputStream inputStream, long startPosInTotal) {
+
+            if (mIsStopped) {
+                return;
+            }
+
+            if (!notifyConnected()) {
+                SegmentDownloader.this.stop();
+                return;
+            }
+
+            try {
+                mSaver.setFileSyncStrategy(mOptions.getFileSyncStrategy(), mOptions.getFileSyncValue());
+                mSaver.setBandwidthLimiter(mOptions.getBandwidthLimiter());
+                mSaver.setBufferPool(mOptions.getBufferPool());
+                mSaver.setFileWriteEngine(mOptions.getFileWriteEngine());
+                // every segment is a connection, detect by its share of the min download speed
+                long minDownloadSpeed = mOptions.getMinDownloadSpeed();
+                minDownloadSpeed = minDownloadSpeed > 0 ? Math.max(1, minDownloadSpeed / mSegmentTasks.size()) : 0;
+                mSaver.setStallDetection(minDownloadSpeed, mOptions.getStallWindow());
+                mSaver.setDeadlineTime(mDeadlineTime);
+                mSaver.saveData(inputStream, startPosInTotal);
+            } catch (FileSaveException e) {
+                e.printStackTrace();
+                if (!mIsStopped) {
+                    onSegmentFailed(e);
+                }
+            }
+        }
+
+        @Override
+        public void onSaveDataStart() {
+            notifySaveDataStart();
+        }
+
+        @Override
+        public void onSavingData(int increaseSize, long totalSize) {
+            synchronized (mNotifyLock) {
+                mStartPos += increaseSize;
+                notifySavingData(increaseSize);
+            }
+        }
+
+        @Override
+        public void onSyncedData(long syncedPosInTotal) {
+            synchronized (mNotifyLock) {
+                mSyncedPos = syncedPosInTotal;
+                notifySyncedData();
+            }
+        }
+
+        @Override
+        public void onSaveDataEnd(int increaseSize, boolean complete) {
+            synchronized (mNotifyLock) {
+                mStartPos += increaseSize;
+                mIsCompleted = complete && mStartPos == mEndPos;
+            }
+        }
+
+        @Override
+        public void stop() {
+            if (!mSaver.isStopped()) {
+                mSaver.stop();
+            }
+        }
+
+        @Override
+        public boolean isStopped() {
+            return mSaver.isStopped();
+        }
+    }
+
+    /**
+     * OnSegmentDownloadListener
+     */
+    interface OnSegmentDownloadListener {
+
+        /**
+         * the first segment connected
+         *
+         * @return true means continue download, otherwise stop download
+         */
+        boolean onSegmentDownloadConnected();
+    }
+}
@@ -0,0 +1,281 @@
+package org.wlf.filedownloader.file_download;
+
+import android.os.SystemClock;
+
+import org.wlf.filedownloader.base.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * the provider of the TLS context for https connections
+ * <br/>
+ * https连接的TLS上下文，延迟创建且全局只创建一次，按连接设置而不修改JVM全局配置，开启会话缓存以便复用TLS会话，并统计握手耗时
+ * <p/>
+ * all connections use the same SSLSocketFactory, so the sessions cached by the context can be resumed by the
+ * connections to the same host, and the pooled connections can be reused
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class SslContextProvider {
+
+    private static final String TAG = SslContextProvider.class.getSimpleName();
+
+    /**
+     * max sessions cached
+     */
+    private static final int SESSION_CACHE_SIZE = 64;
+    /**
+     * the time a cached session can be resumed, second
+     */
+    private static final int SESSION_TIMEOUT = 12 * 60 * 60;// 12h
+
+    private static final HostnameVerifier TRUST_ALL_HOSTNAME_VERIFIER = new HostnameVerifier() {
+        public boolean verify(String hostname, SSLSession session) {
+            // always true, let the check pass
+            return true;
+        }
+    };
+
+    private static volatile SslContextProvider sDefault;
+
+    private SSLContext mCustomSslContext;// null means trust all
+    private HostnameVerifier mHostnameVerifier;// null means trust all
+
+    private volatile SSLSocketFactory mSslSocketFactory;
+
+    // handshake statistics
+    private AtomicLong mHandshakeCount = new AtomicLong(0);
+    private AtomicLong mResumedHandshakeCount = new AtomicLong(0);
+    private AtomicLong mTotalHandshakeTime = new AtomicLong(0);
+
+    /**
+     * constructor of SslContextProvider
+     *
+     * @param sslContext       the SSLContext to use, null means trust all certificates
+     * @param hostnameVerifier the HostnameVerifier to use, null means trust all hosts
+     */
+    public SslContextProvider(SSLContext sslContext, HostnameVerifier hostnameVerifier) {
+        mCustomSslContext = sslContext;
+        mHostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * get the default provider that trusts all certificates and hosts, use for the connections without a configured
+     * provider
+     *
+     * @return the default provider
+     */
+    public static SslContextProvider getDefault() {
+        if (sDefault == null) {
+            synchronized (SslContextProvider.class) {
+                if (sDefault == null) {
+                    sDefault = new SslContextProvider(null, null);
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * apply the TLS context to the connection, it does not change the default of HttpsURLConnection
+     *
+     * @param conn the https connection not connected
+     */
+    public void apply(HttpsURLConnection conn) {
+        SSLSocketFactory sslSocketFactory = getSslSocketFactory();
+        if (sslSocketFactory != null) {
+            conn.setSSLSocketFactory(sslSocketFactory);
+        }
+        conn.setHostnameVerifier(mHostnameVerifier != null ? mHostnameVerifier : TRUST_ALL_HOSTNAME_VERIFIER);
+    }
+
+    /**
+     * get the shared SSLSocketFactory, it is created at the first time
+     *
+     * @return the SSLSocketFactory, null means failed to create
+     */
+    private SSLSocketFactory getSslSocketFactory() {
+        if (mSslSocketFactory == null) {
+            synchronized (this) {
+                if (mSslSocketFactory == null) {
+                    long startTime = SystemClock.elapsedRealtime();
+                    SSLContext sslContext = createSslContext();
+                    if (sslContext == null) {
+                        return null;
+                    }
+                    SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+                    if (sessionContext != null) {
+                        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+                        sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+                    }
+                    mSslSocketFactory = new MeasuredSslSocketFactory(sslContext.getSocketFactory());
+
+                    Log.d(TAG, "getSslSocketFactory 创建TLS上下文，耗时：" + (SystemClock.elapsedRealtime() -
+                            startTime) + "ms");
+                }
+            }
+        }
+        return mSslSocketFactory;
+    }
+
+    private SSLContext createSslContext() {
+        if (mCustomSslContext != null) {
+            return mCustomSslContext;
+        }
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[]{new X509TrustManager() {
+                // do nothing, let the check pass
+                @Override
+                public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }}, new SecureRandom());
+            return sslContext;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * get the count of the handshakes completed
+     *
+     * @return the count of the handshakes
+     */
+    public long getHandshakeCount() {
+        return mHandshakeCount.get();
+    }
+
+    /**
+     * get the count of the handshakes that resumed a cached session
+     *
+     * @return the count of the resumed handshakes
+     */
+    public long getResumedHandshakeCount() {
+        return mResumedHandshakeCount.get();
+    }
+
+    /**
+     * get the average time of the handshakes
+     *
+     * @return the average time, millisecond, 0 means no handshake
+     */
+    public long getAverageHandshakeTime() {
+        long handshakeCount = mHandshakeCount.get();
+        return handshakeCount > 0 ? mTotalHandshakeTime.get() / handshakeCount : 0;
+    }
+
+    private void recordHandshake(long handshakeTime, boolean isResumed, String host) {
+        mHandshakeCount.incrementAndGet();
+        mTotalHandshakeTime.addAndGet(handshakeTime);
+        if (isResumed) {
+            mResumedHandshakeCount.incrementAndGet();
+        }
+
+        Log.d(TAG, "recordHandshake TLS握手完成，耗时：" + handshakeTime + "ms，是否复用会话：" + isResumed + "，host：" +
+                host);
+    }
+
+    /**
+     * the SSLSocketFactory that measures the handshakes of the sockets it created
+     */
+    private class MeasuredSslSocketFactory extends SSLSocketFactory {
+
+        private SSLSocketFactory mDelegate;
+
+        private MeasuredSslSocketFactory(SSLSocketFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return mDelegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return mDelegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return measure(mDelegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return measure(mDelegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return measure(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return measure(mDelegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return measure(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws
+                IOException {
+            return measure(mDelegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        /**
+         * the handshake starts soon after the socket created, so the time is measured from now
+         */
+        private Socket measure(Socket socket) {
+            if (!(socket instanceof SSLSocket)) {
+                return socket;
+            }
+            final long startTime = SystemClock.elapsedRealtime();
+            final long startWallTime = System.currentTimeMillis();
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    SSLSession session = event.getSession();
+                    // a resumed session was created before this handshake
+                    boolean isResumed = session != null && session.getCreationTime() < startWallTime;
+                    String host = session != null ? session.getPeerHost() : null;
+                    recordHandshake(SystemClock.elapsedRealtime() - startTime, isResumed, host);
+                }
+            });
+            return socket;
+        }
+    }
+}
@@ -33,5 +33,23 @@ public interface DownloadRecorder extends DownloadFileDbRecorder {
      */
     void resetDownloadSize(String url, long downloadSize) throws Exception;
 
+    /**
+     * record the remaining ranges of segment download
+     *
+     * @param url              download url
+     * @param downloadSegments the remaining ranges, null means not segment download any more
+     * @throws Exception any fail exception during recording segments
+     */
+    void recordDownloadSegments(String url, String downloadSegments) throws Exception;
+
+    /**
+     * record the downloaded size synced to the storage device, the downloaded size persisted never exceeds it, the
+     * downloaded size in memory still goes with the data written
+     *
+     * @param url        download url
+     * @param syncedSize the downloaded size synced
+     */
+    void recordSyncedDownloadedSize(String url, long syncedSize);
+
     DownloadFileInfo createDownloadFileInfo(DetectUrlFileInfo detectUrlFileInfo);
 }
\ No newline at end of file
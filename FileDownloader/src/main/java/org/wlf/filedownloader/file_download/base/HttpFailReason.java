@@ -25,6 +25,11 @@ public class HttpFailReason extends UrlFailReason {
      */
     public static final String TYPE_NETWORK_TIMEOUT = HttpFailReason.class.getName() + "_TYPE_NETWORK_TIMEOUT";
 
+    /**
+     * the http response code, 0 means unknown
+     */
+    private int mResponseCode;
+
     public HttpFailReason(String url, String detailMessage, String type) {
         super(url, detailMessage, type);
     }
@@ -33,6 +38,24 @@ public class HttpFailReason extends UrlFailReason {
         super(url, throwable);
     }
 
+    /**
+     * set the http response code
+     *
+     * @param responseCode the http response code
+     */
+    protected final void setResponseCode(int responseCode) {
+        mResponseCode = responseCode;
+    }
+
+    /**
+     * get the http response code
+     *
+     * @return the http response code, 0 means unknown
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
     @Override
     protected void onInitTypeWithOriginalThrowable(Throwable throwable) {
         super.onInitTypeWithOriginalThrowable(throwable);
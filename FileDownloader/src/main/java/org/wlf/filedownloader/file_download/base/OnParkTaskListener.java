@@ -0,0 +1,27 @@
+package org.wlf.filedownloader.file_download.base;
+
+/**
+ * OnParkTaskListener
+ * <br/>
+ * 任务挂起监听器，下载交给selector引擎驱动时任务释放下载线程，下载结束后由调用者运行任务的后续部分以完成收尾
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public interface OnParkTaskListener {
+
+    /**
+     * the task is parked, the current run of the task will return without finishing, it is still running
+     *
+     * @param url file url
+     */
+    void onParkTask(String url);
+
+    /**
+     * the parked task need to be resumed to finish, it may be called before {@link #onParkTask(String)} returns
+     *
+     * @param url        file url
+     * @param resumeTask the continuation of the parked task, run it in a download thread
+     */
+    void onResumeParkedTask(String url, Runnable resumeTask);
+}
@@ -0,0 +1,20 @@
+package org.wlf.filedownloader.file_download.base;
+
+/**
+ * OnScheduleRetryListener
+ * <br/>
+ * 重试调度监听器，任务需要重试时释放下载线程，由调用者在延迟后重新调度
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public interface OnScheduleRetryListener {
+
+    /**
+     * the task need to be run again after the delay, the current run of the task will return without finishing
+     *
+     * @param url   file url
+     * @param delay the delay before the next attempt, millisecond
+     */
+    void onScheduleRetry(String url, long delay);
+}
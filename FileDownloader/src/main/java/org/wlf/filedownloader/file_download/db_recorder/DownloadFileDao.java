@@ -58,6 +58,25 @@ public class DownloadFileDao extends BaseContentDbDao {
             }
         }
         // upgrade to version 4
+        else if (newVersion == 4) {
+            switch (oldVersion) {
+                case 1:
+                    // version 1 to 4
+                    updateVersion1To3(db);
+                    updateVersion3To4(db);
+                    break;
+                case 2:
+                    // version 2 to 4
+                    updateVersion2To3(db);
+                    updateVersion3To4(db);
+                    break;
+                case 3:
+                    // version 3 to 4
+                    updateVersion3To4(db);
+                    break;
+            }
+        }
+        // upgrade to version 5
 
     }
 
@@ -77,4 +96,9 @@ public class DownloadFileDao extends BaseContentDbDao {
         db.execSQL(DownloadFileInfo.Table.getUpdateTableVersion2To3Sql());
     }
 
+    // version 3 to 4
+    private void updateVersion3To4(SQLiteDatabase db) {
+        db.execSQL(DownloadFileInfo.Table.getUpdateTableVersion3To4Sql());
+    }
+
 }
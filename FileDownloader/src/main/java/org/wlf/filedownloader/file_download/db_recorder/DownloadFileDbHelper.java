@@ -18,7 +18,7 @@ import java.util.List;
 public class DownloadFileDbHelper extends BaseContentDbHelper {
 
     private static final String DB_NAME = "download_file.db";
-    private static final int DB_VERSION = 3;
+    private static final int DB_VERSION = 4;
 
     public DownloadFileDbHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
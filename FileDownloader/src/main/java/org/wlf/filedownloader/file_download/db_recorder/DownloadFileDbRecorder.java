@@ -22,6 +22,16 @@ public interface DownloadFileDbRecorder extends Record {
      */
     DownloadFileInfo getDownloadFile(String url);
 
+    /**
+     * get DownloadFile by savePath
+     *
+     * @param savePath            the path of the file saved in
+     * @param includeTempFilePath true means try use the savePath as temp file savePath if can not get DownloadFile
+     *                            by savePath
+     * @return DownloadFile recorded
+     */
+    DownloadFileInfo getDownloadFileBySavePath(String savePath, boolean includeTempFilePath);
+
     /**
      * get all DownloadFiles
      *
@@ -0,0 +1,333 @@
+package org.wlf.filedownloader.file_download.file_saver;
+
+import android.os.SystemClock;
+
+import org.wlf.filedownloader.base.BaseDownloadConfigBuilder;
+import org.wlf.filedownloader.base.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the token bucket limiter for limiting download bandwidth
+ * <br/>
+ * 下载带宽限制器（令牌桶），支持全局限速和单个任务限速，全局带宽按任务权重分配
+ * <p/>
+ * every saving opens a {@link Channel}, the channel of a url gets globalLimit * weight / totalWeight of all
+ * downloading urls, and no more than the limit of the url, the channels of the same url (segments) share the bandwidth
+ * of the url equally, the limits can be changed at any time and the waiting channels will use the new ones at once
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class BandwidthLimiter {
+
+    private static final String TAG = BandwidthLimiter.class.getSimpleName();
+
+    /**
+     * no limit
+     */
+    public static final long NO_LIMIT = 0;
+    /**
+     * default weight of a url
+     */
+    public static final int DEFAULT_WEIGHT = BaseDownloadConfigBuilder.DEFAULT_BANDWIDTH_WEIGHT;
+
+    /**
+     * max time to wait once, the limits will be checked again after it
+     */
+    private static final long MAX_WAIT_TIME = 500;// 500ms
+
+    /**
+     * global limit, bytes per second
+     */
+    private long mGlobalLimit = NO_LIMIT;
+    /**
+     * the limits of urls, bytes per second
+     */
+    private Map<String, Long> mUrlLimits = new HashMap<String, Long>();
+    /**
+     * the weights of urls
+     */
+    private Map<String, Integer> mUrlWeights = new HashMap<String, Integer>();
+    /**
+     * the channel count of downloading urls
+     */
+    private Map<String, Integer> mUrlChannelCounts = new HashMap<String, Integer>();
+    /**
+     * the total weight of downloading urls
+     */
+    private long mTotalWeight = 0;
+
+    private Object mLock = new Object();
+
+    /**
+     * constructor of BandwidthLimiter
+     *
+     * @param globalLimit global limit, bytes per second, {@link #NO_LIMIT} means no limit
+     */
+    public BandwidthLimiter(long globalLimit) {
+        mGlobalLimit = globalLimit > 0 ? globalLimit : NO_LIMIT;
+    }
+
+    /**
+     * set global limit, take effect immediately
+     *
+     * @param globalLimit bytes per second, {@link #NO_LIMIT} means no limit
+     */
+    public void setGlobalLimit(long globalLimit) {
+        synchronized (mLock) {
+            mGlobalLimit = globalLimit > 0 ? globalLimit : NO_LIMIT;
+            // wake up the waiting channels to use the new limit
+            mLock.notifyAll();
+        }
+
+        Log.d(TAG, "setGlobalLimit 设置全局限速：" + globalLimit);
+    }
+
+    /**
+     * get global limit
+     *
+     * @return bytes per second, {@link #NO_LIMIT} means no limit
+     */
+    public long getGlobalLimit() {
+        synchronized (mLock) {
+            return mGlobalLimit;
+        }
+    }
+
+    /**
+     * set the limit of the url, take effect immediately
+     *
+     * @param url   file url
+     * @param limit bytes per second, {@link #NO_LIMIT} means no limit
+     */
+    public void setLimit(String url, long limit) {
+        if (url == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (limit > 0) {
+                mUrlLimits.put(url, limit);
+            } else {
+                mUrlLimits.remove(url);
+            }
+            mLock.notifyAll();
+        }
+
+        Log.d(TAG, "setLimit 设置任务限速：" + limit + "，url：" + url);
+    }
+
+    /**
+     * get the limit of the url
+     *
+     * @param url file url
+     * @return bytes per second, {@link #NO_LIMIT} means no limit
+     */
+    public long getLimit(String url) {
+        synchronized (mLock) {
+            Long limit = mUrlLimits.get(url);
+            return limit != null ? limit : NO_LIMIT;
+        }
+    }
+
+    /**
+     * set the weight of the url, the url gets globalLimit * weight / totalWeight of all downloading urls
+     *
+     * @param url    file url
+     * @param weight the weight, at least 1
+     */
+    public void setWeight(String url, int weight) {
+        if (url == null) {
+            return;
+        }
+        if (weight < 1) {
+            weight = 1;
+        }
+        synchronized (mLock) {
+            int oldWeight = getWeightLocked(url);
+            mUrlWeights.put(url, weight);
+            if (mUrlChannelCounts.containsKey(url)) {
+                mTotalWeight += weight - oldWeight;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * remove the weight of the url, the url will use {@link #DEFAULT_WEIGHT}
+     *
+     * @param url file url
+     */
+    public void removeWeight(String url) {
+        if (url == null) {
+            return;
+        }
+        synchronized (mLock) {
+            int oldWeight = getWeightLocked(url);
+            mUrlWeights.remove(url);
+            if (mUrlChannelCounts.containsKey(url)) {
+                mTotalWeight += DEFAULT_WEIGHT - oldWeight;
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * open a channel for saving the data of the url
+     *
+     * @param url file url
+     * @return the channel, close it after saving
+     */
+    public Channel openChannel(String url) {
+        synchronized (mLock) {
+            Integer channelCount = mUrlChannelCounts.get(url);
+            if (channelCount == null) {
+                mUrlChannelCounts.put(url, 1);
+                mTotalWeight += getWeightLocked(url);
+            } else {
+                mUrlChannelCounts.put(url, channelCount + 1);
+            }
+            mLock.notifyAll();
+        }
+        return new Channel(url);
+    }
+
+    private int getWeightLocked(String url) {
+        Integer weight = mUrlWeights.get(url);
+        return weight != null ? weight : DEFAULT_WEIGHT;
+    }
+
+    /**
+     * get the rate of a channel of the url
+     *
+     * @return bytes per second, {@link #NO_LIMIT} means no limit
+     */
+    private long getChannelRateLocked(String url) {
+
+        Integer channelCount = mUrlChannelCounts.get(url);
+        int count = channelCount != null && channelCount > 0 ? channelCount : 1;
+
+        long rate = NO_LIMIT;
+
+        // the weighted share of the global limit
+        if (mGlobalLimit > 0 && mTotalWeight > 0) {
+            rate = Math.max(1, mGlobalLimit * getWeightLocked(url) / mTotalWeight);
+        }
+        // the limit of the url
+        Long urlLimit = mUrlLimits.get(url);
+        if (urlLimit != null && urlLimit > 0 && (rate <= 0 || urlLimit < rate)) {
+            rate = urlLimit;
+        }
+
+        if (rate <= 0) {
+            return NO_LIMIT;
+        }
+
+        // the channels of the url share the rate equally
+        rate = rate / count;
+
+        return rate > 0 ? rate : 1;
+    }
+
+    /**
+     * the channel for saving the data of a url
+     */
+    public class Channel {
+
+        private String mUrl;
+        private double mTokens = 0;// available bytes, negative means owed
+        private long mLastRefillTime = SystemClock.elapsedRealtime();
+        private boolean mIsClosed = false;
+
+        private Channel(String url) {
+            mUrl = url;
+        }
+
+        /**
+         * acquire the bytes that have been read, it waits without holding the CPU until the bytes are allowed by
+         * the limits, or the channel closed
+         *
+         * @param size the bytes read
+         * @return the time waited, millisecond
+         */
+        public long acquire(int size) {
+
+            long startTime = SystemClock.elapsedRealtime();
+
+            synchronized (mLock) {
+
+                if (mIsClosed) {
+                    return 0;
+                }
+
+                long rate = getChannelRateLocked(mUrl);
+                if (rate <= 0) {
+                    // no limit
+                    mTokens = 0;
+                    mLastRefillTime = SystemClock.elapsedRealtime();
+                    return 0;
+                }
+
+                refillLocked(rate);
+                mTokens -= size;
+
+                while (!mIsClosed && mTokens < 0) {
+                    long waitTime = (long) Math.ceil(-mTokens * 1000 / rate);
+                    try {
+                        mLock.wait(Math.max(1, Math.min(waitTime, MAX_WAIT_TIME)));
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                    // the limits may be changed
+                    rate = getChannelRateLocked(mUrl);
+                    if (rate <= 0) {
+                        mTokens = 0;
+                        mLastRefillTime = SystemClock.elapsedRealtime();
+                        break;
+                    }
+                    refillLocked(rate);
+                }
+            }
+
+            return SystemClock.elapsedRealtime() - startTime;
+        }
+
+        private void refillLocked(long rate) {
+            long curTime = SystemClock.elapsedRealtime();
+            long dTime = curTime - mLastRefillTime;
+            mLastRefillTime = curTime;
+            if (dTime > 0) {
+                mTokens += (double) dTime * rate / 1000;
+            }
+            // burst no more than the bytes of one second
+            if (mTokens > rate) {
+                mTokens = rate;
+            }
+        }
+
+        /**
+         * close the channel, the waiting will be woken up
+         */
+        public void close() {
+            synchronized (mLock) {
+                if (mIsClosed) {
+                    return;
+                }
+                mIsClosed = true;
+
+                Integer channelCount = mUrlChannelCounts.get(mUrl);
+                if (channelCount != null) {
+                    if (channelCount > 1) {
+                        mUrlChannelCounts.put(mUrl, channelCount - 1);
+                    } else {
+                        mUrlChannelCounts.remove(mUrl);
+                        mTotalWeight -= getWeightLocked(mUrl);
+                    }
+                }
+                mLock.notifyAll();
+            }
+        }
+    }
+}
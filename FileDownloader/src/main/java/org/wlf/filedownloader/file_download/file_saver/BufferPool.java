@@ -0,0 +1,250 @@
+package org.wlf.filedownloader.file_download.file_saver;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.base.Stoppable;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the bounded pool of the buffers used for saving
+ * <br/>
+ * 文件保存缓冲区池，所有下载任务共享，复用堆内或直接内存缓冲区，缓冲区占用的内存总量不超过配置的上限
+ * <p/>
+ * the buffers are sized by the power of 2 from {@link #MIN_BUFFER_SIZE} to {@link #MAX_BUFFER_SIZE}, the buffers in
+ * use and the idle buffers in the pool together never exceed the max memory size, the idle buffers are released
+ * first when the memory is not enough, then a smaller buffer is tried, the caller waits for the buffers released by
+ * the others if even the min size one can not be obtained
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class BufferPool {
+
+    private static final String TAG = BufferPool.class.getSimpleName();
+
+    /**
+     * min size of a buffer, 4KB
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;// 4KB
+    /**
+     * max size of a buffer, 512KB
+     */
+    public static final int MAX_BUFFER_SIZE = 512 * 1024;// 512KB
+
+    /**
+     * max time to wait once, the stop of the caller will be checked after it
+     */
+    private static final long MAX_WAIT_TIME = 500;// 500ms
+
+    private final long mMaxMemorySize;
+
+    /**
+     * the size of a buffer -> the idle buffers of the size
+     */
+    private Map<Integer, LinkedList<ByteBuffer>> mHeapBuffers = new HashMap<Integer, LinkedList<ByteBuffer>>();
+    private Map<Integer, LinkedList<ByteBuffer>> mDirectBuffers = new HashMap<Integer, LinkedList<ByteBuffer>>();
+
+    private long mBytesInUse;
+    private long mPooledBytes;
+
+    private AtomicLong mHitCount = new AtomicLong(0);
+    private AtomicLong mMissCount = new AtomicLong(0);
+    private AtomicLong mWaitCount = new AtomicLong(0);
+
+    /**
+     * constructor of BufferPool
+     *
+     * @param maxMemorySize the max bytes of the buffers in use and in the pool, no less than {@link #MAX_BUFFER_SIZE}
+     */
+    public BufferPool(long maxMemorySize) {
+        mMaxMemorySize = Math.max(maxMemorySize, MAX_BUFFER_SIZE);
+    }
+
+    /**
+     * obtain a buffer, it must be released by {@link #release(ByteBuffer)} after used
+     *
+     * @param size      the size expected, it will be rounded up to the power of 2
+     * @param minSize   the min size acceptable if the memory is not enough
+     * @param isDirect  true means the direct buffer, false means the heap buffer
+     * @param stoppable the caller, stop waiting if it is stopped, null means waiting until obtained
+     * @return the cleared buffer, null means the caller is stopped
+     */
+    public ByteBuffer obtain(int size, int minSize, boolean isDirect, Stoppable stoppable) {
+
+        int bufferSize = getBufferSize(size);
+        int minBufferSize = Math.min(getBufferSize(minSize), bufferSize);
+
+        boolean isWaited = false;
+
+        synchronized (this) {
+            while (true) {
+                for (int curSize = bufferSize; curSize >= minBufferSize; curSize /= 2) {
+                    ByteBuffer buffer = obtainLocked(curSize, isDirect);
+                    if (buffer != null) {
+                        return buffer;
+                    }
+                }
+
+                if (stoppable != null && stoppable.isStopped()) {
+                    return null;
+                }
+
+                if (!isWaited) {
+                    isWaited = true;
+                    mWaitCount.incrementAndGet();
+
+                    Log.i(TAG, "obtain 缓冲区内存已达上限，等待其它任务释放，使用中：" + mBytesInUse + "，上限：" +
+                            mMaxMemorySize);
+                }
+
+                try {
+                    wait(MAX_WAIT_TIME);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * obtain a buffer without waiting, it must be released by {@link #release(ByteBuffer)} after used
+     *
+     * @param size     the size expected, it will be rounded up to the power of 2
+     * @param isDirect true means the direct buffer, false means the heap buffer
+     * @return the cleared buffer, null means the memory is not enough
+     */
+    public synchronized ByteBuffer tryObtain(int size, boolean isDirect) {
+        return obtainLocked(getBufferSize(size), isDirect);
+    }
+
+    private ByteBuffer obtainLocked(int bufferSize, boolean isDirect) {
+
+        // reuse the idle one
+        LinkedList<ByteBuffer> idleBuffers = getIdleBuffers(bufferSize, isDirect);
+        if (!idleBuffers.isEmpty()) {
+            ByteBuffer buffer = idleBuffers.removeFirst();
+            mPooledBytes -= bufferSize;
+            mBytesInUse += bufferSize;
+            mHitCount.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        if (mBytesInUse + bufferSize > mMaxMemorySize) {
+            return null;
+        }
+
+        // release the idle buffers of other sizes to make room
+        if (mBytesInUse + mPooledBytes + bufferSize > mMaxMemorySize) {
+            trimLocked(mMaxMemorySize - mBytesInUse - bufferSize, mHeapBuffers);
+            trimLocked(mMaxMemorySize - mBytesInUse - bufferSize, mDirectBuffers);
+        }
+
+        mBytesInUse += bufferSize;
+        mMissCount.incrementAndGet();
+        return isDirect ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    private void trimLocked(long maxPooledBytes, Map<Integer, LinkedList<ByteBuffer>> buffers) {
+        for (Map.Entry<Integer, LinkedList<ByteBuffer>> entry : buffers.entrySet()) {
+            LinkedList<ByteBuffer> idleBuffers = entry.getValue();
+            while (mPooledBytes > maxPooledBytes && !idleBuffers.isEmpty()) {
+                idleBuffers.removeFirst();
+                mPooledBytes -= entry.getKey();
+            }
+        }
+    }
+
+    private LinkedList<ByteBuffer> getIdleBuffers(int bufferSize, boolean isDirect) {
+        Map<Integer, LinkedList<ByteBuffer>> buffers = isDirect ? mDirectBuffers : mHeapBuffers;
+        LinkedList<ByteBuffer> idleBuffers = buffers.get(bufferSize);
+        if (idleBuffers == null) {
+            idleBuffers = new LinkedList<ByteBuffer>();
+            buffers.put(bufferSize, idleBuffers);
+        }
+        return idleBuffers;
+    }
+
+    /**
+     * release the buffer obtained by {@link #obtain(int, int, boolean, Stoppable)} to the pool
+     *
+     * @param buffer the buffer, it must not be used any more
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        int bufferSize = buffer.capacity();
+        synchronized (this) {
+            mBytesInUse -= bufferSize;
+            getIdleBuffers(bufferSize, buffer.isDirect()).addLast(buffer);
+            mPooledBytes += bufferSize;
+            notifyAll();
+        }
+    }
+
+    /**
+     * release all idle buffers
+     */
+    public synchronized void clear() {
+        mHeapBuffers.clear();
+        mDirectBuffers.clear();
+        mPooledBytes = 0;
+    }
+
+    private static int getBufferSize(int size) {
+        int bufferSize = MIN_BUFFER_SIZE;
+        while (bufferSize < size && bufferSize < MAX_BUFFER_SIZE) {
+            bufferSize *= 2;
+        }
+        return bufferSize;
+    }
+
+    /**
+     * get the max bytes of the buffers in use and in the pool
+     */
+    public long getMaxMemorySize() {
+        return mMaxMemorySize;
+    }
+
+    /**
+     * get the bytes of the buffers in use
+     */
+    public synchronized long getBytesInUse() {
+        return mBytesInUse;
+    }
+
+    /**
+     * get the bytes of the idle buffers in the pool
+     */
+    public synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /**
+     * get the count of the buffers reused from the pool
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * get the count of the buffers allocated
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * get the count of the obtains waited for the memory
+     */
+    public long getWaitCount() {
+        return mWaitCount.get();
+    }
+}
@@ -1,5 +1,6 @@
 package org.wlf.filedownloader.file_download.file_saver;
 
+import android.os.Build;
 import android.os.SystemClock;
 
 import org.wlf.filedownloader.base.FailException;
@@ -11,8 +12,19 @@ import org.wlf.filedownloader.util.FileUtil;
 import org.wlf.filedownloader.util.MathUtil;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * file saver
@@ -26,19 +38,48 @@ public class FileSaver implements Save, Stoppable {
 
     private static final String TAG = FileSaver.class.getSimpleName();
 
-    private static final int BUFFER_SIZE_WRITE_TO_FILE = 32 * 1024; // 32 KB write to file
+    private static final int BUFFER_SIZE_WRITE_TO_FILE = 32 * 1024; // 32 KB read from inputStream at the beginning
+    private static final int BUFFER_SIZE_FLUSH_TO_FILE = 512 * 1024; // 512 KB write to file once
+    private static final int BUFFER_SIZE_WRITE_BEHIND = 128 * 1024; // 128 KB a buffer of the write-behind ring
+    private static final int WRITE_BEHIND_BUFFER_COUNT = 4;// the buffers of the write-behind ring
+
+    // the read size adapts to the download speed, about READ_TIMES_PER_SECOND reads every second
+    private static final int MIN_READ_SIZE = BufferPool.MIN_BUFFER_SIZE;// 4 KB
+    private static final int MAX_READ_SIZE = BUFFER_SIZE_FLUSH_TO_FILE / 2;// 256 KB, two reads a write at least
+    private static final int READ_TIMES_PER_SECOND = 50;
+    private static final long READ_SIZE_ADJUST_INTERVAL = 1000;// 1s
+
+    // the absolute paths of the temp files whose blocks are reserved by fallocate in the process, the length of the
+    // others may be set by setLength only, a sparse file does not hold the storage space
+    private static final Set<String> sReservedTempFilePaths = Collections.synchronizedSet(new HashSet<String>());
 
     private String mUrl;
     private String mTempFilePath;
     private String mSaveFilePath;
     private long mFileTotalSize;// file total size
 
-    private int mBufferSizeWriteToFile = BUFFER_SIZE_WRITE_TO_FILE;
+    private int mReadSize = BUFFER_SIZE_WRITE_TO_FILE;// the size to read from inputStream once, adapts to the speed
 
     private DownloadNoticeStrategy mDownloadNoticeStrategy = DownloadNoticeStrategy.NOTICE_AUTO;// default is auto
 
+    private FileSyncStrategy mFileSyncStrategy = FileSyncStrategy.SYNC_BY_TIME;// default is by time
+    private long mFileSyncValue = FileSyncStrategy.SYNC_BY_TIME.getValue();
+
     private boolean mIsStopped;// whether stopped
     private boolean mIsNotifyEnd;// whether notify end
+    private long mSyncedPosInTotal;// the synced pos notified
+
+    private boolean mIsSegmentMode;// whether save a segment of the file only
+
+    private BandwidthLimiter mBandwidthLimiter;// null means no limit
+    private BufferPool mBufferPool;// null means allocate the buffers every saving
+    private ExecutorService mFileWriteEngine;// null means write the file by the reading thread
+    private volatile BandwidthLimiter.Channel mBandwidthChannel;// the channel of the saving
+
+    // for stall detection
+    private long mMinDownloadSpeed = 0;// bytes per second, 0 means not detect
+    private long mStallWindow = 0;// millisecond
+    private long mDeadlineTime = 0;// SystemClock.elapsedRealtime() based, 0 means no deadline
 
     private OnFileSaveListener mOnFileSaveListener;
 
@@ -70,6 +111,88 @@ public class FileSaver implements Save, Stoppable {
         this.mOnFileSaveListener = onFileSaveListener;
     }
 
+    /**
+     * set FileSyncStrategy
+     *
+     * @param fileSyncStrategy FileSyncStrategy
+     * @param fileSyncValue    bytes for {@link FileSyncStrategy#SYNC_BY_SIZE}, milliseconds for {@link
+     *                         FileSyncStrategy#SYNC_BY_TIME}, set 0 or less means use the default value of the strategy
+     */
+    public void setFileSyncStrategy(FileSyncStrategy fileSyncStrategy, long fileSyncValue) {
+        if (fileSyncStrategy == null) {
+            return;
+        }
+        this.mFileSyncStrategy = fileSyncStrategy;
+        this.mFileSyncValue = fileSyncValue > 0 ? fileSyncValue : fileSyncStrategy.getValue();
+    }
+
+    /**
+     * set BandwidthLimiter, the reading will be throttled by it
+     *
+     * @param bandwidthLimiter BandwidthLimiter, null means no limit
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.mBandwidthLimiter = bandwidthLimiter;
+    }
+
+    /**
+     * set BufferPool, the write buffer of every saving is obtained from it
+     *
+     * @param bufferPool BufferPool, null means allocate the buffers every saving
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        this.mBufferPool = bufferPool;
+    }
+
+    /**
+     * set FileWriteEngine, the temp file is written behind the reading by it, so a slow storage device does not
+     * stall the reading of the network
+     *
+     * @param fileWriteEngine FileWriteEngine, null means write the file by the reading thread
+     */
+    public void setFileWriteEngine(ExecutorService fileWriteEngine) {
+        this.mFileWriteEngine = fileWriteEngine;
+    }
+
+    /**
+     * set stall detection, the saving fails with {@link FileSaveException#TYPE_DOWNLOAD_STALLED} if the download
+     * speed stays below minDownloadSpeed for the whole stallWindow, the time throttled by the {@link
+     * BandwidthLimiter} is not counted
+     *
+     * @param minDownloadSpeed bytes per second, 0 or less means not detect
+     * @param stallWindow      millisecond
+     */
+    public void setStallDetection(long minDownloadSpeed, long stallWindow) {
+        if (minDownloadSpeed <= 0 || stallWindow <= 0) {
+            this.mMinDownloadSpeed = 0;
+            this.mStallWindow = 0;
+            return;
+        }
+        this.mMinDownloadSpeed = minDownloadSpeed;
+        this.mStallWindow = stallWindow;
+    }
+
+    /**
+     * set the deadline of the download, the saving fails with {@link FileSaveException#TYPE_DOWNLOAD_TIMEOUT} after
+     * it
+     *
+     * @param deadlineTime based on SystemClock.elapsedRealtime(), 0 or less means no deadline
+     */
+    public void setDeadlineTime(long deadlineTime) {
+        this.mDeadlineTime = deadlineTime > 0 ? deadlineTime : 0;
+    }
+
+    /**
+     * set whether save a segment of the file only, in segment mode the saver completes when the inputStream has been
+     * saved, and the temp file will not be renamed to save file, call {@link #saveCompletedTempFile()} after all
+     * segments completed
+     *
+     * @param segmentMode true means save a segment of the file only
+     */
+    public void setSegmentMode(boolean segmentMode) {
+        mIsSegmentMode = segmentMode;
+    }
+
     /**
      * if it throw FileSaveException,that means saving data failed(error occur)
      */
@@ -83,21 +206,47 @@ public class FileSaver implements Save, Stoppable {
 
         String url = mUrl;// url
 
-        byte[] buffer = new byte[mBufferSizeWriteToFile];// the buffer to write to file
-        int startIndex = 0;// the start index of the buffer to read in
-        int readSize;// the size of the buffer has been readed
+        mSyncedPosInTotal = startPosInTotal;// the data before the start pos has been recorded by the caller
+
+        // read by the channel if supported, the data goes to the direct write buffer and the file without heap copies
+        boolean isReadByChannel = inputStream.hasChannel();
+
+        // aggregate the small reads to large writes, the data is read to the buffers directly
+        List<ByteBuffer> writeBuffers = null;
+        WriteBehindPipeline pipeline = null;
+        // the written size is notified, but only the synced size can be persisted whatever the sync strategy, the
+        // strategy only decides how often to sync
 
         RandomAccessFile randomAccessFile = null;
+        FileChannel fileChannel = null;
 
-        // for calculating size to notify caller
+        // for calculating size to notify caller, only the size written by the pipeline can be notified
         int needNotifySize = 0;// init with zero
+        // the end pos of the data can be persisted
+        long syncedPosInTotal = startPosInTotal;
         // for calculating time to notify caller
         long lastNotifyTime;
+        // for calculating time to sync
+        long lastSyncTime;
+        // for stall detection, the size and the (not throttled) time in the current window
+        long stallWindowStartTime;
+        long stallWindowSize = 0;
+        long throttledTime = 0;
+        // for adapting the read size, the size and the time in the current window
+        long readWindowStartTime;
+        long readWindowSize = 0;
 
         try {
             // check whether stopped,if stopped,will throw FileSaveException
             checkIsStop();
 
+            // no larger than the data, it may wait for the other savings to release the buffers
+            writeBuffers = obtainWriteBuffers(inputStream.getLength(), isReadByChannel);
+            if (writeBuffers == null) {
+                checkIsStop();
+                throw new FileSaveException("the write buffer can not be obtained!", FileSaveException.TYPE_UNKNOWN);
+            }
+
             // create parent dir for saving file if necessary
             FileUtil.createFileParentDir(mTempFilePath);
             FileUtil.createFileParentDir(mSaveFilePath);
@@ -110,35 +259,86 @@ public class FileSaver implements Save, Stoppable {
             long needHandleSize = inputStream.getLength();// this time need handle size
             int increaseSize;// the increaseSize of every buffer
 
-            randomAccessFile = new RandomAccessFile(tempFile, "rwd");// write to temp file
-            randomAccessFile.seek(startPosInTotal);// set start write pos
+            randomAccessFile = new RandomAccessFile(tempFile, "rw");// write to temp file, sync by FileSyncStrategy
+            fileChannel = randomAccessFile.getChannel();
+            // write from the start pos
+            pipeline = new WriteBehindPipeline(tempFile, fileChannel, startPosInTotal, writeBuffers, mBufferPool,
+                    mFileWriteEngine, this);
+
+            if (mBandwidthLimiter != null) {
+                mBandwidthChannel = mBandwidthLimiter.openChannel(url);
+            }
 
             filePath = tempFile.getAbsolutePath();
 
             // 1.notify caller,prepare to write
             notifyStart();
 
-            Log.d(TAG, TAG + ".saveData 1、准备写文件缓存，路径：" + tempFile.getAbsolutePath() + "，url：" + url);
+            Log.d(TAG, TAG + ".saveData 1、准备写文件缓存，路径：" + tempFile.getAbsolutePath() + "，是否通过channel读取：" +
+                    isReadByChannel + "，缓冲区：" + writeBuffers.size() + "x" + writeBuffers.get(0).capacity() +
+                    "，是否异步写入：" + pipeline.isAsync() + "，url：" + url);
 
             lastNotifyTime = SystemClock.elapsedRealtime();
+            lastSyncTime = lastNotifyTime;
+            stallWindowStartTime = lastNotifyTime;
+            readWindowStartTime = lastNotifyTime;
             long curTime = SystemClock.elapsedRealtime();
 
-            while (!mIsStopped && (readSize = inputStream.read(buffer, startIndex, mBufferSizeWriteToFile)) != -1) {
-                // temp not exist exception occur
-                if (!tempFile.exists()) {
-                    throw new FileSaveException("temp file not exist!", FileSaveException
-                            .TYPE_TEMP_FILE_DOES_NOT_EXIST);
+            while (!mIsStopped && (increaseSize = readToWriteBuffer(inputStream, pipeline, isReadByChannel)) != -1) {
+                // the writing failed, such as the temp file not exist
+                pipeline.checkFailure();
+                // throttle by the bandwidth limits, wait without holding the CPU
+                if (mBandwidthChannel != null) {
+                    throttledTime += mBandwidthChannel.acquire(increaseSize);
                 }
-                // write file
-                randomAccessFile.write(buffer, startIndex, readSize);
-                // increaseSize
-                increaseSize = readSize - startIndex;
                 // handledFileSize
                 handledFileSize += increaseSize;
-                // needNotifySize
-                needNotifySize += increaseSize;
 
                 curTime = SystemClock.elapsedRealtime();
+
+                // adapt the read size to the download speed
+                readWindowSize += increaseSize;
+                if (curTime - readWindowStartTime >= READ_SIZE_ADJUST_INTERVAL) {
+                    adjustReadSize(readWindowSize, curTime - readWindowStartTime);
+                    readWindowStartTime = curTime;
+                    readWindowSize = 0;
+                }
+
+                // check the deadline
+                if (mDeadlineTime > 0 && curTime >= mDeadlineTime) {
+                    throw new FileSaveException("the download is over the deadline!", FileSaveException
+                            .TYPE_DOWNLOAD_TIMEOUT);
+                }
+
+                // check whether stalled, the throttled time is not counted
+                if (mMinDownloadSpeed > 0) {
+                    stallWindowSize += increaseSize;
+                    long windowTime = curTime - stallWindowStartTime - throttledTime;
+                    if (windowTime >= mStallWindow) {
+                        if (stallWindowSize * 1000 < mMinDownloadSpeed * windowTime) {
+
+                            Log.i(TAG, TAG + ".saveData 下载速度过低，" + windowTime + "ms内只下载了：" + stallWindowSize +
+                                    "，最低速度：" + mMinDownloadSpeed + "/s，url：" + url);
+
+                            throw new FileSaveException("the download is stalled, " + stallWindowSize + " bytes in " +
+                                    windowTime + "ms!", FileSaveException.TYPE_DOWNLOAD_STALLED);
+                        }
+                        // next window
+                        stallWindowStartTime = curTime;
+                        stallWindowSize = 0;
+                        throttledTime = 0;
+                    }
+                }
+
+                // check whether sync to the storage device, it is synced by the writer after written
+                if (isNeedSync(curTime - lastSyncTime, pipeline.getUnsyncedSize())) {
+                    pipeline.flush(true);
+                    lastSyncTime = curTime;
+                }
+                // needNotifySize
+                needNotifySize += pipeline.takeWrittenSize();
+                syncedPosInTotal = startPosInTotal + pipeline.getSyncedSize();
+
                 long dTime = curTime - lastNotifyTime;
 
                 // check whether notify caller
@@ -152,7 +352,7 @@ public class FileSaver implements Save, Stoppable {
                                     needHandleSize + "，完成（百分比）：" + (MathUtil.formatNumber(((double) handledFileSize /
                                     needHandleSize) * 100)) + "%，url：" + url);
 
-                            if (notifySaving(needNotifySize, needHandleSize)) {
+                            if (notifySaving(needNotifySize, needHandleSize, syncedPosInTotal)) {
                                 needNotifySize = 0;
                                 lastNotifyTime = curTime;
                             }
@@ -164,7 +364,7 @@ public class FileSaver implements Save, Stoppable {
                                         needHandleSize + "，完成（百分比）：" + (MathUtil.formatNumber(((double) 
                                         handledFileSize / needHandleSize) * 100)) + "%，url：" + url);
 
-                                if (notifySaving(needNotifySize, needHandleSize)) {
+                                if (notifySaving(needNotifySize, needHandleSize, syncedPosInTotal)) {
                                     needNotifySize = 0;
                                     lastNotifyTime = curTime;
                                 }
@@ -179,7 +379,7 @@ public class FileSaver implements Save, Stoppable {
                                     needHandleSize + "，完成（百分比）：" + (MathUtil.formatNumber(((double) handledFileSize /
                                     needHandleSize) * 100)) + "%，url：" + url);
 
-                            if (notifySaving(needNotifySize, needHandleSize)) {
+                            if (notifySaving(needNotifySize, needHandleSize, syncedPosInTotal)) {
                                 needNotifySize = 0;
                                 lastNotifyTime = curTime;
                             }
@@ -193,7 +393,7 @@ public class FileSaver implements Save, Stoppable {
                                     needHandleSize + "，完成（百分比）：" + (MathUtil.formatNumber(((double) handledFileSize /
                                     needHandleSize) * 100)) + "%，url：" + url);
 
-                            if (notifySaving(needNotifySize, needHandleSize)) {
+                            if (notifySaving(needNotifySize, needHandleSize, syncedPosInTotal)) {
                                 needNotifySize = 0;
                                 lastNotifyTime = curTime;
                             }
@@ -202,6 +402,11 @@ public class FileSaver implements Save, Stoppable {
                 }
             }
 
+            // checkpoint, write and sync all the remaining data, wait for the writer
+            pipeline.finish();
+            needNotifySize += pipeline.takeWrittenSize();
+            syncedPosInTotal = startPosInTotal + pipeline.getSyncedSize();
+
             // the file has been written finish，notify remain needNotifySize to caller
             if (needNotifySize > 0) {
                 // 2、saving
@@ -209,33 +414,25 @@ public class FileSaver implements Save, Stoppable {
                         "，完成（百分比）：" + (MathUtil.formatNumber(((double) handledFileSize / needHandleSize) * 100)) +
                         "%，url：" + url);
 
-                if (notifySaving(needNotifySize, needHandleSize)) {
+                if (notifySaving(needNotifySize, needHandleSize, syncedPosInTotal)) {
                     needNotifySize = 0;
                     lastNotifyTime = curTime;
                 }
             }
 
-            // has been finished the file's total size
-            if (needHandleSize == handledFileSize && tempFile.length() == mFileTotalSize) {
-                if (saveFile.exists()) {// delete the file if exist
-                    boolean deleteResult = saveFile.delete();
-                    if (!deleteResult) {
-                        throw new FileSaveException("delete old file:" + saveFile.getAbsolutePath() + " failed!", 
-                                FileSaveException.TYPE_FILE_CAN_NOT_STORAGE);
-                    }
-                }
-                isCompleted = tempFile.renameTo(saveFile);
-                // rename temp file failed,may be the caller is using the temp file,however,try copy the temp file
-                if (!isCompleted) {
-                    // try copy the temp file to save file
-                    isCompleted = FileUtil.copyFile(tempFile, saveFile, true);
-                }
-                // failed
-                if (!isCompleted) {
-                    // FIXME whether need throw exception ?
-                    throw new FileSaveException("rename temp file:" + tempFile.getAbsolutePath() + " to save " +
-                            saveFile.getAbsolutePath() + " failed!", FileSaveException.TYPE_RENAME_TEMP_FILE_ERROR);
-                }
+            // has been finished the segment
+            if (mIsSegmentMode && needHandleSize == handledFileSize) {
+                isCompleted = true;
+
+                Log.d(TAG, TAG + ".saveData 3、分段保存完成，路径：" + tempFile.getAbsolutePath() + "，url：" + url);
+            }
+            // has been finished the file's total size, the temp file may be preallocated, so the data must be saved to
+            // the end of the file
+            else if (!mIsSegmentMode && needHandleSize == handledFileSize && startPosInTotal + handledFileSize ==
+                    mFileTotalSize && tempFile.length() == mFileTotalSize) {
+
+                renameTempFileToSaveFile(tempFile, saveFile);
+                isCompleted = true;
 
                 filePath = saveFile.getAbsolutePath();
 
@@ -260,6 +457,22 @@ public class FileSaver implements Save, Stoppable {
                 throw new FileSaveException(e);
             }
         } finally {
+            // close the bandwidth channel
+            if (mBandwidthChannel != null) {
+                mBandwidthChannel.close();
+                mBandwidthChannel = null;
+            }
+
+            // checkpoint, sync the remaining data if interrupted by exception, it will do nothing if has been synced,
+            // and then reuse the write buffers
+            if (pipeline != null) {
+                pipeline.close();
+                needNotifySize += pipeline.takeWrittenSize();
+                syncedPosInTotal = startPosInTotal + pipeline.getSyncedSize();
+            } else {
+                releaseWriteBuffers(writeBuffers);
+            }
+
             // close the randomAccessFile if necessary
             if (randomAccessFile != null) {
                 try {
@@ -271,6 +484,7 @@ public class FileSaver implements Save, Stoppable {
 
             // make sure to notify caller
             if (!hasException) {// if it has exception,has been thrown,no need to notify caller
+                notifySynced(syncedPosInTotal);
                 notifyEnd(needNotifySize, isCompleted);
             }
 
@@ -281,6 +495,308 @@ public class FileSaver implements Save, Stoppable {
         }
     }
 
+    /**
+     * obtain the write buffers, the direct buffers if read by the channel
+     *
+     * @param length the length of the data to save
+     * @return the write buffers, null means stopped
+     */
+    private List<ByteBuffer> obtainWriteBuffers(long length, boolean isDirect) {
+
+        // a ring of smaller buffers if write behind
+        boolean isWriteBehind = mFileWriteEngine != null;
+        int maxSize = isWriteBehind ? BUFFER_SIZE_WRITE_BEHIND : BUFFER_SIZE_FLUSH_TO_FILE;
+        int size = length > 0 && length < maxSize ? (int) length : maxSize;
+
+        // the first one may wait for the other savings to release the buffers
+        ByteBuffer firstBuffer = mBufferPool != null ? mBufferPool.obtain(size, MIN_READ_SIZE, isDirect, this) :
+                allocateBuffer(size, isDirect);
+        if (firstBuffer == null) {
+            return null;
+        }
+
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        buffers.add(firstBuffer);
+
+        // the others never wait, the ring is smaller if the memory is not enough, no ring if the data fits in one
+        if (isWriteBehind && (length <= 0 || length > firstBuffer.capacity())) {
+            for (int i = 1; i < WRITE_BEHIND_BUFFER_COUNT; i++) {
+                ByteBuffer buffer = mBufferPool != null ? mBufferPool.tryObtain(firstBuffer.capacity(), isDirect) :
+                        allocateBuffer(firstBuffer.capacity(), isDirect);
+                if (buffer == null) {
+                    break;
+                }
+                buffers.add(buffer);
+            }
+        }
+        return buffers;
+    }
+
+    private static ByteBuffer allocateBuffer(int size, boolean isDirect) {
+        return isDirect ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private void releaseWriteBuffers(List<ByteBuffer> buffers) {
+        if (buffers == null || mBufferPool == null) {
+            return;
+        }
+        for (ByteBuffer buffer : buffers) {
+            mBufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * read the data to the write buffer directly, the write buffer is submitted to the pipeline first if it is full
+     *
+     * @return the size read, 0 is possible, -1 means the end or stopped
+     */
+    private int readToWriteBuffer(ContentLengthInputStream inputStream, WriteBehindPipeline pipeline, boolean
+            isReadByChannel) throws IOException, FileSaveException {
+
+        ByteBuffer writeBuffer = pipeline.getBuffer();
+        if (writeBuffer == null) {
+            return -1;
+        }
+
+        // the same size every time whether read by the channel or not, so the progress notifying, stop checking and
+        // bandwidth limiting work as the same
+        int readSize = Math.min(mReadSize, writeBuffer.capacity());
+        if (writeBuffer.remaining() < readSize) {
+            // wait for a free buffer if all buffers are being written
+            if (!pipeline.flush(false)) {
+                return -1;
+            }
+            writeBuffer = pipeline.getBuffer();
+            readSize = Math.min(readSize, writeBuffer.remaining());
+        }
+
+        if (isReadByChannel) {
+            int limit = writeBuffer.limit();
+            writeBuffer.limit(writeBuffer.position() + readSize);
+            try {
+                return inputStream.read(writeBuffer);
+            } finally {
+                writeBuffer.limit(limit);
+            }
+        }
+
+        int count = inputStream.read(writeBuffer.array(), writeBuffer.arrayOffset() + writeBuffer.position(),
+                readSize);
+        if (count > 0) {
+            writeBuffer.position(writeBuffer.position() + count);
+        }
+        return count;
+    }
+
+    /**
+     * adjust the read size by the download speed, a read takes about 1000 / {@link #READ_TIMES_PER_SECOND} ms
+     *
+     * @param size the size read in the time
+     * @param time millisecond
+     */
+    private void adjustReadSize(long size, long time) {
+        if (time <= 0) {
+            return;
+        }
+        long expectedReadSize = size * 1000 / time / READ_TIMES_PER_SECOND;
+        int readSize = MIN_READ_SIZE;
+        while (readSize < expectedReadSize && readSize < MAX_READ_SIZE) {
+            readSize *= 2;
+        }
+        if (readSize != mReadSize) {
+
+            Log.d(TAG, TAG + ".adjustReadSize 调整每次读取的大小：" + mReadSize + " -> " + readSize + "，下载速度：" + (size *
+                    1000 / time) + "/s，url：" + mUrl);
+
+            mReadSize = readSize;
+        }
+    }
+
+    /**
+     * whether need sync to the storage device
+     *
+     * @param dTime       the time since last sync
+     * @param pendingSize the size has not been synced
+     * @return true means need sync
+     */
+    private boolean isNeedSync(long dTime, long pendingSize) {
+        switch (mFileSyncStrategy) {
+            case SYNC_BY_SIZE:
+                return pendingSize >= mFileSyncValue;
+            case SYNC_BY_TIME:
+                return pendingSize > 0 && dTime >= mFileSyncValue;
+        }
+        return false;// SYNC_AT_CHECKPOINT
+    }
+
+    /**
+     * preallocate the temp file to the file total size before downloading, the data saved in the temp file is kept
+     * <p/>
+     * the space is reserved by posix_fallocate if the platform supports, so the file is not fragmented and the
+     * download fails at once if the storage space is not enough, then the length of the temp file is set to the file
+     * total size, so the length of the temp file does not mean the saved size any more, the downloaded size recorded
+     * is used to resume, {@link #isTempFileReserved(String)} tells whether the space is reserved
+     * <p/>
+     * call it for the segment download only, the temp file of it is written out of order so its length never means
+     * the saved size, while the single connection download needs the length to check the recorded downloaded size
+     * after the process killed
+     *
+     * @throws FileSaveException the space can not be reserved
+     */
+    public void preallocateTempFile() throws FileSaveException {
+
+        if (mFileTotalSize <= 0) {
+            return;
+        }
+
+        File tempFile = new File(mTempFilePath);
+        if (tempFile.exists() && tempFile.length() >= mFileTotalSize) {
+            return;// has been preallocated
+        }
+
+        RandomAccessFile randomAccessFile = null;
+        try {
+            FileUtil.createFileParentDir(mTempFilePath);
+
+            randomAccessFile = new RandomAccessFile(tempFile, "rw");
+            long length = randomAccessFile.length();
+
+            // reserve the blocks after the saved data
+            boolean isReserved = fallocate(randomAccessFile.getFD(), length, mFileTotalSize - length);
+            if (isReserved) {
+                sReservedTempFilePaths.add(tempFile.getAbsolutePath());
+            } else {
+                sReservedTempFilePaths.remove(tempFile.getAbsolutePath());
+            }
+            if (randomAccessFile.length() < mFileTotalSize) {
+                randomAccessFile.setLength(mFileTotalSize);
+            }
+
+            Log.d(TAG, TAG + ".preallocateTempFile 预分配临时文件：" + length + " -> " + mFileTotalSize + "，是否预留了存储空间：" +
+                    isReserved + "，url：" + mUrl);
+        } catch (FileSaveException e) {
+            throw e;
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FileSaveException("preallocate temp file:" + tempFile.getAbsolutePath() + " failed!",
+                    FileSaveException.TYPE_FILE_CAN_NOT_STORAGE);
+        } finally {
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * whether the storage space of the temp file is reserved by {@link #preallocateTempFile()} in the process
+     *
+     * @param tempFilePath the temp file path
+     * @return true means the length of the temp file holds the storage space, false means unknown, the length may be
+     * set by setLength only and the file may be sparse
+     */
+    public static boolean isTempFileReserved(String tempFilePath) {
+        if (tempFilePath == null) {
+            return false;
+        }
+        return sReservedTempFilePaths.contains(new File(tempFilePath).getAbsolutePath());
+    }
+
+    /**
+     * reserve the blocks of the file by android.system.Os.posix_fallocate, it is available since Android 5.0
+     *
+     * @return true means reserved, false means not supported by the platform or the file system
+     * @throws FileSaveException the storage space is not enough
+     */
+    private static boolean fallocate(FileDescriptor fd, long offset, long length) throws FileSaveException {
+        if (length <= 0) {
+            return true;
+        }
+        // android.system.Os is added in API 21(Android 5.0)
+        if (Build.VERSION.SDK_INT < 21) {
+            return false;
+        }
+        try {
+            Class<?> osClass = Class.forName("android.system.Os");
+            Method posixFallocate = osClass.getMethod("posix_fallocate", FileDescriptor.class, long.class, long
+                    .class);
+            posixFallocate.invoke(null, fd, offset, length);
+            return true;
+        } catch (InvocationTargetException e) {
+            // ErrnoException, ENOSPC means not enough, the others such as EOPNOTSUPP mean not supported
+            Throwable cause = e.getCause();
+            try {
+                int errno = cause.getClass().getField("errno").getInt(cause);
+                int enospc = Class.forName("android.system.OsConstants").getField("ENOSPC").getInt(null);
+                if (errno == enospc) {
+                    throw new FileSaveException("the storage space is not enough for " + length + " bytes!",
+                            FileSaveException.TYPE_STORAGE_SPACE_IS_FULL);
+                }
+            } catch (FileSaveException fileSaveException) {
+                throw fileSaveException;
+            } catch (Exception ignore) {
+                // can ignore
+            }
+            return false;
+        } catch (Exception e) {
+            // not supported by the platform
+            return false;
+        }
+    }
+
+    /**
+     * save the completed temp file to save file, use for segment mode after all segments completed
+     *
+     * @throws FileSaveException any fail exception during saving the temp file
+     */
+    public void saveCompletedTempFile() throws FileSaveException {
+
+        File tempFile = new File(mTempFilePath);// temp file
+        File saveFile = new File(mSaveFilePath);// save file
+
+        if (!tempFile.exists()) {
+            throw new FileSaveException("temp file not exist!", FileSaveException.TYPE_TEMP_FILE_DOES_NOT_EXIST);
+        }
+        if (tempFile.length() != mFileTotalSize) {
+            throw new FileSaveException("temp file size:" + tempFile.length() + " is not equal to the file total " +
+                    "size:" + mFileTotalSize + "!", FileSaveException.TYPE_UNKNOWN);
+        }
+
+        renameTempFileToSaveFile(tempFile, saveFile);
+
+        Log.d(TAG, TAG + ".saveCompletedTempFile 文件保存完成，路径：" + saveFile.getAbsolutePath() + "，url：" + mUrl);
+    }
+
+    /**
+     * rename the temp file to save file, if rename failed, try to copy the temp file
+     */
+    private void renameTempFileToSaveFile(File tempFile, File saveFile) throws FileSaveException {
+        // the temp file is not needed any more
+        sReservedTempFilePaths.remove(tempFile.getAbsolutePath());
+        if (saveFile.exists()) {// delete the file if exist
+            boolean deleteResult = saveFile.delete();
+            if (!deleteResult) {
+                throw new FileSaveException("delete old file:" + saveFile.getAbsolutePath() + " failed!", 
+                        FileSaveException.TYPE_FILE_CAN_NOT_STORAGE);
+            }
+        }
+        boolean isCompleted = tempFile.renameTo(saveFile);
+        // rename temp file failed,may be the caller is using the temp file,however,try copy the temp file
+        if (!isCompleted) {
+            // try copy the temp file to save file
+            isCompleted = FileUtil.copyFile(tempFile, saveFile, true);
+        }
+        // failed
+        if (!isCompleted) {
+            // FIXME whether need throw exception ?
+            throw new FileSaveException("rename temp file:" + tempFile.getAbsolutePath() + " to save " +
+                    saveFile.getAbsolutePath() + " failed!", FileSaveException.TYPE_RENAME_TEMP_FILE_ERROR);
+        }
+    }
+
     /**
      * notifyStart
      */
@@ -295,7 +811,9 @@ public class FileSaver implements Save, Stoppable {
     /**
      * notifySaving
      */
-    private boolean notifySaving(int needNotifySize, long needHandleSize) {
+    private boolean notifySaving(int needNotifySize, long needHandleSize, long syncedPosInTotal) {
+        // the progress persisted follows the synced data
+        notifySynced(syncedPosInTotal);
         if (mOnFileSaveListener != null) {
             mOnFileSaveListener.onSavingData(needNotifySize, needHandleSize);
 
@@ -307,6 +825,19 @@ public class FileSaver implements Save, Stoppable {
         return false;
     }
 
+    /**
+     * notifySynced
+     */
+    private void notifySynced(long syncedPosInTotal) {
+        if (syncedPosInTotal <= mSyncedPosInTotal) {
+            return;
+        }
+        mSyncedPosInTotal = syncedPosInTotal;
+        if (mOnFileSaveListener != null) {
+            mOnFileSaveListener.onSyncedData(syncedPosInTotal);
+        }
+    }
+
     /**
      * notifyEnd
      */
@@ -343,6 +874,11 @@ public class FileSaver implements Save, Stoppable {
     @Override
     public void stop() {
         this.mIsStopped = true;// caller call to stop
+        // wake up the throttled reading
+        BandwidthLimiter.Channel bandwidthChannel = mBandwidthChannel;
+        if (bandwidthChannel != null) {
+            bandwidthChannel.close();
+        }
     }
 
     /**
@@ -372,6 +908,21 @@ public class FileSaver implements Save, Stoppable {
          */
         public static final String TYPE_TEMP_FILE_DOES_NOT_EXIST = FileSaveException.class.getName() + 
                 "_TYPE_TEMP_FILE_DOES_NOT_EXIST";
+        /**
+         * the download speed stays too low, the connection is stalled
+         */
+        public static final String TYPE_DOWNLOAD_STALLED = FileSaveException.class.getName() + 
+                "_TYPE_DOWNLOAD_STALLED";
+        /**
+         * the download is over the deadline
+         */
+        public static final String TYPE_DOWNLOAD_TIMEOUT = FileSaveException.class.getName() + 
+                "_TYPE_DOWNLOAD_TIMEOUT";
+        /**
+         * the storage space is not enough
+         */
+        public static final String TYPE_STORAGE_SPACE_IS_FULL = FileSaveException.class.getName() + 
+                "_TYPE_STORAGE_SPACE_IS_FULL";
         /**
          * file can not storage
          */
@@ -435,6 +986,13 @@ public class FileSaver implements Save, Stoppable {
          */
         void onSavingData(int increaseSize, long totalSize);
 
+        /**
+         * the saved data has been synced to the storage device, the progress persisted must not exceed it
+         *
+         * @param syncedPosInTotal the end pos(exclusive) in the file of the synced data
+         */
+        void onSyncedData(long syncedPosInTotal);
+
         /**
          * finish saving data
          *
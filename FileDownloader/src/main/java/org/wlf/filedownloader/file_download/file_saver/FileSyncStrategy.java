@@ -0,0 +1,27 @@
+package org.wlf.filedownloader.file_download.file_saver;
+
+/**
+ * the Strategy use for syncing the saved data to the storage device, the download progress persisted never exceeds
+ * the data that has been synced, the download progress notified goes with the data written
+ * <br/>
+ * 同步数据到存储设备的策略，持久化的下载进度不会超过已同步的数据，回调的下载进度跟随已写入的数据
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public enum FileSyncStrategy {
+
+    SYNC_BY_SIZE(4 * 1024 * 1024),// sync by size, 4M(bytes for mValue)
+    SYNC_BY_TIME(1000 * 2),// sync by time interval, 2s(milliseconds for mValue)
+    SYNC_AT_CHECKPOINT(-1);// sync only when the saver pauses or completes, persisted progress waits for the sync
+
+    private long mValue;
+
+    private FileSyncStrategy(long value) {
+        this.mValue = value;
+    }
+
+    public long getValue() {
+        return mValue;
+    }
+}
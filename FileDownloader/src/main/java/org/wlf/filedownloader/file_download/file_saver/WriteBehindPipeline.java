@@ -0,0 +1,356 @@
+package org.wlf.filedownloader.file_download.file_saver;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.base.Stoppable;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver.FileSaveException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the write-behind pipeline of a saving
+ * <br/>
+ * 文件写入流水线，读取线程把数据读入缓冲区后交给写入线程写文件，读取网络数据不再被慢速的存储设备阻塞
+ * <p/>
+ * the reader fills the buffers of the ring and submits them in order, the writer writes them to the temp file and
+ * returns them to the ring, the reader waits for a free buffer when all buffers are submitted, only the size
+ * written by the writer is notified, and only the size synced can be persisted as the progress
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+class WriteBehindPipeline implements Runnable {
+
+    private static final String TAG = WriteBehindPipeline.class.getSimpleName();
+
+    /**
+     * max time to wait once, the stop of the reader will be checked after it
+     */
+    private static final long MAX_WAIT_TIME = 500;// 500ms
+
+    private final File mTempFile;
+    private final FileChannel mFileChannel;
+    private final Stoppable mStoppable;// the reader
+    private final List<ByteBuffer> mBuffers;// all buffers of the ring
+    private final BufferPool mBufferPool;// null means the buffers are not from the pool
+
+    private final BlockingQueue<ByteBuffer> mFreeBuffers = new LinkedBlockingQueue<ByteBuffer>();
+    private final BlockingQueue<Block> mSubmittedBlocks = new LinkedBlockingQueue<Block>();
+    private final CountDownLatch mWriterExitedLatch = new CountDownLatch(1);
+    private volatile boolean mIsAsync;// false means written by the reader
+
+    // reader side
+    private ByteBuffer mBuffer;// the buffer being filled, null means no free buffer
+    private long mSubmitPos;// the pos in the temp file of the next submitted data
+    private long mSubmittedSize;
+    private long mSyncRequestedSize;// the submitted size when the last sync requested
+    private long mTakenWrittenSize;// the size has been taken by takeWrittenSize
+    private boolean mIsEnded;
+
+    // writer side
+    private volatile long mWrittenSize;
+    private volatile long mSyncedSize;
+    private volatile FileSaveException mException;// the first exception of the writer
+
+    /**
+     * constructor of WriteBehindPipeline
+     *
+     * @param tempFile    the temp file
+     * @param fileChannel the channel of the temp file
+     * @param startPos    the pos in the temp file of the first data
+     * @param buffers     the buffers of the ring, the first one is filled first
+     * @param bufferPool  the pool to release the buffers to, null means not from the pool
+     * @param writeEngine the engine to run the writer, null means written by the reader
+     * @param stoppable   the reader, stop waiting for the free buffers if it is stopped
+     */
+    WriteBehindPipeline(File tempFile, FileChannel fileChannel, long startPos, List<ByteBuffer> buffers, BufferPool
+            bufferPool, ExecutorService writeEngine, Stoppable stoppable) {
+        mTempFile = tempFile;
+        mFileChannel = fileChannel;
+        mSubmitPos = startPos;
+        mBuffers = buffers;
+        mBufferPool = bufferPool;
+        mStoppable = stoppable;
+
+        mBuffer = buffers.get(0);
+        mBuffer.clear();
+        for (int i = 1; i < buffers.size(); i++) {
+            buffers.get(i).clear();
+            mFreeBuffers.offer(buffers.get(i));
+        }
+
+        // a ring of one buffer can not write behind
+        mIsAsync = writeEngine != null && buffers.size() > 1;
+        if (mIsAsync) {
+            try {
+                writeEngine.execute(this);
+            } catch (Exception e) {
+                e.printStackTrace();
+                // the engine is shutdown, write by the reader
+                mIsAsync = false;
+            }
+        }
+        if (!mIsAsync) {
+            mWriterExitedLatch.countDown();
+        }
+    }
+
+    /**
+     * whether written by the writer thread
+     */
+    boolean isAsync() {
+        return mIsAsync;
+    }
+
+    /**
+     * get the buffer to fill
+     *
+     * @return the buffer in write mode, null means no free buffer because the reader is stopped
+     */
+    ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * submit the filled buffer to the writer and get a free one, it waits if all buffers are submitted
+     *
+     * @param isSync true means sync to the storage device after written
+     * @return true means got a free buffer, false means the reader is stopped
+     * @throws FileSaveException the writer failed
+     */
+    boolean flush(boolean isSync) throws FileSaveException {
+        checkFailure();
+        if (mBuffer == null) {
+            return false;
+        }
+        if (!submit(isSync)) {
+            return true;// nothing to submit
+        }
+
+        // backpressure, the reading waits for the writing
+        while (true) {
+            try {
+                mBuffer = mFreeBuffers.poll(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (mBuffer != null) {
+                return true;
+            }
+            checkFailure();
+            if (mStoppable != null && mStoppable.isStopped()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return true means submitted
+     */
+    private boolean submit(boolean isSync) {
+
+        int size = mBuffer.position();
+        boolean hasUnsynced = mSubmittedSize > mSyncRequestedSize;
+        if (size == 0 && !(isSync && hasUnsynced)) {
+            return false;
+        }
+
+        mBuffer.flip();
+        Block block = new Block(mBuffer, mSubmitPos, isSync);
+        mBuffer = null;
+        mSubmitPos += size;
+        mSubmittedSize += size;
+        if (isSync) {
+            mSyncRequestedSize = mSubmittedSize;
+        }
+
+        if (mIsAsync) {
+            mSubmittedBlocks.offer(block);
+        } else {
+            write(block);
+            mFreeBuffers.offer(block.mBuffer);
+        }
+        return true;
+    }
+
+    /**
+     * get the size submitted or filled but not requested to sync
+     */
+    long getUnsyncedSize() {
+        return mSubmittedSize - mSyncRequestedSize + (mBuffer != null ? mBuffer.position() : 0);
+    }
+
+    /**
+     * take the size written since last taken
+     *
+     * @return the size written since last taken
+     */
+    int takeWrittenSize() {
+        long writtenSize = mWrittenSize;
+        if (writtenSize <= mTakenWrittenSize) {
+            return 0;
+        }
+        int size = (int) (writtenSize - mTakenWrittenSize);
+        mTakenWrittenSize = writtenSize;
+        return size;
+    }
+
+    /**
+     * get the size synced to the storage device, only it can be persisted as the download progress
+     *
+     * @return the size synced from the start pos
+     */
+    long getSyncedSize() {
+        return mSyncedSize;
+    }
+
+    /**
+     * throw the exception of the writer if failed
+     */
+    void checkFailure() throws FileSaveException {
+        FileSaveException exception = mException;
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * write and sync all the data filled, and wait for the writer to finish
+     *
+     * @throws FileSaveException the writer failed
+     */
+    void finish() throws FileSaveException {
+        checkFailure();
+        end(true);
+        checkFailure();
+    }
+
+    /**
+     * end the pipeline, the data filled is written and synced if the writer has not failed, then release the buffers
+     */
+    void close() {
+        end(mException == null);
+        if (mBufferPool != null) {
+            for (ByteBuffer buffer : mBuffers) {
+                mBufferPool.release(buffer);
+            }
+        }
+    }
+
+    private void end(boolean isWriteRemaining) {
+        if (mIsEnded) {
+            return;
+        }
+        mIsEnded = true;
+
+        if (isWriteRemaining && mBuffer != null) {
+            submit(true);
+        }
+
+        if (!mIsAsync) {
+            return;
+        }
+
+        mSubmittedBlocks.offer(Block.END);
+        // wait for the submitted data written, the writing of the storage device will finish soon
+        boolean isInterrupted = false;
+        while (true) {
+            try {
+                mWriterExitedLatch.await();
+                break;
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Block block = mSubmittedBlocks.take();
+                if (block == Block.END) {
+                    break;
+                }
+                write(block);
+                mFreeBuffers.offer(block.mBuffer);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            if (mException == null) {
+                mException = new FileSaveException(e);
+            }
+        } finally {
+            mWriterExitedLatch.countDown();
+        }
+    }
+
+    private void write(Block block) {
+
+        ByteBuffer buffer = block.mBuffer;
+
+        try {
+            // the blocks after the failed one are dropped, so the written size is always continuous
+            if (mException != null) {
+                return;
+            }
+            // temp not exist exception occur
+            if (!mTempFile.exists()) {
+                throw new FileSaveException("temp file not exist!", FileSaveException.TYPE_TEMP_FILE_DOES_NOT_EXIST);
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    mFileChannel.write(buffer, block.mPos + buffer.position());
+                }
+            } finally {
+                // record the written size even if failed
+                mWrittenSize += buffer.position();
+            }
+            if (block.mIsSync && mWrittenSize > mSyncedSize) {
+                mFileChannel.force(false);
+                mSyncedSize = mWrittenSize;
+            }
+        } catch (FileSaveException e) {
+            e.printStackTrace();
+            mException = e;
+        } catch (IOException e) {
+            e.printStackTrace();
+            mException = new FileSaveException(e);
+
+            Log.e(TAG, TAG + ".write 写入文件失败，已写入：" + mWrittenSize + "，路径：" + mTempFile.getAbsolutePath());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * the data submitted to the writer
+     */
+    private static class Block {
+
+        private static final Block END = new Block(null, 0, false);
+
+        private final ByteBuffer mBuffer;// in read mode
+        private final long mPos;// the pos in the temp file
+        private final boolean mIsSync;
+
+        private Block(ByteBuffer buffer, long pos, boolean isSync) {
+            mBuffer = buffer;
+            mPos = pos;
+            mIsSync = isSync;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package org.wlf.filedownloader.file_download.http_downloader;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 
 /**
  * InputStream wrapper
@@ -15,16 +18,69 @@ public class ContentLengthInputStream extends InputStream {
 
     private final InputStream mStream;
     private final long mLength;
+    private final ReadableByteChannel mChannel;// the channel of the same data, null means read by the stream only
+    private long mReadLength;// the bytes read
 
     public ContentLengthInputStream(InputStream stream, long length) {
+        this(stream, null, length);
+    }
+
+    /**
+     * constructor of ContentLengthInputStream
+     *
+     * @param stream  the stream of the data
+     * @param channel the channel of the same data, the non-blocking channel is not used
+     * @param length  the length of the data
+     */
+    public ContentLengthInputStream(InputStream stream, ReadableByteChannel channel, long length) {
         this.mStream = stream;
         this.mLength = length;
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            channel = null;
+        }
+        this.mChannel = channel;
     }
 
     public long getLength() {
         return mLength;
     }
 
+    /**
+     * get the bytes not read yet
+     *
+     * @return the bytes not read yet
+     */
+    public long getRemainingLength() {
+        return mLength - mReadLength;
+    }
+
+    /**
+     * whether the data can be read by {@link #read(ByteBuffer)}
+     *
+     * @return true means can be read to a ByteBuffer directly
+     */
+    public boolean hasChannel() {
+        return mChannel != null;
+    }
+
+    /**
+     * read the data to the buffer by the channel, do not mix with the reading of the stream
+     *
+     * @param buffer the buffer to read in, a direct buffer avoids copying to the heap
+     * @return the bytes read, -1 means the end
+     * @throws IOException any exception during reading
+     */
+    public int read(ByteBuffer buffer) throws IOException {
+        if (mChannel == null) {
+            throw new IOException("the channel is not supported!");
+        }
+        int count = mChannel.read(buffer);
+        if (count > 0) {
+            mReadLength += count;
+        }
+        return count;
+    }
+
     @Override
     public int available() {
         return (int) mLength;
@@ -42,17 +98,29 @@ public class ContentLengthInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        return mStream.read();
+        int data = mStream.read();
+        if (data != -1) {
+            mReadLength++;
+        }
+        return data;
     }
 
     @Override
     public int read(byte[] buffer) throws IOException {
-        return mStream.read(buffer);
+        int count = mStream.read(buffer);
+        if (count > 0) {
+            mReadLength += count;
+        }
+        return count;
     }
 
     @Override
     public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
-        return mStream.read(buffer, byteOffset, byteCount);
+        int count = mStream.read(buffer, byteOffset, byteCount);
+        if (count > 0) {
+            mReadLength += count;
+        }
+        return count;
     }
 
     @Override
@@ -62,7 +130,11 @@ public class ContentLengthInputStream extends InputStream {
 
     @Override
     public long skip(long byteCount) throws IOException {
-        return mStream.skip(byteCount);
+        long count = mStream.skip(byteCount);
+        if (count > 0) {
+            mReadLength += count;
+        }
+        return count;
     }
 
     @Override
@@ -0,0 +1,149 @@
+package org.wlf.filedownloader.file_download.http_downloader;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.file_download.ContentEncodingStatistics.Record;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * the InputStream that decodes the gzip or deflate encoded response
+ * <br/>
+ * 解压gzip/deflate压缩响应的输入流，边读边解压，同时统计传输的字节数和解压后的字节数
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+class DecodedInputStream extends InputStream {
+
+    private static final String TAG = DecodedInputStream.class.getSimpleName();
+
+    /**
+     * the encodings can be decoded, used as the value of Accept-Encoding
+     */
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final int BUFFER_SIZE = 8 * 1024;// 8KB
+
+    private final InputStream mStream;// the decoder
+    private final Inflater mInflater;// the inflater of deflate, null means gzip
+    private final Record mRecord;
+    private final String mUrl;
+
+    /**
+     * constructor of DecodedInputStream
+     *
+     * @param stream          the encoded stream of the response
+     * @param contentEncoding the Content-Encoding of the response, must be supported
+     * @param record          the record to count the bytes
+     * @param url             file url
+     * @throws IOException the gzip header can not be read
+     */
+    DecodedInputStream(InputStream stream, String contentEncoding, Record record, String url) throws IOException {
+        mRecord = record;
+        mUrl = url;
+        InputStream wireStream = new WireInputStream(stream);
+        if (isGzip(contentEncoding)) {
+            mInflater = null;
+            mStream = new GZIPInputStream(wireStream, BUFFER_SIZE);
+        } else {
+            // deflate should be wrapped by zlib, however some servers send the raw deflate data
+            PushbackInputStream pushbackStream = new PushbackInputStream(wireStream, 2);
+            byte[] header = new byte[2];
+            int headerSize = 0;
+            while (headerSize < header.length) {
+                int count = pushbackStream.read(header, headerSize, header.length - headerSize);
+                if (count == -1) {
+                    break;
+                }
+                headerSize += count;
+            }
+            if (headerSize > 0) {
+                pushbackStream.unread(header, 0, headerSize);
+            }
+            boolean isZlib = headerSize == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1]
+                    & 0xff)) % 31 == 0;
+            mInflater = new Inflater(!isZlib);
+            mStream = new InflaterInputStream(pushbackStream, mInflater, BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * whether the Content-Encoding can be decoded
+     *
+     * @param contentEncoding the Content-Encoding of the response
+     * @return true means can be decoded
+     */
+    static boolean isSupported(String contentEncoding) {
+        return isGzip(contentEncoding) || "deflate".equalsIgnoreCase(contentEncoding);
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        return "gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int data = mStream.read();
+        if (data != -1) {
+            mRecord.onDecoded(1);
+        }
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+        int count = mStream.read(buffer, byteOffset, byteCount);
+        if (count > 0) {
+            mRecord.onDecoded(count);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            mStream.close();
+        } finally {
+            if (mInflater != null) {
+                mInflater.end();
+            }
+
+            Log.d(TAG, "close 压缩传输结束，传输字节数：" + mRecord.getWireSize() + "，解压后字节数：" + mRecord
+                    .getDecodedSize() + "，url：" + mUrl);
+        }
+    }
+
+    /**
+     * count the bytes transferred
+     */
+    private class WireInputStream extends FilterInputStream {
+
+        private WireInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int data = super.read();
+            if (data != -1) {
+                mRecord.onWireRead(1);
+            }
+            return data;
+        }
+
+        @Override
+        public int read(byte[] buffer, int byteOffset, int byteCount) throws IOException {
+            int count = super.read(buffer, byteOffset, byteCount);
+            if (count > 0) {
+                mRecord.onWireRead(count);
+            }
+            return count;
+        }
+    }
+}
@@ -5,13 +5,25 @@ import android.text.TextUtils;
 import org.wlf.filedownloader.base.FailReason;
 import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.file_download.CloseConnectionTask;
+import org.wlf.filedownloader.file_download.ContentEncodingStatistics;
+import org.wlf.filedownloader.file_download.DetectedConnectionCache;
+import org.wlf.filedownloader.file_download.HostCircuitBreaker;
 import org.wlf.filedownloader.file_download.HttpConnectionHelper;
+import org.wlf.filedownloader.file_download.KeepAlivePool;
 import org.wlf.filedownloader.file_download.HttpConnectionHelper.RequestParam;
+import org.wlf.filedownloader.file_download.RedirectedHostCache;
+import org.wlf.filedownloader.file_download.SslContextProvider;
 import org.wlf.filedownloader.file_download.base.HttpFailReason;
 import org.wlf.filedownloader.file_download.file_saver.FileSaver.FileSaveException;
+import org.wlf.filedownloader.file_download.transport.HttpUrlConnectionTransport;
+import org.wlf.filedownloader.file_download.transport.Transport;
+import org.wlf.filedownloader.file_download.transport.Transport.Response;
+import org.wlf.filedownloader.util.UrlUtil;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
@@ -38,9 +50,17 @@ public class HttpDownloader implements Download {
     private String mETag;// http file eTag
     private String mLastModified;// file last modified time
     private int mConnectTimeout = CONNECT_TIMEOUT;// connect time out, millisecond
+    private int mReadTimeout = CONNECT_TIMEOUT;// read time out, millisecond
     private String mCharset = DEFAULT_CHARSET;// FIXME now UTF-8 only
     private String mRequestMethod = DEFAULT_REQUEST_METHOD;
     private Map<String, String> mHeaders;//custom  headers
+    private boolean mIsPartialOnly;// whether only accept the partial content of the range
+    private HostCircuitBreaker mHostCircuitBreaker;// record the connection outcomes of the hosts
+    private SslContextProvider mSslContextProvider;// the TLS context of https, null means the default
+    private KeepAlivePool mKeepAlivePool;// the pool to release the connection to, null means always disconnect
+    private DetectedConnectionCache mDetectedConnectionCache;// the detected connections to take, null means connect
+    private Transport mTransport;// the transport to send the requests, null means the default
+    private boolean mIsAcceptEncoding;// whether accept the gzip and deflate encoded response
 
     private ExecutorService mCloseConnectionEngine;// engine use for closing the http connection
 
@@ -138,6 +158,86 @@ public class HttpDownloader implements Download {
         mConnectTimeout = connectTimeout;
     }
 
+    /**
+     * set read timeout, the max time to wait for the data of a read
+     *
+     * @param readTimeout read timeout
+     */
+    public void setReadTimeout(int readTimeout) {
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * set whether only accept the partial content of the range, use for segment download, the server must response
+     * the same range with 206, otherwise the download will fail with
+     * {@link HttpDownloadException#TYPE_CONTENT_RANGE_VALIDATE_FAIL}
+     *
+     * @param partialOnly true means only accept the partial content of the range
+     */
+    public void setPartialOnly(boolean partialOnly) {
+        mIsPartialOnly = partialOnly;
+    }
+
+    /**
+     * set HostCircuitBreaker, the connection outcomes will be recorded to it
+     *
+     * @param hostCircuitBreaker HostCircuitBreaker, null means not record
+     */
+    public void setHostCircuitBreaker(HostCircuitBreaker hostCircuitBreaker) {
+        mHostCircuitBreaker = hostCircuitBreaker;
+    }
+
+    /**
+     * set SslContextProvider
+     *
+     * @param sslContextProvider SslContextProvider, null means the default
+     */
+    public void setSslContextProvider(SslContextProvider sslContextProvider) {
+        mSslContextProvider = sslContextProvider;
+    }
+
+    /**
+     * set KeepAlivePool
+     *
+     * @param keepAlivePool KeepAlivePool, null means always disconnect
+     */
+    public void setKeepAlivePool(KeepAlivePool keepAlivePool) {
+        mKeepAlivePool = keepAlivePool;
+    }
+
+    /**
+     * set DetectedConnectionCache, the detected connection of the url is used instead of connecting again if the
+     * download starts from the beginning
+     *
+     * @param detectedConnectionCache DetectedConnectionCache, null means always connect
+     */
+    public void setDetectedConnectionCache(DetectedConnectionCache detectedConnectionCache) {
+        mDetectedConnectionCache = detectedConnectionCache;
+    }
+
+    /**
+     * set Transport
+     *
+     * @param transport Transport, null means the default
+     */
+    public void setTransport(Transport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * set whether accept the gzip and deflate encoded response, it is only asked for when the download starts from
+     * the beginning, because the offset in the encoded data can not be mapped to the saved data
+     *
+     * @param acceptEncoding true means accept
+     */
+    public void setAcceptEncoding(boolean acceptEncoding) {
+        mIsAcceptEncoding = acceptEncoding;
+    }
+
+    private Transport getTransport() {
+        return mTransport != null ? mTransport : HttpUrlConnectionTransport.getDefault();
+    }
+
     /**
      * if it throw HttpDownloadException,that means download data failed(error occur)
      */
@@ -148,45 +248,149 @@ public class HttpDownloader implements Download {
 
         String url = mUrl;// url
 
-        HttpURLConnection conn = null;
+        Response conn = null;
         ContentLengthInputStream inputStream = null;
 
+        String connectHost = UrlUtil.getHost(url);// the host connecting to
+        boolean isResponded = false;// whether the host responded
+
         try {
             RequestParam requestParam = new RequestParam(url, mConnectTimeout, mCharset, mRange.startPos, mRange
                     .endPos, mETag, mLastModified);
             requestParam.setRequestMethod(mRequestMethod);
             requestParam.setHeaders(mHeaders);
+            requestParam.setRangeRequired(mIsPartialOnly);
+            requestParam.setReadTimeout(mReadTimeout);
+            requestParam.setSslContextProvider(mSslContextProvider);
+            requestParam.setKeepAlivePool(mKeepAlivePool);
+
+            // only the download from the beginning can be encoded, resume by the range of the identity data
+            boolean isAcceptEncoding = mIsAcceptEncoding && !mIsPartialOnly && Range.isLegal(mRange) && mRange
+                    .startPos == 0;
+            if (isAcceptEncoding) {
+                requestParam.setAcceptEncoding(DecodedInputStream.ACCEPT_ENCODING);
+            }
+
+            // the detected connection responded the whole body, it can be used if download from the beginning
+            if (mDetectedConnectionCache != null && !mIsPartialOnly && mRange != null && mRange.startPos == 0) {
+                conn = mDetectedConnectionCache.take(url);
+            }
 
-            conn = HttpConnectionHelper.createDownloadFileConnection(requestParam);
+            String connectUrl = url;
+            long freshTime = -1;// the min freshness of the redirect responses, -1 means not specified
+
+            if (conn != null) {
+                Log.d(TAG, TAG + ".download 使用探测连接的响应数据，不再重新请求，url：" + url);
+            } else {
+                // connect the final url resolved before directly
+                String resolvedUrl = RedirectedHostCache.getInstance().getResolvedUrl(url);
+                if (!TextUtils.isEmpty(resolvedUrl)) {
+                    connectUrl = resolvedUrl;
+                    requestParam.setUrl(connectUrl);
+                    connectHost = UrlUtil.getHost(connectUrl);
+                }
+
+                conn = getTransport().execute(requestParam);
+
+                // the final url may be expired such as the signature of CDN, redirect from the original url again
+                if (conn != null && !url.equals(connectUrl) && conn.getResponseCode() / 100 == 4) {
+
+                    Log.d(TAG, TAG + ".download 缓存的重定向url失效，重新从原始url重定向，响应码：" + conn.getResponseCode() +
+                            "，url：" + url);
+
+                    RedirectedHostCache.getInstance().removeResolvedUrl(url);
+                    closeConnection(conn, true);
+                    connectUrl = url;
+                    requestParam.setUrl(connectUrl);
+                    connectHost = UrlUtil.getHost(connectUrl);
+                    conn = getTransport().execute(requestParam);
+                }
+            }
 
             int redirectTimes = 0;
             while (conn != null && conn.getResponseCode() / 100 == 3 && redirectTimes < MAX_REDIRECT_TIMES) {// redirect
-                requestParam.setUrl(conn.getHeaderField("Location"));
-                conn = HttpConnectionHelper.createDownloadFileConnection(requestParam);
+                String location = HttpConnectionHelper.getRedirectLocation(conn.getUrl(), conn.getHeaderField
+                        ("Location"));
+                if (TextUtils.isEmpty(location)) {
+                    break;
+                }
+                long redirectFreshTime = HttpConnectionHelper.getFreshTimeFromResponseHeader(conn.getHeaderFields());
+                if (redirectFreshTime >= 0) {
+                    freshTime = freshTime >= 0 ? Math.min(freshTime, redirectFreshTime) : redirectFreshTime;
+                }
+                // close the intermediate connection, the body of a redirect is small and it can be reused
+                closeConnection(conn, true);
+                conn = null;
+
+                connectUrl = location;
+                requestParam.setUrl(connectUrl);
+                connectHost = UrlUtil.getHost(connectUrl);
+                conn = getTransport().execute(requestParam);
                 redirectTimes++;
             }
 
             Log.d(TAG, TAG + ".download 1、准备下载，重定向：" + redirectTimes + "次" + "，最大重定向次数：" + MAX_REDIRECT_TIMES +
                     "，url：" + url);
 
-            if (redirectTimes > MAX_REDIRECT_TIMES) {
+            if (conn != null && redirectTimes >= MAX_REDIRECT_TIMES && conn.getResponseCode() / 100 == 3) {
                 // error over max redirect times
                 throw new HttpDownloadException(url, "over max redirect:" + MAX_REDIRECT_TIMES + "!", 
                         HttpDownloadException.TYPE_REDIRECT_COUNT_OVER_LIMITS);
             }
 
+            if (redirectTimes > 0) {
+                // the next attempts connect the final url directly
+                RedirectedHostCache.getInstance().recordResolvedUrl(url, connectUrl, freshTime);
+            }
+
             if (conn == null) {
                 throw new HttpDownloadException(url, "the connection is null:" + MAX_REDIRECT_TIMES + "!", 
                         HttpDownloadException.TYPE_NULL_POINTER);
             }
 
+            // record the host connected to, the download tasks are scheduled by it
+            RedirectedHostCache.getInstance().recordRedirectedUrl(url, conn.getUrl());
+
             Log.i(TAG, TAG + ".download Response Headers:" + HttpConnectionHelper.getStringHeaders(conn
                     .getHeaderFields()));
 
             // 1.check ResponseCode
             int responseCode = conn.getResponseCode();
 
-            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            isResponded = true;
+            if (mHostCircuitBreaker != null) {
+                mHostCircuitBreaker.recordResponse(UrlUtil.getHost(conn.getUrl()), responseCode);
+            }
+
+            String contentEncoding = conn.getHeaderField("Content-Encoding");
+            boolean isEncoded = isAcceptEncoding && !TextUtils.isEmpty(contentEncoding) && !"identity"
+                    .equalsIgnoreCase(contentEncoding.trim());
+
+            if (responseCode == HttpURLConnection.HTTP_OK && isEncoded) {
+
+                contentEncoding = contentEncoding.trim();
+
+                // 2.the encoded response, the Content-Length is the length of the encoded data
+                if (!DecodedInputStream.isSupported(contentEncoding)) {
+                    throw new HttpDownloadException(url, "Content-Encoding:" + contentEncoding + " not supported!",
+                            HttpDownloadException.TYPE_CONTENT_ENCODING_NOT_SUPPORTED);
+                }
+
+                // the eTag of the encoded data may be different, the decoded size is checked after saved instead
+
+                // get server InputStream, the whole data is decoded to the range detected before
+                ContentEncodingStatistics.Record record = ContentEncodingStatistics.getInstance().startRecord(url,
+                        contentEncoding);
+                InputStream serverInputStream = new DecodedInputStream(conn.getInputStream(), contentEncoding,
+                        record, url);
+                inputStream = new ContentLengthInputStream(serverInputStream, mRange.getLength());
+
+                Log.d(TAG, TAG + ".download 4、准备处理压缩数据，压缩方式：" + contentEncoding + "，压缩后长度：" + conn
+                        .getContentLength() + "，需要处理的区域为：" + mRange.toString() + "，url：" + url);
+
+                // notifyDownloadConnected
+                notifyDownloadConnected(inputStream, mRange.startPos);
+            } else if (responseCode == HttpURLConnection.HTTP_OK || responseCode == HttpURLConnection.HTTP_PARTIAL) {
 
                 // 2.check contentLength
                 long contentLength = conn.getContentLength();
@@ -207,6 +411,11 @@ public class HttpDownloader implements Download {
 
                 // not partial range, that means the whole data
                 if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // the whole data can not be accepted as a part of the file
+                    if (mIsPartialOnly) {
+                        throw new HttpDownloadException(url, "the server does not response the partial content!",
+                                HttpDownloadException.TYPE_CONTENT_RANGE_VALIDATE_FAIL);
+                    }
                     // handle whole data
                     if (!Range.isLegal(mRange) || (mRange != null && (mRange.startPos != 0 || mRange.getLength() != 
                             contentLength))) {
@@ -287,8 +496,10 @@ public class HttpDownloader implements Download {
 
                 // get server InputStream
                 InputStream serverInputStream = conn.getInputStream();
+                // the channel of the same data if the transport supports, the saver reads by it without heap copies
+                ReadableByteChannel serverChannel = conn.getChannel();
                 // wrap serverInputStream by ContentLengthInputStream
-                inputStream = new ContentLengthInputStream(serverInputStream, contentLength);
+                inputStream = new ContentLengthInputStream(serverInputStream, serverChannel, contentLength);
 
                 Log.d(TAG, TAG + ".download 4、准备处理数据，获取服务器返回的资源长度为：" + contentLength + "，获取服务器返回的输入流长度为：" +
                         inputStream.available() + "，需要处理的区域为：" + mRange.toString() + "，url：" + url);
@@ -300,12 +511,16 @@ public class HttpDownloader implements Download {
             else {
                 // error ResponseCode error
                 throw new HttpDownloadException(url, "ResponseCode:" + responseCode + " error,can not read server " +
-                        "data!", HttpDownloadException.TYPE_RESPONSE_CODE_ERROR);
+                        "data!", HttpDownloadException.TYPE_RESPONSE_CODE_ERROR, responseCode);
             }
             hasException = false;
         } catch (Exception e) {
             e.printStackTrace();
             hasException = true;
+            // the host can not be connected
+            if (!isResponded && e instanceof IOException && mHostCircuitBreaker != null) {
+                mHostCircuitBreaker.recordFailure(connectHost);
+            }
             if (e instanceof HttpDownloadException) {
                 // HttpDownloadException
                 throw (HttpDownloadException) e;
@@ -315,7 +530,7 @@ public class HttpDownloader implements Download {
             }
         } finally {
             // close inputStream & url connection
-            CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, inputStream);
+            CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, inputStream, isResponded);
             if (mCloseConnectionEngine != null) {
                 mCloseConnectionEngine.execute(closeConnectionTask);
             } else {
@@ -327,6 +542,18 @@ public class HttpDownloader implements Download {
 
     }
 
+    /**
+     * close the connection not used any more, such as the intermediate connections of the redirection
+     */
+    private void closeConnection(Response conn, boolean isResponded) {
+        CloseConnectionTask closeConnectionTask = new CloseConnectionTask(conn, null, isResponded);
+        if (mCloseConnectionEngine != null) {
+            mCloseConnectionEngine.execute(closeConnectionTask);
+        } else {
+            closeConnectionTask.run();
+        }
+    }
+
     // --------------------------------------notify caller--------------------------------------
 
     // notifyRangeChanged
@@ -372,11 +599,21 @@ public class HttpDownloader implements Download {
          */
         public static final String TYPE_RESPONSE_CODE_ERROR = HttpDownloadException.class.getName() + 
                 "_TYPE_RESPONSE_CODE_ERROR";
+        /**
+         * the Content-Encoding of the response can not be decoded
+         */
+        public static final String TYPE_CONTENT_ENCODING_NOT_SUPPORTED = HttpDownloadException.class.getName() +
+                "_TYPE_CONTENT_ENCODING_NOT_SUPPORTED";
 
         public HttpDownloadException(String url, String detailMessage, String type) {
             super(url, detailMessage, type);
         }
 
+        public HttpDownloadException(String url, String detailMessage, String type, int responseCode) {
+            super(url, detailMessage, type);
+            setResponseCode(responseCode);
+        }
+
         public HttpDownloadException(String url, Throwable throwable) {
             super(url, throwable);
         }
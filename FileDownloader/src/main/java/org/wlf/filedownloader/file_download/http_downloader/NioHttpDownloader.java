@@ -0,0 +1,1150 @@
+package org.wlf.filedownloader.file_download.http_downloader;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import org.wlf.filedownloader.base.Log;
+import org.wlf.filedownloader.base.Stoppable;
+import org.wlf.filedownloader.file_download.HostCircuitBreaker;
+import org.wlf.filedownloader.file_download.HttpConnectionHelper;
+import org.wlf.filedownloader.file_download.RedirectedHostCache;
+import org.wlf.filedownloader.file_download.file_saver.BandwidthLimiter;
+import org.wlf.filedownloader.file_download.file_saver.DownloadNoticeStrategy;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver.FileSaveException;
+import org.wlf.filedownloader.file_download.file_saver.FileSyncStrategy;
+import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader.HttpDownloadException;
+import org.wlf.filedownloader.file_download.http_downloader.HttpDownloader.OnRangeChangeListener;
+import org.wlf.filedownloader.util.FileUtil;
+import org.wlf.filedownloader.util.UrlUtil;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * http file download impl driven by {@link SelectorEngine}
+ * <br/>
+ * 基于非阻塞SocketChannel的Http下载器，由SelectorEngine的selector线程驱动，数据直接按位置写入临时文件，
+ * 下载期间不占用下载线程
+ * <p/>
+ * it supports the plain http GET responses with Content-Length only, the redirection, https, chunked and encoded
+ * responses fail with {@link NioHttpDownloadException#TYPE_NOT_SUPPORTED} before any data written, the caller should
+ * download them by {@link HttpDownloader} then
+ * <p/>
+ * the selector engine does not throttle, if a bandwidth limit is set during the download, it fails with
+ * {@link NioHttpDownloadException#TYPE_NOT_SUPPORTED} too after all the data written synced, the caller should
+ * continue the download from the synced pos by {@link HttpDownloader}
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class NioHttpDownloader implements Stoppable {
+
+    private static final String TAG = NioHttpDownloader.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT = 15 * 1000;// 15s default
+    private static final String DEFAULT_CHARSET = "UTF-8";
+    private static final String HEADER_CHARSET = "ISO-8859-1";
+
+    private static final int HEADER_BUFFER_SIZE = 4 * 1024;// 4KB
+    private static final int MAX_HEADER_SIZE = 64 * 1024;// 64KB
+
+    // the states, changed in the selector thread only
+    private static final int STATE_NOT_STARTED = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_SENDING = 2;
+    private static final int STATE_READING_HEADERS = 3;
+    private static final int STATE_VALIDATING = 4;// validating in the callback thread
+    private static final int STATE_READING_BODY = 5;
+    private static final int STATE_FINISHED = 6;
+
+    private String mUrl;// download url
+    private Range mRange;// download data range
+    private String mAcceptRangeType;// accept range type
+    private String mETag;// http file eTag
+    private String mLastModified;// file last modified time
+    private String mTempFilePath;// the temp file to write
+    private int mConnectTimeout = CONNECT_TIMEOUT;// connect time out, millisecond
+    private int mReadTimeout = CONNECT_TIMEOUT;// read time out, millisecond
+    private Map<String, String> mHeaders;//custom  headers
+    private HostCircuitBreaker mHostCircuitBreaker;// record the connection outcomes of the hosts
+    private BandwidthLimiter mBandwidthLimiter;// fall back to the download thread once limited
+
+    private FileSyncStrategy mFileSyncStrategy = FileSyncStrategy.SYNC_BY_TIME;// default is by time
+    private long mFileSyncValue = FileSyncStrategy.SYNC_BY_TIME.getValue();
+
+    // for stall detection
+    private long mMinDownloadSpeed = 0;// bytes per second, 0 means not detect
+    private long mStallWindow = 0;// millisecond
+    private long mDeadlineTime = 0;// SystemClock.elapsedRealtime() based, 0 means no deadline
+
+    private OnNioHttpDownloadListener mOnNioHttpDownloadListener;
+    private OnRangeChangeListener mOnRangeChangeListener;
+
+    // prepared in the caller thread
+    private SelectorEngine mSelectorEngine;
+    private String mConnectUrl;// the url connecting to, may be the final url resolved before
+    private String mConnectHost;// the host connecting to
+    private InetSocketAddress mAddress;
+    private ByteBuffer mRequest;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mFileChannel;
+
+    // used in the selector thread
+    private volatile Selector mSelector;
+    private SocketChannel mSocketChannel;
+    private SelectionKey mKey;
+    private int mState = STATE_NOT_STARTED;
+    private ByteBuffer mHeaderBuffer;// null after the headers read
+    private ByteBuffer mBodyBuffer;// the body received with the headers
+    private boolean mIsResponded;// whether the host responded
+    private int mResponseCode;
+    private Map<String, List<String>> mResponseHeaders;
+    private long mContentLength;
+    private long mWritePos;// the next pos to write in the temp file
+    private long mHandledSize;// the size of the body written
+    private int mUnsyncedSize;// the size has been written to the temp file but not synced
+    private int mNeedNotifySize;// the size has been written but not notified
+    private long mSyncedPos;// the end pos of the data synced, the progress persisted never exceeds it
+    private long mStateStartTime;
+    private long mLastActiveTime;// the last time of reading or writing the socket
+    private long mLastSyncTime;
+    private long mLastNotifyTime;
+    private long mStallWindowStartTime;
+    private long mStallWindowSize;
+
+    private volatile boolean mIsStopped;// whether stopped
+
+    /**
+     * constructor of NioHttpDownloader
+     *
+     * @param url             url path
+     * @param range           data range
+     * @param acceptRangeType accept range type
+     * @param eTag            file eTag
+     * @param lastModified    last modified datetime(in server)
+     * @param tempFilePath    the temp file path
+     */
+    public NioHttpDownloader(String url, Range range, String acceptRangeType, String eTag, String lastModified,
+                             String tempFilePath) {
+        this.mUrl = url;
+        this.mRange = range;
+        this.mAcceptRangeType = acceptRangeType;
+        this.mETag = eTag;
+        this.mLastModified = lastModified;
+        this.mTempFilePath = tempFilePath;
+    }
+
+    /**
+     * set OnNioHttpDownloadListener, the callbacks run in the callback thread of the {@link SelectorEngine}
+     *
+     * @param onNioHttpDownloadListener OnNioHttpDownloadListener
+     */
+    public void setOnNioHttpDownloadListener(OnNioHttpDownloadListener onNioHttpDownloadListener) {
+        this.mOnNioHttpDownloadListener = onNioHttpDownloadListener;
+    }
+
+    /**
+     * set OnRangeChangeListener, the callback runs in the callback thread of the {@link SelectorEngine}
+     *
+     * @param onRangeChangeListener OnRangeChangeListener
+     */
+    public void setOnRangeChangeListener(OnRangeChangeListener onRangeChangeListener) {
+        mOnRangeChangeListener = onRangeChangeListener;
+    }
+
+    /**
+     * set custom headers
+     *
+     * @param headers custom headers
+     */
+    public void setHeaders(Map<String, String> headers) {
+        mHeaders = headers;
+    }
+
+    /**
+     * set connect timeout
+     *
+     * @param connectTimeout connect timeout
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        mConnectTimeout = connectTimeout;
+    }
+
+    /**
+     * set read timeout, the max time to wait for the data of a read
+     *
+     * @param readTimeout read timeout
+     */
+    public void setReadTimeout(int readTimeout) {
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * set HostCircuitBreaker, the connection outcomes will be recorded to it
+     *
+     * @param hostCircuitBreaker HostCircuitBreaker, null means not record
+     */
+    public void setHostCircuitBreaker(HostCircuitBreaker hostCircuitBreaker) {
+        mHostCircuitBreaker = hostCircuitBreaker;
+    }
+
+    /**
+     * set FileSyncStrategy
+     *
+     * @param fileSyncStrategy FileSyncStrategy
+     * @param fileSyncValue    the value of the FileSyncStrategy, 0 or less means use the default value of the strategy
+     */
+    public void setFileSyncStrategy(FileSyncStrategy fileSyncStrategy, long fileSyncValue) {
+        if (fileSyncStrategy == null) {
+            return;
+        }
+        this.mFileSyncStrategy = fileSyncStrategy;
+        this.mFileSyncValue = fileSyncValue > 0 ? fileSyncValue : fileSyncStrategy.getValue();
+    }
+
+    /**
+     * set stall detection, the download fails with {@link FileSaveException#TYPE_DOWNLOAD_STALLED} if the download
+     * speed stays below minDownloadSpeed for the whole stallWindow
+     *
+     * @param minDownloadSpeed bytes per second, 0 or less means not detect
+     * @param stallWindow      millisecond
+     */
+    public void setStallDetection(long minDownloadSpeed, long stallWindow) {
+        if (minDownloadSpeed <= 0 || stallWindow <= 0) {
+            this.mMinDownloadSpeed = 0;
+            this.mStallWindow = 0;
+            return;
+        }
+        this.mMinDownloadSpeed = minDownloadSpeed;
+        this.mStallWindow = stallWindow;
+    }
+
+    /**
+     * set the deadline of the download, the download fails with {@link FileSaveException#TYPE_DOWNLOAD_TIMEOUT}
+     * after it
+     *
+     * @param deadlineTime based on SystemClock.elapsedRealtime(), 0 or less means no deadline
+     */
+    public void setDeadlineTime(long deadlineTime) {
+        this.mDeadlineTime = deadlineTime > 0 ? deadlineTime : 0;
+    }
+
+    /**
+     * set BandwidthLimiter, the download fails with {@link NioHttpDownloadException#TYPE_NOT_SUPPORTED} once a limit
+     * is set to it
+     *
+     * @param bandwidthLimiter BandwidthLimiter, null means not check
+     */
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        mBandwidthLimiter = bandwidthLimiter;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * start the download in the selector engine, the dns lookup and the temp file opening are done in the caller
+     * thread, then the caller thread returns and the download is driven by the selector thread
+     *
+     * @param selectorEngine the selector engine to drive the download
+     * @return true means the download started, false means the engine is full, the caller should download it by
+     * {@link HttpDownloader}
+     * @throws HttpDownloadException any fail exception during preparing the request
+     * @throws FileSaveException     any fail exception during opening the temp file
+     */
+    public boolean download(SelectorEngine selectorEngine) throws HttpDownloadException, FileSaveException {
+
+        String url = mUrl;// url
+
+        // connect the final url resolved before directly
+        String resolvedUrl = RedirectedHostCache.getInstance().getResolvedUrl(url);
+        mConnectUrl = !TextUtils.isEmpty(resolvedUrl) ? resolvedUrl : url;
+        mConnectHost = UrlUtil.getHost(mConnectUrl);
+
+        String encodedUrl = UrlUtil.getASCIIEncodedUrl(mConnectUrl, DEFAULT_CHARSET);
+        if (TextUtils.isEmpty(encodedUrl)) {
+            throw new HttpDownloadException(url, new IllegalAccessException("URL Illegal !"));
+        }
+
+        URL connectUrl;
+        try {
+            connectUrl = new URL(encodedUrl);
+        } catch (IOException e) {
+            throw new HttpDownloadException(url, e);
+        }
+        if (!"http".equalsIgnoreCase(connectUrl.getProtocol())) {
+            throw new NioHttpDownloadException(url, "the protocol:" + connectUrl.getProtocol() + " is not " +
+                    "supported!", NioHttpDownloadException.TYPE_NOT_SUPPORTED);
+        }
+
+        int port = connectUrl.getPort() > 0 ? connectUrl.getPort() : connectUrl.getDefaultPort();
+        mAddress = new InetSocketAddress(connectUrl.getHost(), port);
+        if (mAddress.isUnresolved()) {
+            if (mHostCircuitBreaker != null) {
+                mHostCircuitBreaker.recordFailure(mConnectHost);
+            }
+            throw new HttpDownloadException(url, new UnknownHostException(connectUrl.getHost()));
+        }
+
+        try {
+            mRequest = ByteBuffer.wrap(createRequest(connectUrl, port).getBytes(HEADER_CHARSET));
+        } catch (IOException e) {
+            throw new HttpDownloadException(url, e);
+        }
+
+        // open the temp file, the data is written at the position of the range
+        try {
+            FileUtil.createFileParentDir(mTempFilePath);
+            mRandomAccessFile = new RandomAccessFile(new File(mTempFilePath), "rw");
+            mFileChannel = mRandomAccessFile.getChannel();
+        } catch (IOException e) {
+            closeFile();
+            throw new FileSaveException(e);
+        }
+
+        mSelectorEngine = selectorEngine;
+
+        if (!selectorEngine.submit(this)) {
+            closeFile();
+            return false;
+        }
+
+        Log.d(TAG, TAG + ".download 1、提交到selector引擎下载，range：" + mRange + "，url：" + url);
+
+        return true;
+    }
+
+    /**
+     * create the request, the connection is closed by the server after the response
+     */
+    private String createRequest(URL connectUrl, int port) {
+
+        String path = connectUrl.getFile();
+        if (TextUtils.isEmpty(path)) {
+            path = "/";
+        }
+
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(connectUrl.getHost());
+        if (port != connectUrl.getDefaultPort()) {
+            request.append(":").append(port);
+        }
+        request.append("\r\n");
+
+        // custom headers first
+        if (mHeaders != null) {
+            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+                String key = header.getKey();
+                if (TextUtils.isEmpty(key) || header.getValue() == null || "Host".equalsIgnoreCase(key) ||
+                        "Connection".equalsIgnoreCase(key) || "Accept-Encoding".equalsIgnoreCase(key)) {
+                    continue;
+                }
+                request.append(key).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+
+        request.append("Accept-Encoding: identity\r\n");// FIXME now identity only
+        request.append("Charset: ").append(DEFAULT_CHARSET).append("\r\n");
+        request.append("Connection: close\r\n");
+
+        // set range, Support HTTP 1.1 and above
+        if (mRange != null && mRange.startPos > 0) {
+            if (mRange.endPos > 0 && mRange.endPos > mRange.startPos) {
+                // the endPos is exclusive, however the last-byte-pos of http Range is inclusive
+                request.append("Range: bytes=").append(mRange.startPos).append("-").append(mRange.endPos - 1)
+                        .append("\r\n");
+            } else {
+                request.append("Range: bytes=").append(mRange.startPos).append("-\r\n");
+            }
+            // eTag first
+            if (!TextUtils.isEmpty(mETag)) {
+                request.append("If-Range: ").append(mETag).append("\r\n");
+            } else if (!TextUtils.isEmpty(mLastModified)) {
+                request.append("If-Range: ").append(mLastModified).append("\r\n");
+            }
+        }
+
+        request.append("\r\n");
+
+        return request.toString();
+    }
+
+    // --------------------------------------run in the selector thread--------------------------------------
+
+    /**
+     * start to connect
+     */
+    void onStart(Selector selector) {
+
+        mSelector = selector;
+
+        // stopped or the engine is shutdown before started
+        if (mIsStopped || !mSelectorEngine.isEnabled()) {
+            finish(null);
+            return;
+        }
+
+        try {
+            long curTime = SystemClock.elapsedRealtime();
+            mStateStartTime = curTime;
+            mLastActiveTime = curTime;
+            mState = STATE_CONNECTING;
+
+            mSocketChannel = SocketChannel.open();
+            mSocketChannel.configureBlocking(false);
+            if (mSocketChannel.connect(mAddress)) {
+                mKey = mSocketChannel.register(selector, SelectionKey.OP_WRITE, this);
+                onConnected();
+            } else {
+                mKey = mSocketChannel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            onNetworkError(e);
+        }
+    }
+
+    /**
+     * the socket is ready
+     */
+    void onSelected(SelectionKey key, ByteBuffer readBuffer) {
+        try {
+            if (key.isConnectable()) {
+                if (mSocketChannel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    onConnected();
+                }
+            } else if (key.isWritable()) {
+                sendRequest();
+            } else if (key.isReadable()) {
+                if (mState == STATE_READING_HEADERS) {
+                    readHeaders();
+                } else if (mState == STATE_READING_BODY) {
+                    readBody(readBuffer);
+                }
+            }
+        } catch (FileSaveException e) {
+            e.printStackTrace();
+            finish(e);
+        } catch (IOException e) {
+            e.printStackTrace();
+            onNetworkError(e);
+        } catch (Exception e) {
+            e.printStackTrace();
+            finish(new HttpDownloadException(mUrl, e));
+        }
+    }
+
+    private void onConnected() {
+        mState = STATE_SENDING;
+        mLastActiveTime = SystemClock.elapsedRealtime();
+    }
+
+    private void sendRequest() throws IOException {
+
+        mSocketChannel.write(mRequest);
+        mLastActiveTime = SystemClock.elapsedRealtime();
+
+        if (!mRequest.hasRemaining()) {
+            mRequest = null;
+            mHeaderBuffer = ByteBuffer.allocate(HEADER_BUFFER_SIZE);
+            mState = STATE_READING_HEADERS;
+            mKey.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void readHeaders() throws IOException {
+
+        int count = mSocketChannel.read(mHeaderBuffer);
+        if (count == -1) {
+            throw new EOFException("the connection is closed before the response headers received!");
+        }
+        if (count > 0) {
+            mLastActiveTime = SystemClock.elapsedRealtime();
+        }
+
+        byte[] data = mHeaderBuffer.array();
+        int headerEnd = -1;
+        for (int i = 3; i < mHeaderBuffer.position(); i++) {
+            if (data[i - 3] == '\r' && data[i - 2] == '\n' && data[i - 1] == '\r' && data[i] == '\n') {
+                headerEnd = i + 1;
+                break;
+            }
+        }
+
+        if (headerEnd < 0) {
+            if (!mHeaderBuffer.hasRemaining()) {
+                if (mHeaderBuffer.capacity() >= MAX_HEADER_SIZE) {
+                    throw new IOException("the response headers are too large!");
+                }
+                // grow the buffer
+                ByteBuffer headerBuffer = ByteBuffer.allocate(mHeaderBuffer.capacity() * 2);
+                mHeaderBuffer.flip();
+                headerBuffer.put(mHeaderBuffer);
+                mHeaderBuffer = headerBuffer;
+            }
+            return;
+        }
+
+        parseHeaders(new String(data, 0, headerEnd, HEADER_CHARSET));
+
+        // the body received with the headers
+        mHeaderBuffer.flip();
+        mHeaderBuffer.position(headerEnd);
+        mBodyBuffer = mHeaderBuffer.hasRemaining() ? mHeaderBuffer : null;
+        mHeaderBuffer = null;
+
+        mIsResponded = true;
+
+        // stop reading until validated in the callback thread
+        mState = STATE_VALIDATING;
+        mKey.interestOps(0);
+
+        mSelectorEngine.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                boolean continueDownload = false;
+                Exception exception = null;
+                try {
+                    continueDownload = validateResponse();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    exception = e;
+                }
+                final boolean finalContinueDownload = continueDownload;
+                final Exception finalException = exception;
+                mSelectorEngine.post(mSelector, new Runnable() {
+                    @Override
+                    public void run() {
+                        onValidated(finalContinueDownload, finalException);
+                    }
+                });
+            }
+        });
+    }
+
+    private void parseHeaders(String headers) throws IOException {
+
+        String[] lines = headers.split("\r\n");
+        String[] statusLine = lines[0].split(" ");
+        if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/")) {
+            throw new IOException("the status line:" + lines[0] + " is illegal!");
+        }
+        try {
+            mResponseCode = Integer.parseInt(statusLine[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("the status line:" + lines[0] + " is illegal!");
+        }
+
+        // the header names are case insensitive
+        mResponseHeaders = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++) {
+            int index = lines[i].indexOf(':');
+            if (index <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, index).trim();
+            String value = lines[i].substring(index + 1).trim();
+            List<String> values = mResponseHeaders.get(name);
+            if (values == null) {
+                values = new ArrayList<String>();
+                mResponseHeaders.put(name, values);
+            }
+            values.add(value);
+        }
+    }
+
+    private String getHeaderField(String name) {
+        List<String> values = mResponseHeaders != null ? mResponseHeaders.get(name) : null;
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    /**
+     * the response is validated in the callback thread
+     */
+    private void onValidated(boolean continueDownload, Exception exception) {
+
+        if (mState != STATE_VALIDATING) {
+            // finished, such as stopped
+            return;
+        }
+        if (exception != null) {
+            finish(exception);
+            return;
+        }
+        if (!continueDownload || mIsStopped) {
+            finish(null);
+            return;
+        }
+
+        long curTime = SystemClock.elapsedRealtime();
+        mLastActiveTime = curTime;
+        mLastSyncTime = curTime;
+        mLastNotifyTime = curTime;
+        mStallWindowStartTime = curTime;
+        mState = STATE_READING_BODY;
+
+        Log.d(TAG, TAG + ".onValidated 2、准备处理数据，需要处理的区域为：" + mRange + "，url：" + mUrl);
+
+        try {
+            if (mBodyBuffer != null) {
+                ByteBuffer bodyBuffer = mBodyBuffer;
+                mBodyBuffer = null;
+                writeBody(bodyBuffer);
+            }
+            if (mState == STATE_READING_BODY) {
+                mKey.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (FileSaveException e) {
+            e.printStackTrace();
+            finish(e);
+        }
+    }
+
+    private void readBody(ByteBuffer readBuffer) throws IOException, FileSaveException {
+
+        readBuffer.clear();
+        // never read more than the remaining body
+        long remainingSize = mContentLength - mHandledSize;
+        if (remainingSize < readBuffer.capacity()) {
+            readBuffer.limit((int) remainingSize);
+        }
+
+        int count = mSocketChannel.read(readBuffer);
+        if (count == -1) {
+            throw new EOFException("the connection is closed before the body completed, handled:" + mHandledSize +
+                    ", total:" + mContentLength);
+        }
+        if (count == 0) {
+            return;
+        }
+
+        readBuffer.flip();
+        writeBody(readBuffer);
+    }
+
+    /**
+     * write the body to the temp file
+     */
+    private void writeBody(ByteBuffer buffer) throws FileSaveException {
+
+        long remainingSize = mContentLength - mHandledSize;
+        if (buffer.remaining() > remainingSize) {
+            buffer.limit(buffer.position() + (int) remainingSize);
+        }
+        int increaseSize = buffer.remaining();
+
+        try {
+            while (buffer.hasRemaining()) {
+                mWritePos += mFileChannel.write(buffer, mWritePos);
+            }
+        } catch (IOException e) {
+            throw new FileSaveException(e);
+        }
+
+        long curTime = SystemClock.elapsedRealtime();
+
+        mHandledSize += increaseSize;
+        mUnsyncedSize += increaseSize;
+        mNeedNotifySize += increaseSize;
+        mStallWindowSize += increaseSize;
+        mLastActiveTime = curTime;
+
+        // check whether sync to the storage device
+        if (isNeedSync(curTime - mLastSyncTime, mUnsyncedSize)) {
+            sync(curTime);
+        }
+
+        if (mHandledSize >= mContentLength) {
+            // has been finished the range
+            finish(null);
+            return;
+        }
+
+        // need notify caller, time first, then more than 50% of the data
+        if (curTime - mLastNotifyTime >= DownloadNoticeStrategy.NOTICE_BY_TIME.getValue() || mNeedNotifySize >=
+                mContentLength * 0.5) {
+            notifyDownloading(curTime);
+        }
+    }
+
+    /**
+     * whether need sync to the storage device
+     */
+    private boolean isNeedSync(long dTime, long pendingSize) {
+        switch (mFileSyncStrategy) {
+            case SYNC_BY_SIZE:
+                return pendingSize >= mFileSyncValue;
+            case SYNC_BY_TIME:
+                return pendingSize > 0 && dTime >= mFileSyncValue;
+        }
+        return false;// SYNC_AT_CHECKPOINT
+    }
+
+    private void sync(long curTime) throws FileSaveException {
+        if (mUnsyncedSize <= 0) {
+            return;
+        }
+        try {
+            mFileChannel.force(false);
+        } catch (IOException e) {
+            throw new FileSaveException(e);
+        }
+        mSyncedPos = mWritePos;
+        mUnsyncedSize = 0;
+        mLastSyncTime = curTime;
+    }
+
+    /**
+     * notify the written size and the synced pos in the callback thread
+     */
+    private void notifyDownloading(long curTime) throws FileSaveException {
+
+        if (mNeedNotifySize <= 0) {
+            return;
+        }
+        // temp not exist exception occur
+        if (!new File(mTempFilePath).exists()) {
+            throw new FileSaveException("temp file not exist!", FileSaveException.TYPE_TEMP_FILE_DOES_NOT_EXIST);
+        }
+
+        final int needNotifySize = mNeedNotifySize;
+        final long contentLength = mContentLength;
+        final long syncedPos = mSyncedPos;
+        mNeedNotifySize = 0;
+        mLastNotifyTime = curTime;
+
+        mSelectorEngine.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (mOnNioHttpDownloadListener != null) {
+                    mOnNioHttpDownloadListener.onNioDataSynced(syncedPos);
+                    mOnNioHttpDownloadListener.onNioDownloading(needNotifySize, contentLength);
+                }
+            }
+        });
+    }
+
+    /**
+     * check the timeouts, the stall and the time to sync and notify, called after every select
+     */
+    void checkTimeout(long curTime) {
+        try {
+            // check the deadline
+            if (mDeadlineTime > 0 && curTime >= mDeadlineTime && mState != STATE_VALIDATING) {
+                throw new FileSaveException("the download is over the deadline!", FileSaveException
+                        .TYPE_DOWNLOAD_TIMEOUT);
+            }
+
+            // the bandwidth limit is set during the download, the download thread should take it over
+            if (isBandwidthLimited() && mState != STATE_VALIDATING) {
+
+                Log.i(TAG, TAG + ".checkTimeout 下载期间设置了限速，交回下载线程下载，已处理：" + mHandledSize + "，url：" + mUrl);
+
+                finish(new NioHttpDownloadException(mUrl, "the bandwidth is limited, not supported!",
+                        NioHttpDownloadException.TYPE_NOT_SUPPORTED));
+                return;
+            }
+
+            switch (mState) {
+                case STATE_CONNECTING:
+                    if (curTime - mStateStartTime >= mConnectTimeout) {
+                        throw new SocketTimeoutException("connect timed out");
+                    }
+                    break;
+                case STATE_SENDING:
+                case STATE_READING_HEADERS:
+                case STATE_READING_BODY:
+                    if (curTime - mLastActiveTime >= mReadTimeout) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    break;
+            }
+
+            if (mState != STATE_READING_BODY) {
+                return;
+            }
+
+            // check whether stalled
+            if (mMinDownloadSpeed > 0) {
+                long windowTime = curTime - mStallWindowStartTime;
+                if (windowTime >= mStallWindow) {
+                    if (mStallWindowSize * 1000 < mMinDownloadSpeed * windowTime) {
+
+                        Log.i(TAG, TAG + ".checkTimeout 下载速度过低，" + windowTime + "ms内只下载了：" + mStallWindowSize +
+                                "，最低速度：" + mMinDownloadSpeed + "/s，url：" + mUrl);
+
+                        throw new FileSaveException("the download is stalled, " + mStallWindowSize + " bytes in " +
+                                windowTime + "ms!", FileSaveException.TYPE_DOWNLOAD_STALLED);
+                    }
+                    // next window
+                    mStallWindowStartTime = curTime;
+                    mStallWindowSize = 0;
+                }
+            }
+
+            // the slow downloads are synced and notified by time too
+            if (mFileSyncStrategy == FileSyncStrategy.SYNC_BY_TIME && isNeedSync(curTime - mLastSyncTime,
+                    mUnsyncedSize)) {
+                sync(curTime);
+            }
+            if (curTime - mLastNotifyTime >= DownloadNoticeStrategy.NOTICE_BY_TIME.getValue()) {
+                notifyDownloading(curTime);
+            }
+        } catch (FileSaveException e) {
+            e.printStackTrace();
+            finish(e);
+        } catch (IOException e) {
+            e.printStackTrace();
+            onNetworkError(e);
+        }
+    }
+
+    private boolean isBandwidthLimited() {
+        if (mBandwidthLimiter == null) {
+            return false;
+        }
+        return mBandwidthLimiter.getGlobalLimit() != BandwidthLimiter.NO_LIMIT || mBandwidthLimiter.getLimit(mUrl)
+                != BandwidthLimiter.NO_LIMIT;
+    }
+
+    /**
+     * the selector engine is shutdown
+     */
+    void onShutdown() {
+        mIsStopped = true;
+        finish(null);
+    }
+
+    private void onNetworkError(IOException e) {
+        // the host can not be connected
+        if (!mIsResponded && mHostCircuitBreaker != null) {
+            mHostCircuitBreaker.recordFailure(mConnectHost);
+        }
+        finish(new HttpDownloadException(mUrl, e));
+    }
+
+    /**
+     * finish the download, null exception means completed or stopped
+     */
+    private void finish(final Exception exception) {
+
+        if (mState == STATE_FINISHED) {
+            return;
+        }
+        mState = STATE_FINISHED;
+
+        // close the connection
+        if (mKey != null) {
+            mKey.cancel();
+        }
+        if (mSocketChannel != null) {
+            try {
+                mSocketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // checkpoint, sync all the remaining data
+        if (mFileChannel != null && mUnsyncedSize > 0) {
+            try {
+                mFileChannel.force(false);
+                mSyncedPos = mWritePos;
+                mUnsyncedSize = 0;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        closeFile();
+
+        final boolean complete = exception == null && mContentLength > 0 && mHandledSize == mContentLength;
+        final int needNotifySize = mNeedNotifySize;
+        final long contentLength = mContentLength;
+        final long syncedPos = mSyncedPos;
+        mNeedNotifySize = 0;
+        mHeaderBuffer = null;
+        mBodyBuffer = null;
+
+        mSelectorEngine.onTransferFinished();
+
+        Log.d(TAG, TAG + ".finish 3、Http文件下载【已结束】，已处理：" + mHandledSize + "，是否完成：" + complete + "，是否有异常：" +
+                (exception != null) + "，url：" + mUrl);
+
+        mSelectorEngine.dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (mOnNioHttpDownloadListener != null) {
+                    mOnNioHttpDownloadListener.onNioDataSynced(syncedPos);
+                    // the file has been written finish，notify remain needNotifySize to caller
+                    if (needNotifySize > 0) {
+                        mOnNioHttpDownloadListener.onNioDownloading(needNotifySize, contentLength);
+                    }
+                    mOnNioHttpDownloadListener.onNioDownloadFinished(complete, exception);
+                }
+            }
+        });
+    }
+
+    private void closeFile() {
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mRandomAccessFile = null;
+            mFileChannel = null;
+        }
+    }
+
+    // --------------------------------------run in the callback thread--------------------------------------
+
+    /**
+     * validate the response like {@link HttpDownloader}
+     *
+     * @return true means continue download
+     */
+    private boolean validateResponse() throws HttpDownloadException {
+
+        String url = mUrl;// url
+
+        // record the host connected to, the download tasks are scheduled by it
+        RedirectedHostCache.getInstance().recordRedirectedUrl(url, mConnectUrl);
+
+        Log.i(TAG, TAG + ".validateResponse Response Headers:" + HttpConnectionHelper.getStringHeaders
+                (mResponseHeaders));
+
+        // 1.check ResponseCode
+        int responseCode = mResponseCode;
+
+        if (mHostCircuitBreaker != null) {
+            mHostCircuitBreaker.recordResponse(mConnectHost, responseCode);
+        }
+
+        if (responseCode / 100 == 3) {
+            // the redirection is followed by HttpDownloader, it records the final url for the next downloads
+            throw new NioHttpDownloadException(url, "the redirection is not supported!", NioHttpDownloadException
+                    .TYPE_NOT_SUPPORTED);
+        }
+        if (!url.equals(mConnectUrl) && responseCode / 100 == 4) {
+            // the final url may be expired such as the signature of CDN, redirect from the original url again
+            RedirectedHostCache.getInstance().removeResolvedUrl(url);
+            throw new NioHttpDownloadException(url, "the resolved url is expired!", NioHttpDownloadException
+                    .TYPE_NOT_SUPPORTED);
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+            // error ResponseCode error
+            throw new HttpDownloadException(url, "ResponseCode:" + responseCode + " error,can not read server " +
+                    "data!", HttpDownloadException.TYPE_RESPONSE_CODE_ERROR, responseCode);
+        }
+
+        String transferEncoding = getHeaderField("Transfer-Encoding");
+        String contentEncoding = getHeaderField("Content-Encoding");
+        if ((!TextUtils.isEmpty(transferEncoding) && !"identity".equalsIgnoreCase(transferEncoding)) || (!TextUtils
+                .isEmpty(contentEncoding) && !"identity".equalsIgnoreCase(contentEncoding))) {
+            throw new NioHttpDownloadException(url, "the encoding:" + transferEncoding + "," + contentEncoding + " is" +
+                    " not supported!", NioHttpDownloadException.TYPE_NOT_SUPPORTED);
+        }
+
+        // 2.check contentLength
+        long contentLength = -1;
+        String contentLengthStr = getHeaderField("Content-Length");
+        if (!TextUtils.isEmpty(contentLengthStr)) {
+            try {
+                contentLength = Long.parseLong(contentLengthStr.trim());
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Log.d(TAG, TAG + ".validateResponse 2、得到服务器返回的资源contentLength：" + contentLength + "，传入的range：" +
+                mRange + "，url：" + url);
+
+        if (contentLength <= 0) {
+            // error content length illegal
+            throw new HttpDownloadException(url, "content length illegal,get url file failed!",
+                    HttpDownloadException.TYPE_RESOURCES_SIZE_ILLEGAL);
+        }
+
+        // not partial range, that means the whole data
+        if (responseCode == HttpURLConnection.HTTP_OK) {
+            // handle whole data
+            if (!Range.isLegal(mRange) || (mRange != null && (mRange.startPos != 0 || mRange.getLength() !=
+                    contentLength))) {
+                Range newRange = new Range(0, contentLength);
+                // need notify caller
+                if (notifyRangeChanged(mRange, newRange)) {
+                    mRange = newRange;
+                } else {
+                    throw new HttpDownloadException(url, "contentRange validate failed!", HttpDownloadException
+                            .TYPE_CONTENT_RANGE_VALIDATE_FAIL);
+                }
+            }
+        }
+        // partial range, that means range of the data
+        else {
+            if (!Range.isLegal(mRange) || (mRange != null && mRange.getLength() > contentLength)) {
+                Range newRange = new Range(0, contentLength);
+                // need notify caller
+                if (notifyRangeChanged(mRange, newRange)) {
+                    mRange = newRange;
+                } else {
+                    throw new HttpDownloadException(url, "contentRange validate failed!", HttpDownloadException
+                            .TYPE_CONTENT_RANGE_VALIDATE_FAIL);
+                }
+            }
+            // 4.check contentRange and acceptRangeType
+            if (mRange != null && !TextUtils.isEmpty(mAcceptRangeType)) {
+                boolean isRangeValidateSucceed = false;
+                ContentRangeInfo contentRangeInfo = ContentRangeInfo.getContentRangeInfo(getHeaderField
+                        ("Content-Range"));
+                if (contentRangeInfo != null) {
+                    Range serverResponseRange = new Range(contentRangeInfo.startPos, contentRangeInfo.endPos);
+                    if (mRange.equals(serverResponseRange) && mAcceptRangeType.equals(contentRangeInfo.contentType)
+                            && serverResponseRange.getLength() == contentLength) {
+                        // range validate pass
+                        isRangeValidateSucceed = true;
+                    }
+                }
+                if (!isRangeValidateSucceed) {
+                    // error contentRange validate failed
+                    throw new HttpDownloadException(url, "contentRange validate failed!", HttpDownloadException
+                            .TYPE_CONTENT_RANGE_VALIDATE_FAIL);
+                }
+            }
+        }
+
+        // 3.check eTag(whether file is changed)
+        if (!TextUtils.isEmpty(mETag)) {
+            String eTag = getHeaderField("ETag");
+
+            Log.d(TAG, TAG + ".validateResponse 3、得到服务器返回的资源eTag：" + eTag + "，传入的eTag：" + mETag + "，url：" +
+                    url);
+
+            if (TextUtils.isEmpty(eTag) || !mETag.equals(eTag)) {
+                // error eTag is not equal
+                throw new HttpDownloadException(url, "eTag is not equal,please delete the old one then " +
+                        "re-download!", HttpDownloadException.TYPE_ETAG_CHANGED);
+            }
+        }
+
+        mContentLength = contentLength;
+        mWritePos = mRange.startPos;
+        mSyncedPos = mWritePos;
+
+        // notifyDownloadConnected
+        if (mOnNioHttpDownloadListener != null) {
+            return mOnNioHttpDownloadListener.onNioDownloadConnected(mRange.startPos, contentLength);
+        }
+        return true;
+    }
+
+    // notifyRangeChanged
+    private boolean notifyRangeChanged(Range oldRange, Range newRange) {
+        if (mOnRangeChangeListener != null) {
+            return mOnRangeChangeListener.onRangeChanged(oldRange, newRange);
+        }
+        return true;
+    }
+
+    // --------------------------------------stop--------------------------------------
+
+    /**
+     * stop the download, it finishes in the selector thread soon
+     */
+    @Override
+    public void stop() {
+        mIsStopped = true;
+        final Selector selector = mSelector;
+        if (selector == null || mSelectorEngine == null) {
+            // not started, it finishes when started
+            return;
+        }
+        mSelectorEngine.post(selector, new Runnable() {
+            @Override
+            public void run() {
+                finish(null);
+            }
+        });
+    }
+
+    @Override
+    public boolean isStopped() {
+        return mIsStopped;
+    }
+
+    /**
+     * NioHttpDownloadException
+     */
+    public static class NioHttpDownloadException extends HttpDownloadException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * the response can not be downloaded by the selector engine, it should be downloaded by HttpDownloader
+         */
+        public static final String TYPE_NOT_SUPPORTED = NioHttpDownloadException.class.getName() +
+                "_TYPE_NOT_SUPPORTED";
+
+        public NioHttpDownloadException(String url, String detailMessage, String type) {
+            super(url, detailMessage, type);
+        }
+    }
+
+    /**
+     * OnNioHttpDownloadListener, all callbacks are in order in the callback thread of the {@link SelectorEngine}
+     */
+    public interface OnNioHttpDownloadListener {
+
+        /**
+         * the response is validated, the body is going to be saved
+         *
+         * @param startPosInTotal the start position of the body in the file
+         * @param contentLength   the length of the body
+         * @return true means continue download, otherwise stop download
+         */
+        boolean onNioDownloadConnected(long startPosInTotal, long contentLength);
+
+        /**
+         * the data has been saved to the temp file
+         *
+         * @param increaseSize increaseSize
+         * @param totalSize    total size needed to save
+         */
+        void onNioDownloading(int increaseSize, long totalSize);
+
+        /**
+         * the data saved has been synced to the storage device, the progress persisted must not exceed it
+         *
+         * @param syncedPosInTotal the end pos(exclusive) in the file of the synced data
+         */
+        void onNioDataSynced(long syncedPosInTotal);
+
+        /**
+         * the download finished
+         *
+         * @param complete  whether the whole range has been saved
+         * @param exception the fail exception, null means completed or stopped
+         */
+        void onNioDownloadFinished(boolean complete, Exception exception);
+    }
+}
@@ -0,0 +1,305 @@
+package org.wlf.filedownloader.file_download.http_downloader;
+
+import android.os.SystemClock;
+
+import org.wlf.filedownloader.base.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the engine to drive the nio downloads by a few selector threads
+ * <br/>
+ * 基于Selector的下载引擎，少量selector线程以非阻塞方式同时驱动大量http下载，下载期间不占用下载线程，
+ * 回调统一在一个回调线程中按顺序执行，适合大量小文件的批量下载
+ * <p/>
+ * the selector threads only read the sockets and write the files, the callbacks that record the status to the
+ * database run in the callback thread, so a slow callback never blocks the other downloads
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class SelectorEngine {
+
+    private static final String TAG = SelectorEngine.class.getSimpleName();
+
+    /**
+     * the max time of a select, the timeouts of the downloads are checked after every select, millisecond
+     */
+    private static final long SELECT_TIMEOUT = 1000;// 1s
+    /**
+     * the buffer shared by the downloads of a selector thread
+     */
+    private static final int READ_BUFFER_SIZE = 32 * 1024;// 32KB
+
+    private int mSelectorCount;// 0 means disabled
+    private int mMaxTransferSize;// max downloads driven at the same time
+
+    private volatile SelectorThread[] mSelectorThreads;// created at the first download
+    private volatile ExecutorService mCallbackEngine;// engine use for the callbacks of the downloads
+
+    private AtomicInteger mTransferCount = new AtomicInteger(0);
+    private AtomicInteger mNextSelector = new AtomicInteger(0);
+
+    private volatile boolean mIsShutdown;
+
+    /**
+     * constructor of SelectorEngine
+     *
+     * @param selectorCount   the count of the selector threads, 0 means disabled
+     * @param maxTransferSize max downloads driven at the same time, the others use the download threads
+     */
+    public SelectorEngine(int selectorCount, int maxTransferSize) {
+        mSelectorCount = selectorCount > 0 ? selectorCount : 0;
+        mMaxTransferSize = maxTransferSize > 0 ? maxTransferSize : 0;
+    }
+
+    /**
+     * whether the engine is enabled
+     *
+     * @return true means enabled
+     */
+    public boolean isEnabled() {
+        return mSelectorCount > 0 && mMaxTransferSize > 0 && !mIsShutdown;
+    }
+
+    /**
+     * get the count of the downloads driven now
+     *
+     * @return the count of the downloads
+     */
+    public int getTransferCount() {
+        return mTransferCount.get();
+    }
+
+    /**
+     * submit the download to a selector thread
+     *
+     * @return true means accepted, false means the engine is full or shutdown
+     */
+    boolean submit(final NioHttpDownloader downloader) {
+
+        if (!isEnabled()) {
+            return false;
+        }
+
+        // reserve a place
+        while (true) {
+            int transferCount = mTransferCount.get();
+            if (transferCount >= mMaxTransferSize) {
+
+                Log.d(TAG, "submit 正在进行的下载已达上限：" + mMaxTransferSize + "，url：" + downloader.getUrl());
+
+                return false;
+            }
+            if (mTransferCount.compareAndSet(transferCount, transferCount + 1)) {
+                break;
+            }
+        }
+
+        SelectorThread[] selectorThreads = getSelectorThreads();
+        if (selectorThreads == null) {
+            mTransferCount.decrementAndGet();
+            return false;
+        }
+
+        final SelectorThread selectorThread = selectorThreads[(mNextSelector.getAndIncrement() & Integer
+                .MAX_VALUE) % selectorThreads.length];
+        selectorThread.post(new Runnable() {
+            @Override
+            public void run() {
+                downloader.onStart(selectorThread.mSelector);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * run the task in the selector thread of the selector
+     */
+    void post(Selector selector, Runnable task) {
+        SelectorThread[] selectorThreads = mSelectorThreads;
+        if (selectorThreads == null) {
+            return;
+        }
+        for (SelectorThread selectorThread : selectorThreads) {
+            if (selectorThread.mSelector == selector) {
+                selectorThread.post(task);
+                return;
+            }
+        }
+    }
+
+    /**
+     * run the callback in the callback thread, the callbacks of a download are in order
+     */
+    void dispatch(Runnable callback) {
+        ExecutorService callbackEngine = mCallbackEngine;
+        if (callbackEngine == null) {
+            return;
+        }
+        try {
+            callbackEngine.execute(callback);
+        } catch (Exception e) {
+            e.printStackTrace();
+            // shutdown, run in the caller thread
+            callback.run();
+        }
+    }
+
+    /**
+     * the download finished, its place is released
+     */
+    void onTransferFinished() {
+        mTransferCount.decrementAndGet();
+    }
+
+    private SelectorThread[] getSelectorThreads() {
+        if (mSelectorThreads == null) {
+            synchronized (this) {
+                if (mSelectorThreads == null && !mIsShutdown) {
+                    try {
+                        SelectorThread[] selectorThreads = new SelectorThread[mSelectorCount];
+                        for (int i = 0; i < mSelectorCount; i++) {
+                            selectorThreads[i] = new SelectorThread(Selector.open());
+                        }
+                        mCallbackEngine = Executors.newSingleThreadExecutor();
+                        for (int i = 0; i < mSelectorCount; i++) {
+                            Thread thread = new Thread(selectorThreads[i], "file-downloader-selector-" + i);
+                            thread.setDaemon(true);
+                            thread.start();
+                        }
+                        mSelectorThreads = selectorThreads;
+
+                        Log.d(TAG, "getSelectorThreads 启动selector线程，数量：" + mSelectorCount);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return mSelectorThreads;
+    }
+
+    /**
+     * shutdown the engine, the downloads driven now will be stopped
+     */
+    public void shutdown() {
+
+        SelectorThread[] selectorThreads = null;
+
+        synchronized (this) {
+            if (mIsShutdown) {
+                return;
+            }
+            mIsShutdown = true;
+            selectorThreads = mSelectorThreads;
+        }
+
+        if (selectorThreads != null) {
+            for (SelectorThread selectorThread : selectorThreads) {
+                selectorThread.mSelector.wakeup();
+            }
+        }
+
+        Log.d(TAG, "shutdown 关闭selector引擎，正在进行的下载：" + mTransferCount.get());
+    }
+
+    /**
+     * the selector thread
+     */
+    private class SelectorThread implements Runnable {
+
+        private Selector mSelector;
+        private Queue<Runnable> mPendingTasks = new ConcurrentLinkedQueue<Runnable>();
+        private ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        private SelectorThread(Selector selector) {
+            mSelector = selector;
+        }
+
+        private volatile boolean mIsExited;
+
+        private void post(Runnable task) {
+            mPendingTasks.offer(task);
+            if (mIsExited) {
+                // the thread exited, run in the caller thread
+                runPendingTasks();
+            } else {
+                mSelector.wakeup();
+            }
+        }
+
+        private void runPendingTasks() {
+            Runnable task;
+            while ((task = mPendingTasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!mIsShutdown) {
+                try {
+                    mSelector.select(SELECT_TIMEOUT);
+
+                    // the tasks posted by other threads, such as start and stop
+                    runPendingTasks();
+
+                    Iterator<SelectionKey> iterator = mSelector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        NioHttpDownloader downloader = (NioHttpDownloader) key.attachment();
+                        if (downloader != null && key.isValid()) {
+                            downloader.onSelected(key, mReadBuffer);
+                        }
+                    }
+
+                    // check the timeouts of all downloads
+                    long curTime = SystemClock.elapsedRealtime();
+                    for (SelectionKey key : mSelector.keys()) {
+                        NioHttpDownloader downloader = (NioHttpDownloader) key.attachment();
+                        if (downloader != null && key.isValid()) {
+                            downloader.checkTimeout(curTime);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // shutdown, stop all downloads of this selector
+            mIsExited = true;
+            runPendingTasks();
+            List<NioHttpDownloader> downloaders = new ArrayList<NioHttpDownloader>();
+            for (SelectionKey key : mSelector.keys()) {
+                if (key.attachment() instanceof NioHttpDownloader) {
+                    downloaders.add((NioHttpDownloader) key.attachment());
+                }
+            }
+            for (NioHttpDownloader downloader : downloaders) {
+                downloader.onShutdown();
+            }
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            ExecutorService callbackEngine = mCallbackEngine;
+            if (callbackEngine != null) {
+                callbackEngine.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.wlf.filedownloader.file_download.transport;
+
+import org.wlf.filedownloader.file_download.CloseConnectionTask;
+import org.wlf.filedownloader.file_download.HttpConnectionHelper;
+import org.wlf.filedownloader.file_download.HttpConnectionHelper.RequestParam;
+import org.wlf.filedownloader.file_download.KeepAlivePool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the transport by HttpURLConnection
+ * <br/>
+ * 基于HttpURLConnection的默认http传输实现，支持请求中配置的TLS上下文和长连接池
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class HttpUrlConnectionTransport implements Transport {
+
+    private static volatile HttpUrlConnectionTransport sDefault;
+
+    /**
+     * get the default transport
+     *
+     * @return the default transport
+     */
+    public static HttpUrlConnectionTransport getDefault() {
+        if (sDefault == null) {
+            synchronized (HttpUrlConnectionTransport.class) {
+                if (sDefault == null) {
+                    sDefault = new HttpUrlConnectionTransport();
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    @Override
+    public Response execute(RequestParam requestParam) throws Exception {
+        HttpURLConnection conn = HttpConnectionHelper.createHttpUrlConnection(requestParam);
+        if (conn == null) {
+            return null;
+        }
+        return new HttpUrlConnectionResponse(conn, requestParam.getKeepAlivePool());
+    }
+
+    /**
+     * the response of HttpURLConnection
+     */
+    private static class HttpUrlConnectionResponse implements Response {
+
+        private HttpURLConnection mConnection;
+        private KeepAlivePool mKeepAlivePool;// null means always disconnect
+
+        private HttpUrlConnectionResponse(HttpURLConnection connection, KeepAlivePool keepAlivePool) {
+            mConnection = connection;
+            mKeepAlivePool = keepAlivePool;
+        }
+
+        @Override
+        public String getUrl() {
+            return mConnection.getURL() != null ? mConnection.getURL().toString() : null;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mConnection.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return mConnection.getHeaderFields();
+        }
+
+        @Override
+        public long getContentLength() {
+            // -1 if over 2G, the callers get it from the headers
+            return mConnection.getContentLength();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return mConnection.getInputStream();
+        }
+
+        @Override
+        public ReadableByteChannel getChannel() throws IOException {
+            // HttpURLConnection reads by the stream only
+            return null;
+        }
+
+        @Override
+        public void close(InputStream inputStream, boolean isResponded) {
+            // drain and close or disconnect
+            new CloseConnectionTask(mConnection, inputStream, mKeepAlivePool, isResponded).run();
+        }
+    }
+}
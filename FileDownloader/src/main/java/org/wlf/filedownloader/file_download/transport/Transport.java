@@ -0,0 +1,104 @@
+package org.wlf.filedownloader.file_download.transport;
+
+import org.wlf.filedownloader.file_download.HttpConnectionHelper.RequestParam;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the transport of the http requests, the detect and download send all requests by it
+ * <br/>
+ * http传输接口，探测和下载的所有请求都通过它发送，可替换为其它http客户端实现
+ * <p/>
+ * the transport must not follow redirects, the callers follow them and cache the final urls, the default is {@link
+ * HttpUrlConnectionTransport}
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public interface Transport {
+
+    /**
+     * send the request and receive the response headers
+     *
+     * @param requestParam the request with url, method, headers, range and validators
+     * @return the response, it must be closed by {@link Response#close(InputStream, boolean)}
+     * @throws Exception any exception during connect
+     */
+    Response execute(RequestParam requestParam) throws Exception;
+
+    /**
+     * the response of a request
+     */
+    interface Response {
+
+        /**
+         * get the url of the request
+         *
+         * @return the url
+         */
+        String getUrl();
+
+        /**
+         * get the http response code
+         *
+         * @return the response code
+         * @throws IOException any exception during reading the response
+         */
+        int getResponseCode() throws IOException;
+
+        /**
+         * get the value of the response header
+         *
+         * @param name the header name
+         * @return the value, null means not responded
+         */
+        String getHeaderField(String name);
+
+        /**
+         * get all response headers
+         *
+         * @return the response headers
+         */
+        Map<String, List<String>> getHeaderFields();
+
+        /**
+         * get the length of the response body
+         *
+         * @return the length, -1 means unknown
+         */
+        long getContentLength();
+
+        /**
+         * get the stream of the response body
+         *
+         * @return the stream of the response body
+         * @throws IOException any exception during reading the response
+         */
+        InputStream getInputStream() throws IOException;
+
+        /**
+         * get the channel of the response body, the body is saved to the file without copying to the heap
+         * <p/>
+         * the channel reads the same body as {@link #getInputStream()}, the caller reads by one of them only, and the
+         * response is still closed by {@link #close(InputStream, boolean)}
+         *
+         * @return the blocking channel of the response body, null means not supported, read by {@link
+         * #getInputStream()} instead
+         * @throws IOException any exception during reading the response
+         */
+        ReadableByteChannel getChannel() throws IOException;
+
+        /**
+         * close the response, the connection may be reused if the transport supports
+         *
+         * @param inputStream the stream got from {@link #getInputStream()} or the wrapper of it, null means not
+         *                    opened
+         * @param isResponded whether the response is received, the connection can not be reused if not
+         */
+        void close(InputStream inputStream, boolean isResponded);
+    }
+}
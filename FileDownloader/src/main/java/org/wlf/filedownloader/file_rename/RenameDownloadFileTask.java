@@ -7,11 +7,9 @@ import org.wlf.filedownloader.base.Log;
 import org.wlf.filedownloader.listener.OnRenameDownloadFileListener;
 import org.wlf.filedownloader.listener.OnRenameDownloadFileListener.OnRenameDownloadFileFailReason;
 import org.wlf.filedownloader.listener.OnRenameDownloadFileListener.RenameDownloadFileFailReason;
-import org.wlf.filedownloader.util.CollectionUtil;
 import org.wlf.filedownloader.util.DownloadFileUtil;
 
 import java.io.File;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -223,20 +221,10 @@ class RenameDownloadFileTask implements Runnable {
             return true;
         }
 
-        List<DownloadFileInfo> downloadFileInfos = mDownloadFileRenamer.getDownloadFiles();
-        if (!CollectionUtil.isEmpty(downloadFileInfos)) {
-            for (DownloadFileInfo info : downloadFileInfos) {
-                if (info == null) {
-                    continue;
-                }
-                String path = info.getFilePath();
-                if (TextUtils.isEmpty(path)) {
-                    continue;
-                }
-                if (path.equals(newFile.getAbsolutePath())) {// the file has been exist
-                    return true;
-                }
-            }
+        // look up by the save path index
+        DownloadFileInfo info = mDownloadFileRenamer.getDownloadFileBySavePath(newFile.getAbsolutePath(), false);
+        if (info != null) {// the file has been exist
+            return true;
         }
         return false;
     }
@@ -0,0 +1,315 @@
+package org.wlf.filedownloader.listener;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.wlf.filedownloader.DownloadFileInfo;
+import org.wlf.filedownloader.listener.OnDownloadFileChangeListener.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the dispatcher for delivering listener callbacks to the main thread
+ * <br/>
+ * 共享的主线程回调分发器，同一帧内的回调合并成一个主线程消息，进度类回调按监听器和url合并
+ * <p/>
+ * the callbacks are delivered in the order they were posted, a progress callback posted while an older one of the
+ * same listener and url is still pending only updates the pending one, status callbacks are never conflated
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+final class MainThreadDispatcher {
+
+    /**
+     * the min interval between two dispatches, about one frame
+     */
+    private static final long FRAME_INTERVAL = 16;// 16ms
+    /**
+     * the max size of the recycled event pool
+     */
+    private static final int MAX_EVENT_POOL_SIZE = 32;
+
+    private static volatile MainThreadDispatcher sInstance;
+
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+
+    /**
+     * the events to dispatch in the next frame
+     */
+    private List<Runnable> mPendingEvents = new ArrayList<Runnable>();
+    /**
+     * the events dispatching, only accessed in the main thread after swapping
+     */
+    private List<Runnable> mDispatchingEvents = new ArrayList<Runnable>();
+
+    /**
+     * pending downloading events, listener -> (url -> event)
+     */
+    private final Map<Object, Map<String, DownloadingEvent>> mDownloadingEvents = new IdentityHashMap<Object,
+            Map<String, DownloadingEvent>>();
+    /**
+     * pending downloaded size updated events, listener -> (url -> event)
+     */
+    private final Map<Object, Map<String, DownloadedSizeUpdatedEvent>> mDownloadedSizeUpdatedEvents = new
+            IdentityHashMap<Object, Map<String, DownloadedSizeUpdatedEvent>>();
+
+    private final List<DownloadingEvent> mDownloadingEventPool = new ArrayList<DownloadingEvent>();
+    private final List<DownloadedSizeUpdatedEvent> mDownloadedSizeUpdatedEventPool = new
+            ArrayList<DownloadedSizeUpdatedEvent>();
+
+    private boolean mIsDispatchScheduled = false;
+    private long mLastDispatchTime = 0;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPendingEvents();
+        }
+    };
+
+    private MainThreadDispatcher() {
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * get the shared dispatcher
+     *
+     * @return the shared dispatcher
+     */
+    public static MainThreadDispatcher getInstance() {
+        if (sInstance == null) {
+            synchronized (MainThreadDispatcher.class) {
+                if (sInstance == null) {
+                    sInstance = new MainThreadDispatcher();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * post an ordered event, it will never be conflated or dropped
+     *
+     * @param event the event to run in the main thread
+     */
+    public void post(Runnable event) {
+        if (event == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mPendingEvents.add(event);
+            // seal pending progress events, the later ones must be delivered after this event
+            sealConflatableEventsLocked();
+            scheduleDispatchLocked();
+        }
+    }
+
+    /**
+     * post a downloading event, conflated with the pending one of the same listener and url
+     *
+     * @param downloadFileInfo download file info
+     * @param downloadSpeed    download speed
+     * @param remainingTime    remaining time
+     * @param listener         the listener to notify
+     */
+    public void postFileDownloadStatusDownloading(DownloadFileInfo downloadFileInfo, float downloadSpeed, long
+            remainingTime, OnFileDownloadStatusListener listener) {
+        if (listener == null) {
+            return;
+        }
+        String url = downloadFileInfo != null ? downloadFileInfo.getUrl() : null;
+        synchronized (mLock) {
+            Map<String, DownloadingEvent> events = mDownloadingEvents.get(listener);
+            DownloadingEvent event = events != null ? events.get(url) : null;
+            if (event == null) {
+                event = obtainDownloadingEventLocked();
+                event.mListener = listener;
+                if (events == null) {
+                    events = new HashMap<String, DownloadingEvent>();
+                    mDownloadingEvents.put(listener, events);
+                }
+                events.put(url, event);
+                mPendingEvents.add(event);
+            }
+            // update the pending event in place
+            event.mDownloadFileInfo = downloadFileInfo;
+            event.mDownloadSpeed = downloadSpeed;
+            event.mRemainingTime = remainingTime;
+            scheduleDispatchLocked();
+        }
+    }
+
+    /**
+     * post a DownloadFile updated event, only {@link Type#DOWNLOADED_SIZE} events are conflated
+     *
+     * @param downloadFileInfo DownloadFile updated
+     * @param type             the update type
+     * @param listener         the listener to notify
+     */
+    public void postDownloadFileUpdated(final DownloadFileInfo downloadFileInfo, final Type type, final
+    OnDownloadFileChangeListener listener) {
+        if (listener == null) {
+            return;
+        }
+        if (type != Type.DOWNLOADED_SIZE) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDownloadFileUpdated(downloadFileInfo, type);
+                }
+            });
+            return;
+        }
+        String url = downloadFileInfo != null ? downloadFileInfo.getUrl() : null;
+        synchronized (mLock) {
+            Map<String, DownloadedSizeUpdatedEvent> events = mDownloadedSizeUpdatedEvents.get(listener);
+            DownloadedSizeUpdatedEvent event = events != null ? events.get(url) : null;
+            if (event == null) {
+                event = obtainDownloadedSizeUpdatedEventLocked();
+                event.mListener = listener;
+                if (events == null) {
+                    events = new HashMap<String, DownloadedSizeUpdatedEvent>();
+                    mDownloadedSizeUpdatedEvents.put(listener, events);
+                }
+                events.put(url, event);
+                mPendingEvents.add(event);
+            }
+            // update the pending event in place
+            event.mDownloadFileInfo = downloadFileInfo;
+            scheduleDispatchLocked();
+        }
+    }
+
+    // --------------------------------------dispatch--------------------------------------
+
+    private void scheduleDispatchLocked() {
+        if (mIsDispatchScheduled) {
+            return;
+        }
+        mIsDispatchScheduled = true;
+        long delay = mLastDispatchTime + FRAME_INTERVAL - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            mHandler.postDelayed(mDispatchRunnable, delay);
+        } else {
+            mHandler.post(mDispatchRunnable);
+        }
+    }
+
+    private void sealConflatableEventsLocked() {
+        // the events have been moved to the dispatching buffer, do not hold the listeners any more
+        mDownloadingEvents.clear();
+        mDownloadedSizeUpdatedEvents.clear();
+    }
+
+    /**
+     * run in the main thread
+     */
+    private void dispatchPendingEvents() {
+
+        List<Runnable> events = null;
+
+        synchronized (mLock) {
+            // swap the buffers, the events posted from now on go to the next frame
+            events = mPendingEvents;
+            mPendingEvents = mDispatchingEvents;
+            mDispatchingEvents = events;
+            sealConflatableEventsLocked();
+            mIsDispatchScheduled = false;
+            mLastDispatchTime = SystemClock.uptimeMillis();
+        }
+
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                events.get(i).run();
+            }
+        } finally {
+            synchronized (mLock) {
+                for (int i = 0; i < events.size(); i++) {
+                    recycleEventLocked(events.get(i));
+                }
+            }
+            events.clear();
+        }
+    }
+
+    // --------------------------------------event pool--------------------------------------
+
+    private DownloadingEvent obtainDownloadingEventLocked() {
+        int size = mDownloadingEventPool.size();
+        if (size > 0) {
+            return mDownloadingEventPool.remove(size - 1);
+        }
+        return new DownloadingEvent();
+    }
+
+    private DownloadedSizeUpdatedEvent obtainDownloadedSizeUpdatedEventLocked() {
+        int size = mDownloadedSizeUpdatedEventPool.size();
+        if (size > 0) {
+            return mDownloadedSizeUpdatedEventPool.remove(size - 1);
+        }
+        return new DownloadedSizeUpdatedEvent();
+    }
+
+    private void recycleEventLocked(Runnable event) {
+        if (event instanceof DownloadingEvent) {
+            DownloadingEvent downloadingEvent = (DownloadingEvent) event;
+            downloadingEvent.mListener = null;
+            downloadingEvent.mDownloadFileInfo = null;
+            if (mDownloadingEventPool.size() < MAX_EVENT_POOL_SIZE) {
+                mDownloadingEventPool.add(downloadingEvent);
+            }
+        } else if (event instanceof DownloadedSizeUpdatedEvent) {
+            DownloadedSizeUpdatedEvent updatedEvent = (DownloadedSizeUpdatedEvent) event;
+            updatedEvent.mListener = null;
+            updatedEvent.mDownloadFileInfo = null;
+            if (mDownloadedSizeUpdatedEventPool.size() < MAX_EVENT_POOL_SIZE) {
+                mDownloadedSizeUpdatedEventPool.add(updatedEvent);
+            }
+        }
+    }
+
+    // --------------------------------------events--------------------------------------
+
+    /**
+     * the conflatable downloading event
+     */
+    private static class DownloadingEvent implements Runnable {
+
+        private OnFileDownloadStatusListener mListener;
+        private DownloadFileInfo mDownloadFileInfo;
+        private float mDownloadSpeed;
+        private long mRemainingTime;
+
+        @Override
+        public void run() {
+            if (mListener == null) {
+                return;
+            }
+            mListener.onFileDownloadStatusDownloading(mDownloadFileInfo, mDownloadSpeed, mRemainingTime);
+        }
+    }
+
+    /**
+     * the conflatable downloaded size updated event
+     */
+    private static class DownloadedSizeUpdatedEvent implements Runnable {
+
+        private OnDownloadFileChangeListener mListener;
+        private DownloadFileInfo mDownloadFileInfo;
+
+        @Override
+        public void run() {
+            if (mListener == null) {
+                return;
+            }
+            mListener.onDownloadFileUpdated(mDownloadFileInfo, Type.DOWNLOADED_SIZE);
+        }
+    }
+}
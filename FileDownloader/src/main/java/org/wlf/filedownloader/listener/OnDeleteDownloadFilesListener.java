@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.DownloadFileInfo;
 
 import java.util.List;
@@ -59,8 +56,7 @@ public interface OnDeleteDownloadFilesListener {
             if (onDeleteDownloadFilesListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onDeleteDownloadFilesListener == null) {
@@ -85,8 +81,7 @@ public interface OnDeleteDownloadFilesListener {
             if (onDeleteDownloadFilesListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onDeleteDownloadFilesListener == null) {
@@ -110,8 +105,7 @@ public interface OnDeleteDownloadFilesListener {
             if (onDeleteDownloadFilesListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onDeleteDownloadFilesListener == null) {
@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.file_download.base.HttpFailReason;
 
 /**
@@ -59,8 +56,7 @@ public interface OnDetectBigUrlFileListener {
             if (nnDetectBigUrlFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (nnDetectBigUrlFileListener == null) {
@@ -81,8 +77,7 @@ public interface OnDetectBigUrlFileListener {
             if (nnDetectBigUrlFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (nnDetectBigUrlFileListener == null) {
@@ -104,8 +99,7 @@ public interface OnDetectBigUrlFileListener {
             if (nnDetectBigUrlFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (nnDetectBigUrlFileListener == null) {
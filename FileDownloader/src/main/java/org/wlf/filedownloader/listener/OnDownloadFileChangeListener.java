@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.DownloadFileInfo;
 
 /**
@@ -51,8 +48,7 @@ public interface OnDownloadFileChangeListener {
             if (onDownloadFileChangeListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onDownloadFileChangeListener == null) {
@@ -74,16 +70,9 @@ public interface OnDownloadFileChangeListener {
             if (onDownloadFileChangeListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    if (onDownloadFileChangeListener == null) {
-                        return;
-                    }
-                    onDownloadFileChangeListener.onDownloadFileUpdated(downloadFileInfo, type);
-                }
-            });
+            // the DOWNLOADED_SIZE callbacks are conflated with the pending one of the same listener and url
+            MainThreadDispatcher.getInstance().postDownloadFileUpdated(downloadFileInfo, type, 
+                    onDownloadFileChangeListener);
         }
 
         /**
@@ -96,8 +85,7 @@ public interface OnDownloadFileChangeListener {
             if (onDownloadFileChangeListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onDownloadFileChangeListener == null) {
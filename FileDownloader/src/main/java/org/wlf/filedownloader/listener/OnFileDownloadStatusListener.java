@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.DownloadFileInfo;
 import org.wlf.filedownloader.base.FailReason;
 import org.wlf.filedownloader.file_download.base.HttpFailReason;
@@ -89,8 +86,7 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onFileDownloadStatusListener == null) {
@@ -111,8 +107,7 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onFileDownloadStatusListener == null) {
@@ -133,8 +128,7 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onFileDownloadStatusListener == null) {
@@ -158,17 +152,9 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
-                @Override
-                public void run() {
-                    if (onFileDownloadStatusListener == null) {
-                        return;
-                    }
-                    onFileDownloadStatusListener.onFileDownloadStatusDownloading(downloadFileInfo, downloadSpeed, 
-                            remainingTime);
-                }
-            });
+            // conflated with the pending downloading callback of the same listener and url
+            MainThreadDispatcher.getInstance().postFileDownloadStatusDownloading(downloadFileInfo, downloadSpeed, 
+                    remainingTime, onFileDownloadStatusListener);
         }
 
         /**
@@ -181,8 +167,7 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onFileDownloadStatusListener == null) {
@@ -203,8 +188,7 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onFileDownloadStatusListener == null) {
@@ -228,8 +212,7 @@ public interface OnFileDownloadStatusListener {
             if (onFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onFileDownloadStatusListener == null) {
@@ -324,6 +307,18 @@ public interface OnFileDownloadStatusListener {
         public static final String TYPE_URL_FILE_CHANGED = FileDownloadStatusFailReason.class.getName() + 
                 "_TYPE_URL_FILE_CHANGED";
 
+        /**
+         * the download speed stays too low, the connection is stalled
+         */
+        public static final String TYPE_DOWNLOAD_STALLED = FileDownloadStatusFailReason.class.getName() + 
+                "_TYPE_DOWNLOAD_STALLED";
+
+        /**
+         * the download is over the deadline
+         */
+        public static final String TYPE_DOWNLOAD_TIMEOUT = FileDownloadStatusFailReason.class.getName() + 
+                "_TYPE_DOWNLOAD_TIMEOUT";
+
         /**
          * file is downloading
          *
@@ -407,12 +402,18 @@ public interface OnFileDownloadStatusListener {
 
                 if (FileSaveException.TYPE_FILE_CAN_NOT_STORAGE.equals(type)) {
                     setType(TYPE_STORAGE_SPACE_CAN_NOT_WRITE);
+                } else if (FileSaveException.TYPE_STORAGE_SPACE_IS_FULL.equals(type)) {
+                    setType(TYPE_STORAGE_SPACE_IS_FULL);
                 } else if (FileSaveException.TYPE_RENAME_TEMP_FILE_ERROR.equals(type)) {
                     setType(TYPE_RENAME_TEMP_FILE_ERROR);
                 } else if (FileSaveException.TYPE_SAVER_HAS_BEEN_STOPPED.equals(type)) {
                     // ignore
                 } else if (FileSaveException.TYPE_TEMP_FILE_DOES_NOT_EXIST.equals(type)) {
                     setType(TYPE_SAVE_FILE_NOT_EXIST);
+                } else if (FileSaveException.TYPE_DOWNLOAD_STALLED.equals(type)) {
+                    setType(TYPE_DOWNLOAD_STALLED);
+                } else if (FileSaveException.TYPE_DOWNLOAD_TIMEOUT.equals(type)) {
+                    setType(TYPE_DOWNLOAD_TIMEOUT);
                 }
             }
         }
@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.DownloadFileInfo;
 import org.wlf.filedownloader.base.UrlFailReason;
 
@@ -53,8 +50,7 @@ public interface OnMoveDownloadFileListener {
             if (onMoveDownloadFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onMoveDownloadFileListener == null) {
@@ -75,8 +71,7 @@ public interface OnMoveDownloadFileListener {
             if (onMoveDownloadFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onMoveDownloadFileListener == null) {
@@ -98,8 +93,7 @@ public interface OnMoveDownloadFileListener {
             if (onMoveDownloadFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onMoveDownloadFileListener == null) {
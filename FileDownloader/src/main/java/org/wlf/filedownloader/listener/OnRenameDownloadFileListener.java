@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.DownloadFileInfo;
 import org.wlf.filedownloader.base.FailReason;
 
@@ -54,8 +51,7 @@ public interface OnRenameDownloadFileListener {
             if (onRenameDownloadFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onRenameDownloadFileListener == null) {
@@ -76,8 +72,7 @@ public interface OnRenameDownloadFileListener {
             if (onRenameDownloadFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onRenameDownloadFileListener == null) {
@@ -99,8 +94,7 @@ public interface OnRenameDownloadFileListener {
             if (onRenameDownloadFileListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onRenameDownloadFileListener == null) {
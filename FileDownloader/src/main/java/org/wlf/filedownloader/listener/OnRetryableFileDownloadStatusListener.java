@@ -1,8 +1,5 @@
 package org.wlf.filedownloader.listener;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import org.wlf.filedownloader.DownloadFileInfo;
 
 /**
@@ -39,8 +36,7 @@ public interface OnRetryableFileDownloadStatusListener extends OnFileDownloadSta
             if (onRetryableFileDownloadStatusListener == null) {
                 return;
             }
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.post(new Runnable() {
+            MainThreadDispatcher.getInstance().post(new Runnable() {
                 @Override
                 public void run() {
                     if (onRetryableFileDownloadStatusListener == null) {
@@ -536,6 +536,28 @@ public class UrlUtil {
         //        return matcher.matches();
     }
 
+    /**
+     * get the host of the url
+     *
+     * @param url file url
+     * @return the host in lower case, null means the url is illegal
+     */
+    public static String getHost(String url) {
+        if (TextUtils.isEmpty(url)) {
+            return null;
+        }
+        try {
+            String host = new URL(url.trim()).getHost();
+            if (TextUtils.isEmpty(host)) {
+                return null;
+            }
+            return host.toLowerCase();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     /**
      * get Encoded Url
      *
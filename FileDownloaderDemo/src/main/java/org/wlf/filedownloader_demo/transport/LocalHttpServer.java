@@ -0,0 +1,344 @@
+package org.wlf.filedownloader_demo.transport;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the http server in the process, serves one generated file, for benchmarking and testing the transports
+ * <br/>
+ * 进程内的本地http服务器，提供一个生成的文件，用于传输实现的基准测试和验证
+ * <p/>
+ * it listens on 127.0.0.1 only, supports GET and HEAD, Range with If-Range by the ETag or Last-Modified, and closes
+ * the connection after every response
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class LocalHttpServer {
+
+    private static final String TAG = LocalHttpServer.class.getSimpleName();
+
+    /**
+     * the Last-Modified of the file
+     */
+    public static final String LAST_MODIFIED = "Thu, 01 Jan 2015 00:00:00 GMT";
+
+    private static final int READ_TIMEOUT = 15000;// 15s
+    private static final int MAX_HEADER_LINE_LENGTH = 8 * 1024;// 8KB
+    private static final int WRITE_BUFFER_SIZE = 32 * 1024;// 32KB
+
+    private final byte[] mContent;
+    private final String mETag;
+
+    private ServerSocket mServerSocket;
+    private ExecutorService mExecutor;
+    private volatile boolean mIsStopped;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    /**
+     * constructor of LocalHttpServer
+     *
+     * @param contentLength the length of the generated file
+     */
+    public LocalHttpServer(int contentLength) {
+        this(createContent(contentLength));
+    }
+
+    /**
+     * constructor of LocalHttpServer
+     *
+     * @param content the file to serve
+     */
+    public LocalHttpServer(byte[] content) {
+        mContent = content;
+        mETag = "\"" + Integer.toHexString(Arrays.hashCode(content)) + "-" + content.length + "\"";
+    }
+
+    /**
+     * create the deterministic content of the file, the same length always creates the same content
+     *
+     * @param length the length of the content
+     * @return the content
+     */
+    public static byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + (i >>> 8));
+        }
+        return content;
+    }
+
+    /**
+     * start the server, listen on an ephemeral port
+     *
+     * @throws IOException any exception during binding
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        mIsStopped = false;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                // do not keep the process alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept(serverSocket);
+            }
+        });
+
+        Log.d(TAG, TAG + ".start 本地http服务器已启动，端口：" + serverSocket.getLocalPort());
+    }
+
+    /**
+     * stop the server, the connections being served are closed after the responses
+     */
+    public synchronized void stop() {
+        if (mServerSocket == null) {
+            return;
+        }
+        mIsStopped = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        mExecutor.shutdown();
+        mServerSocket = null;
+        mExecutor = null;
+    }
+
+    /**
+     * get the url of the file
+     *
+     * @param fileName the file name in the url, the server serves the same file for any path
+     * @return the url, null means not started
+     */
+    public synchronized String getUrl(String fileName) {
+        if (mServerSocket == null) {
+            return null;
+        }
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/" + fileName;
+    }
+
+    public byte[] getContent() {
+        return mContent;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * get the count of the requests served
+     *
+     * @return the count of the requests
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    private void accept(ServerSocket serverSocket) {
+        while (!mIsStopped) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!mIsStopped) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (Exception e) {
+                // stopped
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(READ_TIMEOUT);
+            // the request has no body, buffer the headers
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            String requestLine = readLine(inputStream);
+            if (requestLine == null || requestLine.length() == 0) {
+                return;
+            }
+            // the names are lower case
+            Map<String, String> headers = new HashMap<String, String>();
+            String line = readLine(inputStream);
+            while (line != null && line.length() > 0) {
+                int index = line.indexOf(':');
+                if (index > 0) {
+                    headers.put(line.substring(0, index).trim().toLowerCase(Locale.US), line.substring(index + 1)
+                            .trim());
+                }
+                line = readLine(inputStream);
+            }
+
+            mRequestCount.incrementAndGet();
+
+            String method = requestLine.split(" ")[0];
+            respond(socket.getOutputStream(), method, headers);
+
+            Log.d(TAG, TAG + ".serve 本地http服务器已响应：" + requestLine + "，请求头：" + headers);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private void respond(OutputStream outputStream, String method, Map<String, String> headers) throws
+            IOException {
+
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            outputStream.write(("HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes("US-ASCII"));
+            outputStream.flush();
+            return;
+        }
+
+        int startPos = 0;
+        int endPos = mContent.length;// exclusive
+        boolean isPartial = false;
+
+        String range = headers.get("range");
+        String ifRange = headers.get("if-range");
+        // the whole file if the validator of If-Range is not matched
+        if (range != null && (ifRange == null || ifRange.equals(mETag) || ifRange.equals(LAST_MODIFIED))) {
+            int[] positions = parseRange(range, mContent.length);
+            if (positions == null) {
+                outputStream.write(("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */" + mContent
+                        .length + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+                outputStream.flush();
+                return;
+            }
+            startPos = positions[0];
+            endPos = positions[1];
+            isPartial = true;
+        }
+
+        StringBuilder responseHeader = new StringBuilder();
+        responseHeader.append(isPartial ? "HTTP/1.1 206 Partial Content" : "HTTP/1.1 200 OK").append("\r\n");
+        responseHeader.append("Content-Type: application/octet-stream\r\n");
+        responseHeader.append("Content-Length: ").append(endPos - startPos).append("\r\n");
+        if (isPartial) {
+            // the last-byte-pos is inclusive
+            responseHeader.append("Content-Range: bytes ").append(startPos).append("-").append(endPos - 1).append
+                    ("/").append(mContent.length).append("\r\n");
+        }
+        responseHeader.append("Accept-Ranges: bytes\r\n");
+        responseHeader.append("ETag: ").append(mETag).append("\r\n");
+        responseHeader.append("Last-Modified: ").append(LAST_MODIFIED).append("\r\n");
+        responseHeader.append("Connection: close\r\n");
+        responseHeader.append("\r\n");
+
+        outputStream.write(responseHeader.toString().getBytes("US-ASCII"));
+        if ("GET".equals(method)) {
+            int pos = startPos;
+            while (pos < endPos && !mIsStopped) {
+                int count = Math.min(WRITE_BUFFER_SIZE, endPos - pos);
+                outputStream.write(mContent, pos, count);
+                pos += count;
+            }
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * parse the Range header
+     *
+     * @return the start position and the exclusive end position, null means not satisfiable
+     */
+    private static int[] parseRange(String range, int length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+        String[] positions = range.substring("bytes=".length()).trim().split("-", -1);
+        if (positions.length != 2) {
+            return null;
+        }
+        try {
+            long startPos;
+            long endPos;
+            if (positions[0].length() == 0) {
+                // the suffix, bytes=-n means the last n bytes
+                long suffixLength = Long.parseLong(positions[1]);
+                startPos = Math.max(0, length - suffixLength);
+                endPos = length;
+            } else {
+                startPos = Long.parseLong(positions[0]);
+                endPos = positions[1].length() == 0 ? length : Math.min(length, Long.parseLong(positions[1]) + 1);
+            }
+            if (startPos >= length || endPos <= startPos) {
+                return null;
+            }
+            return new int[]{(int) startPos, (int) endPos};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * read a line ends with CRLF or LF, the body is not read
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int data = inputStream.read();
+        if (data == -1) {
+            return null;
+        }
+        while (data != -1 && data != '\n') {
+            if (data != '\r') {
+                line.write(data);
+            }
+            if (line.size() > MAX_HEADER_LINE_LENGTH) {
+                throw new IOException("the request header is too large!");
+            }
+            data = inputStream.read();
+        }
+        return line.toString("US-ASCII");
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package org.wlf.filedownloader_demo.transport;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.wlf.filedownloader.file_download.HttpConnectionHelper;
+import org.wlf.filedownloader.file_download.HttpConnectionHelper.RequestParam;
+import org.wlf.filedownloader.file_download.transport.Transport;
+import org.wlf.filedownloader.util.MapUtil;
+import org.wlf.filedownloader.util.UrlUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the transport by a SocketChannel, for the plain http servers such as {@link LocalHttpServer}
+ * <br/>
+ * 基于SocketChannel的http传输实现，用于本地http服务器等明文http服务器的基准测试和验证
+ * <p/>
+ * it sends HTTP/1.1 requests with Connection: close, the connections are not pooled, and the responses of the chunked
+ * transfer encoding are not supported, the body can be read by {@link Response#getChannel()}
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class LocalServerTransport implements Transport {
+
+    private static final String TAG = LocalServerTransport.class.getSimpleName();
+
+    private static final int MAX_RESPONSE_HEADER_SIZE = 16 * 1024;// 16KB
+
+    @Override
+    public Response execute(RequestParam requestParam) throws Exception {
+
+        if (requestParam == null) {
+            return null;
+        }
+
+        String encodedUrl = UrlUtil.getASCIIEncodedUrl(requestParam.getUrl(), requestParam.getCharset());
+        if (TextUtils.isEmpty(encodedUrl)) {
+            throw new IllegalAccessException("URL Illegal !");
+        }
+
+        URL url = new URL(encodedUrl);
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IOException("only http is supported, url:" + encodedUrl);
+        }
+
+        // read timeout equals to connect timeout if not set
+        int readTimeout = requestParam.getReadTimeout() > 0 ? requestParam.getReadTimeout() : requestParam
+                .getConnectTimeout();
+
+        SocketChannel socketChannel = SocketChannel.open();
+        LocalServerResponse response = null;
+        try {
+            int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            socketChannel.socket().connect(new InetSocketAddress(url.getHost(), port), requestParam
+                    .getConnectTimeout());
+            // non-blocking, the reading waits by a selector for the read timeout
+            socketChannel.configureBlocking(false);
+
+            response = new LocalServerResponse(requestParam.getUrl(), requestParam.getRequestMethod(),
+                    socketChannel, readTimeout);
+            response.send(createRequestHeader(url, requestParam));
+            response.receiveHeaders();
+
+            Log.d(TAG, TAG + ".execute 本地传输已收到响应，响应码：" + response.getResponseCode() + "，url：" + encodedUrl);
+
+            return response;
+        } catch (Exception e) {
+            if (response != null) {
+                response.close(null, false);
+            } else {
+                socketChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    private static String createRequestHeader(URL url, RequestParam requestParam) {
+
+        String path = url.getFile();
+        if (TextUtils.isEmpty(path)) {
+            path = "/";
+        }
+
+        StringBuilder requestHeader = new StringBuilder();
+        requestHeader.append(requestParam.getRequestMethod()).append(" ").append(path).append(" HTTP/1.1\r\n");
+        requestHeader.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1) {
+            requestHeader.append(":").append(url.getPort());
+        }
+        requestHeader.append("\r\n");
+
+        // custom headers first, the headers below are not overridden
+        if (!MapUtil.isEmpty(requestParam.getHeaders())) {
+            for (Map.Entry<String, String> header : requestParam.getHeaders().entrySet()) {
+                if (TextUtils.isEmpty(header.getKey()) || header.getValue() == null) {
+                    continue;
+                }
+                requestHeader.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+
+        // the caller decodes the encoded response
+        requestHeader.append("Accept-Encoding: ").append(requestParam.getAcceptEncoding() != null ? requestParam
+                .getAcceptEncoding() : "identity").append("\r\n");
+        if (!TextUtils.isEmpty(requestParam.getCharset())) {
+            requestHeader.append("Charset: ").append(requestParam.getCharset()).append("\r\n");
+        }
+
+        String range = HttpConnectionHelper.getRangeHeader(requestParam);
+        if (!TextUtils.isEmpty(range)) {
+            requestHeader.append("Range: ").append(range).append("\r\n");
+            String ifRange = HttpConnectionHelper.getIfRangeHeader(requestParam);
+            if (!TextUtils.isEmpty(ifRange)) {
+                requestHeader.append("If-Range: ").append(ifRange).append("\r\n");
+            }
+        }
+
+        requestHeader.append("Connection: close\r\n");
+        requestHeader.append("\r\n");
+
+        return requestHeader.toString();
+    }
+
+    /**
+     * the response of the SocketChannel, the body can be read by the channel
+     */
+    private static class LocalServerResponse implements Response {
+
+        private final String mUrl;
+        private final String mRequestMethod;
+        private final SocketChannel mSocketChannel;
+        private final int mReadTimeout;// 0 means never timeout
+
+        private Selector mSelector;// create when waiting for the data the first time
+        private ByteBuffer mHeaderBuffer;// the bytes after the headers are the start of the body
+
+        private int mResponseCode = -1;
+        private Map<String, List<String>> mHeaderFields;
+        private long mContentLength = -1;
+
+        private BodyChannel mBodyChannel;
+
+        private LocalServerResponse(String url, String requestMethod, SocketChannel socketChannel, int readTimeout) {
+            mUrl = url;
+            mRequestMethod = requestMethod;
+            mSocketChannel = socketChannel;
+            mReadTimeout = readTimeout;
+        }
+
+        private void send(String requestHeader) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(requestHeader.getBytes("US-ASCII"));
+            while (buffer.hasRemaining()) {
+                if (mSocketChannel.write(buffer) == 0) {
+                    waitFor(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        private void receiveHeaders() throws IOException {
+
+            mHeaderBuffer = ByteBuffer.allocate(MAX_RESPONSE_HEADER_SIZE);
+            int headerEndPos = -1;
+            int scannedPos = 0;
+            while (headerEndPos == -1) {
+                if (!mHeaderBuffer.hasRemaining()) {
+                    throw new IOException("the response header is too large!");
+                }
+                if (readSocket(mHeaderBuffer) == -1) {
+                    throw new IOException("the connection is closed before the response header!");
+                }
+                // find CRLF CRLF
+                byte[] bytes = mHeaderBuffer.array();
+                for (int i = Math.max(0, scannedPos - 3); i + 3 < mHeaderBuffer.position(); i++) {
+                    if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                        headerEndPos = i + 4;
+                        break;
+                    }
+                }
+                scannedPos = mHeaderBuffer.position();
+            }
+
+            String[] lines = new String(mHeaderBuffer.array(), 0, headerEndPos - 4, "US-ASCII").split("\r\n");
+            // the status line, such as HTTP/1.1 206 Partial Content
+            String[] status = lines[0].split(" ");
+            if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                throw new IOException("the status line is illegal:" + lines[0]);
+            }
+            try {
+                mResponseCode = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("the status line is illegal:" + lines[0]);
+            }
+
+            // the same as HttpURLConnection, the status line is mapped by the null key
+            Map<String, List<String>> headerFields = new LinkedHashMap<String, List<String>>();
+            headerFields.put(null, Collections.singletonList(lines[0]));
+            for (int i = 1; i < lines.length; i++) {
+                int index = lines[i].indexOf(':');
+                if (index <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, index).trim();
+                String value = lines[i].substring(index + 1).trim();
+                List<String> values = headerFields.get(name);
+                if (values == null) {
+                    values = new ArrayList<String>();
+                    headerFields.put(name, values);
+                }
+                values.add(value);
+            }
+            mHeaderFields = Collections.unmodifiableMap(headerFields);
+
+            String contentLength = getHeaderField("Content-Length");
+            if (!TextUtils.isEmpty(contentLength)) {
+                try {
+                    mContentLength = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    mContentLength = -1;
+                }
+            }
+
+            // the rest bytes belong to the body
+            mHeaderBuffer.flip();
+            mHeaderBuffer.position(headerEndPos);
+
+            long bodyLength = mContentLength;
+            if ("HEAD".equalsIgnoreCase(mRequestMethod) || mResponseCode == 204 || mResponseCode == 304) {
+                bodyLength = 0;
+            }
+            mBodyChannel = new BodyChannel(bodyLength);
+        }
+
+        /**
+         * read from the socket, wait for the read timeout if no data
+         */
+        private int readSocket(ByteBuffer buffer) throws IOException {
+            if (!buffer.hasRemaining()) {
+                return 0;
+            }
+            int count = mSocketChannel.read(buffer);
+            while (count == 0) {
+                waitFor(SelectionKey.OP_READ);
+                count = mSocketChannel.read(buffer);
+            }
+            return count;
+        }
+
+        private void waitFor(int operation) throws IOException {
+            if (mSelector == null) {
+                mSelector = Selector.open();
+            }
+            SelectionKey selectionKey = mSocketChannel.keyFor(mSelector);
+            if (selectionKey == null) {
+                selectionKey = mSocketChannel.register(mSelector, operation);
+            } else {
+                selectionKey.interestOps(operation);
+            }
+            int selectedCount = mSelector.select(mReadTimeout);
+            mSelector.selectedKeys().clear();
+            if (selectedCount == 0) {
+                throw new SocketTimeoutException("read timed out, url:" + mUrl);
+            }
+        }
+
+        @Override
+        public String getUrl() {
+            return mUrl;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return mResponseCode;
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            if (mHeaderFields == null || name == null) {
+                return null;
+            }
+            for (Map.Entry<String, List<String>> headerField : mHeaderFields.entrySet()) {
+                if (name.equalsIgnoreCase(headerField.getKey()) && headerField.getValue().size() > 0) {
+                    // the last one, the same as HttpURLConnection
+                    return headerField.getValue().get(headerField.getValue().size() - 1);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return mHeaderFields;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mContentLength;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return Channels.newInputStream(mBodyChannel);
+        }
+
+        @Override
+        public ReadableByteChannel getChannel() throws IOException {
+            // blocking, it waits by the selector for the read timeout, the same body as the input stream
+            return mBodyChannel;
+        }
+
+        @Override
+        public void close(InputStream inputStream, boolean isResponded) {
+            // the connection is not reused, close it directly
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            try {
+                if (mSelector != null) {
+                    mSelector.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                mSocketChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * the channel of the body, the bytes received with the headers first, ends at the Content-Length
+         */
+        private class BodyChannel implements ReadableByteChannel {
+
+            private long mRemainingLength;// -1 means read to the end of the connection
+            private boolean mIsOpen = true;
+
+            private BodyChannel(long bodyLength) {
+                mRemainingLength = bodyLength;
+            }
+
+            @Override
+            public int read(ByteBuffer buffer) throws IOException {
+                if (!mIsOpen) {
+                    throw new IOException("the body channel is closed!");
+                }
+                if (mRemainingLength == 0) {
+                    return -1;
+                }
+                if (!buffer.hasRemaining()) {
+                    return 0;
+                }
+
+                int limit = buffer.limit();
+                if (mRemainingLength > 0 && buffer.remaining() > mRemainingLength) {
+                    buffer.limit(buffer.position() + (int) mRemainingLength);
+                }
+                int count;
+                try {
+                    if (mHeaderBuffer.hasRemaining()) {
+                        count = Math.min(mHeaderBuffer.remaining(), buffer.remaining());
+                        ByteBuffer received = mHeaderBuffer.duplicate();
+                        received.limit(received.position() + count);
+                        buffer.put(received);
+                        mHeaderBuffer.position(mHeaderBuffer.position() + count);
+                    } else {
+                        count = readSocket(buffer);
+                    }
+                } finally {
+                    buffer.limit(limit);
+                }
+
+                if (count == -1) {
+                    if (mRemainingLength > 0) {
+                        throw new IOException("the connection is closed before the end of the body, remaining:" +
+                                mRemainingLength + ",url:" + mUrl);
+                    }
+                    return -1;
+                }
+                if (mRemainingLength > 0) {
+                    mRemainingLength -= count;
+                }
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return mIsOpen;
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the socket is closed by the response
+                mIsOpen = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package org.wlf.filedownloader_demo.transport;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.wlf.filedownloader.file_download.HttpConnectionHelper;
+import org.wlf.filedownloader.file_download.HttpConnectionHelper.RequestParam;
+import org.wlf.filedownloader.file_download.file_saver.FileSaver;
+import org.wlf.filedownloader.file_download.http_downloader.ContentLengthInputStream;
+import org.wlf.filedownloader.file_download.transport.HttpUrlConnectionTransport;
+import org.wlf.filedownloader.file_download.transport.Transport;
+import org.wlf.filedownloader.file_download.transport.Transport.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * the checks and the benchmark of the {@link Transport} against the {@link LocalHttpServer}
+ * <br/>
+ * 基于本地http服务器的传输实现验证和基准测试
+ * <p/>
+ * the checks cover what the detect and download rely on: the whole body, the ranges, the If-Range validators and the
+ * HEAD, pass {@link HttpUrlConnectionTransport#getDefault()} and {@link LocalServerTransport} to compare them, the
+ * saving benchmark saves by the {@link FileSaver}, from the channel if {@link Response#getChannel()} supports
+ *
+ * @author wlf(Andy)
+ * @email 411086563@qq.com
+ */
+public class TransportBenchmark {
+
+    private static final String TAG = TransportBenchmark.class.getSimpleName();
+
+    private static final int CONNECT_TIMEOUT = 15000;// 15s
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 32 * 1024;// 32KB
+    private static final String FILE_NAME = "transport_benchmark.bin";
+
+    /**
+     * check the transport, then download the whole file repeatedly to measure the throughput
+     *
+     * @param transport     the transport to check
+     * @param contentLength the length of the file served, at least 2 bytes
+     * @param rounds        the times of downloading the whole file
+     * @return the result of the benchmark
+     * @throws Exception any exception during the requests, IllegalStateException means the check failed
+     */
+    public static Result run(Transport transport, int contentLength, int rounds) throws Exception {
+
+        if (contentLength < 2) {
+            throw new IllegalArgumentException("the content length must be at least 2!");
+        }
+
+        LocalHttpServer server = new LocalHttpServer(contentLength);
+        server.start();
+        try {
+            check(transport, server);
+
+            long bytes = 0;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                bytes += download(transport, new RequestParam(server.getUrl(FILE_NAME), CONNECT_TIMEOUT, CHARSET));
+            }
+            long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+
+            Result result = new Result(transport.getClass().getSimpleName(), false, bytes, elapsedMillis);
+
+            Log.d(TAG, TAG + ".run 传输实现基准测试完成：" + result);
+
+            return result;
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * check the transport, then save the whole file repeatedly by the {@link FileSaver} to measure the throughput
+     *
+     * @param transport     the transport to check
+     * @param contentLength the length of the file served, at least 2 bytes
+     * @param rounds        the times of saving the whole file
+     * @param saveDir       the dir to save the file, the file is deleted after the benchmark
+     * @return the result of the benchmark
+     * @throws Exception any exception during the requests or saving, IllegalStateException means the check failed
+     */
+    public static Result runSave(Transport transport, int contentLength, int rounds, File saveDir) throws Exception {
+
+        if (contentLength < 2) {
+            throw new IllegalArgumentException("the content length must be at least 2!");
+        }
+
+        LocalHttpServer server = new LocalHttpServer(contentLength);
+        server.start();
+        File saveFile = new File(saveDir, FILE_NAME);
+        try {
+            check(transport, server);
+
+            long bytes = 0;
+            boolean isReadByChannel = false;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                isReadByChannel = save(transport, server.getUrl(FILE_NAME), saveFile);
+                bytes += saveFile.length();
+                // the first saved file is checked only
+                if (i == 0) {
+                    checkFile(saveFile, server.getContent());
+                }
+            }
+            long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+
+            Result result = new Result(transport.getClass().getSimpleName(), isReadByChannel, bytes, elapsedMillis);
+
+            Log.d(TAG, TAG + ".runSave 传输实现保存基准测试完成：" + result);
+
+            return result;
+        } finally {
+            server.stop();
+            saveFile.delete();
+        }
+    }
+
+    /**
+     * check the responses of the transport
+     *
+     * @param transport the transport to check
+     * @param server    the started server
+     * @throws Exception any exception during the requests, IllegalStateException means the check failed
+     */
+    public static void check(Transport transport, LocalHttpServer server) throws Exception {
+
+        String url = server.getUrl(FILE_NAME);
+        byte[] content = server.getContent();
+        int length = content.length;
+
+        // 1.the whole body
+        Response response = transport.execute(new RequestParam(url, CONNECT_TIMEOUT, CHARSET));
+        checkResponse(response, HttpURLConnection.HTTP_OK, null, content, 0, length);
+
+        // 2.the range with the eTag, the end position is exclusive
+        int startPos = length / 3;
+        int endPos = length - length / 3;
+        response = transport.execute(new RequestParam(url, CONNECT_TIMEOUT, CHARSET, startPos, endPos, server
+                .getETag(), null));
+        checkResponse(response, HttpURLConnection.HTTP_PARTIAL, "bytes " + startPos + "-" + (endPos - 1) + "/" +
+                length, content, startPos, endPos);
+
+        // 3.the range to the end with the lastModified
+        response = transport.execute(new RequestParam(url, CONNECT_TIMEOUT, CHARSET, startPos, -1, null,
+                LocalHttpServer.LAST_MODIFIED));
+        checkResponse(response, HttpURLConnection.HTTP_PARTIAL, "bytes " + startPos + "-" + (length - 1) + "/" +
+                length, content, startPos, length);
+
+        // 4.the changed eTag, the server responses the whole body
+        response = transport.execute(new RequestParam(url, CONNECT_TIMEOUT, CHARSET, startPos, -1, "\"changed\"",
+                null));
+        checkResponse(response, HttpURLConnection.HTTP_OK, null, content, 0, length);
+
+        // 5.the probe of the detect, only the first byte
+        response = transport.execute(HttpConnectionHelper.createDetectRequestParam(url, CONNECT_TIMEOUT, CHARSET,
+                "GET", null, null, null, true));
+        checkResponse(response, HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/" + length, content, 0, 1);
+
+        // 6.the HEAD, no body
+        RequestParam headRequestParam = new RequestParam(url, CONNECT_TIMEOUT, CHARSET);
+        headRequestParam.setRequestMethod("HEAD");
+        response = transport.execute(headRequestParam);
+        try {
+            checkState(response.getResponseCode() == HttpURLConnection.HTTP_OK, "HEAD response code:" + response
+                    .getResponseCode());
+            checkState(HttpConnectionHelper.getFileSizeFromResponseHeader(response.getHeaderFields()) == length,
+                    "HEAD file size:" + response.getHeaderField("Content-Length"));
+        } finally {
+            response.close(null, true);
+        }
+
+        // 7.the range by the channel
+        response = transport.execute(new RequestParam(url, CONNECT_TIMEOUT, CHARSET, startPos, endPos, server
+                .getETag(), null));
+        try {
+            ReadableByteChannel channel = response.getChannel();
+            if (channel != null) {
+                checkState(response.getResponseCode() == HttpURLConnection.HTTP_PARTIAL, "channel response code:" +
+                        response.getResponseCode());
+                ByteBuffer body = ByteBuffer.allocateDirect(endPos - startPos + 1);
+                while (channel.read(body) != -1) {
+                    checkState(body.hasRemaining(), "the channel reads over the content length");
+                }
+                body.flip();
+                byte[] bytes = new byte[body.remaining()];
+                body.get(bytes);
+                checkState(isEqual(bytes, content, startPos, endPos), "the channel body " +
+                        "is not equal to the content [" + startPos + "," + endPos + ")");
+            }
+        } finally {
+            response.close(null, true);
+        }
+
+        Log.d(TAG, TAG + ".check 传输实现验证通过：" + transport.getClass().getSimpleName());
+    }
+
+    private static void checkResponse(Response response, int responseCode, String contentRange, byte[] content, int
+            startPos, int endPos) throws IOException {
+
+        checkState(response != null, "no response");
+
+        InputStream inputStream = null;
+        boolean isResponded = false;
+        try {
+            checkState(response.getResponseCode() == responseCode, "response code:" + response.getResponseCode() +
+                    ",expected:" + responseCode);
+            isResponded = true;
+            checkState(response.getContentLength() == endPos - startPos, "content length:" + response
+                    .getContentLength() + ",expected:" + (endPos - startPos));
+            checkState(!TextUtils.isEmpty(response.getHeaderField("ETag")), "no ETag");
+            if (contentRange != null) {
+                checkState(contentRange.equals(response.getHeaderField("Content-Range")), "content range:" +
+                        response.getHeaderField("Content-Range") + ",expected:" + contentRange);
+            }
+
+            inputStream = response.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(endPos - startPos);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count = inputStream.read(buffer);
+            while (count != -1) {
+                body.write(buffer, 0, count);
+                count = inputStream.read(buffer);
+            }
+            checkState(isEqual(body.toByteArray(), content, startPos, endPos), "the body " +
+                    "is not equal to the content [" + startPos + "," + endPos + ")");
+        } finally {
+            response.close(inputStream, isResponded);
+        }
+    }
+
+    /**
+     * download the whole body without keeping it
+     *
+     * @return the bytes read
+     */
+    private static long download(Transport transport, RequestParam requestParam) throws Exception {
+
+        Response response = transport.execute(requestParam);
+        checkState(response != null, "no response");
+
+        InputStream inputStream = null;
+        boolean isResponded = false;
+        try {
+            checkState(response.getResponseCode() == HttpURLConnection.HTTP_OK, "response code:" + response
+                    .getResponseCode());
+            isResponded = true;
+
+            inputStream = response.getInputStream();
+            long bytes = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count = inputStream.read(buffer);
+            while (count != -1) {
+                bytes += count;
+                count = inputStream.read(buffer);
+            }
+            checkState(bytes == response.getContentLength(), "read:" + bytes + ",expected:" + response
+                    .getContentLength());
+            return bytes;
+        } finally {
+            response.close(inputStream, isResponded);
+        }
+    }
+
+    /**
+     * save the whole file by the {@link FileSaver} as the download does
+     *
+     * @return whether the body is read by the channel
+     */
+    private static boolean save(Transport transport, String url, File saveFile) throws Exception {
+
+        Response response = transport.execute(new RequestParam(url, CONNECT_TIMEOUT, CHARSET));
+        checkState(response != null, "no response");
+
+        ContentLengthInputStream inputStream = null;
+        boolean isResponded = false;
+        try {
+            checkState(response.getResponseCode() == HttpURLConnection.HTTP_OK, "response code:" + response
+                    .getResponseCode());
+            isResponded = true;
+
+            long contentLength = response.getContentLength();
+            // the same as HttpDownloader, the channel of the same data if the transport supports
+            ReadableByteChannel channel = response.getChannel();
+            inputStream = new ContentLengthInputStream(response.getInputStream(), channel, contentLength);
+
+            File tempFile = new File(saveFile.getAbsolutePath() + ".temp");
+            tempFile.delete();
+            saveFile.delete();
+
+            FileSaver fileSaver = new FileSaver(url, tempFile.getAbsolutePath(), saveFile.getAbsolutePath(),
+                    contentLength);
+            fileSaver.saveData(inputStream, 0);
+
+            checkState(saveFile.length() == contentLength, "saved:" + saveFile.length() + ",expected:" +
+                    contentLength);
+
+            return inputStream.hasChannel();
+        } finally {
+            response.close(inputStream, isResponded);
+        }
+    }
+
+    private static void checkFile(File file, byte[] content) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            randomAccessFile.readFully(bytes);
+        } finally {
+            randomAccessFile.close();
+        }
+        checkState(Arrays.equals(bytes, content), "the saved file is not equal to the content");
+    }
+
+    /**
+     * whether the bytes equal to the content in [startPos, endPos)
+     */
+    private static boolean isEqual(byte[] bytes, byte[] content, int startPos, int endPos) {
+        if (bytes.length != endPos - startPos) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != content[startPos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkState(boolean expression, String message) {
+        if (!expression) {
+            throw new IllegalStateException("transport check failed, " + message);
+        }
+    }
+
+    /**
+     * the result of the benchmark
+     */
+    public static class Result {
+
+        private final String mTransportName;
+        private final boolean mIsReadByChannel;// whether the body is read by the channel
+        private final long mBytes;
+        private final long mElapsedMillis;
+
+        private Result(String transportName, boolean isReadByChannel, long bytes, long elapsedMillis) {
+            mTransportName = transportName;
+            mIsReadByChannel = isReadByChannel;
+            mBytes = bytes;
+            mElapsedMillis = elapsedMillis;
+        }
+
+        public String getTransportName() {
+            return mTransportName;
+        }
+
+        public boolean isReadByChannel() {
+            return mIsReadByChannel;
+        }
+
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getElapsedMillis() {
+            return mElapsedMillis;
+        }
+
+        /**
+         * get the throughput
+         *
+         * @return the throughput, KB/s
+         */
+        public double getSpeed() {
+            return mElapsedMillis > 0 ? mBytes / 1024d * 1000 / mElapsedMillis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "mTransportName='" + mTransportName + '\'' +
+                    ", mIsReadByChannel=" + mIsReadByChannel +
+                    ", mBytes=" + mBytes +
+                    ", mElapsedMillis=" + mElapsedMillis +
+                    ", speed=" + getSpeed() + "KB/s" +
+                    '}';
+        }
+    }
+}